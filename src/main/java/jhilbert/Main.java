@@ -28,18 +28,22 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.concurrent.ThreadFactory;
 
 import jhilbert.commands.CommandException;
 import jhilbert.commands.CommandFactory;
 import jhilbert.data.DataFactory;
 import jhilbert.data.Module;
+import jhilbert.expressions.ExpressionFactory;
 import jhilbert.scanners.ScannerException;
 import jhilbert.scanners.ScannerFactory;
 import jhilbert.scanners.TokenFeed;
-import jhilbert.scanners.WikiInputStream;
+import jhilbert.scanners.WikiReader;
+import jhilbert.storage.Storage;
 
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.ConsoleAppender;
@@ -82,11 +86,21 @@ public final class Main {
 	 */
 	public static final int DEFAULT_SOCKET_TIMEOUT = 5000;
 
+	/**
+	 * Default length of the queue of sessions waiting for a worker thread.
+	 */
+	private static final int DEFAULT_QUEUE_LENGTH = 50;
+
 	/**
 	 * Hashstore location.
 	 */
 	private static String hashstorePath;
 
+	/**
+	 * Use a single pack file in the hashstore location (--pack)?
+	 */
+	private static boolean isPack;
+
 	/**
 	 * Is DAEMON?
 	 */
@@ -97,6 +111,32 @@ public final class Main {
 	 */
 	private static int socketTimeout;
 
+	/**
+	 * Number of daemon worker threads, or <code>0</code> for one thread
+	 * per connection.
+	 */
+	private static int workerThreads;
+
+	/**
+	 * Maximum number of sessions waiting for a worker thread.
+	 */
+	private static int queueLength;
+
+	/**
+	 * Number of threads verifying proofs of the main module.
+	 */
+	private static int verifierThreads;
+
+	/**
+	 * Use the non-blocking daemon front-end (--nio)?
+	 */
+	private static boolean isNio;
+
+	/**
+	 * Run daemon sessions on virtual threads (--virtual)?
+	 */
+	private static boolean isVirtual;
+
 	/**
 	 * Are we reading wiki-format pages from files (--wiki)?
 	 */
@@ -124,8 +164,14 @@ public final class Main {
 	public static void main(String... args) throws Exception {
 		isDaemon = false;
 		socketTimeout = DEFAULT_SOCKET_TIMEOUT;
+		workerThreads = 0;
+		queueLength = DEFAULT_QUEUE_LENGTH;
+		verifierThreads = 1;
+		isNio = false;
+		isVirtual = false;
 		isWiki = false;
 		hashstorePath = null;
+		isPack = false;
 		try {
 			String inputFileName = null;
 			for (String arg: args) {
@@ -153,8 +199,53 @@ public final class Main {
 						System.err.println("-t: Invalid timeout specified: " + e.getMessage());
 						System.exit(1);
 					}
+				} else if (arg.startsWith("-w")) {
+					try {
+						if (arg.length() > 2) {
+							workerThreads = Integer.parseInt(arg.substring(2));
+						} else {
+							throw new NumberFormatException("Empty digit string");
+						}
+						if (workerThreads < 0)
+							throw new NumberFormatException("Non-negative value required");
+					} catch (NumberFormatException e) {
+						System.err.println("-w: Invalid number of worker threads specified: " + e.getMessage());
+						System.exit(1);
+					}
+				} else if (arg.startsWith("-q")) {
+					try {
+						if (arg.length() > 2) {
+							queueLength = Integer.parseInt(arg.substring(2));
+						} else {
+							throw new NumberFormatException("Empty digit string");
+						}
+						if (queueLength <= 0)
+							throw new NumberFormatException("Positive value required");
+					} catch (NumberFormatException e) {
+						System.err.println("-q: Invalid queue length specified: " + e.getMessage());
+						System.exit(1);
+					}
+				} else if (arg.startsWith("-j")) {
+					try {
+						if (arg.length() > 2) {
+							verifierThreads = Integer.parseInt(arg.substring(2));
+						} else {
+							verifierThreads = Runtime.getRuntime().availableProcessors();
+						}
+						if (verifierThreads <= 0)
+							throw new NumberFormatException("Positive value required");
+					} catch (NumberFormatException e) {
+						System.err.println("-j: Invalid number of verifier threads specified: " + e.getMessage());
+						System.exit(1);
+					}
+				} else if (arg.equals("--nio")) {
+					isNio = true;
+				} else if (arg.equals("--virtual")) {
+					isVirtual = true;
 				} else if (arg.equals("--wiki")) {
 					isWiki = true;
+				} else if (arg.equals("--pack")) {
+					isPack = true;
 				} else if (arg.equals("--license")) {
 					showLicense();
 				} else {
@@ -192,7 +283,7 @@ public final class Main {
 
 			final Module mainInterface = DataFactory.getInstance().createModule(inputFileName);
 			final TokenFeed tokenFeed = ScannerFactory
-				.getInstance().createTokenFeed(WikiInputStream.create(inputFileName));
+				.getInstance().createTokenFeed(WikiReader.create(inputFileName));
 			CommandFactory.getInstance().processCommands(mainInterface, tokenFeed);
 			logger.info("File processed successfully");
 		}
@@ -201,9 +292,10 @@ public final class Main {
 
 			final Module mainModule = DataFactory.getInstance().createModule("");
 			final TokenFeed tokenFeed = ScannerFactory
-				.getInstance().createTokenFeed(WikiInputStream.create(inputFileName));
-			CommandFactory.getInstance().processCommands(mainModule, tokenFeed);
+				.getInstance().createTokenFeed(WikiReader.create(inputFileName));
+			CommandFactory.getInstance().processCommands(mainModule, tokenFeed, verifierThreads);
 			logger.info("File processed successfully");
+			logUnfoldStatistics();
 		}
 		else {
 			logger.fatal("Not sure whether file is an interface or a proof module");
@@ -227,8 +319,26 @@ public final class Main {
 		final Module mainModule = DataFactory.getInstance().createModule("");
 		final TokenFeed tokenFeed = ScannerFactory
 			.getInstance().createTokenFeed(new FileInputStream(inputFileName));
-		CommandFactory.getInstance().processCommands(mainModule, tokenFeed);
+		CommandFactory.getInstance().processCommands(mainModule, tokenFeed, verifierThreads);
 		logger.info("File processed successfully");
+		logUnfoldStatistics();
+	}
+
+	/**
+	 * Logs the hit rates of the expression unfolding and module caches.
+	 */
+	private static void logUnfoldStatistics() {
+		if (!logger.isDebugEnabled())
+			return;
+		final ExpressionFactory expressionFactory = ExpressionFactory.getInstance();
+		final long hits = expressionFactory.getUnfoldCacheHits();
+		final long total = hits + expressionFactory.getUnfoldCacheMisses();
+		logger.debug("Unfold cache: " + hits + " hits of " + total + " calls ("
+			+ ((total == 0) ? 0 : (100 * hits / total)) + "%)");
+		final Storage storage = Storage.getInstance();
+		logger.debug("Module cache: " + storage.getCacheHits() + " hits, " + storage.getCacheMisses()
+			+ " misses, " + storage.getCacheEvictions() + " evictions, " + storage.getCacheRejections()
+			+ " rejections");
 	}
 
 	/**
@@ -259,12 +369,37 @@ public final class Main {
 		System.out.println("  -tTIMEOUT   Sets the socket timeout in milliseconds. Only meaningful in");
 		System.out.println("              daemon mode. If omitted, a default value of " + DEFAULT_SOCKET_TIMEOUT + " will be used.");
 		System.out.println();
+		System.out.println("  -wTHREADS   Serves connections from a fixed pool of THREADS worker threads.");
+		System.out.println("              Only meaningful in daemon mode. If omitted or 0, each connection");
+		System.out.println("              is served by a thread of its own.");
+		System.out.println();
+		System.out.println("  -qLENGTH    Sets the maximum number of connections waiting for a worker");
+		System.out.println("              thread. Further connections are rejected as busy. Only");
+		System.out.println("              meaningful together with -w. If omitted, a default value of");
+		System.out.println("              " + DEFAULT_QUEUE_LENGTH + " will be used.");
+		System.out.println();
+		System.out.println("  --nio       Multiplexes all connections on a single thread and hands");
+		System.out.println("              commands to the worker threads (see -w). If -w is omitted, one");
+		System.out.println("              worker thread per processor is used. Only meaningful in daemon");
+		System.out.println("              mode.");
+		System.out.println();
+		System.out.println("  --virtual   Runs daemon sessions (or, with -w, worker threads) on virtual");
+		System.out.println("              threads if the Java VM supports them. Falls back to ordinary");
+		System.out.println("              threads otherwise.");
+		System.out.println();
 		System.out.println("  --wiki      Operate on wiki-formatted pages stored locally in files.");
 		System.out.println();
+		System.out.println("  -jTHREADS   Verifies the theorems of the input file in parallel, using");
+		System.out.println("              THREADS threads. If THREADS is not specified, one thread per");
+		System.out.println("              processor is used. Not available in daemon mode.");
+		System.out.println();
 		System.out.println("  -pPATH      Uses hashstore storage instead of file storage. Useful in daemon");
 		System.out.println("              mode. The PATH is the base directory used for storage. If PATH is");
 		System.out.println("              not specified, it defaults to " + HASHSTORE_DEFAULT_PATH + ".");
 		System.out.println();
+		System.out.println("  --pack      With -p, keeps all modules in a single append-only pack file in");
+		System.out.println("              the hashstore directory instead of one file per module.");
+		System.out.println();
 		System.out.println("  --license   Displays license information and exits.");
 		System.out.println();
 		System.out.println("Please report bugs to <Graf." + "Zahl" + '@' + "gmx." + "net>.");
@@ -301,11 +436,38 @@ public final class Main {
 		final byte[] localHost = { 127, 0, 0, 1 };
 		int transactionCounter = 0;
 		try {
+			ThreadFactory threadFactory = null;
+			if (isVirtual) {
+				threadFactory = VirtualThreads.createFactory("JHilbert session ");
+				if (threadFactory != null)
+					logger.info("Using virtual threads");
+				else
+					logger.warn("Virtual threads not supported by this Java VM, using platform threads");
+			}
+			if (isNio) {
+				final int threads = (workerThreads > 0) ? workerThreads : Runtime.getRuntime().availableProcessors();
+				logger.info("Serving connections non-blocking with " + threads + " worker threads, queue length " + queueLength);
+				new NioServer(new InetSocketAddress(InetAddress.getByAddress(localHost), DAEMON_PORT),
+					createPool(threads, threadFactory), socketTimeout).run();
+				return;
+			}
 			final ServerSocket listener = new ServerSocket(DAEMON_PORT, 50, InetAddress.getByAddress(localHost));
+			final ServerPool pool;
+			if (workerThreads > 0) {
+				logger.info("Serving connections with " + workerThreads + " worker threads, queue length " + queueLength);
+				pool = createPool(workerThreads, threadFactory);
+			} else {
+				pool = null;
+			}
 			for (;;) {
 				final Socket conn = listener.accept();
 				final Server thread = new Server("JHilbert transaction " + ++transactionCounter, conn, socketTimeout);
-				thread.start();
+				if (pool != null)
+					pool.execute(thread);
+				else if (threadFactory != null)
+					threadFactory.newThread(thread).start();
+				else
+					thread.start();
 			}
 		} catch (UnknownHostException e) {
 			logger.error("No localhost. Is your networking configured correctly?");
@@ -316,6 +478,21 @@ public final class Main {
 		}
 	}
 
+	/**
+	 * Creates a daemon worker pool.
+	 *
+	 * @param threads number of worker threads.
+	 * @param threadFactory factory for worker threads, or
+	 * 	<code>null</code> for the default factory.
+	 *
+	 * @return the new worker pool.
+	 */
+	private static ServerPool createPool(final int threads, final ThreadFactory threadFactory) {
+		if (threadFactory == null)
+			return new ServerPool(threads, queueLength);
+		return new ServerPool(threads, queueLength, threadFactory);
+	}
+
 	/**
 	 * Retrieves the hashstore path.
 	 *
@@ -325,6 +502,16 @@ public final class Main {
 		return hashstorePath;
 	}
 
+	/**
+	 * Should the hashstore keep its modules in a single pack file?
+	 *
+	 * @return <code>true</code> if the pack file storage should be used,
+	 * 	<code>false</code> otherwise.
+	 */
+	public static boolean isPack() {
+		return isPack;
+	}
+
 	/**
 	 * Is JHilbert being used as a daemon?
 	 *
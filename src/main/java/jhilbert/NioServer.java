@@ -0,0 +1,607 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import jhilbert.data.DataException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Non-blocking front-end for the JHilbert daemon.
+ * <p>
+ * A single thread multiplexes all client connections with a
+ * {@link Selector}. Incoming bytes are split into messages as described in
+ * {@link Server}. Once a complete message has arrived on an otherwise idle
+ * connection, the connection is handed to a worker thread of a
+ * {@link ServerPool}, which carries out the command by means of
+ * {@link Server#serve}. Further messages of the same conversation (such as
+ * TEXT or FINISH) are read by the worker from the messages queued by the
+ * selector thread. The worker returns to the pool as soon as no more
+ * messages are pending, so idle connections do not occupy any thread.
+ * <p>
+ * While a message is queued, the selector thread stops reading from the
+ * connection, so a client cannot pile up messages faster than a worker
+ * consumes them. Reading resumes once the worker has taken all queued
+ * messages.
+ */
+public final class NioServer {
+
+	/**
+	 * Logger for this class.
+	 */
+	private static final Logger logger = Logger.getLogger(NioServer.class);
+
+	/**
+	 * Size of the read buffer.
+	 */
+	private static final int READ_BUFFER_SIZE = 8192;
+
+	/**
+	 * Selector.
+	 */
+	private final Selector selector;
+
+	/**
+	 * Listening channel.
+	 */
+	private final ServerSocketChannel listener;
+
+	/**
+	 * Worker pool.
+	 */
+	private final ServerPool pool;
+
+	/**
+	 * Socket timeout in milliseconds.
+	 */
+	private final int timeout;
+
+	/**
+	 * Read buffer shared by all sessions (selector thread only).
+	 */
+	private final ByteBuffer readBuffer;
+
+	/**
+	 * Sessions with pending output, to be dealt with by the selector
+	 * thread.
+	 */
+	private final Queue<Session> updates;
+
+	/**
+	 * Transaction counter.
+	 */
+	private int transactionCounter;
+
+	/**
+	 * Creates a new <code>NioServer</code> listening on the specified
+	 * address.
+	 *
+	 * @param address address to listen on.
+	 * @param pool worker pool to carry out commands.
+	 * @param timeout socket timeout in milliseconds.
+	 *
+	 * @throws IOException if the listening socket cannot be set up.
+	 */
+	public NioServer(final InetSocketAddress address, final ServerPool pool, final int timeout) throws IOException {
+		assert (address != null): "Supplied address is null";
+		assert (pool != null): "Supplied pool is null";
+		assert (timeout > 0): "Timeout must be positive";
+		this.pool = pool;
+		this.timeout = timeout;
+		readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		updates = new ConcurrentLinkedQueue();
+		transactionCounter = 0;
+		selector = Selector.open();
+		listener = ServerSocketChannel.open();
+		listener.socket().bind(address, 50);
+		listener.configureBlocking(false);
+		listener.register(selector, SelectionKey.OP_ACCEPT);
+	}
+
+	/**
+	 * Runs the event loop. This method does not return unless an I/O
+	 * error occurs on the selector or the listening socket.
+	 *
+	 * @throws IOException on I/O error.
+	 */
+	public void run() throws IOException {
+		long lastSweep = System.currentTimeMillis();
+		for (;;) {
+			selector.select(timeout);
+			Session session;
+			while ((session = updates.poll()) != null)
+				session.update();
+			final Iterator<SelectionKey> i = selector.selectedKeys().iterator();
+			while (i.hasNext()) {
+				final SelectionKey key = i.next();
+				i.remove();
+				if (!key.isValid())
+					continue;
+				if (key.isAcceptable()) {
+					accept();
+					continue;
+				}
+				session = (Session) key.attachment();
+				try {
+					if (key.isReadable())
+						session.receive();
+					if (key.isValid() && key.isWritable())
+						session.send();
+				} catch (IOException e) {
+					logger.warn("I/O error in " + session.getName() + ": " + e.getMessage());
+					session.close();
+				}
+			}
+			final long now = System.currentTimeMillis();
+			if (now - lastSweep >= timeout) {
+				for (final SelectionKey key: selector.keys()) {
+					if (key.attachment() instanceof Session)
+						((Session) key.attachment()).expire(now);
+				}
+				lastSweep = now;
+			}
+		}
+	}
+
+	/**
+	 * Accepts a new connection.
+	 *
+	 * @throws IOException on I/O error.
+	 */
+	private void accept() throws IOException {
+		final SocketChannel channel = listener.accept();
+		if (channel == null)
+			return;
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		final SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+		final Session session = new Session("JHilbert transaction " + ++transactionCounter, channel, key);
+		key.attach(session);
+		Server.welcome(session.out);
+	}
+
+	/**
+	 * A client connection.
+	 * <p>
+	 * Framing state is accessed by the selector thread only. The queue of
+	 * complete messages is guarded by the session itself, the queue of
+	 * outgoing buffers by {@link #output}.
+	 */
+	private final class Session implements ServerPool.Session {
+
+		/**
+		 * Session name.
+		 */
+		private final String name;
+
+		/**
+		 * Client channel.
+		 */
+		private final SocketChannel channel;
+
+		/**
+		 * Selection key of the client channel.
+		 */
+		private final SelectionKey key;
+
+		/**
+		 * Message size bytes read so far.
+		 */
+		private final byte[] header;
+
+		/**
+		 * Number of message size bytes read so far.
+		 */
+		private int headerPos;
+
+		/**
+		 * Message currently being read, including the size bytes, or
+		 * <code>null</code> if the size bytes are not complete yet.
+		 */
+		private byte[] frame;
+
+		/**
+		 * Number of bytes of {@link #frame} read so far.
+		 */
+		private int framePos;
+
+		/**
+		 * Time of last client activity.
+		 */
+		private long lastActivity;
+
+		/**
+		 * Complete messages not yet consumed by a worker.
+		 */
+		private final LinkedList<byte[]> frames;
+
+		/**
+		 * Is a worker currently serving this session?
+		 */
+		private boolean busy;
+
+		/**
+		 * Has the client closed its end of the connection?
+		 */
+		private boolean eof;
+
+		/**
+		 * Outgoing buffers.
+		 */
+		private final LinkedList<ByteBuffer> output;
+
+		/**
+		 * Close the connection once all output has been sent?
+		 */
+		private boolean closing;
+
+		/**
+		 * Input stream presented to the worker.
+		 */
+		private final InputStream in;
+
+		/**
+		 * Output stream presented to the worker.
+		 */
+		private final BufferedOutputStream out;
+
+		/**
+		 * Creates a new <code>Session</code>.
+		 *
+		 * @param name session name.
+		 * @param channel client channel.
+		 * @param key selection key of the client channel.
+		 */
+		Session(final String name, final SocketChannel channel, final SelectionKey key) {
+			this.name = name;
+			this.channel = channel;
+			this.key = key;
+			header = new byte[3];
+			headerPos = 0;
+			frame = null;
+			framePos = 0;
+			lastActivity = System.currentTimeMillis();
+			frames = new LinkedList();
+			busy = false;
+			eof = false;
+			output = new LinkedList();
+			closing = false;
+			in = new FrameInputStream();
+			out = new BufferedOutputStream(new ChannelOutputStream());
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Reads available bytes from the channel and queues complete
+		 * messages (selector thread only).
+		 *
+		 * @throws IOException on I/O error.
+		 */
+		void receive() throws IOException {
+			readBuffer.clear();
+			if (channel.read(readBuffer) == -1) {
+				final boolean idle;
+				synchronized (this) {
+					eof = true;
+					notifyAll();
+					idle = !busy;
+				}
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+				if (idle)
+					closeAfterFlush();
+				return;
+			}
+			lastActivity = System.currentTimeMillis();
+			readBuffer.flip();
+			while (readBuffer.hasRemaining()) {
+				if (frame == null) {
+					header[headerPos++] = readBuffer.get();
+					if (headerPos != 3)
+						continue;
+					final int size = ((header[0] & 0xff) << 16) | ((header[1] & 0xff) << 8) | (header[2] & 0xff);
+					frame = new byte[size + 3];
+					System.arraycopy(header, 0, frame, 0, 3);
+					framePos = 3;
+					headerPos = 0;
+				}
+				final int len = Math.min(readBuffer.remaining(), frame.length - framePos);
+				readBuffer.get(frame, framePos, len);
+				framePos += len;
+				if (framePos == frame.length) {
+					dispatch(frame);
+					frame = null;
+				}
+			}
+		}
+
+		/**
+		 * Queues the specified complete message and hands the session
+		 * to a worker unless a worker is already serving it.
+		 *
+		 * @param message complete message including size bytes.
+		 */
+		private void dispatch(final byte[] message) {
+			final boolean idle;
+			synchronized (this) {
+				frames.add(message);
+				notifyAll();
+				idle = !busy;
+				busy = true;
+			}
+			// no further reading until the worker has caught up, see update()
+			key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+			if (idle)
+				pool.execute(this);
+		}
+
+		/**
+		 * Serves queued messages (worker thread).
+		 */
+		public void run() {
+			final Thread worker = Thread.currentThread();
+			final String workerName = worker.getName();
+			worker.setName(name);
+			boolean idle = false;
+			try {
+				while (!idle) {
+					synchronized (this) {
+						if (frames.isEmpty() && !eof) {
+							busy = false;
+							idle = true;
+						}
+					}
+					if (!idle && !Server.serve(in, out))
+						break;
+				}
+			} catch (IOException e) {
+				logger.error("I/O error", e);
+			} catch (DataException e) {
+				logger.error("Unable to create module", e);
+			} finally {
+				if (!idle)
+					closeAfterFlush();
+				worker.setName(workerName);
+			}
+		}
+
+		public void reject(final String msg) {
+			try {
+				Server.writeAnswer(out, Server.SERVER_ERR_RC, msg);
+			} catch (IOException e) {
+				logger.warn("Unable to send rejection to client", e);
+			}
+			closeAfterFlush();
+		}
+
+		/**
+		 * Writes pending output to the channel (selector thread only).
+		 *
+		 * @throws IOException on I/O error.
+		 */
+		void send() throws IOException {
+			synchronized (output) {
+				while (!output.isEmpty()) {
+					final ByteBuffer buf = output.getFirst();
+					channel.write(buf);
+					if (buf.hasRemaining())
+						return;
+					output.removeFirst();
+				}
+				if (closing) {
+					close();
+					return;
+				}
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+			}
+		}
+
+		/**
+		 * Registers interest in writing if output is pending, and in
+		 * reading if all queued messages have been consumed (selector
+		 * thread only).
+		 */
+		void update() {
+			if (!key.isValid())
+				return;
+			synchronized (this) {
+				if (!eof && frames.isEmpty())
+					key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+			}
+			synchronized (output) {
+				if (!output.isEmpty())
+					key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+				else if (closing)
+					close();
+			}
+		}
+
+		/**
+		 * Closes an idle session if the client has been inactive for
+		 * longer than the socket timeout (selector thread only).
+		 *
+		 * @param now current time.
+		 */
+		void expire(final long now) {
+			synchronized (this) {
+				if (busy)
+					return;
+			}
+			if (now - lastActivity > timeout) {
+				logger.info("Closing idle connection " + name);
+				close();
+			}
+		}
+
+		/**
+		 * Asks the selector thread to close the connection once all
+		 * pending output has been sent.
+		 */
+		void closeAfterFlush() {
+			synchronized (output) {
+				closing = true;
+			}
+			updates.add(this);
+			selector.wakeup();
+		}
+
+		/**
+		 * Closes the connection immediately.
+		 */
+		void close() {
+			key.cancel();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				logger.warn("Unable to properly close channel", e);
+			}
+			synchronized (this) {
+				notifyAll();
+			}
+		}
+
+		/**
+		 * Presents the queued messages as a contiguous stream.
+		 */
+		private final class FrameInputStream extends InputStream {
+
+			/**
+			 * Message currently being consumed.
+			 */
+			private byte[] current = null;
+
+			/**
+			 * Position in the current message.
+			 */
+			private int pos = 0;
+
+			public @Override int read() throws IOException {
+				if (!fill())
+					return -1;
+				return current[pos++] & 0xff;
+			}
+
+			public @Override int read(final byte[] b, final int off, final int len) throws IOException {
+				if (len == 0)
+					return 0;
+				if (!fill())
+					return -1;
+				final int n = Math.min(len, current.length - pos);
+				System.arraycopy(current, pos, b, off, n);
+				pos += n;
+				return n;
+			}
+
+			/**
+			 * Makes sure unread bytes are available, waiting for the
+			 * next message if necessary.
+			 *
+			 * @return <code>true</code> if bytes are available,
+			 * 	<code>false</code> on end of stream.
+			 *
+			 * @throws SocketTimeoutException if no message arrives
+			 * 	within the socket timeout.
+			 * @throws InterruptedIOException if interrupted while
+			 * 	waiting.
+			 */
+			private boolean fill() throws IOException {
+				if ((current != null) && (pos < current.length))
+					return true;
+				final boolean drained;
+				synchronized (Session.this) {
+					final long deadline = System.currentTimeMillis() + timeout;
+					while (frames.isEmpty()) {
+						if (eof || !channel.isOpen())
+							return false;
+						final long delay = deadline - System.currentTimeMillis();
+						if (delay <= 0)
+							throw new SocketTimeoutException("Read timed out");
+						try {
+							Session.this.wait(delay);
+						} catch (InterruptedException e) {
+							throw new InterruptedIOException("Interrupted while waiting for client");
+						}
+					}
+					current = frames.removeFirst();
+					pos = 0;
+					drained = frames.isEmpty();
+				}
+				if (drained) {
+					// let the selector thread resume reading
+					updates.add(Session.this);
+					selector.wakeup();
+				}
+				return true;
+			}
+
+		}
+
+		/**
+		 * Queues written bytes for the selector thread.
+		 */
+		private final class ChannelOutputStream extends OutputStream {
+
+			public @Override void write(final int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			public @Override void write(final byte[] b, final int off, final int len) throws IOException {
+				final ByteBuffer buf = ByteBuffer.allocate(len);
+				buf.put(b, off, len);
+				buf.flip();
+				synchronized (output) {
+					if (!channel.isOpen())
+						throw new SocketException("Connection closed");
+					output.add(buf);
+				}
+				updates.add(Session.this);
+				selector.wakeup();
+			}
+
+		}
+
+	}
+
+}
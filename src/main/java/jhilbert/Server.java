@@ -112,10 +112,12 @@ import org.apache.log4j.Logger;
  *   </li>
  *   <li>
  *     <code>0x01</code>: MOD
- *     No further data. Used to indicate that the client wants to stream
+ *     Optionally followed by the UTF-8 encoded name of the page containing
+ *     the module. Used to indicate that the client wants to stream
  *     JHilbert proof module text to the server. The server will respond
  *     with MORE. This command is illegal if the last server response was
- *     MORE.
+ *     MORE. If a page name is given, proofs which have not changed since
+ *     the page was last sent are not verified again.
  *   </li>
  *   <li>
  *     <code>0x02</code>: IFACE
@@ -155,7 +157,7 @@ import org.apache.log4j.Logger;
  * </ul>
  * All other command bytes are reserved for further use.
  */
-public class Server extends Thread {
+public class Server extends Thread implements ServerPool.Session {
 
 	/**
 	 * Logger for this class.
@@ -212,6 +214,11 @@ public class Server extends Thread {
 	 */
 	private static final String DELETION_FAILED_MSG = "Deletion failed";
 
+	/**
+	 * Server busy message.
+	 */
+	public static final String BUSY_MSG = "busy";
+
 	/**
 	 * Goodbye response code.
 	 */
@@ -340,6 +347,121 @@ public class Server extends Thread {
 		out.flush();
 	}
 
+	/**
+	 * Reads a single client message from the specified {@link InputStream}
+	 * and carries out the command it contains, including all subsequent
+	 * conversation the command may entail. Responses are written to the
+	 * specified {@link BufferedOutputStream}.
+	 *
+	 * @param in input stream.
+	 * @param out output stream.
+	 *
+	 * @return <code>true</code> if the session continues,
+	 * 	<code>false</code> if the session has ended.
+	 *
+	 * @throws IOException on I/O error.
+	 * @throws DataException if a module cannot be created.
+	 */
+	static boolean serve(final InputStream in, final BufferedOutputStream out) throws IOException, DataException {
+		assert (in != null): "Supplied input stream is null";
+		assert (out != null): "Supplied output stream is null";
+		int msgSize = readMessageSize(in);
+		if (msgSize <= -1) {
+			logger.warn("EOF from client while reading message size");
+			return false;
+		}
+		if (msgSize == 0) {
+			logger.warn("Zero message size");
+			return false;
+		}
+		int command = in.read();
+		if (command == -1) {
+			logger.warn("EOF from client while reading command");
+			return false;
+		}
+		final byte[] msg = new byte[--msgSize];
+		if (Io.read(in, msg) < msgSize) {
+			logger.warn("EOF from client while reading message");
+			return false;
+		}
+		switch (command) {
+			case QUIT_CMD:
+				writeAnswer(out, GOODBYE_RC, "");
+				return false;
+			case MOD_CMD:
+				final Module proofModule = DataFactory.getInstance().createModule("", -1);
+				final TokenFeed proofFeed = ScannerFactory.getInstance().createTokenFeed(in, out, proofModule);
+				try {
+					if (msgSize == 0) {
+						CommandFactory.getInstance().processCommands(proofModule, proofFeed);
+					} else {
+						final String pageName = new String(msg, /* FIXME: 1.5 compat CHARSET */ ENCODING);
+						CommandFactory.getInstance().processCommands(proofModule, proofFeed, pageName);
+					}
+					writeAnswer(out, OK_RC, PROOF_MSG);
+				} catch (CommandException e) {
+					writeAnswer(out, CLIENT_ERR_RC, e.getMessage());
+				}
+				break;
+			case IFACE_CMD:
+				if (msgSize <= 8) {
+					writeAnswer(out, CLIENT_ERR_RC, BAD_IFACE_MSG);
+					break;
+				}
+				final String param = new String(msg, 0, msgSize - 8, /* FIXME: 1.5 compat CHARSET */ ENCODING);
+				if (!Token.VALID_ATOM.matcher(param).matches()) {
+					writeAnswer(out, CLIENT_ERR_RC, BAD_IFACE_MSG);
+					break;
+				}
+				final long version = decodeLong(msg, msgSize - 8);
+				final Module interfaceModule = DataFactory.getInstance().createModule(param, version);
+				final TokenFeed interfaceFeed = ScannerFactory.getInstance().createTokenFeed(in, out, interfaceModule);
+				try {
+					CommandFactory.getInstance().processCommands(interfaceModule, interfaceFeed);
+					writeAnswer(out, OK_RC, INTERFACE_MSG);
+				} catch (CommandException e) {
+					writeAnswer(out, CLIENT_ERR_RC, e.getMessage());
+				}
+				break;
+			case DEL_CMD:
+				if (msgSize <= 8) {
+					writeAnswer(out, CLIENT_ERR_RC, DELETION_FAILED_MSG);
+					break;
+				}
+				final String locator = new String(msg, 0, msgSize - 8, /* FIXME: 1.5 compat CHARSET */ ENCODING);
+				if (!Token.VALID_ATOM.matcher(locator).matches()) {
+					writeAnswer(out, CLIENT_ERR_RC, DELETION_FAILED_MSG);
+					break;
+				}
+				final long revision = decodeLong(msg, msgSize - 8);
+				try {
+					Storage.getInstance().deleteModule(locator, revision);
+					writeAnswer(out, OK_RC, "");
+				} catch (StorageException e) {
+					writeAnswer(out, SERVER_ERR_RC, e.getMessage());
+				}
+				break;
+			case FINISH_CMD: // be lenient and forgive a misplaced finish command
+				writeAnswer(out, OK_RC, "");
+				break;
+			default:
+				writeAnswer(out, CLIENT_ERR_RC, UNKNOWN_MSG);
+		}
+		return true;
+	}
+
+	/**
+	 * Sends the welcome message on the specified
+	 * {@link BufferedOutputStream}.
+	 *
+	 * @param out output stream.
+	 *
+	 * @throws IOException on error.
+	 */
+	static void welcome(final BufferedOutputStream out) throws IOException {
+		writeAnswer(out, OK_RC, WELCOME_MSG);
+	}
+
 	/**
 	 * Creates a new server thread object on the specified
 	 * {@link Socket}.
@@ -370,95 +492,48 @@ public class Server extends Thread {
 		this(name, socket, Main.DEFAULT_SOCKET_TIMEOUT);
 	}
 
+	/**
+	 * Refuses service to the client by sending a SERVER ERROR response
+	 * with the specified message and closing the socket.
+	 * This method is used instead of {@link #run} if the server cannot
+	 * accept any more sessions.
+	 *
+	 * @param msg error message.
+	 */
+	public void reject(final String msg) {
+		assert (msg != null): "Supplied message is null";
+		try {
+			writeAnswer(new BufferedOutputStream(socket.getOutputStream()), SERVER_ERR_RC, msg);
+		} catch (IOException e) {
+			logger.warn("Unable to send rejection to client", e);
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				logger.warn("Unable to properly close socket on rejection", e);
+			}
+		}
+	}
+
 	/**
 	 * Runs the JHilbert server thread.
+	 * If this server is executed by a worker thread of a {@link ServerPool}
+	 * rather than started as a thread of its own, the worker thread takes
+	 * on the name of this server for the duration of the session.
 	 */
 	public @Override void run() {
+		final Thread worker = Thread.currentThread();
+		final String workerName = worker.getName();
+		if (worker != this)
+			worker.setName(getName());
 		try {
 			final InputStream in = socket.getInputStream();
 			final BufferedOutputStream out = new BufferedOutputStream(socket.getOutputStream());
 			// send welcome
-			writeAnswer(out, OK_RC, WELCOME_MSG);
+			welcome(out);
 			// execute commands
-			for(;;) {
-				int msgSize = readMessageSize(in);
-				if (msgSize <= -1) {
-					logger.warn("EOF from client while reading message size");
-					return;
-				}
-				if (msgSize == 0) {
-					logger.warn("Zero message size");
-					return;
-				}
-				int command = in.read();
-				if (command == -1) {
-					logger.warn("EOF from client while reading command");
-					return;
-				}
-				final byte[] msg = new byte[--msgSize];
-				if (Io.read(in, msg) < msgSize) {
-					logger.warn("EOF from client while reading message");
-					return;
-				}
-				switch (command) {
-					case QUIT_CMD:
-						writeAnswer(out, GOODBYE_RC, "");
-						return;
-					case MOD_CMD:
-						final Module proofModule = DataFactory.getInstance().createModule("", -1);
-						final TokenFeed proofFeed = ScannerFactory.getInstance().createTokenFeed(in, out, proofModule);
-						try {
-							CommandFactory.getInstance().processCommands(proofModule, proofFeed);
-							writeAnswer(out, OK_RC, PROOF_MSG);
-						} catch (CommandException e) {
-							writeAnswer(out, CLIENT_ERR_RC, e.getMessage());
-						}
-						break;
-					case IFACE_CMD:
-						if (msgSize <= 8) {
-							writeAnswer(out, CLIENT_ERR_RC, BAD_IFACE_MSG);
-							break;
-						}
-						final String param = new String(msg, 0, msgSize - 8, /* FIXME: 1.5 compat CHARSET */ ENCODING);
-						if (!Token.VALID_ATOM.matcher(param).matches()) {
-							writeAnswer(out, CLIENT_ERR_RC, BAD_IFACE_MSG);
-							break;
-						}
-						final long version = decodeLong(msg, msgSize - 8);
-						final Module interfaceModule = DataFactory.getInstance().createModule(param, version);
-						final TokenFeed interfaceFeed = ScannerFactory.getInstance().createTokenFeed(in, out, interfaceModule);
-						try {
-							CommandFactory.getInstance().processCommands(interfaceModule, interfaceFeed);
-							writeAnswer(out, OK_RC, INTERFACE_MSG);
-						} catch (CommandException e) {
-							writeAnswer(out, CLIENT_ERR_RC, e.getMessage());
-						}
-						break;
-					case DEL_CMD:
-						if (msgSize <= 8) {
-							writeAnswer(out, CLIENT_ERR_RC, DELETION_FAILED_MSG);
-							break;
-						}
-						final String locator = new String(msg, 0, msgSize - 8, /* FIXME: 1.5 compat CHARSET */ ENCODING);
-						if (!Token.VALID_ATOM.matcher(locator).matches()) {
-							writeAnswer(out, CLIENT_ERR_RC, DELETION_FAILED_MSG);
-							break;
-						}
-						final long revision = decodeLong(msg, msgSize - 8);
-						try {
-							Storage.getInstance().deleteModule(locator, revision);
-							writeAnswer(out, OK_RC, "");
-						} catch (StorageException e) {
-							writeAnswer(out, SERVER_ERR_RC, e.getMessage());
-						}
-						break;
-					case FINISH_CMD: // be lenient and forgive a misplaced finish command
-						writeAnswer(out, OK_RC, "");
-						break;
-					default:
-						writeAnswer(out, CLIENT_ERR_RC, UNKNOWN_MSG);
-				}
-			}
+			while (serve(in, out))
+				;
 		} catch (UnsupportedEncodingException e) {
 			logger.error("UTF-8 encoding not supported", e);
 		} catch (SocketException e) {
@@ -473,6 +548,8 @@ public class Server extends Thread {
 			} catch (IOException e) {
 				logger.warn("Unable to properly close socket on exit", e);
 			}
+			if (worker != this)
+				worker.setName(workerName);
 		}
 	}
 
@@ -0,0 +1,136 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Bounded worker pool for {@link Server} sessions.
+ * <p>
+ * The pool runs a fixed number of worker threads. Accepted connections
+ * which cannot be served immediately wait in a bounded queue. If the queue
+ * is full, the connection is refused with a SERVER ERROR response
+ * (see {@link Session#reject}) instead of spawning yet another thread.
+ */
+public final class ServerPool extends ThreadPoolExecutor {
+
+	/**
+	 * Logger for this class.
+	 */
+	private static final Logger logger = Logger.getLogger(ServerPool.class);
+
+	/**
+	 * A client session which can be run by a <code>ServerPool</code>.
+	 */
+	public static interface Session extends Runnable {
+
+		/**
+		 * Returns the name of this session.
+		 *
+		 * @return name of this session.
+		 */
+		public String getName();
+
+		/**
+		 * Refuses service to the client by sending a SERVER ERROR
+		 * response with the specified message and closing the
+		 * connection.
+		 *
+		 * @param msg error message.
+		 */
+		public void reject(String msg);
+
+	}
+
+	/**
+	 * Creates a new <code>ServerPool</code> with the specified number of
+	 * worker threads and the specified queue length.
+	 *
+	 * @param threads number of worker threads, must be positive.
+	 * @param queueLength maximum number of sessions waiting for a worker,
+	 * 	must be positive.
+	 */
+	public ServerPool(final int threads, final int queueLength) {
+		this(threads, queueLength, new WorkerFactory());
+	}
+
+	/**
+	 * Creates a new <code>ServerPool</code> with the specified number of
+	 * worker threads created by the specified {@link ThreadFactory}, and
+	 * the specified queue length.
+	 *
+	 * @param threads number of worker threads, must be positive.
+	 * @param queueLength maximum number of sessions waiting for a worker,
+	 * 	must be positive.
+	 * @param threadFactory factory for worker threads.
+	 */
+	public ServerPool(final int threads, final int queueLength, final ThreadFactory threadFactory) {
+		super(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueLength),
+			threadFactory, new Refusal());
+		assert (threads > 0): "Number of threads must be positive";
+		assert (queueLength > 0): "Queue length must be positive";
+	}
+
+	/**
+	 * Creates named daemon worker threads.
+	 */
+	private static final class WorkerFactory implements ThreadFactory {
+
+		/**
+		 * Worker counter.
+		 */
+		private int counter = 0;
+
+		public synchronized Thread newThread(final Runnable r) {
+			final Thread result = new Thread(r, "JHilbert worker " + ++counter);
+			result.setDaemon(true);
+			return result;
+		}
+
+	}
+
+	/**
+	 * Refuses sessions for which there is no room in the queue.
+	 */
+	private static final class Refusal implements RejectedExecutionHandler {
+
+		public void rejectedExecution(final Runnable r, final ThreadPoolExecutor executor) {
+			if (!(r instanceof Session)) {
+				logger.error("Unable to reject task " + r);
+				return;
+			}
+			logger.warn("Server busy, rejecting " + ((Session) r).getName());
+			((Session) r).reject(Server.BUSY_MSG);
+		}
+
+	}
+
+}
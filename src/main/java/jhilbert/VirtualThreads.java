@@ -0,0 +1,81 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Access to virtual threads on JVMs which support them.
+ * <p>
+ * JHilbert is compiled for older Java versions, so the virtual thread
+ * builder API is looked up by reflection.
+ */
+final class VirtualThreads {
+
+	/**
+	 * Logger for this class.
+	 */
+	private static final Logger logger = Logger.getLogger(VirtualThreads.class);
+
+	/**
+	 * Private constructor, no instances.
+	 */
+	private VirtualThreads() {
+		throw new AssertionError("No instances");
+	}
+
+	/**
+	 * Creates a {@link ThreadFactory} for virtual threads whose names
+	 * consist of the specified prefix and a counter.
+	 *
+	 * @param prefix thread name prefix.
+	 *
+	 * @return thread factory for virtual threads, or <code>null</code> if
+	 * 	the JVM does not support virtual threads.
+	 */
+	static ThreadFactory createFactory(final String prefix) {
+		assert (prefix != null): "Supplied prefix is null";
+		try {
+			final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 1L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (ClassNotFoundException e) {
+			logger.debug("No thread builder class", e);
+		} catch (NoSuchMethodException e) {
+			logger.debug("No virtual thread builder", e);
+		} catch (IllegalAccessException e) {
+			logger.debug("Virtual thread builder not accessible", e);
+		} catch (InvocationTargetException e) {
+			// e. g. UnsupportedOperationException if preview features are disabled
+			logger.debug("Unable to create virtual thread builder", e.getCause());
+		}
+		return null;
+	}
+
+}
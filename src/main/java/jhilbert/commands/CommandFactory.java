@@ -56,4 +56,38 @@ public abstract class CommandFactory {
 	 */
 	public abstract void processCommands(Module module, TokenFeed tokenFeed) throws CommandException;
 
+	/**
+	 * Process commands for the specified module from the specified feed,
+	 * verifying theorem proofs with the specified number of threads.
+	 * Commands are parsed in order. If more than one thread is requested,
+	 * proofs are verified in parallel, while all other processing, in
+	 * particular the registration of names, remains in source order.
+	 * Errors are reported as if all commands had been processed in order.
+	 * This mode is only suitable for token feeds which do not require
+	 * confirmations to be made in order.
+	 *
+	 * @param module data module.
+	 * @param tokenFeed token feed.
+	 * @param threads number of threads verifying proofs.
+	 *
+	 * @throws CommandException if an error occurs.
+	 */
+	public abstract void processCommands(Module module, TokenFeed tokenFeed, int threads) throws CommandException;
+
+	/**
+	 * Process commands for the specified module from the specified feed,
+	 * which contains the specified wiki page.
+	 * Proofs verified on an earlier revision of the same page are not
+	 * verified again if neither the proofs nor anything they depend on
+	 * have changed. The confirmations made while verifying such proofs
+	 * are replayed to the feed instead.
+	 *
+	 * @param module data module.
+	 * @param tokenFeed token feed.
+	 * @param pageName name of the page.
+	 *
+	 * @throws CommandException if an error occurs.
+	 */
+	public abstract void processCommands(Module module, TokenFeed tokenFeed, String pageName) throws CommandException;
+
 }
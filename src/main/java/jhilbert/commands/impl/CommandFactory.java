@@ -24,8 +24,12 @@
 
 package jhilbert.commands.impl;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import jhilbert.commands.Command;
 import jhilbert.commands.CommandException;
@@ -39,11 +43,60 @@ import jhilbert.scanners.TokenFeed;
  */
 public final class CommandFactory extends jhilbert.commands.CommandFactory {
 
+	/**
+	 * Commands which may be executed while deferred proofs are pending.
+	 * Other commands may change the meaning of names used in pending
+	 * proofs (for example by identifying kinds), so pending proofs are
+	 * verified, and fingerprints of names are forgotten, before such
+	 * commands are executed.
+	 */
+	private static final Set<String> DEFERRABLE_COMMANDS
+		= Collections.unmodifiableSet(new HashSet(Arrays.asList("def", "thm", "var")));
+
 	// default constructed
 	
 	public @Override void processCommands(final Module module, final TokenFeed tokenFeed) throws CommandException {
+		processCommands(module, tokenFeed, 1);
+	}
+
+	public @Override void processCommands(final Module module, final TokenFeed tokenFeed, final String pageName)
+	throws CommandException {
+		assert (module != null): "Supplied data module is null";
+		assert (tokenFeed != null): "Supplied token feed is null";
+		assert (pageName != null): "Supplied page name is null";
+		processCommands(module, tokenFeed, null, ProofCache.forPage(pageName));
+	}
+
+	public @Override void processCommands(final Module module, final TokenFeed tokenFeed, final int threads)
+	throws CommandException {
 		assert (module != null): "Supplied data module is null";
 		assert (tokenFeed != null): "Supplied token feed is null";
+		assert (threads > 0): "Number of threads must be positive";
+		final ProofQueue proofQueue = (threads > 1) ? new ProofQueue(threads) : null;
+		try {
+			processCommands(module, tokenFeed, proofQueue, null);
+		} finally {
+			if (proofQueue != null)
+				proofQueue.shutdown();
+		}
+	}
+
+	/**
+	 * Process commands for the specified module from the specified feed,
+	 * deferring proofs to the specified queue.
+	 *
+	 * @param module data module.
+	 * @param tokenFeed token feed.
+	 * @param proofQueue queue for deferred proofs, or <code>null</code> if
+	 * 	proofs are to be verified immediately.
+	 * @param proofCache cache of verified proofs, or <code>null</code>.
+	 *
+	 * @throws CommandException if an error occurs.
+	 */
+	private void processCommands(final Module module, final TokenFeed tokenFeed, final ProofQueue proofQueue,
+			final ProofCache proofCache)
+	throws CommandException {
+		final TheoremCommand theoremCommand = new TheoremCommand(module, tokenFeed, proofQueue, proofCache);
 		final Map<String, Command> commandMap = new HashMap();
 		// init command map for module and feed
 		commandMap.put("def", new DefinitionCommand(module, tokenFeed));
@@ -53,7 +106,7 @@ public final class CommandFactory extends jhilbert.commands.CommandFactory {
 			// proof module only commands
 			commandMap.put("export", new ExportCommand(module, tokenFeed));
 			commandMap.put("import", new ImportCommand(module, tokenFeed));
-			commandMap.put("thm", new TheoremCommand(module, tokenFeed));
+			commandMap.put("thm", theoremCommand);
 		} else {
 			// interface module only commands
 			commandMap.put("kind", new KindCommand(module, tokenFeed));
@@ -66,18 +119,29 @@ public final class CommandFactory extends jhilbert.commands.CommandFactory {
 			for (;;) {
 				final Token token = tokenFeed.getToken();
 				if (token == null)
-					return;
+					break;
 				final String command = token.getTokenString();
 				if (!commandMap.containsKey(command)) {
 					tokenFeed.reject("Command " + command + " unknown");
 					throw new CommandException("Command unknown");
 				}
 				tokenFeed.confirmKeyword();
+				if (!DEFERRABLE_COMMANDS.contains(command)) {
+					if (proofQueue != null)
+						proofQueue.verify();
+					theoremCommand.invalidateFingerprints();
+				}
 				commandMap.get(command).execute();
 			}
 		} catch (ScannerException e) {
+			if (proofQueue != null)
+				proofQueue.verify();
 			throw new CommandException(e.getScanner().getContextString() + "Feed failure: " + e.getMessage(), e);
+		} catch (ProofQueue.Failure e) {
+			throw e;
 		} catch (CommandException e) {
+			if (proofQueue != null)
+				proofQueue.verify();
 			final Throwable t = e.getCause();
 			String erradd;
 			if (t == null) {
@@ -87,6 +151,8 @@ public final class CommandFactory extends jhilbert.commands.CommandFactory {
 			}
 			throw new CommandException(tokenFeed.getContextString() + " " + e.getMessage() + ": " + erradd, e);
 		}
+		if (proofQueue != null)
+			proofQueue.verify();
 	}
 
 }
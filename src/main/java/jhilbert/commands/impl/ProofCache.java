@@ -0,0 +1,527 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.commands.impl;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import jhilbert.data.DVConstraints;
+import jhilbert.data.Definition;
+import jhilbert.data.Functor;
+import jhilbert.data.Kind;
+import jhilbert.data.Module;
+import jhilbert.data.Name;
+import jhilbert.data.Statement;
+import jhilbert.data.Symbol;
+import jhilbert.data.Term;
+import jhilbert.data.Variable;
+import jhilbert.expressions.Expression;
+import jhilbert.scanners.Token;
+import jhilbert.utils.LRUCache;
+
+/**
+ * Cache of verified theorem proofs of a wiki page.
+ * <p>
+ * For each theorem, the cache remembers the proof as it was read from the
+ * feed, together with the confirmations the verifier made, and the
+ * fingerprints of all names the theorem depends on. When the page is
+ * processed again, a theorem with the same hypotheses, consequent, DV
+ * constraints and proof whose dependencies have the same fingerprints
+ * need not be verified again: its confirmations are simply replayed.
+ * <p>
+ * Fingerprints describe the meaning of a name rather than the text which
+ * introduced it, so changing the proof of a theorem does not affect the
+ * theorems using it, whereas a changed statement or definition (including
+ * one in a new revision of an imported interface) does.
+ */
+final class ProofCache {
+
+	/**
+	 * Maximum number of pages whose proofs are cached.
+	 */
+	private static final int MAX_PAGES = 64;
+
+	/**
+	 * Caches by page name.
+	 * The page name is supplied by the client, so it merely selects the
+	 * entries to consult: an entry is replayed only if the theorem
+	 * header, the proof tokens and the full fingerprints of all
+	 * dependencies match, so a client naming a foreign page gains
+	 * nothing it could not get by verifying the same proof.
+	 */
+	private static final Map<String, ProofCache> pages = new LRUCache(MAX_PAGES);
+
+	/**
+	 * Returns the cache for the specified page, creating it if necessary.
+	 *
+	 * @param pageName name of the page.
+	 *
+	 * @return proof cache of the page.
+	 */
+	static ProofCache forPage(final String pageName) {
+		assert (pageName != null): "Supplied page name is null";
+		synchronized (pages) {
+			ProofCache result = pages.get(pageName);
+			if (result == null) {
+				result = new ProofCache();
+				pages.put(pageName, result);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * A verified theorem.
+	 */
+	static final class Entry {
+
+		/**
+		 * Fingerprint of the theorem header.
+		 */
+		final String header;
+
+		/**
+		 * Tokens of the proof.
+		 */
+		final Token[] tokens;
+
+		/**
+		 * Confirmation messages, in order.
+		 */
+		final String[] confirmations;
+
+		/**
+		 * Index into {@link #confirmations} after the last confirmation
+		 * made for the token with the same index.
+		 */
+		final int[] confirmationEnds;
+
+		/**
+		 * Fingerprints of the names the theorem depends on.
+		 */
+		final Map<String, String> dependencies;
+
+		/**
+		 * Creates a new <code>Entry</code>.
+		 *
+		 * @param header fingerprint of the theorem header.
+		 * @param tokens tokens of the proof.
+		 * @param confirmations confirmation messages.
+		 * @param confirmationEnds end of the confirmations for each token.
+		 * @param dependencies fingerprints of the dependencies.
+		 */
+		Entry(final String header, final Token[] tokens, final String[] confirmations, final int[] confirmationEnds,
+				final Map<String, String> dependencies) {
+			assert (header != null): "Supplied header is null";
+			assert (tokens != null): "Supplied tokens are null";
+			assert (confirmations != null): "Supplied confirmations are null";
+			assert (confirmationEnds != null): "Supplied confirmation ends are null";
+			assert (tokens.length == confirmationEnds.length): "Confirmation ends do not match tokens";
+			assert (dependencies != null): "Supplied dependencies are null";
+			this.header = header;
+			this.tokens = tokens;
+			this.confirmations = confirmations;
+			this.confirmationEnds = confirmationEnds;
+			this.dependencies = dependencies;
+		}
+
+		/**
+		 * Checks whether this entry is still valid for the specified
+		 * header and fingerprints.
+		 *
+		 * @param header fingerprint of the current theorem header.
+		 * @param fingerprints current fingerprints.
+		 *
+		 * @return <code>true</code> if the header is unchanged and all
+		 * 	dependencies have the same fingerprints,
+		 * 	<code>false</code> otherwise.
+		 */
+		boolean isValid(final String header, final Fingerprints fingerprints) {
+			if (!this.header.equals(header))
+				return false;
+			for (final Map.Entry<String, String> dependency: dependencies.entrySet())
+				if (!dependency.getValue().equals(fingerprints.ofName(dependency.getKey())))
+					return false;
+			return true;
+		}
+
+		/**
+		 * Checks whether the specified token equals the token of the
+		 * proof at the specified index.
+		 *
+		 * @param index token index.
+		 * @param token token to compare.
+		 *
+		 * @return <code>true</code> if the tokens have the same class and
+		 * 	string, <code>false</code> otherwise.
+		 */
+		boolean matches(final int index, final Token token) {
+			return (token != null) && (token.getTokenClass() == tokens[index].getTokenClass())
+				&& token.getTokenString().equals(tokens[index].getTokenString());
+		}
+
+	}
+
+	/**
+	 * Fingerprints of the names of a module.
+	 * Fingerprints are memoised, so they must be invalidated whenever the
+	 * meaning of existing names may change, for example when kinds are
+	 * identified.
+	 */
+	static final class Fingerprints {
+
+		/**
+		 * Hex digits.
+		 */
+		private static final char[] HEXDIGITS = { '0', '1', '2', '3', '4', '5', '6', '7',
+			'8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+
+		/**
+		 * Data module.
+		 */
+		private final Module module;
+
+		/**
+		 * Digest.
+		 */
+		private final MessageDigest digest;
+
+		/**
+		 * Memoised fingerprints.
+		 */
+		private final Map<Name, String> memo;
+
+		/**
+		 * Creates new <code>Fingerprints</code> for the specified module.
+		 *
+		 * @param module data module.
+		 */
+		Fingerprints(final Module module) {
+			assert (module != null): "Supplied module is null";
+			this.module = module;
+			try {
+				digest = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException("SHA-256 digest not available", e);
+			}
+			memo = new IdentityHashMap();
+		}
+
+		/**
+		 * Forgets all memoised fingerprints.
+		 */
+		void invalidate() {
+			memo.clear();
+		}
+
+		/**
+		 * Returns the fingerprint of whatever the specified name
+		 * currently refers to as a functor and as a symbol.
+		 *
+		 * @param name name.
+		 *
+		 * @return fingerprint.
+		 */
+		String ofName(final String name) {
+			assert (name != null): "Supplied name is null";
+			final Functor functor = module.getFunctorNamespace().getObjectByString(name);
+			final Symbol symbol = module.getSymbolNamespace().getObjectByString(name);
+			return ((functor == null) ? "-" : of(functor)) + ' ' + ((symbol == null) ? "-" : of(symbol));
+		}
+
+		/**
+		 * Returns the fingerprint of the specified theorem header.
+		 * Unlike in the fingerprints of names, variables are identified
+		 * by their names, as the proof refers to them by name.
+		 *
+		 * @param dvConstraints DV constraints of the theorem.
+		 * @param hypotheses labelled hypotheses of the theorem.
+		 * @param consequent consequent of the theorem.
+		 *
+		 * @return fingerprint.
+		 */
+		String ofHeader(final DVConstraints dvConstraints, final Map<String, Expression> hypotheses,
+				final Expression consequent) {
+			assert (dvConstraints != null): "Supplied DV constraints are null";
+			assert (hypotheses != null): "Supplied hypotheses are null";
+			assert (consequent != null): "Supplied consequent is null";
+			final StringBuilder text = new StringBuilder("thm");
+			final Map<Variable, Integer> variables = new HashMap();
+			for (final Map.Entry<String, Expression> hypothesis: hypotheses.entrySet()) {
+				text.append(" hyp ").append(hypothesis.getKey());
+				append(text, hypothesis.getValue(), variables, true);
+			}
+			text.append(" |- ");
+			append(text, consequent, variables, true);
+			append(text, dvConstraints, variables, true);
+			return hash(text);
+		}
+
+		/**
+		 * Returns the fingerprint of the specified kind, functor or
+		 * symbol.
+		 *
+		 * @param name kind, functor or symbol.
+		 *
+		 * @return fingerprint.
+		 */
+		private String of(final Name name) {
+			String result = memo.get(name);
+			if (result != null)
+				return result;
+			final StringBuilder text = new StringBuilder();
+			final Map<Variable, Integer> variables = new HashMap();
+			if (name instanceof Kind) {
+				text.append("kind");
+				final Set<String> names = new TreeSet();
+				names.add(name.getNameString());
+				for (final Set<? extends Kind> equivalenceClass: module.getKindNamespace().equivalenceClasses())
+					if (equivalenceClass.contains(name))
+						for (final Kind kind: equivalenceClass)
+							names.add(kind.getNameString());
+				for (final String kindName: names)
+					text.append(' ').append(kindName);
+			} else if (name instanceof Variable) {
+				final Variable variable = (Variable) name;
+				text.append("var ").append(of(variable.getKind())).append(variable.isDummy() ? " dummy" : "");
+			} else if (name instanceof Functor) {
+				final Functor functor = (Functor) name;
+				text.append((functor.definitionDepth() == 0) ? "term " : "def ")
+					.append(functor.getNameString()).append(' ').append(of(functor.getKind()));
+				for (final Kind kind: functor.getInputKinds())
+					text.append(' ').append(of(kind));
+				if (functor.definitionDepth() != 0) {
+					final Definition definition = (Definition) functor;
+					text.append(" args");
+					for (final Variable argument: definition.getArguments())
+						append(text, argument, variables, false);
+					text.append(" = ");
+					append(text, definition.getDefiniens(), variables, false);
+					append(text, definition.getDVConstraints(), variables, false);
+				}
+			} else if (name instanceof Statement) {
+				final Statement statement = (Statement) name;
+				text.append("stmt");
+				for (final Variable variable: statement.getMandatoryVariables())
+					append(text, variable, variables, false);
+				for (final Expression hypothesis: statement.getHypotheses()) {
+					text.append(" hyp ");
+					append(text, hypothesis, variables, false);
+				}
+				text.append(" |- ");
+				append(text, statement.getConsequent(), variables, false);
+				append(text, statement.getDVConstraints(), variables, false);
+			} else {
+				throw new AssertionError("Unknown kind of name");
+			}
+			result = hash(text);
+			memo.put(name, result);
+			return result;
+		}
+
+		/**
+		 * Returns the identifier of the specified variable, numbering
+		 * variables in order of first appearance.
+		 *
+		 * @param variable variable.
+		 * @param variables variable numbering.
+		 * @param byName whether the variable is to be identified by name
+		 * 	rather than by number.
+		 *
+		 * @return identifier of the variable.
+		 */
+		private String id(final Variable variable, final Map<Variable, Integer> variables, final boolean byName) {
+			Integer index = variables.get(variable);
+			if (index == null) {
+				index = variables.size();
+				variables.put(variable, index);
+			}
+			return byName ? variable.getNameString() : ("$" + index);
+		}
+
+		/**
+		 * Appends the specified variable. The kind of the variable is
+		 * only appended on its first appearance.
+		 *
+		 * @param text text to append to.
+		 * @param variable variable.
+		 * @param variables variable numbering.
+		 * @param byName whether the variable is to be identified by name.
+		 */
+		private void append(final StringBuilder text, final Variable variable, final Map<Variable, Integer> variables,
+				final boolean byName) {
+			final boolean first = !variables.containsKey(variable);
+			text.append(' ').append(id(variable, variables, byName));
+			if (first) {
+				text.append(':').append(of(variable.getKind()));
+				if (variable.isDummy())
+					text.append('!');
+			}
+		}
+
+		/**
+		 * Appends the specified expression.
+		 *
+		 * @param text text to append to.
+		 * @param expression expression.
+		 * @param variables variable numbering.
+		 * @param byName whether variables are to be identified by name.
+		 */
+		private void append(final StringBuilder text, final Expression expression,
+				final Map<Variable, Integer> variables, final boolean byName) {
+			final Term term = expression.getValue();
+			if (term.isVariable()) {
+				append(text, (Variable) term, variables, byName);
+				return;
+			}
+			text.append(" (").append(of(term));
+			for (final Expression child: expression.getChildren())
+				append(text, child, variables, byName);
+			text.append(')');
+		}
+
+		/**
+		 * Appends the specified DV constraints in a canonical order.
+		 *
+		 * @param text text to append to.
+		 * @param dvConstraints DV constraints.
+		 * @param variables variable numbering.
+		 * @param byName whether variables are to be identified by name.
+		 */
+		private void append(final StringBuilder text, final DVConstraints dvConstraints,
+				final Map<Variable, Integer> variables, final boolean byName) {
+			final Set<String> pairs = new TreeSet();
+			for (final Variable[] dv: dvConstraints) {
+				final String id0 = id(dv[0], variables, byName);
+				final String id1 = id(dv[1], variables, byName);
+				if (id0.compareTo(id1) < 0)
+					pairs.add(' ' + id0 + ' ' + id1);
+				else
+					pairs.add(' ' + id1 + ' ' + id0);
+			}
+			text.append(" dv");
+			for (final String pair: pairs)
+				text.append(pair);
+		}
+
+		/**
+		 * Hashes the specified text.
+		 *
+		 * @param text text to hash.
+		 *
+		 * @return hex encoded digest of <code>text</code>. The full digest
+		 * 	is used, as page text may be crafted to provoke
+		 * 	collisions.
+		 */
+		private String hash(final CharSequence text) {
+			final byte[] bytes;
+			try {
+				bytes = digest.digest(text.toString().getBytes(/* FIXME: 1.5 compat */ "UTF-8"));
+			} catch (UnsupportedEncodingException e) {
+				throw new AssertionError("UTF-8 not supported");
+			}
+			final StringBuilder result = new StringBuilder(2 * bytes.length);
+			for (int i = 0; i != bytes.length; ++i) {
+				result.append(HEXDIGITS[(bytes[i] >>> 4) & 0x0F])
+					.append(HEXDIGITS[bytes[i] & 0x0F]);
+			}
+			return result.toString();
+		}
+
+	}
+
+	/**
+	 * Entries by theorem name.
+	 */
+	private final Map<String, Entry> entries;
+
+	/**
+	 * Number of proofs replayed from this cache.
+	 */
+	private int hits;
+
+	/**
+	 * Creates a new, empty <code>ProofCache</code>.
+	 */
+	private ProofCache() {
+		entries = new HashMap();
+		hits = 0;
+	}
+
+	/**
+	 * Counts a proof replayed from this cache.
+	 */
+	synchronized void recordHit() {
+		++hits;
+	}
+
+	/**
+	 * Returns the number of proofs replayed from this cache.
+	 *
+	 * @return number of cache hits.
+	 */
+	synchronized int getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the entry for the specified theorem.
+	 *
+	 * @param name theorem name.
+	 *
+	 * @return the entry, or <code>null</code> if there is none.
+	 */
+	synchronized Entry get(final String name) {
+		return entries.get(name);
+	}
+
+	/**
+	 * Stores the entry for the specified theorem.
+	 *
+	 * @param name theorem name.
+	 * @param entry verified theorem.
+	 */
+	synchronized void put(final String name, final Entry entry) {
+		assert (name != null): "Supplied name is null";
+		assert (entry != null): "Supplied entry is null";
+		entries.put(name, entry);
+	}
+
+	/**
+	 * Removes the entry for the specified theorem.
+	 *
+	 * @param name theorem name.
+	 */
+	synchronized void remove(final String name) {
+		entries.remove(name);
+	}
+
+}
@@ -0,0 +1,295 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.commands.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import jhilbert.commands.CommandException;
+import jhilbert.data.DVConstraints;
+import jhilbert.data.Module;
+import jhilbert.expressions.Expression;
+import jhilbert.scanners.ScannerFactory;
+import jhilbert.scanners.Token;
+import jhilbert.scanners.TokenFeed;
+import jhilbert.verifier.VerifierFactory;
+import jhilbert.verifier.VerifyException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Queue of theorem proofs whose verification has been deferred so that
+ * they can be verified in parallel.
+ * <p>
+ * A deferred proof only needs the statements, variables and definitions
+ * it refers to, which have all been registered by the time the proof is
+ * queued. Hence queued proofs do not depend on each other and can be
+ * verified in any order, as long as the module is not modified at the
+ * same time. Failures are reported in source order: the failure of the
+ * earliest proof is reported, just as if the proofs had been verified
+ * one after another.
+ */
+final class ProofQueue {
+
+	/**
+	 * Logger for this class.
+	 */
+	private static final Logger logger = Logger.getLogger(ProofQueue.class);
+
+	/**
+	 * Proof failure. The message already contains the context of the
+	 * failure.
+	 */
+	static final class Failure extends CommandException {
+
+		/**
+		 * Serialisation ID.
+		 */
+		private static final long serialVersionUID = jhilbert.Main.VERSION;
+
+		/**
+		 * Creates a new <code>Failure</code> with the specified message
+		 * and cause.
+		 *
+		 * @param message detail message.
+		 * @param cause the cause.
+		 */
+		Failure(final String message, final Throwable cause) {
+			super(message, cause);
+		}
+
+	}
+
+	/**
+	 * A deferred proof.
+	 */
+	static final class Proof implements Callable<Failure> {
+
+		/**
+		 * Data module.
+		 */
+		private final Module module;
+
+		/**
+		 * Proof tokens.
+		 */
+		private final List<Token> tokens;
+
+		/**
+		 * Feed context at the beginning of the proof.
+		 */
+		private final String context;
+
+		/**
+		 * DV constraints.
+		 */
+		private final DVConstraints dvConstraints;
+
+		/**
+		 * Labelled hypotheses.
+		 */
+		private final Map<String, Expression> hypotheses;
+
+		/**
+		 * Consequent.
+		 */
+		private final Expression consequent;
+
+		/**
+		 * Creates a new deferred <code>Proof</code>.
+		 *
+		 * @param module data module.
+		 * @param tokens proof tokens.
+		 * @param context feed context at the beginning of the proof.
+		 * @param dvConstraints DV constraints of the theorem.
+		 * @param hypotheses labelled hypotheses of the theorem.
+		 * @param consequent consequent of the theorem.
+		 */
+		Proof(final Module module, final List<Token> tokens, final String context,
+				final DVConstraints dvConstraints, final Map<String, Expression> hypotheses,
+				final Expression consequent) {
+			assert (module != null): "Supplied module is null";
+			assert (tokens != null): "Supplied token list is null";
+			assert (context != null): "Supplied context is null";
+			assert (dvConstraints != null): "Supplied DV constraints are null";
+			assert (hypotheses != null): "Supplied hypotheses are null";
+			assert (consequent != null): "Supplied consequent is null";
+			this.module = module;
+			this.tokens = tokens;
+			this.context = context;
+			this.dvConstraints = dvConstraints;
+			this.hypotheses = hypotheses;
+			this.consequent = consequent;
+		}
+
+		/**
+		 * Verifies this proof.
+		 *
+		 * @return <code>null</code> if the proof verifies, or the
+		 * 	failure otherwise.
+		 */
+		public Failure call() {
+			final TokenFeed feed = ScannerFactory.getInstance().createTokenFeed(tokens, context);
+			try {
+				VerifierFactory.getInstance().createVerifier(module, feed).verify(dvConstraints, hypotheses, consequent);
+				return null;
+			} catch (VerifyException e) {
+				final CommandException cause = new CommandException("Proof does not verify", e);
+				return new Failure(feed.getContextString() + " " + cause.getMessage() + ": " + e.getMessage(), cause);
+			}
+		}
+
+	}
+
+	/**
+	 * Creates daemon verifier threads.
+	 */
+	private static final class VerifierThreadFactory implements ThreadFactory {
+
+		/**
+		 * Thread counter.
+		 */
+		private int counter = 0;
+
+		public synchronized Thread newThread(final Runnable r) {
+			final Thread result = new Thread(r, "JHilbert verifier " + ++counter);
+			result.setDaemon(true);
+			return result;
+		}
+
+	}
+
+	/**
+	 * Number of verifier threads.
+	 */
+	private final int threads;
+
+	/**
+	 * Executor, created on first use.
+	 */
+	private ExecutorService executor;
+
+	/**
+	 * Queued proofs in source order.
+	 */
+	private final List<Proof> pending;
+
+	/**
+	 * Creates a new <code>ProofQueue</code> which verifies proofs with the
+	 * specified number of threads.
+	 *
+	 * @param threads number of verifier threads.
+	 */
+	ProofQueue(final int threads) {
+		assert (threads > 0): "Number of threads must be positive";
+		this.threads = threads;
+		executor = null;
+		pending = new ArrayList();
+	}
+
+	/**
+	 * Queues the specified proof.
+	 *
+	 * @param proof deferred proof.
+	 */
+	void add(final Proof proof) {
+		assert (proof != null): "Supplied proof is null";
+		pending.add(proof);
+	}
+
+	/**
+	 * Verifies all queued proofs and empties the queue.
+	 * The module must not be modified while this method runs.
+	 *
+	 * @throws Failure if a proof does not verify. The failure of the
+	 * 	earliest proof in source order is reported.
+	 */
+	void verify() throws Failure {
+		if (pending.isEmpty())
+			return;
+		if (logger.isDebugEnabled())
+			logger.debug("Verifying " + pending.size() + " deferred proofs");
+		if (executor == null)
+			executor = Executors.newFixedThreadPool(threads, new VerifierThreadFactory());
+		final List<Future<Failure>> results = new ArrayList(pending.size());
+		for (final Proof proof: pending)
+			results.add(executor.submit(proof));
+		pending.clear();
+		try {
+			for (final Future<Failure> result: results) {
+				final Failure failure = result.get();
+				if (failure != null)
+					throw failure;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new Failure("Interrupted while verifying proofs", e);
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new AssertionError("Unexpected exception while verifying proof: " + cause);
+		} finally {
+			for (final Future<Failure> result: results)
+				result.cancel(false);
+		}
+	}
+
+	/**
+	 * Verifies all queued proofs, then the specified proof on the calling
+	 * thread. This is used for proofs which cannot be deferred.
+	 *
+	 * @param proof proof to verify after the queued ones.
+	 *
+	 * @throws Failure if a proof does not verify.
+	 */
+	void verify(final Proof proof) throws Failure {
+		assert (proof != null): "Supplied proof is null";
+		verify();
+		final Failure failure = proof.call();
+		if (failure != null)
+			throw failure;
+	}
+
+	/**
+	 * Releases the verifier threads. Queued proofs are discarded.
+	 */
+	void shutdown() {
+		pending.clear();
+		if (executor != null)
+			executor.shutdownNow();
+		executor = null;
+	}
+
+}
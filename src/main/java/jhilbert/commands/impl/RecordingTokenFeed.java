@@ -0,0 +1,291 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.commands.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+import jhilbert.data.Functor;
+import jhilbert.scanners.ScannerException;
+import jhilbert.scanners.Token;
+import jhilbert.scanners.TokenFeed;
+
+/**
+ * A token feed recording the tokens read from another feed along with the
+ * confirmations made for them.
+ * <p>
+ * The recording may start with a prefix of a cached proof whose tokens
+ * have already been read from the other feed and confirmed there. The
+ * tokens of the prefix are returned first, and confirmations made for them
+ * are not passed on.
+ */
+final class RecordingTokenFeed implements TokenFeed {
+
+	/**
+	 * Feed tokens are read from.
+	 */
+	private final TokenFeed feed;
+
+	/**
+	 * Recorded tokens, starting with the prefix.
+	 */
+	private final List<Token> tokens;
+
+	/**
+	 * Recorded confirmations.
+	 */
+	private final List<String> confirmations;
+
+	/**
+	 * Index into {@link #confirmations} after the last confirmation made
+	 * for the recorded token with the same index.
+	 */
+	private int[] confirmationEnds;
+
+	/**
+	 * Number of tokens in the prefix.
+	 */
+	private final int prefixSize;
+
+	/**
+	 * Number of tokens returned so far, not counting tokens put back.
+	 */
+	private int pos;
+
+	/**
+	 * Tokens put back.
+	 */
+	private final Stack<Token> tokenStack;
+
+	/**
+	 * Creates a new <code>RecordingTokenFeed</code>.
+	 *
+	 * @param feed feed to read tokens from.
+	 * @param prefix cached proof whose beginning has already been read
+	 * 	from <code>feed</code>, or <code>null</code>.
+	 * @param prefixSize number of tokens read from <code>feed</code>
+	 * 	matching the tokens of <code>prefix</code>.
+	 */
+	RecordingTokenFeed(final TokenFeed feed, final ProofCache.Entry prefix, final int prefixSize) {
+		assert (feed != null): "Supplied feed is null";
+		assert ((prefix != null) || (prefixSize == 0)): "Prefix size without prefix";
+		assert ((prefix == null) || (prefixSize <= prefix.tokens.length)): "Prefix size too large";
+		this.feed = feed;
+		this.prefixSize = prefixSize;
+		tokens = new ArrayList();
+		confirmations = new ArrayList();
+		confirmationEnds = new int[Math.max(16, 2 * prefixSize)];
+		for (int i = 0; i != prefixSize; ++i) {
+			tokens.add(prefix.tokens[i]);
+			confirmationEnds[i] = prefix.confirmationEnds[i];
+		}
+		for (int i = 0; i != ((prefixSize == 0) ? 0 : confirmationEnds[prefixSize - 1]); ++i)
+			confirmations.add(prefix.confirmations[i]);
+		pos = 0;
+		tokenStack = new Stack();
+	}
+
+	/**
+	 * Returns the recorded tokens.
+	 *
+	 * @return recorded tokens.
+	 */
+	List<Token> getTokens() {
+		return tokens;
+	}
+
+	/**
+	 * Creates a cache entry from the recording.
+	 *
+	 * @param header fingerprint of the theorem header.
+	 * @param dependencies fingerprints of the names the theorem depends
+	 * 	on.
+	 *
+	 * @return new cache entry.
+	 */
+	ProofCache.Entry createEntry(final String header, final Map<String, String> dependencies) {
+		final int size = tokens.size();
+		final int[] ends = new int[size];
+		System.arraycopy(confirmationEnds, 0, ends, 0, size);
+		return new ProofCache.Entry(header, tokens.toArray(new Token[size]),
+			confirmations.toArray(new String[confirmations.size()]), ends, dependencies);
+	}
+
+	public Token getToken() throws ScannerException {
+		if (!tokenStack.empty())
+			return tokenStack.pop();
+		if (pos < prefixSize)
+			return tokens.get(pos++);
+		final Token result = feed.getToken();
+		if (result != null) {
+			if (pos == confirmationEnds.length) {
+				final int[] newEnds = new int[2 * pos];
+				System.arraycopy(confirmationEnds, 0, newEnds, 0, pos);
+				confirmationEnds = newEnds;
+			}
+			tokens.add(result);
+			confirmationEnds[pos++] = confirmations.size();
+		}
+		return result;
+	}
+
+	public void putToken(final Token token) {
+		tokenStack.push(token);
+	}
+
+	public String getContextString() {
+		return feed.getContextString();
+	}
+
+	public void resetContext() {
+		feed.resetContext();
+	}
+
+	/**
+	 * Reads the next token and checks its class.
+	 *
+	 * @param tokenClass expected token class.
+	 * @param msg rejection message.
+	 *
+	 * @return the token read.
+	 *
+	 * @throws ScannerException if the token is missing or has the wrong
+	 * 	class.
+	 */
+	private Token getToken(final Token.Class tokenClass, final String msg) throws ScannerException {
+		final Token result = getToken();
+		if (result == null)
+			throw new ScannerException(msg + ", got unexpected end of input", this);
+		if (result.getTokenClass() != tokenClass) {
+			reject(msg);
+			throw new ScannerException(msg, this);
+		}
+		return result;
+	}
+
+	public String getAtom() throws ScannerException {
+		return getToken(Token.Class.ATOM, "Expected LISP atom").getTokenString();
+	}
+
+	public void beginExp() throws ScannerException {
+		getToken(Token.Class.BEGIN_EXP, "Expected expression start");
+	}
+
+	public void endExp() throws ScannerException {
+		getToken(Token.Class.END_EXP, "Expected expression end");
+	}
+
+	public String getString() throws ScannerException {
+		final Token result = getToken();
+		if (result == null)
+			throw new ScannerException("Expected LISP atom or empty s-expression, got unexpected end of input",
+				this);
+		if (result.getTokenClass() == Token.Class.ATOM)
+			return result.getTokenString();
+		if (result.getTokenClass() != Token.Class.BEGIN_EXP) {
+			reject("Expected ATOM or Expression start");
+			throw new ScannerException("Expected LISP atom or empty s-expression", this);
+		}
+		confirmBeginExp();
+		getToken(Token.Class.END_EXP, "Expected empty expression");
+		return "";
+	}
+
+	public void confirm(final String msg) throws ScannerException {
+		// confirmations refer to the last token read from the feed,
+		// which have already been made for tokens of the prefix
+		if (pos <= prefixSize)
+			return;
+		confirmations.add(msg);
+		confirmationEnds[pos - 1] = confirmations.size();
+		feed.confirm(msg);
+	}
+
+	public void reject(final String msg) throws ScannerException {
+		feed.reject(msg);
+	}
+
+	public void confirmKeyword() throws ScannerException {
+		confirm(TokenFeed.KEYWORD);
+	}
+
+	public void confirmBeginExp() throws ScannerException {
+		confirm(TokenFeed.BEGIN_EXP);
+	}
+
+	public void confirmEndExp() throws ScannerException {
+		confirm(TokenFeed.END_EXP);
+	}
+
+	public void confirmEndCmd() throws ScannerException {
+		feed.confirmEndCmd();
+	}
+
+	public void confirmKind() throws ScannerException {
+		confirm(TokenFeed.KIND);
+	}
+
+	public void confirmVar() throws ScannerException {
+		confirm(TokenFeed.VARIABLE);
+	}
+
+	public void confirmTerm() throws ScannerException {
+		confirm(TokenFeed.TERM);
+	}
+
+	public void confirmDef() throws ScannerException {
+		confirm(TokenFeed.DEFINITION);
+	}
+
+	public void confirmFunctor(final Functor functor) throws ScannerException {
+		if (functor.definitionDepth() == 0)
+			confirmTerm();
+		else
+			confirmDef();
+	}
+
+	public void confirmStatement() throws ScannerException {
+		confirm(TokenFeed.STATEMENT);
+	}
+
+	public void confirmLabel() throws ScannerException {
+		confirm(TokenFeed.LABEL);
+	}
+
+	public void confirmParameter() throws ScannerException {
+		confirm(TokenFeed.PARAMETER);
+	}
+
+	public void confirmLocator() throws ScannerException {
+		confirm(TokenFeed.LOCATOR);
+	}
+
+	public void confirmString() throws ScannerException {
+		confirm(TokenFeed.STRING);
+	}
+
+}
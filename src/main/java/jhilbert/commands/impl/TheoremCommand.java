@@ -25,6 +25,7 @@
 package jhilbert.commands.impl;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -34,6 +35,7 @@ import jhilbert.data.ConstraintException;
 import jhilbert.data.DVConstraints;
 import jhilbert.data.DataException;
 import jhilbert.data.DataFactory;
+import jhilbert.data.Functor;
 import jhilbert.data.Module;
 import jhilbert.data.Namespace;
 import jhilbert.data.Statement;
@@ -60,6 +62,28 @@ final class TheoremCommand extends AbstractCommand {
 	 */
 	private static final Logger logger = Logger.getLogger(TheoremCommand.class);
 
+	/**
+	 * Queue for deferred proofs, or <code>null</code> if proofs are
+	 * verified immediately.
+	 */
+	private final ProofQueue proofQueue;
+
+	/**
+	 * Proof recorded by the current execution, or <code>null</code>.
+	 */
+	private ProofQueue.Proof recordedProof;
+
+	/**
+	 * Cache of verified proofs, or <code>null</code> if proofs are always
+	 * verified.
+	 */
+	private final ProofCache proofCache;
+
+	/**
+	 * Fingerprints of the names of the module.
+	 */
+	private final ProofCache.Fingerprints fingerprints;
+
 	/**
 	 * Creates a new <code>TheoremCommand</code>.
 	 *
@@ -67,10 +91,58 @@ final class TheoremCommand extends AbstractCommand {
 	 * @param tokenFeed {@link TokenFeed} to obtain statement data.
 	 */
 	public TheoremCommand(final Module module, final TokenFeed tokenFeed) {
+		this(module, tokenFeed, null, null);
+	}
+
+	/**
+	 * Creates a new <code>TheoremCommand</code> which defers verification
+	 * of proofs to the specified {@link ProofQueue}.
+	 *
+	 * @param module {@link Module} to add statement to.
+	 * @param tokenFeed {@link TokenFeed} to obtain statement data.
+	 * @param proofQueue queue for deferred proofs, or <code>null</code>
+	 * 	if proofs are to be verified immediately.
+	 * @param proofCache cache of verified proofs, or <code>null</code> if
+	 * 	proofs are always to be verified. The cache is only used if
+	 * 	proofs are verified immediately.
+	 */
+	TheoremCommand(final Module module, final TokenFeed tokenFeed, final ProofQueue proofQueue,
+			final ProofCache proofCache) {
 		super(module, tokenFeed);
+		this.proofQueue = proofQueue;
+		recordedProof = null;
+		this.proofCache = (proofQueue == null) ? proofCache : null;
+		fingerprints = (this.proofCache == null) ? null : new ProofCache.Fingerprints(module);
+	}
+
+	/**
+	 * Forgets the fingerprints computed so far.
+	 * This method must be called before the meaning of existing names
+	 * may change, for example by identifying kinds.
+	 */
+	void invalidateFingerprints() {
+		if (fingerprints != null)
+			fingerprints.invalidate();
 	}
 
 	public @Override void execute() throws CommandException {
+		recordedProof = null;
+		try {
+			process();
+		} catch (CommandException e) {
+			// a deferred proof comes before anything that went wrong afterwards
+			if (recordedProof != null)
+				proofQueue.verify(recordedProof);
+			throw e;
+		}
+	}
+
+	/**
+	 * Processes the theorem.
+	 *
+	 * @throws CommandException if the theorem cannot be processed.
+	 */
+	private void process() throws CommandException {
 		final Module module = getModule();
 		final Namespace<? extends Symbol> symbolNamespace = module.getSymbolNamespace();
 		assert (symbolNamespace != null): "Module provided null namespace";
@@ -107,14 +179,25 @@ final class TheoremCommand extends AbstractCommand {
 			}
 			feed.confirmEndExp();
 			final Expression consequent = expressionFactory.createExpression(module, feed);
-			final Verifier verifier = VerifierFactory.getInstance().createVerifier(module, feed);
-			verifier.verify(dvConstraints, hypotheses, consequent);
+			ProofCache.Entry verifiedEntry = null;
+			if (proofCache != null) {
+				verifiedEntry = verifyCached(name, dvConstraints, hypotheses, consequent);
+			} else if (proofQueue == null) {
+				final Verifier verifier = VerifierFactory.getInstance().createVerifier(module, feed);
+				verifier.verify(dvConstraints, hypotheses, consequent);
+			} else {
+				recordProof(dvConstraints, hypotheses, consequent);
+			}
 			final List<Expression> hypList = new ArrayList(hypotheses.size());
 			for (final Map.Entry<String, Expression> entry: hypotheses.entrySet())
 				hypList.add(entry.getValue());
 			feed.endExp();
 			dataFactory.createStatement(name, dvConstraints, hypList, consequent, symbolNamespace);
 			feed.confirmEndCmd();
+			if (verifiedEntry != null)
+				proofCache.put(name, verifiedEntry);
+			if (recordedProof != null)
+				proofQueue.add(recordedProof);
 		} catch (NullPointerException e) {
 			logger.error("Unexpected end of input while scanning theorem");
 			throw new CommandException("Unexpected end of input", e);
@@ -136,4 +219,148 @@ final class TheoremCommand extends AbstractCommand {
 		}
 	}
 
+	/**
+	 * Verifies the proof from the feed unless the proof cache holds the
+	 * same proof for the same theorem, with all names the proof depends on
+	 * unchanged. In that case, the confirmations of the cached proof are
+	 * replayed instead. If only the beginning of the proof matches the
+	 * cache, the proof is verified with the matching tokens replayed.
+	 *
+	 * @param name name of the theorem.
+	 * @param dvConstraints DV constraints of the theorem.
+	 * @param hypotheses labelled hypotheses of the theorem.
+	 * @param consequent consequent of the theorem.
+	 *
+	 * @return cache entry for the verified proof, or <code>null</code> if
+	 * 	the cached proof was replayed.
+	 *
+	 * @throws ScannerException if a feed error occurs.
+	 * @throws VerifyException if the proof does not verify.
+	 */
+	private ProofCache.Entry verifyCached(final String name, final DVConstraints dvConstraints,
+			final Map<String, Expression> hypotheses, final Expression consequent)
+	throws ScannerException, VerifyException {
+		final TokenFeed feed = getFeed();
+		final String header = fingerprints.ofHeader(dvConstraints, hypotheses, consequent);
+		ProofCache.Entry entry = proofCache.get(name);
+		int prefixSize = 0;
+		if ((entry != null) && entry.isValid(header, fingerprints)) {
+			prefixSize = replay(entry);
+			if (prefixSize == entry.tokens.length) {
+				if (logger.isDebugEnabled())
+					logger.debug("Proof of " + name + " unchanged");
+				proofCache.recordHit();
+				return null;
+			}
+		} else {
+			entry = null;
+		}
+		proofCache.remove(name);
+		final RecordingTokenFeed recorder = new RecordingTokenFeed(feed, entry, prefixSize);
+		final Verifier verifier = VerifierFactory.getInstance().createVerifier(getModule(), recorder);
+		verifier.verify(dvConstraints, hypotheses, consequent);
+		final Map<String, String> dependencies = new HashMap();
+		for (final Token token: recorder.getTokens()) {
+			if (token.getTokenClass() != Token.Class.ATOM)
+				continue;
+			final String atom = token.getTokenString();
+			if (!dependencies.containsKey(atom))
+				dependencies.put(atom, fingerprints.ofName(atom));
+		}
+		return recorder.createEntry(header, dependencies);
+	}
+
+	/**
+	 * Replays the proof of the specified cache entry as long as it matches
+	 * the tokens from the feed.
+	 *
+	 * @param entry cache entry.
+	 *
+	 * @return number of tokens replayed. If this is less than the number
+	 * 	of tokens of the cached proof, the mismatching token has been
+	 * 	put back to the feed.
+	 *
+	 * @throws ScannerException if a feed error occurs.
+	 */
+	private int replay(final ProofCache.Entry entry) throws ScannerException {
+		final TokenFeed feed = getFeed();
+		int confirmation = 0;
+		for (int i = 0; i != entry.tokens.length; ++i) {
+			final Token token = feed.getToken();
+			if (!entry.matches(i, token)) {
+				if (token != null)
+					feed.putToken(token);
+				return i;
+			}
+			for (; confirmation != entry.confirmationEnds[i]; ++confirmation)
+				feed.confirm(entry.confirmations[confirmation]);
+		}
+		return entry.tokens.length;
+	}
+
+	/**
+	 * Records the proof from the feed for deferred verification.
+	 * If the proof refers to names which are not defined at this point,
+	 * it must not be deferred, as such names might be defined later in the
+	 * module. Such a proof is verified immediately, after all queued
+	 * proofs.
+	 *
+	 * @param dvConstraints DV constraints of the theorem.
+	 * @param hypotheses labelled hypotheses of the theorem.
+	 * @param consequent consequent of the theorem.
+	 *
+	 * @throws ScannerException if a feed error occurs.
+	 * @throws ProofQueue.Failure if a proof verified immediately fails.
+	 */
+	private void recordProof(final DVConstraints dvConstraints, final Map<String, Expression> hypotheses,
+			final Expression consequent)
+	throws ScannerException, ProofQueue.Failure {
+		final Module module = getModule();
+		final Namespace<? extends Symbol> symbolNamespace = module.getSymbolNamespace();
+		final Namespace<? extends Functor> functorNamespace = module.getFunctorNamespace();
+		final TokenFeed feed = getFeed();
+		final String context = feed.getContextString();
+		final List<Token> tokens = new ArrayList();
+		boolean resolved = true;
+		boolean head = false;
+		int depth = 0;
+		do {
+			final Token token = feed.getToken();
+			if (token == null) {
+				resolved = false;
+				break;
+			}
+			tokens.add(token);
+			switch (token.getTokenClass()) {
+				case BEGIN_EXP:
+					++depth;
+					head = (depth > 1);
+					break;
+				case END_EXP:
+					--depth;
+					head = false;
+					break;
+				default:
+					final String atom = token.getTokenString();
+					if (head)
+						resolved &= (functorNamespace.getObjectByString(atom) != null);
+					else if (!((depth == 1) && hypotheses.containsKey(atom)))
+						resolved &= (symbolNamespace.getObjectByString(atom) != null);
+					head = false;
+			}
+			if (tokens.size() == 1)
+				resolved &= (depth == 1);
+		} while (depth > 0);
+		// The statement may restrict its DV constraints, so the proof gets a copy.
+		final DVConstraints proofDVConstraints = DataFactory.getInstance().createDVConstraints();
+		proofDVConstraints.add(dvConstraints);
+		final ProofQueue.Proof proof = new ProofQueue.Proof(module, tokens, context, proofDVConstraints,
+			hypotheses, consequent);
+		if (resolved) {
+			recordedProof = proof;
+			return;
+		}
+		proofQueue.verify(proof);
+	}
+
 }
@@ -25,6 +25,7 @@
 package jhilbert.data;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.Set;
 
 /**
@@ -56,13 +57,16 @@ public interface DVConstraints extends Iterable<Variable[]>, Serializable {
 
 	/**
 	 * Adds the cartesian product of the two specified sets of variables.
+	 * The sets may be given as any collections without duplicates, such
+	 * as {@link jhilbert.expressions.Expression#variableList}.
 	 *
 	 * @param varSet1 first set.
 	 * @param varSet2 second set.
 	 *
 	 * @throws ConstraintException if the two sets are not disjoint.
 	 */
-	public void addProduct(Set<Variable> varSet1, Set<Variable> varSet2) throws ConstraintException;
+	public void addProduct(Collection<? extends Variable> varSet1, Collection<? extends Variable> varSet2)
+	throws ConstraintException;
 
 	/**
 	 * Checks whether the specified variable pair is contained in these
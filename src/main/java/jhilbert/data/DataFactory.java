@@ -24,6 +24,9 @@
 
 package jhilbert.data;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 import jhilbert.expressions.Expression;
@@ -382,4 +385,41 @@ public abstract class DataFactory {
 			final Parameter parameter, final Module parameterModule, final Module module)
 	throws DataException;
 
+	/**
+	 * Writes the specified {@link Module} to the specified output stream
+	 * in a compact, versioned binary format.
+	 *
+	 * @param module module to write.
+	 * @param out output stream.
+	 *
+	 * @throws DataException if the module cannot be encoded.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public abstract void writeModule(Module module, OutputStream out) throws DataException, IOException;
+
+	/**
+	 * Checks whether the specified buffer contains a {@link Module} in
+	 * the format written by {@link #writeModule}, starting at its current
+	 * position. The buffer position is not changed.
+	 *
+	 * @param buffer byte buffer.
+	 *
+	 * @return <code>true</code> if the buffer starts with module data,
+	 * 	<code>false</code> otherwise.
+	 */
+	public abstract boolean isModuleData(ByteBuffer buffer);
+
+	/**
+	 * Reads a {@link Module} previously written with {@link #writeModule}
+	 * from the specified buffer, starting at its current position.
+	 *
+	 * @param buffer byte buffer.
+	 *
+	 * @return the module.
+	 *
+	 * @throws DataException if the buffer does not contain valid module
+	 * 	data, or if the data was written in an unsupported format version.
+	 */
+	public abstract Module readModule(ByteBuffer buffer) throws DataException;
+
 }
@@ -57,4 +57,25 @@ public interface Statement extends Symbol {
 	 */
 	public List<Variable> getMandatoryVariables();
 
+	/**
+	 * Returns the totally unfolded hypotheses of this
+	 * <code>Statement</code>.
+	 *
+	 * @return unfolded hypotheses of this statement.
+	 */
+	public List<Expression> getUnfoldedHypotheses();
+
+	/**
+	 * Returns the totally unfolded consequent of this
+	 * <code>Statement</code>, provided that substituting into it yields
+	 * the same result as substituting into the consequent and unfolding
+	 * afterwards.
+	 * This is not the case if unfolding the consequent introduces dummy
+	 * variables.
+	 *
+	 * @return unfolded consequent of this statement, or <code>null</code>
+	 * 	if the consequent must be substituted before it is unfolded.
+	 */
+	public Expression getUnfoldedConsequent();
+
 }
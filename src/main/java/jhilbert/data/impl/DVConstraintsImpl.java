@@ -24,11 +24,18 @@
 
 package jhilbert.data.impl;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
 import java.util.Set;
 
 import jhilbert.data.ConstraintException;
@@ -44,6 +51,15 @@ import org.apache.log4j.Logger;
 
 /**
  * {@link DVConstraints} implementation.
+ * <p>
+ * Each unordered variable pair is stored once, encoded as a <code>long</code>
+ * made up of two variable identifiers, in an open addressing hash table.
+ * Identifiers are local to each instance: the variables are numbered densely
+ * from one in the order they are registered, and a second table, keyed by
+ * identity, maps variables to their identifiers. Pairs are therefore
+ * translated when constraints are combined with other constraints.
+ * The serialised form is the same set of ordered variable pairs used by
+ * earlier versions, so existing libraries remain readable.
  */
 final class DVConstraintsImpl implements DVConstraints, Serializable {
 
@@ -52,6 +68,13 @@ final class DVConstraintsImpl implements DVConstraints, Serializable {
 	 */
 	private static final long serialVersionUID = jhilbert.Main.VERSION;
 
+	/**
+	 * Serialised fields.
+	 */
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("constraintSet", Set.class)
+	};
+
 	/**
 	 * Logger for this class.
 	 */
@@ -63,31 +86,51 @@ final class DVConstraintsImpl implements DVConstraints, Serializable {
 	private static final Variable[] EMPTY_VAR_ARRAY = new Variable[0];
 
 	/**
-	 * Underlying iterator.
+	 * Initial capacity of the hash tables (must be a power of two).
+	 */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * Pair iterator.
 	 */
-	private static final class DVIterator implements Iterator<Variable[]> {
+	private final class DVIterator implements Iterator<Variable[]> {
 
 		/**
-		 * Base iterator.
+		 * Index of the next pair in {@link #pairs}.
 		 */
-		private final Iterator<ArrayList<Variable>> baseIterator;
+		private int index;
 
 		/**
 		 * Creates a new <code>DVIterator</code>.
+		 */
+		DVIterator() {
+			index = advance(0);
+		}
+
+		/**
+		 * Returns the index of the first used slot at or after the
+		 * specified index.
 		 *
-		 * @param baseIterator constraint set iterator.
+		 * @param start start index.
+		 *
+		 * @return index of a used slot, or the table length.
 		 */
-		DVIterator(final Iterator<ArrayList<Variable>> baseIterator) {
-			assert (baseIterator != null): "Supplied base iterator is null";
-			this.baseIterator = baseIterator;
+		private int advance(int start) {
+			while ((start != pairs.length) && (pairs[start] == 0))
+				++start;
+			return start;
 		}
 
 		public boolean hasNext() {
-			return baseIterator.hasNext();
+			return (index != pairs.length);
 		}
 
 		public Variable[] next() {
-			return baseIterator.next().toArray(EMPTY_VAR_ARRAY);
+			if (index == pairs.length)
+				throw new NoSuchElementException("No more DV constraints");
+			final long pair = pairs[index];
+			index = advance(index + 1);
+			return new Variable[] {getVariable(first(pair)), getVariable(second(pair))};
 		}
 
 		public void remove() {
@@ -98,16 +141,35 @@ final class DVConstraintsImpl implements DVConstraints, Serializable {
 	}
 
 	/**
-	 * Underlying constraints set.
-	 *
-	 * FIXME: We have two choices here:
-	 * <ul>
-	 * <li>Use HashSet<ArrayList>: fast addition and retrieval, slow DV pair creation, lots of overhead
-	 * <li>Use TreeSet<Variable[]> with a suitable comparator: slower addition and retrieval, faster pair creation
-	 * </ul>
-	 * I'm implementing the first method now, but I'd say the second method warrants some testing...
+	 * Encoded variable pairs, zero marking free slots.
+	 */
+	private transient long[] pairs;
+
+	/**
+	 * Number of pairs.
+	 */
+	private transient int pairCount;
+
+	/**
+	 * Identifiers of the registered variables, hashed by variable identity,
+	 * zero marking free slots.
+	 */
+	private transient int[] identifiers;
+
+	/**
+	 * Registered variables, indexed by identifier. Slot zero is unused.
+	 */
+	private transient VariableImpl[] variables;
+
+	/**
+	 * Number of variables, which is also the highest identifier in use.
 	 */
-	private final Set<ArrayList<Variable>> constraintSet;
+	private transient int variableCount;
+
+	/**
+	 * Scratch space for variable identifiers in {@link #addProduct}.
+	 */
+	private transient int[] scratch;
 
 	/**
 	 * Creates new, empty <code>DVConstraintsImpl</code>.
@@ -115,7 +177,7 @@ final class DVConstraintsImpl implements DVConstraints, Serializable {
 	 * This constructor is public as it may be used by serialisation.
 	 */
 	public DVConstraintsImpl() {
-		constraintSet = new HashSet();
+		clear();
 	}
 
 	/**
@@ -131,7 +193,7 @@ final class DVConstraintsImpl implements DVConstraints, Serializable {
 	 */
 	DVConstraintsImpl(final Namespace<? extends Symbol> namespace, final TokenFeed tokenFeed)
 	throws ConstraintException {
-		constraintSet = new HashSet();
+		clear();
 		assert (namespace != null): "Supplied namespace is null";
 		assert (tokenFeed != null): "Supplied token scanner is null";
 		try {
@@ -179,85 +241,372 @@ final class DVConstraintsImpl implements DVConstraints, Serializable {
 		}
 	}
 
+	/**
+	 * Empties these constraints.
+	 */
+	private void clear() {
+		pairs = new long[INITIAL_CAPACITY];
+		pairCount = 0;
+		identifiers = new int[INITIAL_CAPACITY];
+		variables = new VariableImpl[INITIAL_CAPACITY];
+		variableCount = 0;
+		if (scratch == null)
+			scratch = new int[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Returns the identifier of the specified variable. Identifiers are
+	 * positive, so that encoded pairs are never zero.
+	 *
+	 * @param var variable.
+	 *
+	 * @return identifier of <code>var</code>, or zero if the variable is
+	 * 	not registered.
+	 */
+	private int getIdentifier(final Variable var) {
+		return identifiers[slot(var)];
+	}
+
+	/**
+	 * Encodes the unordered pair of the specified variable identifiers.
+	 *
+	 * @param id1 first identifier.
+	 * @param id2 second identifier.
+	 *
+	 * @return encoded pair.
+	 */
+	private static long encode(final int id1, final int id2) {
+		if (id1 < id2)
+			return (((long) id1) << 32) | id2;
+		return (((long) id2) << 32) | id1;
+	}
+
+	/**
+	 * Hash function for the tables.
+	 *
+	 * @param key key to hash.
+	 *
+	 * @return hash value.
+	 */
+	private static int hash(final long key) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32);
+	}
+
+	/**
+	 * Finds the slot of the specified pair.
+	 *
+	 * @param table pair table.
+	 * @param pair encoded pair.
+	 *
+	 * @return slot containing <code>pair</code>, or the free slot where
+	 * 	it would be inserted.
+	 */
+	private static int slot(final long[] table, final long pair) {
+		final int mask = table.length - 1;
+		int i = hash(pair) & mask;
+		while ((table[i] != 0) && (table[i] != pair))
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	/**
+	 * Finds the slot of the specified variable in {@link #identifiers}.
+	 *
+	 * @param var variable.
+	 *
+	 * @return slot containing the identifier of <code>var</code>, or the
+	 * 	free slot where it would be inserted.
+	 */
+	private int slot(final Variable var) {
+		final int mask = identifiers.length - 1;
+		int i = hash(System.identityHashCode(var)) & mask;
+		while ((identifiers[i] != 0) && (variables[identifiers[i]] != var))
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	/**
+	 * Adds an encoded pair.
+	 *
+	 * @param pair encoded pair.
+	 */
+	private void addPair(final long pair) {
+		if (4 * (pairCount + 1) > 3 * pairs.length) {
+			final long[] oldPairs = pairs;
+			pairs = new long[oldPairs.length << 1];
+			for (final long oldPair: oldPairs)
+				if (oldPair != 0)
+					pairs[slot(pairs, oldPair)] = oldPair;
+		}
+		final int i = slot(pairs, pair);
+		if (pairs[i] == 0) {
+			pairs[i] = pair;
+			++pairCount;
+		}
+	}
+
+	/**
+	 * Registers the specified variable and returns its identifier.
+	 *
+	 * @param var variable to register.
+	 *
+	 * @return identifier of <code>var</code>.
+	 */
+	private int addVariable(final VariableImpl var) {
+		int i = slot(var);
+		if (identifiers[i] != 0)
+			return identifiers[i];
+		if (4 * (variableCount + 1) > 3 * identifiers.length) {
+			final VariableImpl[] newVariables = new VariableImpl[variables.length << 1];
+			System.arraycopy(variables, 0, newVariables, 0, variableCount + 1);
+			variables = newVariables;
+			identifiers = new int[identifiers.length << 1];
+			for (int id = 1; id <= variableCount; ++id)
+				identifiers[slot(variables[id])] = id;
+			i = slot(var);
+		}
+		final int id = ++variableCount;
+		identifiers[i] = id;
+		variables[id] = var;
+		return id;
+	}
+
+	/**
+	 * Returns the registered variable with the specified identifier.
+	 *
+	 * @param id identifier.
+	 *
+	 * @return the variable.
+	 */
+	private VariableImpl getVariable(final int id) {
+		assert ((id > 0) && (id <= variableCount)): "Unregistered variable in DV pair";
+		return variables[id];
+	}
+
+	/**
+	 * Decodes the first identifier of the specified pair.
+	 *
+	 * @param pair encoded pair.
+	 *
+	 * @return smaller identifier of <code>pair</code>.
+	 */
+	private static int first(final long pair) {
+		return (int) (pair >>> 32);
+	}
+
+	/**
+	 * Decodes the second identifier of the specified pair.
+	 *
+	 * @param pair encoded pair.
+	 *
+	 * @return larger identifier of <code>pair</code>.
+	 */
+	private static int second(final long pair) {
+		return (int) pair;
+	}
+
+	/**
+	 * Checks whether the specified encoded pair is contained in these
+	 * constraints.
+	 *
+	 * @param pair encoded pair.
+	 *
+	 * @return <code>true</code> if the pair is contained,
+	 * 	<code>false</code> otherwise.
+	 */
+	private boolean containsPair(final long pair) {
+		return (pairs[slot(pairs, pair)] != 0);
+	}
+
 	public void add(final Variable... vars) throws ConstraintException {
 		assert (vars != null): "Supplied variables are null";
-		ArrayList<Variable> element;
+		final int[] ids = new int[vars.length];
 		for (int i = 0; i != vars.length; ++i) {
 			assert (vars[i] != null): "Variable is null";
-			for (int j = i + 1; j != vars.length; ++j) {
-				if (vars[i].equals(vars[j])) {
+			for (int j = 0; j != i; ++j) {
+				// variables are never identified, so equality is identity
+				if (vars[i] == vars[j]) {
 					logger.error("Same variable appearing twice in DV list: " + vars[i]);
 					throw new ConstraintException("Same variable appearing twice in DV list");
 				}
-				element = new ArrayList(2);
-				element.add(vars[i]);
-				element.add(vars[j]);
-				constraintSet.add(element);
-				element = new ArrayList(2);
-				element.add(vars[j]);
-				element.add(vars[i]);
-				constraintSet.add(element);
+				if (ids[j] == 0)
+					ids[j] = addVariable((VariableImpl) vars[j]);
+				if (ids[i] == 0)
+					ids[i] = addVariable((VariableImpl) vars[i]);
+				addPair(encode(ids[i], ids[j]));
 			}
 		}
 	}
 
 	public void add(final DVConstraints dvConstraints) {
 		assert (dvConstraints instanceof DVConstraintsImpl): "Implementation type error";
-		constraintSet.addAll(((DVConstraintsImpl) dvConstraints).constraintSet);
+		final DVConstraintsImpl dv = (DVConstraintsImpl) dvConstraints;
+		for (final long pair: dv.pairs)
+			if (pair != 0)
+				addPair(encode(addVariable(dv.variables[first(pair)]), addVariable(dv.variables[second(pair)])));
+	}
+
+	/**
+	 * Registers the specified variables and stores their identifiers in
+	 * {@link #scratch}, starting at the specified offset.
+	 * Random access lists are traversed without an iterator.
+	 *
+	 * @param vars variables to register.
+	 * @param offset offset into the scratch array.
+	 *
+	 * @return offset after the last stored identifier.
+	 */
+	private int registerAll(final Collection<? extends Variable> vars, int offset) {
+		final int size = vars.size();
+		if (scratch.length < offset + size) {
+			final int[] newScratch = new int[2 * (offset + size)];
+			System.arraycopy(scratch, 0, newScratch, 0, offset);
+			scratch = newScratch;
+		}
+		if (vars instanceof RandomAccess) {
+			final List<? extends Variable> list = (List<? extends Variable>) vars;
+			for (int i = 0; i != size; ++i) {
+				assert (list.get(i) != null): "Variable is null";
+				scratch[offset++] = addVariable((VariableImpl) list.get(i));
+			}
+		} else {
+			for (final Variable var: vars) {
+				assert (var != null): "Variable is null";
+				scratch[offset++] = addVariable((VariableImpl) var);
+			}
+		}
+		return offset;
 	}
 
-	public void addProduct(final Set<Variable> varSet1, final Set<Variable> varSet2) throws ConstraintException {
+	public void addProduct(final Collection<? extends Variable> varSet1, final Collection<? extends Variable> varSet2)
+	throws ConstraintException {
 		assert (varSet1 != null): "First supplied set of variables is null";
 		assert (varSet2 != null): "Second supplied set of variables is null";
-		ArrayList<Variable> element;
-		for (final Variable var1: varSet1) {
-			assert (var1 != null): "Variable is null";
-			for (final Variable var2: varSet2) {
-				assert (var2 != null): "Variable is null";
-				if (var1.equals(var2)) {
+		final int end2 = registerAll(varSet2, 0);
+		final int end1 = registerAll(varSet1, end2);
+		final int[] ids = scratch;
+		for (int i = end2; i != end1; ++i) {
+			final int id1 = ids[i];
+			for (int j = 0; j != end2; ++j) {
+				if (id1 == ids[j]) {
 					logger.error("Intersection of cartesian product factors is not empty");
-					logger.debug("Common element: " + var1);
+					logger.debug("Common element: " + getVariable(id1));
 					throw new ConstraintException("Intersection of cartesian product factors is not empty");
 				}
-				element = new ArrayList(2);
-				element.add(var1);
-				element.add(var2);
-				constraintSet.add(element);
-				element = new ArrayList(2);
-				element.add(var2);
-				element.add(var1);
-				constraintSet.add(element);
+				addPair(encode(id1, ids[j]));
 			}
 		}
 	}
 
 	public boolean contains(final Variable var1, final Variable var2) {
-		final ArrayList<Variable> element = new ArrayList(2);
-		element.add(var1);
-		element.add(var2);
-		return constraintSet.contains(element);
+		assert (var1 != null): "First supplied variable is null";
+		assert (var2 != null): "Second supplied variable is null";
+		final int id1 = getIdentifier(var1);
+		final int id2 = getIdentifier(var2);
+		if ((id1 == 0) || (id2 == 0))
+			return false;
+		return containsPair(encode(id1, id2));
 	}
 
-	 public boolean contains(final DVConstraints dv) {
-	 	assert (dv instanceof DVConstraintsImpl): "Implementation type error";
-		return constraintSet.containsAll(((DVConstraintsImpl) dv).constraintSet);
-	 }
+	public boolean contains(final DVConstraints dv) {
+		assert (dv instanceof DVConstraintsImpl): "Implementation type error";
+		final DVConstraintsImpl other = (DVConstraintsImpl) dv;
+		if (other.pairCount > pairCount)
+			return false;
+		for (final long pair: other.pairs) {
+			if (pair == 0)
+				continue;
+			final int id1 = getIdentifier(other.variables[first(pair)]);
+			final int id2 = getIdentifier(other.variables[second(pair)]);
+			if ((id1 == 0) || (id2 == 0) || !containsPair(encode(id1, id2)))
+				return false;
+		}
+		return true;
+	}
 
 	public void restrict(final Set<Variable> varSet) {
 		assert (varSet != null): "Supplied set of variables is null";
-		for (final Iterator<ArrayList<Variable>> i = constraintSet.iterator(); i.hasNext();) {
-			final ArrayList<Variable> element = i.next();
-			if (!(varSet.contains(element.get(0)) && varSet.contains(element.get(1))))
-				i.remove();
+		final long[] oldPairs = pairs;
+		final VariableImpl[] oldVariables = variables;
+		final int oldVariableCount = variableCount;
+		clear();
+		// translation from old to new identifiers, zero for dropped variables
+		final int[] translation = new int[oldVariableCount + 1];
+		for (int id = 1; id <= oldVariableCount; ++id)
+			if (varSet.contains(oldVariables[id]))
+				translation[id] = addVariable(oldVariables[id]);
+		for (final long pair: oldPairs) {
+			if (pair == 0)
+				continue;
+			final int id1 = translation[first(pair)];
+			final int id2 = translation[second(pair)];
+			if ((id1 != 0) && (id2 != 0))
+				addPair(encode(id1, id2));
 		}
 	}
 
 	public Iterator<Variable[]> iterator() {
-		return new DVIterator(constraintSet.iterator());
+		return new DVIterator();
 	}
 
 	public @Override String toString() {
-		return constraintSet.toString();
+		final StringBuilder result = new StringBuilder();
+		result.append('[');
+		for (final Iterator<Variable[]> i = iterator(); i.hasNext();) {
+			final Variable[] dv = i.next();
+			result.append('[').append(dv[0]).append(", ").append(dv[1]).append(']');
+			if (i.hasNext())
+				result.append(", ");
+		}
+		result.append(']');
+		return result.toString();
+	}
+
+	/**
+	 * Writes these constraints in the serialised form of earlier versions,
+	 * as a set of ordered variable pairs.
+	 *
+	 * @param out object output stream.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private void writeObject(final ObjectOutputStream out) throws IOException {
+		final Set<ArrayList<Variable>> constraintSet = new HashSet();
+		for (final Variable[] dv: this) {
+			ArrayList<Variable> element = new ArrayList(2);
+			element.add(dv[0]);
+			element.add(dv[1]);
+			constraintSet.add(element);
+			element = new ArrayList(2);
+			element.add(dv[1]);
+			element.add(dv[0]);
+			constraintSet.add(element);
+		}
+		final ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("constraintSet", constraintSet);
+		out.writeFields();
+	}
+
+	/**
+	 * Reads these constraints from their serialised form.
+	 *
+	 * @param in object input stream.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 * @throws ClassNotFoundException if a class of a serialised object
+	 * 	cannot be found.
+	 */
+	private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+		final ObjectInputStream.GetField fields = in.readFields();
+		final Set<ArrayList<Variable>> constraintSet = (Set<ArrayList<Variable>>) fields.get("constraintSet", null);
+		clear();
+		if (constraintSet == null)
+			return;
+		for (final ArrayList<Variable> element: constraintSet) {
+			final int id1 = addVariable((VariableImpl) element.get(0));
+			final int id2 = addVariable((VariableImpl) element.get(1));
+			addPair(encode(id1, id2));
+		}
 	}
 
 }
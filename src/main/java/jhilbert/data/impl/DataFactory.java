@@ -24,6 +24,9 @@
 
 package jhilbert.data.impl;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -181,4 +184,20 @@ public final class DataFactory extends jhilbert.data.DataFactory {
 		return new ParameterLoaderImpl(parameter, parameterModule, module);
 	}
 
+	public @Override void writeModule(final Module module, final OutputStream out) throws DataException, IOException {
+		assert (module instanceof ModuleImpl): "Implementation type error";
+		assert (out != null): "Supplied output stream is null";
+		ModuleCodec.write((ModuleImpl) module, out);
+	}
+
+	public @Override boolean isModuleData(final ByteBuffer buffer) {
+		assert (buffer != null): "Supplied buffer is null";
+		return ModuleCodec.isEncoded(buffer);
+	}
+
+	public @Override ModuleImpl readModule(final ByteBuffer buffer) throws DataException {
+		assert (buffer != null): "Supplied buffer is null";
+		return ModuleCodec.read(buffer);
+	}
+
 }
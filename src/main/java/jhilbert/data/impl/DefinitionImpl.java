@@ -174,7 +174,7 @@ final class DefinitionImpl extends AbstractFunctor implements Definition, Serial
 			this.dvConstraints = new DVConstraintsImpl();
 		else {
 			this.dvConstraints = anonymiser.anonymise(dvConstraints);
-			final Set<Variable> scope = this.definiens.variables();
+			final Set<Variable> scope = new HashSet(this.definiens.variableList());
 			scope.addAll(arguments);
 			this.dvConstraints.restrict(scope);
 		}
@@ -191,6 +191,41 @@ final class DefinitionImpl extends AbstractFunctor implements Definition, Serial
 		dummyVariables = Collections.unmodifiableSet(dummyVariablesTemp);
 	}
 
+	/**
+	 * Creates a new <code>DefinitionImpl</code> from previously
+	 * calculated data, as stored by {@link ModuleCodec}.
+	 *
+	 * @param name name of new definition.
+	 * @param orig original definition, or <code>null</code>.
+	 * @param parameterIndex index of parameter of <code>orig</code>.
+	 * @param dvConstraints DV constraints of the definition.
+	 * @param arguments anonymised arguments.
+	 * @param dummyVariables dummy variables.
+	 * @param definiens anonymised definiens.
+	 */
+	DefinitionImpl(final String name, final DefinitionImpl orig, final int parameterIndex,
+			final DVConstraintsImpl dvConstraints, final LinkedHashSet<Variable> arguments,
+			final Set<Variable> dummyVariables, final Expression definiens) {
+		super(name, orig, parameterIndex);
+		assert (dvConstraints != null): "Supplied DV constraints are null";
+		assert (arguments != null): "Supplied arguments are null";
+		assert (dummyVariables != null): "Supplied dummy variables are null";
+		assert (definiens != null): "Supplied definiens is null";
+		this.dvConstraints = dvConstraints;
+		this.arguments = arguments;
+		this.dummyVariables = Collections.unmodifiableSet(dummyVariables);
+		final List<Kind> tempList = new ArrayList(arguments.size());
+		for (final Variable var: arguments)
+			tempList.add(var.getKind());
+		inputKindList = Collections.unmodifiableList(tempList);
+		this.definiens = definiens;
+		final Term term = definiens.getValue();
+		if (term.isVariable())
+			definitionDepth = 1;
+		else
+			definitionDepth = ((Functor) term).definitionDepth() + 1;
+	}
+
 	public Set<Variable> getDummyVariables() {
 		return dummyVariables;
 	}
@@ -0,0 +1,978 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+package jhilbert.data.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jhilbert.data.ConstraintException;
+import jhilbert.data.DVConstraints;
+import jhilbert.data.DataException;
+import jhilbert.data.Functor;
+import jhilbert.data.Kind;
+import jhilbert.data.Parameter;
+import jhilbert.data.Term;
+import jhilbert.data.Variable;
+import jhilbert.expressions.Expression;
+import jhilbert.expressions.ExpressionFactory;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Compact binary encoding of {@link ModuleImpl}s.
+ * <p>
+ * An encoded module starts with the magic number {@link #MAGIC} and the
+ * format version {@link #VERSION}, followed by a table of all strings
+ * used in the module. Kinds, functors, variables and parameters are
+ * numbered in the order in which they are encoded and subsequently
+ * referred to by their index only. Expressions are stored as flat
+ * prefix order sequences of functor and variable codes. All counts and
+ * indices are stored as unsigned variable length integers.
+ * <p>
+ * Original names of objects which have been loaded from parameters are
+ * stored by name only, as nothing else is needed from them once a module
+ * has been built.
+ */
+final class ModuleCodec {
+
+	/**
+	 * Logger for this class.
+	 */
+	private static final Logger logger = Logger.getLogger(ModuleCodec.class);
+
+	/**
+	 * Magic number ("JHM\0") at the start of each encoded module.
+	 */
+	static final int MAGIC = 0x4A484D00;
+
+	/**
+	 * Format version.
+	 * Increment this whenever the format changes incompatibly.
+	 */
+	static final int VERSION = 1;
+
+	/**
+	 * Functor tag for terms.
+	 */
+	private static final int TERM = 0;
+
+	/**
+	 * Functor tag for definitions.
+	 */
+	private static final int DEFINITION = 1;
+
+	/**
+	 * Symbol tag for variables.
+	 */
+	private static final int VARIABLE = 0;
+
+	/**
+	 * Symbol tag for statements.
+	 */
+	private static final int STATEMENT = 1;
+
+	/**
+	 * Variable type of named variables.
+	 */
+	private static final int NAMED = 0;
+
+	/**
+	 * Variable type of unnamed variables.
+	 */
+	private static final int UNNAMED = 1;
+
+	/**
+	 * Variable type of dummy variables.
+	 */
+	private static final int DUMMY = 2;
+
+	/**
+	 * Checks whether the specified buffer starts with an encoded module.
+	 * The position of the buffer is not changed.
+	 *
+	 * @param buffer byte buffer.
+	 *
+	 * @return <code>true</code> if <code>buffer</code> starts with
+	 * 	{@link #MAGIC}, <code>false</code> otherwise.
+	 */
+	static boolean isEncoded(final ByteBuffer buffer) {
+		assert (buffer != null): "Supplied buffer is null";
+		return (buffer.remaining() >= 4) && (buffer.getInt(buffer.position()) == MAGIC);
+	}
+
+	/**
+	 * Encodes the specified module to the specified output stream.
+	 *
+	 * @param module module to encode.
+	 * @param out output stream.
+	 *
+	 * @throws DataException if the module refers to objects which are not
+	 * 	part of it.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	static void write(final ModuleImpl module, final OutputStream out) throws DataException, IOException {
+		assert (module != null): "Supplied module is null";
+		assert (out != null): "Supplied output stream is null";
+		final Encoder encoder = new Encoder();
+		encoder.encode(module);
+		encoder.writeTo(out);
+	}
+
+	/**
+	 * Decodes a module from the specified buffer, starting at its current
+	 * position.
+	 *
+	 * @param buffer buffer to decode from.
+	 *
+	 * @return the decoded module.
+	 *
+	 * @throws DataException if the buffer does not contain a valid encoded
+	 * 	module.
+	 */
+	static ModuleImpl read(final ByteBuffer buffer) throws DataException {
+		assert (buffer != null): "Supplied buffer is null";
+		try {
+			return (new Decoder(buffer.slice())).decode();
+		} catch (BufferUnderflowException e) {
+			logger.error("Unexpected end of encoded module data");
+			throw new DataException("Unexpected end of encoded module data", e);
+		} catch (IndexOutOfBoundsException e) {
+			logger.error("Invalid index in encoded module data");
+			throw new DataException("Invalid index in encoded module data", e);
+		} catch (ClassCastException e) {
+			logger.error("Object of wrong type in encoded module data");
+			throw new DataException("Object of wrong type in encoded module data", e);
+		} catch (ConstraintException e) {
+			logger.error("Invalid DV constraints in encoded module data");
+			throw new DataException("Invalid DV constraints in encoded module data", e);
+		}
+	}
+
+	/**
+	 * Module encoder.
+	 */
+	private static final class Encoder {
+
+		/**
+		 * Encoded data without header and string table.
+		 */
+		private byte[] data;
+
+		/**
+		 * Size of encoded data.
+		 */
+		private int size;
+
+		/**
+		 * Strings in order of appearance.
+		 */
+		private final List<String> stringList;
+
+		/**
+		 * String indices.
+		 */
+		private final Map<String, Integer> strings;
+
+		/**
+		 * Parameter indices.
+		 */
+		private final Map<Parameter, Integer> parameters;
+
+		/**
+		 * Kind indices.
+		 */
+		private final Map<Kind, Integer> kinds;
+
+		/**
+		 * Functor indices.
+		 */
+		private final Map<Functor, Integer> functors;
+
+		/**
+		 * Variable indices.
+		 */
+		private final Map<Variable, Integer> variables;
+
+		/**
+		 * Creates a new <code>Encoder</code>.
+		 */
+		Encoder() {
+			data = new byte[4096];
+			size = 0;
+			stringList = new ArrayList();
+			strings = new HashMap();
+			parameters = new IdentityHashMap();
+			kinds = new IdentityHashMap();
+			functors = new IdentityHashMap();
+			variables = new IdentityHashMap();
+		}
+
+		/**
+		 * Appends a byte.
+		 *
+		 * @param b byte to append.
+		 */
+		private void writeByte(final int b) {
+			if (size == data.length) {
+				final byte[] newData = new byte[data.length << 1];
+				System.arraycopy(data, 0, newData, 0, size);
+				data = newData;
+			}
+			data[size++] = (byte) b;
+		}
+
+		/**
+		 * Appends a non-negative integer in variable length encoding.
+		 *
+		 * @param i integer to append.
+		 */
+		private void writeVarInt(int i) {
+			assert (i >= 0): "Negative integer supplied";
+			while ((i & ~0x7F) != 0) {
+				writeByte((i & 0x7F) | 0x80);
+				i >>>= 7;
+			}
+			writeByte(i);
+		}
+
+		/**
+		 * Appends the index of the specified string, adding the string to
+		 * the string table if necessary.
+		 *
+		 * @param s string.
+		 */
+		private void writeString(final String s) {
+			assert (s != null): "Supplied string is null";
+			Integer index = strings.get(s);
+			if (index == null) {
+				index = stringList.size();
+				strings.put(s, index);
+				stringList.add(s);
+			}
+			writeVarInt(index);
+		}
+
+		/**
+		 * Appends an index from the specified index map.
+		 *
+		 * @param map index map.
+		 * @param o object.
+		 *
+		 * @throws DataException if <code>o</code> is not in
+		 * 	<code>map</code>.
+		 */
+		private <E> void writeIndex(final Map<E, Integer> map, final E o) throws DataException {
+			final Integer index = map.get(o);
+			if (index == null) {
+				logger.error("Object " + o + " does not belong to the module being encoded");
+				throw new DataException("Object does not belong to module");
+			}
+			writeVarInt(index);
+		}
+
+		/**
+		 * Appends the original name and the parameter index of the
+		 * specified name.
+		 *
+		 * @param name name.
+		 */
+		private void writeOrigin(final AbstractName name) {
+			final AbstractName orig = name.getOriginalName();
+			if (orig == null)
+				writeVarInt(0);
+			else {
+				writeVarInt(1);
+				writeString(orig.getNameString());
+			}
+			writeVarInt(name.getParameterIndex() + 1);
+		}
+
+		/**
+		 * Appends a reference to the specified variable.
+		 *
+		 * @param var variable.
+		 *
+		 * @throws DataException if the kind of the variable does not
+		 * 	belong to the module.
+		 */
+		private void writeVariable(final Variable var) throws DataException {
+			writeVariable(var, false);
+		}
+
+		/**
+		 * Appends a reference to the specified variable, optionally as
+		 * an expression node code.
+		 * Variables are declared on their first reference.
+		 *
+		 * @param var variable.
+		 * @param node whether to write an expression node code.
+		 *
+		 * @throws DataException if the kind of the variable does not
+		 * 	belong to the module.
+		 */
+		private void writeVariable(final Variable var, final boolean node) throws DataException {
+			final Integer index = variables.get(var);
+			if (index != null) {
+				writeVarInt(node ? ((index << 1) | 1) : index);
+				return;
+			}
+			final int newIndex = variables.size();
+			variables.put(var, newIndex);
+			writeVarInt(node ? ((newIndex << 1) | 1) : newIndex);
+			if (var.isDummy())
+				writeVarInt(DUMMY);
+			else if (var instanceof UnnamedVariable)
+				writeVarInt(UNNAMED);
+			else
+				writeVarInt(NAMED);
+			writeIndex(kinds, var.getKind());
+			if (!(var.isDummy() || (var instanceof UnnamedVariable)))
+				writeString(var.getNameString());
+		}
+
+		/**
+		 * Appends the specified variables.
+		 *
+		 * @param vars variables.
+		 *
+		 * @throws DataException if a variable kind does not belong to the
+		 * 	module.
+		 */
+		private void writeVariables(final Collection<Variable> vars) throws DataException {
+			writeVarInt(vars.size());
+			for (final Variable var: vars)
+				writeVariable(var);
+		}
+
+		/**
+		 * Appends the specified expression in prefix order.
+		 * Functors are coded as twice their index, variables as twice
+		 * their index plus one.
+		 *
+		 * @param expr expression.
+		 *
+		 * @throws DataException if the expression refers to objects not
+		 * 	belonging to the module.
+		 */
+		private void writeExpression(final Expression expr) throws DataException {
+			final List<Expression> nodes = new ArrayList();
+			final List<Expression> stack = new ArrayList();
+			stack.add(expr);
+			while (!stack.isEmpty()) {
+				final Expression node = stack.remove(stack.size() - 1);
+				nodes.add(node);
+				final List<Expression> children = node.getChildren();
+				for (int i = children.size() - 1; i >= 0; --i)
+					stack.add(children.get(i));
+			}
+			writeVarInt(nodes.size());
+			for (final Expression node: nodes) {
+				final Term term = node.getValue();
+				if (term.isVariable()) {
+					writeVariable((Variable) term, true);
+				} else {
+					final Integer index = functors.get(term);
+					if (index == null) {
+						logger.error("Functor " + term + " does not belong to the module being encoded");
+						throw new DataException("Object does not belong to module");
+					}
+					writeVarInt(index << 1);
+				}
+			}
+		}
+
+		/**
+		 * Appends the specified DV constraints.
+		 *
+		 * @param dv DV constraints.
+		 *
+		 * @throws DataException if a variable kind does not belong to the
+		 * 	module.
+		 */
+		private void writeDVConstraints(final DVConstraints dv) throws DataException {
+			final List<Variable[]> pairs = new ArrayList();
+			for (final Variable[] pair: dv)
+				pairs.add(pair);
+			writeVarInt(pairs.size());
+			for (final Variable[] pair: pairs) {
+				writeVariable(pair[0]);
+				writeVariable(pair[1]);
+			}
+		}
+
+		/**
+		 * Appends the aliases and equivalence classes of the specified
+		 * namespace.
+		 *
+		 * @param namespace namespace.
+		 * @param map index map for the namespace objects.
+		 *
+		 * @throws DataException if an alias does not belong to the
+		 * 	namespace.
+		 */
+		private <E extends AbstractName> void writeIdentities(final NamespaceImpl<E> namespace,
+				final Map<? super E, Integer> map) throws DataException {
+			final Map<String, E> aliases = namespace.aliases();
+			writeVarInt(aliases.size());
+			for (final Map.Entry<String, E> alias: aliases.entrySet()) {
+				writeString(alias.getKey());
+				writeIndex((Map<E, Integer>) map, alias.getValue());
+			}
+			final Collection<Set<E>> classes = namespace.equivalenceClasses();
+			writeVarInt(classes.size());
+			for (final Set<E> equivalenceClass: classes) {
+				writeVarInt(equivalenceClass.size());
+				for (final E o: equivalenceClass)
+					writeIndex((Map<E, Integer>) map, o);
+			}
+		}
+
+		/**
+		 * Encodes the specified module.
+		 *
+		 * @param module module to encode.
+		 *
+		 * @throws DataException if the module refers to objects which
+		 * 	are not part of it.
+		 */
+		void encode(final ModuleImpl module) throws DataException {
+			writeString(module.getName());
+			final long revision = module.getRevision();
+			for (int shift = 56; shift >= 0; shift -= 8)
+				writeByte((int) (revision >>> shift));
+			// parameters
+			final List<Parameter> parameterList = module.getParameters();
+			writeVarInt(parameterList.size());
+			for (final Parameter parameter: parameterList) {
+				writeString(parameter.getName());
+				writeString(parameter.getLocator());
+				writeString(parameter.getPrefix());
+				final List<Parameter> parameterParameters = parameter.getParameterList();
+				writeVarInt(parameterParameters.size());
+				for (final Parameter p: parameterParameters)
+					writeIndex(parameters, p);
+				parameters.put(parameter, parameters.size());
+			}
+			// kinds
+			final NamespaceImpl<KindImpl> kindNamespace = module.getKindNamespace();
+			writeVarInt(kindNamespace.objects().size());
+			for (final KindImpl kind: kindNamespace.objects()) {
+				writeString(kind.getNameString());
+				writeOrigin(kind);
+				kinds.put(kind, kinds.size());
+			}
+			writeIdentities(kindNamespace, kinds);
+			// functors
+			final NamespaceImpl<AbstractFunctor> functorNamespace = module.getFunctorNamespace();
+			writeVarInt(functorNamespace.objects().size());
+			for (final AbstractFunctor functor: functorNamespace.objects()) {
+				writeString(functor.getNameString());
+				writeOrigin(functor);
+				if (functor instanceof DefinitionImpl) {
+					final DefinitionImpl definition = (DefinitionImpl) functor;
+					writeVarInt(DEFINITION);
+					writeVariables(definition.getArguments());
+					writeVariables(definition.getDummyVariables());
+					writeDVConstraints(definition.getDVConstraints());
+					writeExpression(definition.getDefiniens());
+				} else {
+					writeVarInt(TERM);
+					writeIndex(kinds, functor.getKind());
+					final List<? extends Kind> inputKinds = functor.getInputKinds();
+					writeVarInt(inputKinds.size());
+					for (final Kind kind: inputKinds)
+						writeIndex(kinds, kind);
+				}
+				functors.put(functor, functors.size());
+			}
+			writeIdentities(functorNamespace, functors);
+			// symbols
+			final NamespaceImpl<SymbolImpl> symbolNamespace = module.getSymbolNamespace();
+			final Map<SymbolImpl, Integer> symbols = new IdentityHashMap();
+			writeVarInt(symbolNamespace.objects().size());
+			for (final SymbolImpl symbol: symbolNamespace.objects()) {
+				if (symbol.isVariable()) {
+					writeVarInt(VARIABLE);
+					writeVariable((Variable) symbol);
+				} else {
+					final StatementImpl statement = (StatementImpl) symbol;
+					writeVarInt(STATEMENT);
+					writeString(statement.getNameString());
+					writeOrigin(statement);
+					writeDVConstraints(statement.getDVConstraints());
+					final List<Expression> hypotheses = statement.getHypotheses();
+					writeVarInt(hypotheses.size());
+					for (final Expression hypothesis: hypotheses)
+						writeExpression(hypothesis);
+					writeExpression(statement.getConsequent());
+					writeVariables(statement.getMandatoryVariables());
+				}
+				symbols.put(symbol, symbols.size());
+			}
+			writeIdentities(symbolNamespace, symbols);
+		}
+
+		/**
+		 * Writes header, string table and encoded data to the specified
+		 * output stream.
+		 *
+		 * @param out output stream.
+		 *
+		 * @throws IOException if an I/O error occurs.
+		 */
+		void writeTo(final OutputStream out) throws IOException {
+			final byte[] body = data;
+			final int bodySize = size;
+			data = new byte[64 + 16 * stringList.size()];
+			size = 0;
+			for (int shift = 24; shift >= 0; shift -= 8)
+				writeByte(MAGIC >>> shift);
+			writeVarInt(VERSION);
+			writeVarInt(stringList.size());
+			for (final String s: stringList) {
+				final byte[] bytes = s.getBytes(/* FIXME: 1.5 compat */ "UTF-8");
+				writeVarInt(bytes.length);
+				for (final byte b: bytes)
+					writeByte(b);
+			}
+			out.write(data, 0, size);
+			out.write(body, 0, bodySize);
+			out.flush();
+		}
+
+	}
+
+	/**
+	 * Module decoder.
+	 */
+	private static final class Decoder {
+
+		/**
+		 * Buffer to decode from.
+		 */
+		private final ByteBuffer buffer;
+
+		/**
+		 * String table.
+		 */
+		private String[] strings;
+
+		/**
+		 * Parameters.
+		 */
+		private final List<Parameter> parameters;
+
+		/**
+		 * Kinds.
+		 */
+		private final List<KindImpl> kinds;
+
+		/**
+		 * Functors.
+		 */
+		private final List<AbstractFunctor> functors;
+
+		/**
+		 * Variables.
+		 */
+		private final List<VariableImpl> variables;
+
+		/**
+		 * Symbols.
+		 */
+		private final List<SymbolImpl> symbols;
+
+		/**
+		 * Expression factory.
+		 */
+		private final ExpressionFactory expressionFactory;
+
+		/**
+		 * Creates a new <code>Decoder</code> for the specified buffer.
+		 *
+		 * @param buffer buffer to decode from.
+		 */
+		Decoder(final ByteBuffer buffer) {
+			this.buffer = buffer;
+			parameters = new ArrayList();
+			kinds = new ArrayList();
+			functors = new ArrayList();
+			variables = new ArrayList();
+			symbols = new ArrayList();
+			expressionFactory = ExpressionFactory.getInstance();
+		}
+
+		/**
+		 * Reads a non-negative integer in variable length encoding.
+		 *
+		 * @return the integer read.
+		 *
+		 * @throws DataException if the integer is too large.
+		 */
+		private int readVarInt() throws DataException {
+			int result = 0;
+			for (int shift = 0; shift < 32; shift += 7) {
+				final int b = buffer.get();
+				result |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					if (result < 0)
+						break;
+					return result;
+				}
+			}
+			logger.error("Malformed integer in encoded module data");
+			throw new DataException("Malformed integer in encoded module data");
+		}
+
+		/**
+		 * Reads a string reference.
+		 *
+		 * @return the string.
+		 *
+		 * @throws DataException if the reference is malformed.
+		 */
+		private String readString() throws DataException {
+			return strings[readVarInt()];
+		}
+
+		/**
+		 * Reads an original name reference.
+		 *
+		 * @return the original name, or <code>null</code> if there is none.
+		 *
+		 * @throws DataException if the reference is malformed.
+		 */
+		private String readOrigin() throws DataException {
+			if (readVarInt() == 0)
+				return null;
+			return readString();
+		}
+
+		/**
+		 * Reads a parameter index.
+		 *
+		 * @return the parameter index.
+		 *
+		 * @throws DataException if the index is malformed.
+		 */
+		private int readParameterIndex() throws DataException {
+			return readVarInt() - 1;
+		}
+
+		/**
+		 * Reads a variable reference, creating the variable if this is
+		 * its first reference.
+		 *
+		 * @return the variable.
+		 *
+		 * @throws DataException if the reference is malformed.
+		 */
+		private VariableImpl readVariable() throws DataException {
+			return readVariable(readVarInt());
+		}
+
+		/**
+		 * Obtains the variable with the specified index, creating the
+		 * variable if this is its first reference.
+		 *
+		 * @param index variable index.
+		 *
+		 * @return the variable.
+		 *
+		 * @throws DataException if the declaration is malformed.
+		 */
+		private VariableImpl readVariable(final int index) throws DataException {
+			if (index < variables.size())
+				return variables.get(index);
+			if (index != variables.size()) {
+				logger.error("Variable " + index + " referenced before its declaration");
+				throw new DataException("Variable referenced before its declaration");
+			}
+			final int type = readVarInt();
+			final KindImpl kind = kinds.get(readVarInt());
+			VariableImpl result;
+			switch (type) {
+				case NAMED:
+					result = new VariableImpl(readString(), kind);
+					break;
+				case UNNAMED:
+					result = new UnnamedVariable(kind);
+					break;
+				case DUMMY:
+					result = new DummyVariable(kind);
+					break;
+				default:
+					logger.error("Invalid variable type " + type + " in encoded module data");
+					throw new DataException("Invalid variable type");
+			}
+			variables.add(result);
+			return result;
+		}
+
+		/**
+		 * Reads a list of variables.
+		 *
+		 * @return list of variables.
+		 *
+		 * @throws DataException if a reference is malformed.
+		 */
+		private List<Variable> readVariables() throws DataException {
+			final int count = readVarInt();
+			final List<Variable> result = new ArrayList(count);
+			for (int i = 0; i != count; ++i)
+				result.add(readVariable());
+			return result;
+		}
+
+		/**
+		 * Reads an expression.
+		 *
+		 * @return the expression.
+		 *
+		 * @throws DataException if the expression is malformed.
+		 */
+		private Expression readExpression() throws DataException {
+			final int count = readVarInt();
+			final Term[] terms = new Term[count];
+			for (int i = 0; i != count; ++i) {
+				final int code = readVarInt();
+				if ((code & 1) == 0)
+					terms[i] = functors.get(code >>> 1);
+				else
+					terms[i] = readVariable(code >>> 1);
+			}
+			// build bottom up
+			final Expression[] stack = new Expression[count];
+			int top = 0;
+			for (int i = count - 1; i >= 0; --i) {
+				if (terms[i].isVariable()) {
+					stack[top++] = expressionFactory.createExpression((Variable) terms[i]);
+					continue;
+				}
+				final Functor functor = (Functor) terms[i];
+				final int arity = functor.getInputKinds().size();
+				if (arity > top) {
+					logger.error("Functor " + functor + " lacks arguments in encoded expression");
+					throw new DataException("Malformed expression");
+				}
+				final List<Expression> children = new ArrayList(arity);
+				for (int j = 0; j != arity; ++j)
+					children.add(stack[--top]);
+				stack[top++] = expressionFactory.createExpression(functor, children);
+			}
+			if (top != 1) {
+				logger.error("Encoded expression does not have exactly one root");
+				throw new DataException("Malformed expression");
+			}
+			return stack[0];
+		}
+
+		/**
+		 * Reads DV constraints.
+		 *
+		 * @return DV constraints.
+		 *
+		 * @throws DataException if a reference is malformed.
+		 * @throws ConstraintException if a constraint is invalid.
+		 */
+		private DVConstraintsImpl readDVConstraints() throws DataException, ConstraintException {
+			final DVConstraintsImpl result = new DVConstraintsImpl();
+			final int count = readVarInt();
+			for (int i = 0; i != count; ++i)
+				result.add(readVariable(), readVariable());
+			return result;
+		}
+
+		/**
+		 * Reads aliases and equivalence classes into the specified
+		 * namespace.
+		 *
+		 * @param namespace namespace.
+		 * @param objects namespace objects in order.
+		 *
+		 * @throws DataException if the data is malformed.
+		 */
+		private <E extends AbstractName> void readIdentities(final NamespaceImpl<E> namespace,
+				final List<? extends E> objects) throws DataException {
+			final int aliasCount = readVarInt();
+			for (int i = 0; i != aliasCount; ++i) {
+				final String alias = readString();
+				namespace.createAlias(objects.get(readVarInt()), alias);
+			}
+			final int classCount = readVarInt();
+			for (int i = 0; i != classCount; ++i) {
+				final int classSize = readVarInt();
+				final E first = objects.get(readVarInt());
+				for (int j = 1; j < classSize; ++j)
+					namespace.identify(first, objects.get(readVarInt()));
+			}
+		}
+
+		/**
+		 * Decodes the module.
+		 *
+		 * @return the decoded module.
+		 *
+		 * @throws DataException if the data is malformed.
+		 * @throws ConstraintException if the data contains invalid DV
+		 * 	constraints.
+		 */
+		ModuleImpl decode() throws DataException, ConstraintException {
+			if (buffer.getInt() != MAGIC) {
+				logger.error("Data does not start with module magic number");
+				throw new DataException("Not an encoded module");
+			}
+			final int version = readVarInt();
+			if (version != VERSION) {
+				logger.error("Encoded module has version " + version + ", expected " + VERSION);
+				throw new DataException("Unsupported module format version");
+			}
+			strings = new String[readVarInt()];
+			byte[] bytes = new byte[256];
+			for (int i = 0; i != strings.length; ++i) {
+				final int length = readVarInt();
+				if (length > bytes.length)
+					bytes = new byte[Math.max(length, bytes.length << 1)];
+				buffer.get(bytes, 0, length);
+				try {
+					strings[i] = new String(bytes, 0, length, /* FIXME: 1.5 compat */ "UTF-8");
+				} catch (UnsupportedEncodingException e) {
+					throw new AssertionError("UTF-8 not supported. This should not happen");
+				}
+			}
+			final String name = readString();
+			final ModuleImpl module = new ModuleImpl(name, buffer.getLong());
+			// parameters
+			final int parameterCount = readVarInt();
+			for (int i = 0; i != parameterCount; ++i) {
+				final String parameterName = readString();
+				final String locator = readString();
+				final String prefix = readString();
+				final int size = readVarInt();
+				final List<Parameter> parameterList = new ArrayList(size);
+				for (int j = 0; j != size; ++j)
+					parameterList.add(parameters.get(readVarInt()));
+				final Parameter parameter = new ParameterImpl(parameterName, locator, parameterList, prefix);
+				module.addParameter(parameter);
+				parameters.add(parameter);
+			}
+			// kinds
+			final NamespaceImpl<KindImpl> kindNamespace = module.getKindNamespace();
+			final int kindCount = readVarInt();
+			for (int i = 0; i != kindCount; ++i) {
+				final String kindName = readString();
+				final String origName = readOrigin();
+				final KindImpl orig = (origName == null) ? null : new KindImpl(origName);
+				final KindImpl kind = new KindImpl(kindName, orig, readParameterIndex());
+				kindNamespace.registerObject(kind);
+				kinds.add(kind);
+			}
+			readIdentities(kindNamespace, kinds);
+			// functors
+			final NamespaceImpl<AbstractFunctor> functorNamespace = module.getFunctorNamespace();
+			final int functorCount = readVarInt();
+			for (int i = 0; i != functorCount; ++i) {
+				final String functorName = readString();
+				final String origName = readOrigin();
+				final int parameterIndex = readParameterIndex();
+				final int tag = readVarInt();
+				AbstractFunctor functor;
+				if (tag == DEFINITION) {
+					final LinkedHashSet<Variable> arguments = new LinkedHashSet(readVariables());
+					final Set<Variable> dummyVariables = new LinkedHashSet(readVariables());
+					final DVConstraintsImpl dv = readDVConstraints();
+					final Expression definiens = readExpression();
+					final DefinitionImpl orig = (origName == null) ? null
+						: new DefinitionImpl(origName, null, -1, dv, arguments, dummyVariables, definiens);
+					functor = new DefinitionImpl(functorName, orig, parameterIndex, dv, arguments,
+						dummyVariables, definiens);
+				} else if (tag == TERM) {
+					final KindImpl kind = kinds.get(readVarInt());
+					final int arity = readVarInt();
+					final List<KindImpl> inputKinds = new ArrayList(arity);
+					for (int j = 0; j != arity; ++j)
+						inputKinds.add(kinds.get(readVarInt()));
+					final FunctorImpl orig = (origName == null) ? null
+						: new FunctorImpl(origName, kind, inputKinds);
+					functor = new FunctorImpl(functorName, orig, parameterIndex, kind, inputKinds);
+				} else {
+					logger.error("Invalid functor tag " + tag + " in encoded module data");
+					throw new DataException("Invalid functor tag");
+				}
+				functorNamespace.registerObject(functor);
+				functors.add(functor);
+			}
+			readIdentities(functorNamespace, functors);
+			// symbols
+			final NamespaceImpl<SymbolImpl> symbolNamespace = module.getSymbolNamespace();
+			final int symbolCount = readVarInt();
+			for (int i = 0; i != symbolCount; ++i) {
+				final int tag = readVarInt();
+				SymbolImpl symbol;
+				if (tag == VARIABLE) {
+					symbol = readVariable();
+				} else if (tag == STATEMENT) {
+					final String statementName = readString();
+					final String origName = readOrigin();
+					final int parameterIndex = readParameterIndex();
+					final DVConstraintsImpl dv = readDVConstraints();
+					final int hypothesisCount = readVarInt();
+					final List<Expression> hypotheses = new ArrayList(hypothesisCount);
+					for (int j = 0; j != hypothesisCount; ++j)
+						hypotheses.add(readExpression());
+					final Expression consequent = readExpression();
+					final List<Variable> mandatoryVariables = readVariables();
+					final StatementImpl orig = (origName == null) ? null
+						: new StatementImpl(origName, null, -1, dv, hypotheses, consequent, mandatoryVariables);
+					symbol = new StatementImpl(statementName, orig, parameterIndex, dv, hypotheses, consequent,
+						mandatoryVariables);
+				} else {
+					logger.error("Invalid symbol tag " + tag + " in encoded module data");
+					throw new DataException("Invalid symbol tag");
+				}
+				symbolNamespace.registerObject(symbol);
+				symbols.add(symbol);
+			}
+			readIdentities(symbolNamespace, symbols);
+			if (buffer.hasRemaining()) {
+				logger.error("Trailing garbage after encoded module data");
+				throw new DataException("Trailing garbage after encoded module data");
+			}
+			return module;
+		}
+
+	}
+
+}
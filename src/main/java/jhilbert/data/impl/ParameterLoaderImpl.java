@@ -497,8 +497,8 @@ final class ParameterLoaderImpl implements ParameterLoader {
 				for (final Variable[] pva: parameterExpression.dvConstraints()) {
 					assert (pva.length == 2): "Invalid DV constraint size";
 					parameterDVConstraints.addProduct(assignments.get(translator.translate(pva[0]))
-							.variables(), assignments.get(translator.translate(pva[1]))
-							.variables());
+							.variableList(), assignments.get(translator.translate(pva[1]))
+							.variableList());
 				}
 				if (!expression.dvConstraints().contains(parameterDVConstraints)) {
 					logger.error("Attempt to satisfy definition with insufficient DV constraints");
@@ -28,7 +28,6 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -77,6 +76,24 @@ final class StatementImpl extends SymbolImpl implements Statement, Serializable
 	 */
 	private final List<Variable> mandatoryVariables;
 
+	/**
+	 * Unfolded hypotheses, computed lazily together with their variable
+	 * lists.
+	 */
+	private transient volatile List<Expression> unfoldedHypotheses;
+
+	/**
+	 * Unfolded consequent, computed lazily together with its variable
+	 * list.
+	 */
+	private transient volatile Expression unfoldedConsequent;
+
+	/**
+	 * Whether the unfolded consequent may be substituted into, computed
+	 * along with {@link #unfoldedConsequent}.
+	 */
+	private transient volatile boolean unfoldedConsequentUsable;
+
 	/**
 	 * Default constructor, for serialisation use only!
 	 */
@@ -129,15 +146,17 @@ final class StatementImpl extends SymbolImpl implements Statement, Serializable
 		// variables appearing in the hypotheses
 		final Set<Variable> hypVars = new HashSet();
 		for (final Expression hyp: hypotheses)
-			hypVars.addAll(hyp.variables());
+			hypVars.addAll(hyp.variableList());
 		// variables appearing in the consequent
-		final LinkedHashSet<Variable> consVars = consequent.variables();
+		final List<Variable> consVars = consequent.variableList();
 		// all variables
-		final Set<Variable> allVars = new HashSet(hypVars);
-		allVars.addAll(consVars);
-		// named mandatory variables
-		final LinkedHashSet<Variable> namedMandVars = new LinkedHashSet(consVars);
-		namedMandVars.removeAll(hypVars);
+		final Set<Variable> allVars;
+		if (hypVars.isEmpty())
+			allVars = consequent.variableSet();
+		else {
+			allVars = new HashSet(hypVars);
+			allVars.addAll(consVars);
+		}
 		// restrict DV constraints
 		dv.restrict(allVars);
 		// create an anonymiser for the variables and set fields
@@ -152,14 +171,41 @@ final class StatementImpl extends SymbolImpl implements Statement, Serializable
 		this.hypotheses = Collections.unmodifiableList(unnamedHyps);
 		this.consequent = anonymiser.anonymise(consequent);
 		dvConstraints.add(this.consequent.dvConstraints());
-		final List<Variable> unnamedMandVars = new ArrayList(namedMandVars.size());
-		for (final Variable namedMandVar: namedMandVars) {
-			if (!namedMandVar.isDummy())
+		// mandatory variables appear in the consequent only
+		final List<Variable> unnamedMandVars = new ArrayList(consVars.size());
+		for (final Variable namedMandVar: consVars) {
+			if (!(namedMandVar.isDummy() || hypVars.contains(namedMandVar)))
 				unnamedMandVars.add(anonymiser.anonymise(namedMandVar));
 		}
 		this.mandatoryVariables = Collections.unmodifiableList(unnamedMandVars);
 	}
 
+	/**
+	 * Creates a new <code>StatementImpl</code> from previously calculated
+	 * data, as stored by {@link ModuleCodec}.
+	 *
+	 * @param name name of new statement.
+	 * @param orig original statement, or <code>null</code>.
+	 * @param parameterIndex index of parameter of <code>orig</code>.
+	 * @param dv DV constraints of the statement.
+	 * @param hypotheses anonymised hypotheses.
+	 * @param consequent anonymised consequent.
+	 * @param mandatoryVariables mandatory variables.
+	 */
+	StatementImpl(final String name, final StatementImpl orig, final int parameterIndex, final DVConstraints dv,
+			final List<Expression> hypotheses, final Expression consequent,
+			final List<Variable> mandatoryVariables) {
+		super(name, orig, parameterIndex);
+		assert (dv != null): "Supplied DV constraints are null";
+		assert (hypotheses != null): "Supplied hypotheses are null";
+		assert (consequent != null): "Supplied consequent is null";
+		assert (mandatoryVariables != null): "Supplied mandatory variables are null";
+		dvConstraints = dv;
+		this.hypotheses = Collections.unmodifiableList(hypotheses);
+		this.consequent = consequent;
+		this.mandatoryVariables = Collections.unmodifiableList(mandatoryVariables);
+	}
+
 	public DVConstraints getDVConstraints() {
 		return dvConstraints;
 	}
@@ -176,6 +222,56 @@ final class StatementImpl extends SymbolImpl implements Statement, Serializable
 		return mandatoryVariables;
 	}
 
+	public List<Expression> getUnfoldedHypotheses() {
+		List<Expression> result = unfoldedHypotheses;
+		if (result == null) {
+			final List<Expression> unfolded = new ArrayList(hypotheses.size());
+			for (final Expression hyp: hypotheses) {
+				final Expression unfoldedHyp = hyp.totalUnfold();
+				unfoldedHyp.variableList();
+				unfolded.add(unfoldedHyp);
+			}
+			result = Collections.unmodifiableList(unfolded);
+			unfoldedHypotheses = result;
+		}
+		return result;
+	}
+
+	public Expression getUnfoldedConsequent() {
+		Expression result = unfoldedConsequent;
+		if (result == null) {
+			result = consequent.totalUnfold();
+			final List<Variable> unfoldedVars = result.variableList();
+			// unfolding first is only safe if it introduces no (dummy) variables
+			final Set<Variable> literalVars = new HashSet();
+			collectVariables(consequent, literalVars);
+			boolean usable = true;
+			for (final Variable var: literalVars)
+				if (var.isDummy())
+					usable = false;
+			usable = usable && literalVars.containsAll(unfoldedVars);
+			unfoldedConsequentUsable = usable;
+			unfoldedConsequent = result;
+		}
+		return unfoldedConsequentUsable ? result : null;
+	}
+
+	/**
+	 * Collects the variables occurring literally in the specified
+	 * expression, without regard to dummy variables of definitions.
+	 *
+	 * @param expr expression.
+	 * @param vars set to add the variables to.
+	 */
+	private static void collectVariables(final Expression expr, final Set<Variable> vars) {
+		if (expr.getValue().isVariable()) {
+			vars.add((Variable) expr.getValue());
+			return;
+		}
+		for (final Expression child: expr.getChildren())
+			collectVariables(child, vars);
+	}
+
 	public final boolean isVariable() {
 		return false;
 	}
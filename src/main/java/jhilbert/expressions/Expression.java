@@ -27,6 +27,7 @@ package jhilbert.expressions;
 import java.io.Serializable;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import jhilbert.data.ConstraintException;
 import jhilbert.data.DVConstraints;
@@ -70,11 +71,34 @@ public interface Expression extends TreeNode<Term>, Serializable {
 	/**
 	 * Returns the {@link Variable}s occurring in this
 	 * <code>Expression</code>, in order of first appearance.
+	 * The returned set is a fresh copy which may be modified; use
+	 * {@link #variableList} or {@link #variableSet} for read-only access.
 	 *
 	 * @return variables occurring in this expression.
 	 */
 	public LinkedHashSet<Variable> variables();
 
+	/**
+	 * Returns the {@link Variable}s occurring in this
+	 * <code>Expression</code>, in the same order as {@link #variables},
+	 * as an unmodifiable list without duplicates.
+	 * Unlike {@link #variables}, this method does not copy, so it is the
+	 * method of choice for merely iterating over the variables.
+	 *
+	 * @return variables occurring in this expression.
+	 */
+	public List<Variable> variableList();
+
+	/**
+	 * Returns the {@link Variable}s occurring in this
+	 * <code>Expression</code> as an unmodifiable set, iterating in the
+	 * same order as {@link #variables}.
+	 * The set is not copied, and membership tests take constant time.
+	 *
+	 * @return variables occurring in this expression.
+	 */
+	public Set<Variable> variableSet();
+
 	/**
 	 * Returns the totally unfolded version of this expression.
 	 *
@@ -85,6 +85,22 @@ public abstract class ExpressionFactory {
 	 */
 	public abstract Expression createExpression(Functor functor, List<Expression> children);
 
+	/**
+	 * Returns the number of {@link Expression#totalUnfold} calls answered
+	 * from the memoised unfolding so far.
+	 *
+	 * @return number of unfold cache hits.
+	 */
+	public abstract long getUnfoldCacheHits();
+
+	/**
+	 * Returns the number of {@link Expression#totalUnfold} calls which had
+	 * to compute the unfolding so far.
+	 *
+	 * @return number of unfold cache misses.
+	 */
+	public abstract long getUnfoldCacheMisses();
+
 	/**
 	 * Creates a new {@link Matcher}.
 	 *
@@ -102,6 +118,15 @@ public abstract class ExpressionFactory {
 	 */
 	public abstract Substituter createSubstituter(Map<Variable, Expression> v2eMap);
 
+	/**
+	 * Creates a new {@link Substituter} with an empty substitution map
+	 * which does not allocate on lookups and assignments. The substituter
+	 * can be reused after {@link Substituter#reset}.
+	 *
+	 * @return the new substituter.
+	 */
+	public abstract Substituter createSubstituter();
+
 	/**
 	 * Creates a new {@link Anonymiser} from the spcified variable set.
 	 *
@@ -48,6 +48,12 @@ public interface Substituter {
 	 */
 	public Map<Variable, Expression> getAssignments();
 
+	/**
+	 * Removes all {@link Variable} to {@link Expression} assignments, so
+	 * that this <code>Substituter</code> can be reused.
+	 */
+	public void reset();
+
 	/**
 	 * Creates a new {@link Expression} by substituting the specified
 	 * expression using the substitution rule inherent to this
@@ -27,6 +27,7 @@ package jhilbert.expressions.impl;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -118,12 +119,14 @@ final class AnonymiserImpl implements Anonymiser {
 		assert (expr != null): "Supplied expression is null";
 		final Term term = expr.getValue();
 		if (term.isVariable())
-			return new ExpressionImpl(anonymise((Variable) term));
+			return ExpressionImpl.create(anonymise((Variable) term));
 		// expression is a functor
-		final ExpressionImpl result = new ExpressionImpl(term);
-		for (final Expression childExp: expr.getChildren())
-			result.addChild(anonymise(childExp));
-		return result;
+		final List<Expression> children = expr.getChildren();
+		final int size = children.size();
+		final ExpressionImpl[] newChildren = new ExpressionImpl[size];
+		for (int i = 0; i != size; ++i)
+			newChildren[i] = (ExpressionImpl) anonymise(children.get(i));
+		return ExpressionImpl.create(term, newChildren);
 	}
 
 	public Set<Variable> getDummyVariables() {
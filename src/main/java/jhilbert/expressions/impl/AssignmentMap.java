@@ -0,0 +1,273 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+package jhilbert.expressions.impl;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import jhilbert.data.Variable;
+import jhilbert.expressions.Expression;
+
+/**
+ * Reusable open addressing map from {@link Variable}s to
+ * {@link Expression}s.
+ * <p>
+ * Keys are compared like in a {@link java.util.HashMap}, but
+ * {@link #get}, {@link #put}, {@link #containsKey}, {@link #remove} and
+ * {@link #clear} allocate nothing once the table has grown to the number of
+ * variables in use. Entries cannot be removed through the entry set.
+ */
+final class AssignmentMap extends AbstractMap<Variable, Expression> {
+
+	/**
+	 * Initial number of slots. Must be a power of two.
+	 */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * Keys by slot.
+	 */
+	private Variable[] keys;
+
+	/**
+	 * Values by slot.
+	 */
+	private Expression[] values;
+
+	/**
+	 * Number of entries.
+	 */
+	private int size;
+
+	/**
+	 * Creates a new, empty <code>AssignmentMap</code>.
+	 */
+	AssignmentMap() {
+		keys = new Variable[INITIAL_CAPACITY];
+		values = new Expression[INITIAL_CAPACITY];
+		size = 0;
+	}
+
+	/**
+	 * Returns the slot where probing for the specified key starts.
+	 *
+	 * @param key key.
+	 * @param mask slot mask.
+	 *
+	 * @return the home slot of <code>key</code>.
+	 */
+	private static int homeSlot(final Object key, final int mask) {
+		final int hash = key.hashCode();
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	/**
+	 * Finds the slot of the specified key.
+	 *
+	 * @param key key.
+	 *
+	 * @return the slot holding <code>key</code>, or the empty slot where
+	 * 	it would be inserted.
+	 */
+	private int slotOf(final Object key) {
+		final int mask = keys.length - 1;
+		int slot = homeSlot(key, mask);
+		for (Variable k = keys[slot]; k != null; k = keys[slot]) {
+			if ((k == key) || k.equals(key))
+				return slot;
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	public @Override Expression get(final Object key) {
+		if (key == null)
+			return null;
+		return values[slotOf(key)];
+	}
+
+	public @Override boolean containsKey(final Object key) {
+		if (key == null)
+			return false;
+		return keys[slotOf(key)] != null;
+	}
+
+	public @Override Expression put(final Variable key, final Expression value) {
+		assert (key != null): "Supplied key is null";
+		assert (value != null): "Supplied value is null";
+		final int slot = slotOf(key);
+		final Expression result = values[slot];
+		values[slot] = value;
+		if (keys[slot] == null) {
+			keys[slot] = key;
+			if (++size * 2 > keys.length)
+				grow();
+		}
+		return result;
+	}
+
+	public @Override Expression remove(final Object key) {
+		if (key == null)
+			return null;
+		int hole = slotOf(key);
+		if (keys[hole] == null)
+			return null;
+		final Expression result = values[hole];
+		// shift back entries whose probe sequence passes the hole
+		final int mask = keys.length - 1;
+		for (int slot = (hole + 1) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+			if (((slot - homeSlot(keys[slot], mask)) & mask) >= ((slot - hole) & mask)) {
+				keys[hole] = keys[slot];
+				values[hole] = values[slot];
+				hole = slot;
+			}
+		}
+		keys[hole] = null;
+		values[hole] = null;
+		--size;
+		return result;
+	}
+
+	public @Override int size() {
+		return size;
+	}
+
+	public @Override void clear() {
+		if (size == 0)
+			return;
+		for (int i = 0; i != keys.length; ++i) {
+			keys[i] = null;
+			values[i] = null;
+		}
+		size = 0;
+	}
+
+	/**
+	 * Doubles the number of slots.
+	 */
+	private void grow() {
+		final Variable[] oldKeys = keys;
+		final Expression[] oldValues = values;
+		keys = new Variable[2 * oldKeys.length];
+		values = new Expression[keys.length];
+		for (int i = 0; i != oldKeys.length; ++i) {
+			if (oldKeys[i] == null)
+				continue;
+			final int slot = slotOf(oldKeys[i]);
+			keys[slot] = oldKeys[i];
+			values[slot] = oldValues[i];
+		}
+	}
+
+	public @Override Set<Map.Entry<Variable, Expression>> entrySet() {
+		return new AbstractSet<Map.Entry<Variable, Expression>>() {
+			public @Override int size() {
+				return size;
+			}
+			public @Override Iterator<Map.Entry<Variable, Expression>> iterator() {
+				return new Iterator<Map.Entry<Variable, Expression>>() {
+					private int slot = advance(0);
+					private int advance(int i) {
+						while ((i != keys.length) && (keys[i] == null))
+							++i;
+						return i;
+					}
+					public boolean hasNext() {
+						return slot != keys.length;
+					}
+					public Map.Entry<Variable, Expression> next() {
+						if (slot == keys.length)
+							throw new NoSuchElementException();
+						final Map.Entry<Variable, Expression> result = new Entry(keys[slot], values[slot]);
+						slot = advance(slot + 1);
+						return result;
+					}
+					public void remove() {
+						throw new UnsupportedOperationException("Assignments cannot be removed through the entry set");
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Snapshot of an entry.
+	 */
+	private static final class Entry implements Map.Entry<Variable, Expression> {
+
+		/**
+		 * Key.
+		 */
+		private final Variable key;
+
+		/**
+		 * Value.
+		 */
+		private final Expression value;
+
+		/**
+		 * Creates a new <code>Entry</code>.
+		 *
+		 * @param key key.
+		 * @param value value.
+		 */
+		Entry(final Variable key, final Expression value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		public Variable getKey() {
+			return key;
+		}
+
+		public Expression getValue() {
+			return value;
+		}
+
+		public Expression setValue(final Expression value) {
+			throw new UnsupportedOperationException("Entry is a snapshot");
+		}
+
+		public @Override boolean equals(final Object o) {
+			if (!(o instanceof Map.Entry))
+				return false;
+			final Map.Entry e = (Map.Entry) o;
+			return key.equals(e.getKey()) && value.equals(e.getValue());
+		}
+
+		public @Override int hashCode() {
+			return key.hashCode() ^ value.hashCode();
+		}
+
+		public @Override String toString() {
+			return key + "=" + value;
+		}
+
+	}
+
+}
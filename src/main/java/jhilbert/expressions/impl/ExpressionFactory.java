@@ -46,25 +46,33 @@ public final class ExpressionFactory extends jhilbert.expressions.ExpressionFact
 	public @Override ExpressionImpl createExpression(final Module module, final TokenFeed tokenFeed) throws ExpressionException {
 		assert (module != null): "Supplied module is null";
 		assert (tokenFeed != null): "Supplied token feed is null";
-		return new ExpressionImpl(module, tokenFeed);
+		return ExpressionImpl.parse(module, tokenFeed);
 	}
 
 	public @Override ExpressionImpl createExpression(final Variable var) {
 		assert (var != null): "Supplied variable is null";
-		return new ExpressionImpl(var);
+		return ExpressionImpl.create(var);
 	}
 
 	public @Override ExpressionImpl createExpression(final Functor functor, final List<Expression> children) {
 		assert (functor != null): "Supplied functor is null";
-		final ExpressionImpl result = new ExpressionImpl(functor);
 		assert (children != null): "Supplied children are null";
 		final int size = children.size();
 		assert (functor.getInputKinds().size() == size): "Wrong number of children";
+		final ExpressionImpl[] childArray = new ExpressionImpl[size];
 		for (int i = 0; i != size; ++i) {
 			assert (children.get(i).getKind().equals(functor.getInputKinds().get(i))): "Kind mismatch";
-			result.addChild(children.get(i));
+			childArray[i] = (ExpressionImpl) children.get(i);
 		}
-		return result;
+		return ExpressionImpl.create(functor, childArray);
+	}
+
+	public @Override long getUnfoldCacheHits() {
+		return ExpressionImpl.getUnfoldHits();
+	}
+
+	public @Override long getUnfoldCacheMisses() {
+		return ExpressionImpl.getUnfoldMisses();
 	}
 
 	public @Override MatcherImpl createMatcher() {
@@ -76,6 +84,10 @@ public final class ExpressionFactory extends jhilbert.expressions.ExpressionFact
 		return new SubstituterImpl(v2eMap);
 	}
 
+	public @Override SubstituterImpl createSubstituter() {
+		return new SubstituterImpl(new AssignmentMap());
+	}
+
 	public @Override AnonymiserImpl createAnonymiser(final Set<Variable> varSet) {
 		assert (varSet != null): "Supplied variable set is null";
 		return new AnonymiserImpl(varSet);
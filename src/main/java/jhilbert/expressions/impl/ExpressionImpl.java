@@ -26,12 +26,12 @@ package jhilbert.expressions.impl;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import jhilbert.data.ConstraintException;
 import jhilbert.data.DVConstraints;
@@ -52,11 +52,16 @@ import jhilbert.scanners.ScannerException;
 import jhilbert.scanners.Token;
 import jhilbert.scanners.TokenFeed;
 import jhilbert.utils.ArrayTreeNode;
+import jhilbert.utils.TreeNode;
 
 import org.apache.log4j.Logger;
 
 /**
  * {@link Expression} implementation.
+ * <p>
+ * Expressions are immutable and hash consed through the
+ * {@link ExpressionTable}: structurally equal expressions are the same
+ * object.
  */
 final class ExpressionImpl extends ArrayTreeNode<Term> implements Expression, Serializable {
 
@@ -71,10 +76,115 @@ final class ExpressionImpl extends ArrayTreeNode<Term> implements Expression, Se
 	private static final Logger logger = Logger.getLogger(ExpressionImpl.class);
 
 	/**
-	 * Default constructor, for serialisation or supplanting use only!
+	 * Empty array of children.
 	 */
-	public ExpressionImpl() {
-		super();
+	private static final ExpressionImpl[] NO_CHILDREN = new ExpressionImpl[0];
+
+	/**
+	 * Structural hash, see {@link ExpressionTable#hash}.
+	 */
+	private transient int hash;
+
+	/**
+	 * Children, backing the children list of the superclass.
+	 */
+	private transient ExpressionImpl[] childArray;
+
+	/**
+	 * Greatest definition depth of any functor in this expression, or
+	 * <code>0</code> if this expression contains no definitions.
+	 */
+	private transient int maxDefinitionDepth;
+
+	/**
+	 * Number of nodes in this expression, counting shared subexpressions
+	 * once for each occurrence. Saturates at
+	 * {@link Integer#MAX_VALUE}.
+	 */
+	private transient int nodeCount;
+
+	/**
+	 * Variables in order of first appearance, or <code>null</code> if
+	 * they have not been collected yet.
+	 */
+	private transient volatile VariableList variableList;
+
+	/**
+	 * Memoised total unfolding, or <code>null</code> if it has not been
+	 * computed yet.
+	 * Since expressions are immutable and canonical, the total unfolding
+	 * never changes once computed.
+	 */
+	private transient volatile ExpressionImpl unfolded;
+
+	/**
+	 * Number of {@link #totalUnfold} calls answered from the memo.
+	 */
+	private static final AtomicLong unfoldHits = new AtomicLong();
+
+	/**
+	 * Number of {@link #totalUnfold} calls which had to unfold.
+	 */
+	private static final AtomicLong unfoldMisses = new AtomicLong();
+
+	/**
+	 * Creates a new <code>ExpressionImpl</code>.
+	 * For use by the {@link ExpressionTable} only, use {@link #create}
+	 * to obtain canonical expressions.
+	 *
+	 * @param term the term.
+	 * @param children canonical children.
+	 * @param hash structural hash.
+	 */
+	ExpressionImpl(final Term term, final ExpressionImpl[] children, final int hash) {
+		super(term);
+		setChildren(children);
+		this.hash = hash;
+		this.childArray = children;
+		summarise();
+	}
+
+	/**
+	 * Computes the structural summaries of this expression from those of
+	 * its children.
+	 */
+	private void summarise() {
+		final Term term = getValue();
+		int depth = term.isVariable() ? 0 : ((Functor) term).definitionDepth();
+		long count = 1;
+		for (final ExpressionImpl child: childArray) {
+			if (child.maxDefinitionDepth > depth)
+				depth = child.maxDefinitionDepth;
+			count += child.nodeCount;
+		}
+		maxDefinitionDepth = depth;
+		nodeCount = (int) Math.min(count, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the canonical <code>ExpressionImpl</code> with the specified
+	 * {@link Term} and children.
+	 *
+	 * @param term the term.
+	 * @param children canonical children. The array must not be modified
+	 * 	afterwards.
+	 *
+	 * @return the canonical expression.
+	 */
+	static ExpressionImpl create(final Term term, final ExpressionImpl... children) {
+		return ExpressionTable.getInstance().intern(term, children);
+	}
+
+	/**
+	 * Returns the canonical <code>ExpressionImpl</code> consisting of the
+	 * specified {@link Variable} only.
+	 *
+	 * @param var the variable.
+	 *
+	 * @return the canonical expression.
+	 */
+	static ExpressionImpl create(final Variable var) {
+		return ExpressionTable.getInstance().intern(var, NO_CHILDREN);
 	}
 
 	/**
@@ -84,26 +194,29 @@ final class ExpressionImpl extends ArrayTreeNode<Term> implements Expression, Se
 	 * @param module data module.
 	 * @param tokenFeed token scanner.
 	 *
+	 * @return the canonical expression.
+	 *
 	 * @throws KindMismatchException if an input {@link Kind} and a result
 	 * 	kind do not match during parsing.
 	 * @throws ExpressionException if some other error (such as a scanner
 	 * 	related error) occurs.
 	 */
-	ExpressionImpl(final Module module, final TokenFeed tokenFeed)
+	static ExpressionImpl parse(final Module module, final TokenFeed tokenFeed)
 	throws KindMismatchException, ExpressionException {
 		assert (module != null): "Supplied module is null";
 		assert (tokenFeed != null): "Supplied token feed is null";
+		final ExpressionImpl result;
 		try {
 			final Token token = tokenFeed.getToken();
 			switch (token.getTokenClass()) {
 				case ATOM: // variable name
-				setVariable(module, tokenFeed, token.getTokenString());
+				result = create(getVariable(module, tokenFeed, token.getTokenString()));
 				tokenFeed.confirmVar();
 				break;
 
 				case BEGIN_EXP: // subexpression
 				tokenFeed.confirmBeginExp();
-				parseSubexpression(module, tokenFeed);
+				result = parseSubexpression(module, tokenFeed);
 				break;
 
 				default:
@@ -124,10 +237,11 @@ final class ExpressionImpl extends ArrayTreeNode<Term> implements Expression, Se
 			throw new ExpressionException("Non-variable symbol found in expression", e);
 		}
 		if (logger.isTraceEnabled())
-			logger.trace("Expression complete: " + toString());
+			logger.trace("Expression complete: " + result);
+		return result;
 	}
 
-	private void parseSubexpression(final Module module, final TokenFeed tokenFeed) throws ExpressionException, ScannerException {
+	private static ExpressionImpl parseSubexpression(final Module module, final TokenFeed tokenFeed) throws ExpressionException, ScannerException {
 		Functor functor = null;
 		final Namespace<? extends Functor> functorNamespace = module.getFunctorNamespace();
 		final List<ExpressionImpl> children = new ArrayList();
@@ -147,7 +261,7 @@ final class ExpressionImpl extends ArrayTreeNode<Term> implements Expression, Se
 
 				case BEGIN_EXP:
 				tokenFeed.putToken(token);
-				children.add(new ExpressionImpl(module, tokenFeed));
+				children.add(parse(module, tokenFeed));
 				break;
 
 				case END_EXP:
@@ -174,11 +288,12 @@ final class ExpressionImpl extends ArrayTreeNode<Term> implements Expression, Se
 				throw new KindMismatchException("Kind mismatch after argument " + i);
 			}
 		}
-		supplant(functor, children);
+		final ExpressionImpl result = create(functor, children.toArray(NO_CHILDREN));
 		tokenFeed.confirmEndExp();
+		return result;
 	}
 
-	private void setVariable(final Module module, final TokenFeed tokenFeed, final String varName)
+	private static Variable getVariable(final Module module, final TokenFeed tokenFeed, final String varName)
 	throws ExpressionException {
 		final Symbol sym = module.getSymbolNamespace().getObjectByString(varName);
 		if (sym == null) {
@@ -189,77 +304,164 @@ final class ExpressionImpl extends ArrayTreeNode<Term> implements Expression, Se
 			}
 			throw new ExpressionException("Symbol " + varName + " not found");
 		}
-		setValue((Variable) sym);
+		return (Variable) sym;
+	}
+
+	public Kind getKind() {
+		return getValue().getKind();
+	}
+
+	public @Override List<Expression> getChildren() {
+		return (List) super.getChildren();
 	}
 
 	/**
-	 * Creates a new <code>ExpressionImpl</code> with the specified
-	 * {@link Term} and no children.
+	 * Returns the children of this <code>ExpressionImpl</code> as an
+	 * array.
+	 * The array must not be modified.
 	 *
-	 * @param term the term.
+	 * @return the children.
 	 */
-	ExpressionImpl(final Term term) {
-		super(term);
+	ExpressionImpl[] childArray() {
+		return childArray;
 	}
 
-	public Kind getKind() {
-		return getValue().getKind();
+	/**
+	 * Returns the greatest definition depth of any functor in this
+	 * <code>ExpressionImpl</code>.
+	 *
+	 * @return the maximum definition depth, or <code>0</code> if this
+	 * 	expression contains no definitions.
+	 */
+	int maxDefinitionDepth() {
+		return maxDefinitionDepth;
 	}
 
-	public @Override List<Expression> getChildren() {
-		final Expression[] fooArray = new Expression[0];
-		return Collections.unmodifiableList(Arrays.asList(super.getChildren().toArray(fooArray)));
+	/**
+	 * Checks whether this <code>ExpressionImpl</code> contains no
+	 * {@link Definition}s, and hence is its own total unfolding.
+	 *
+	 * @return <code>true</code> if this expression contains no
+	 * 	definitions, <code>false</code> otherwise.
+	 */
+	boolean isDefinitionFree() {
+		return maxDefinitionDepth == 0;
 	}
 
 	/**
-	 * For internal use by this impementation, this method allows changing
-	 * the term of this <code>ExpressionImpl</code>, if it is a
-	 * {@link Variable}.
+	 * Returns the number of nodes of this <code>ExpressionImpl</code>
+	 * written out as a tree.
 	 *
-	 * @param value the value.
+	 * @return the node count, saturated at {@link Integer#MAX_VALUE}.
 	 */
-	void setVariable(final Variable value) {
-		assert (value != null): "Supplied value is null";
-		assert (getValue() instanceof Variable): "Attempt to replace non-variable with variable";
-		setValue(value);
+	int nodeCount() {
+		return nodeCount;
 	}
 
 	/**
-	 * For internal use by this implementation, this method allows
-	 * supplanting this <code>ExpressionImpl</code>.
-	 * This may be useful for implementing a substitution algorithm.
+	 * Checks whether this <code>ExpressionImpl</code> consists of the
+	 * specified term and children.
 	 *
-	 * @param functor new functor.
-	 * @param children new list of children.
+	 * @param term term.
+	 * @param children canonical children.
+	 *
+	 * @return <code>true</code> if term and children are identical,
+	 * 	<code>false</code> otherwise.
 	 */
-	void supplant(final Functor functor, final List<ExpressionImpl> children) {
-		assert (functor != null): "Supplied functor is null";
-		assert (children != null): "Supplied children are null";
-		assert (functor.getInputKinds().size() == children.size()): "Place count mismatch";
-		// FIXME: more asserts...
-		setValue(functor);
-		final ExpressionImpl[] fooArray = new ExpressionImpl[0];
-		setChildren(children.toArray(fooArray));
+	boolean matches(final Term term, final ExpressionImpl[] children) {
+		if ((getValue() != term) || (childArray.length != children.length))
+			return false;
+		for (int i = 0; i != children.length; ++i)
+			if (childArray[i] != children[i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Expressions are immutable.
+	 *
+	 * @throws UnsupportedOperationException always.
+	 */
+	public @Override void addChild(final TreeNode<Term> child) {
+		throw new UnsupportedOperationException("Expressions are immutable");
+	}
+
+	/**
+	 * Returns the structural hash of this <code>ExpressionImpl</code>.
+	 * Since expressions are canonical, equality is identity.
+	 *
+	 * @return structural hash.
+	 */
+	public @Override int hashCode() {
+		return hash;
+	}
+
+	/**
+	 * Replaces a deserialised <code>ExpressionImpl</code> with its
+	 * canonical representative.
+	 * The children have already been resolved at this point.
+	 *
+	 * @return the canonical expression.
+	 */
+	private Object readResolve() {
+		final List<Expression> children = getChildren();
+		childArray = children.isEmpty() ? NO_CHILDREN : children.toArray(new ExpressionImpl[children.size()]);
+		setChildren(childArray);
+		hash = ExpressionTable.hash(getValue(), childArray);
+		summarise();
+		return ExpressionTable.getInstance().intern(this);
 	}
 
 	public LinkedHashSet<Variable> variables() {
-		final LinkedHashSet<Variable> varSet = new LinkedHashSet();
-		variables(varSet);
-		return varSet;
+		return new LinkedHashSet(variableList());
 	}
 
-	private void variables(final LinkedHashSet<Variable> varSet) {
-		final Term term = getValue();
-		if (term.isVariable()) {
-			varSet.add((Variable) term);
-			return;
+	public Set<Variable> variableSet() {
+		return variableList().asSet();
+	}
+
+	public VariableList variableList() {
+		VariableList result = variableList;
+		if (result == null) {
+			// concurrent computations yield equal lists
+			result = collectVariables();
+			variableList = result;
 		}
+		return result;
+	}
+
+	/**
+	 * Collects the variables of this expression from those of its
+	 * children.
+	 *
+	 * @return variables in order of first appearance.
+	 */
+	private VariableList collectVariables() {
+		final Term term = getValue();
+		if (term.isVariable())
+			return new VariableList(new Variable[] {(Variable) term}, 1);
 		final Functor functor = (Functor) term;
-		if (functor.definitionDepth() != 0) {
-			varSet.addAll(((Definition) functor).getDummyVariables());
+		final Set<Variable> dummies = (functor.definitionDepth() != 0)
+			? ((Definition) functor).getDummyVariables() : null;
+		int capacity = (dummies == null) ? 0 : dummies.size();
+		for (final ExpressionImpl child: childArray)
+			capacity += child.variableList().size();
+		final VariableList.Builder builder = new VariableList.Builder(capacity);
+		if (dummies != null)
+			for (final Variable dummy: dummies)
+				builder.add(dummy);
+		VariableList first = null;
+		for (final ExpressionImpl child: childArray) {
+			final VariableList childVars = child.variableList();
+			if (first == null)
+				first = childVars;
+			for (int i = 0; i != childVars.size(); ++i)
+				builder.add(childVars.get(i));
 		}
-		for (final Expression childExp: getChildren())
-			((ExpressionImpl) childExp).variables(varSet);
+		// share the first child's list if nothing else contributed
+		if ((first != null) && (dummies == null) && (first.size() == builder.size()))
+			return first;
+		return builder.build();
 	}
 
 	public @Override String toString() {
@@ -307,12 +509,48 @@ final class ExpressionImpl extends ArrayTreeNode<Term> implements Expression, Se
 				exp0 = expressionFactory.createExpression(dv[0]);
 			if (exp1 == null)
 				exp1 = expressionFactory.createExpression(dv[1]);
-			result.addProduct(exp0.variables(), exp1.variables());
+			result.addProduct(exp0.variableList(), exp1.variableList());
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of {@link #totalUnfold} calls answered from the
+	 * memoised unfolding.
+	 * Calls on definition free expressions are not counted.
+	 *
+	 * @return number of memo hits.
+	 */
+	static long getUnfoldHits() {
+		return unfoldHits.get();
+	}
+
+	/**
+	 * Returns the number of {@link #totalUnfold} calls which had to
+	 * compute the unfolding.
+	 *
+	 * @return number of memo misses.
+	 */
+	static long getUnfoldMisses() {
+		return unfoldMisses.get();
+	}
+
+	public ExpressionImpl totalUnfold() {
+		if (maxDefinitionDepth == 0)
+			return this;
+		ExpressionImpl result = unfolded;
+		if (result != null) {
+			unfoldHits.incrementAndGet();
+			return result;
 		}
+		unfoldMisses.incrementAndGet();
+		// concurrent computations yield the same canonical expression
+		result = computeTotalUnfold();
+		unfolded = result;
 		return result;
 	}
 
-	public Expression totalUnfold() { // recursively unfold expression
+	private ExpressionImpl computeTotalUnfold() { // recursively unfold expression
 		// unfold head
 		Expression expr = this;
 		for (;;) {
@@ -320,7 +558,7 @@ final class ExpressionImpl extends ArrayTreeNode<Term> implements Expression, Se
 			if (term.isVariable()) {
 				// strictly speaking, definitions unfolding to a single variable are permissible by the
 				// spec, so this check must NOT be moved outside the loop
-				return expr;
+				return (ExpressionImpl) expr;
 			}
 			final Functor functor = (Functor) term;
 			if (functor.definitionDepth() == 0)
@@ -330,12 +568,10 @@ final class ExpressionImpl extends ArrayTreeNode<Term> implements Expression, Se
 		// unfold children
 		final List<Expression> children = expr.getChildren();
 		final int numChildren = children.size();
-		final List<ExpressionImpl> newChildren = new ArrayList(numChildren);
+		final ExpressionImpl[] newChildren = new ExpressionImpl[numChildren];
 		for (int i = 0; i != numChildren; ++i)
-			newChildren.add((ExpressionImpl) children.get(i).totalUnfold());
-		final ExpressionImpl result = new ExpressionImpl();
-		result.supplant((Functor) expr.getValue(), newChildren);
-		return result;
+			newChildren[i] = ((ExpressionImpl) children.get(i)).totalUnfold();
+		return create(expr.getValue(), newChildren);
 	}
 
 }
@@ -0,0 +1,290 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.expressions.impl;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+import jhilbert.data.Term;
+
+/**
+ * Hash consing table for {@link ExpressionImpl}s.
+ * Every structurally distinct expression is represented by exactly one
+ * canonical node, so that two expressions are structurally equal if and
+ * only if they are the same object.
+ * Structural equality compares terms by identity, and children by identity
+ * as well, which is sufficient since the children are themselves canonical.
+ * <p>
+ * Canonical nodes are only weakly referenced by this table, so expressions
+ * no longer used anywhere else can still be garbage collected.
+ * The table is divided into independently locked segments so that
+ * concurrent proof verification does not serialise on it.
+ */
+final class ExpressionTable {
+
+	/**
+	 * Weakly referenced table entry.
+	 */
+	private static final class Entry extends WeakReference<ExpressionImpl> {
+
+		/**
+		 * Structural hash of the referenced expression.
+		 */
+		final int hash;
+
+		/**
+		 * Next entry in the same bucket.
+		 */
+		Entry next;
+
+		/**
+		 * Creates a new <code>Entry</code>.
+		 *
+		 * @param expression canonical expression.
+		 * @param queue queue to register with.
+		 * @param next next entry in the bucket.
+		 */
+		Entry(final ExpressionImpl expression, final ReferenceQueue<ExpressionImpl> queue, final Entry next) {
+			super(expression, queue);
+			this.hash = expression.hashCode();
+			this.next = next;
+		}
+
+	}
+
+	/**
+	 * Independently locked part of the table.
+	 */
+	private static final class Segment {
+
+		/**
+		 * Buckets.
+		 */
+		private Entry[] buckets;
+
+		/**
+		 * Number of entries, including cleared ones not yet expunged.
+		 */
+		private int count;
+
+		/**
+		 * Creates a new, empty <code>Segment</code>.
+		 */
+		Segment() {
+			buckets = new Entry[INITIAL_BUCKETS];
+			count = 0;
+		}
+
+		/**
+		 * Looks up the canonical expression for the specified term,
+		 * children and hash.
+		 * If there is none, the specified candidate is registered, or,
+		 * if the candidate is <code>null</code>, a new expression is
+		 * created and registered.
+		 *
+		 * @param term term of the expression.
+		 * @param children canonical children of the expression.
+		 * @param hash structural hash.
+		 * @param candidate candidate expression, may be
+		 * 	<code>null</code>.
+		 * @param queue reference queue for new entries.
+		 *
+		 * @return the canonical expression.
+		 */
+		synchronized ExpressionImpl intern(final Term term, final ExpressionImpl[] children, final int hash,
+				final ExpressionImpl candidate, final ReferenceQueue<ExpressionImpl> queue) {
+			final int index = hash & (buckets.length - 1);
+			for (Entry e = buckets[index]; e != null; e = e.next) {
+				if (e.hash != hash)
+					continue;
+				final ExpressionImpl expression = e.get();
+				if ((expression != null) && expression.matches(term, children))
+					return expression;
+			}
+			final ExpressionImpl result = (candidate != null) ? candidate : new ExpressionImpl(term, children, hash);
+			buckets[index] = new Entry(result, queue, buckets[index]);
+			if (++count > buckets.length * 3 / 4)
+				rehash();
+			return result;
+		}
+
+		/**
+		 * Removes the specified cleared entry.
+		 *
+		 * @param entry entry to remove.
+		 */
+		synchronized void remove(final Entry entry) {
+			final int index = entry.hash & (buckets.length - 1);
+			Entry previous = null;
+			for (Entry e = buckets[index]; e != null; e = e.next) {
+				if (e == entry) {
+					if (previous == null)
+						buckets[index] = e.next;
+					else
+						previous.next = e.next;
+					--count;
+					return;
+				}
+				previous = e;
+			}
+		}
+
+		/**
+		 * Doubles the number of buckets.
+		 */
+		private void rehash() {
+			final Entry[] newBuckets = new Entry[buckets.length << 1];
+			for (Entry e: buckets) {
+				while (e != null) {
+					final Entry next = e.next;
+					final int index = e.hash & (newBuckets.length - 1);
+					e.next = newBuckets[index];
+					newBuckets[index] = e;
+					e = next;
+				}
+			}
+			buckets = newBuckets;
+		}
+
+	}
+
+	/**
+	 * Number of segments (must be a power of two).
+	 */
+	private static final int SEGMENTS = 16;
+
+	/**
+	 * Initial number of buckets per segment (must be a power of two).
+	 */
+	private static final int INITIAL_BUCKETS = 256;
+
+	/**
+	 * Instance.
+	 */
+	private static final ExpressionTable instance = new ExpressionTable();
+
+	/**
+	 * Returns the <code>ExpressionTable</code> instance.
+	 *
+	 * @return the expression table.
+	 */
+	static ExpressionTable getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Segments.
+	 */
+	private final Segment[] segments;
+
+	/**
+	 * Queue of cleared entries.
+	 */
+	private final ReferenceQueue<ExpressionImpl> queue;
+
+	/**
+	 * Creates a new, empty <code>ExpressionTable</code>.
+	 */
+	private ExpressionTable() {
+		segments = new Segment[SEGMENTS];
+		for (int i = 0; i != SEGMENTS; ++i)
+			segments[i] = new Segment();
+		queue = new ReferenceQueue();
+	}
+
+	/**
+	 * Computes the structural hash of an expression with the specified
+	 * term and canonical children.
+	 *
+	 * @param term term.
+	 * @param children canonical children.
+	 *
+	 * @return structural hash.
+	 */
+	static int hash(final Term term, final ExpressionImpl[] children) {
+		int result = System.identityHashCode(term);
+		for (final ExpressionImpl child: children)
+			result = 31 * result + child.hashCode();
+		return result;
+	}
+
+	/**
+	 * Returns the canonical expression with the specified term and
+	 * children, creating it if necessary.
+	 *
+	 * @param term term.
+	 * @param children canonical children. The array must not be modified
+	 * 	afterwards.
+	 *
+	 * @return canonical expression.
+	 */
+	ExpressionImpl intern(final Term term, final ExpressionImpl[] children) {
+		assert (term != null): "Supplied term is null";
+		assert (children != null): "Supplied children are null";
+		expunge();
+		final int hash = hash(term, children);
+		return segmentFor(hash).intern(term, children, hash, null, queue);
+	}
+
+	/**
+	 * Returns the canonical expression structurally equal to the
+	 * specified candidate, registering the candidate if there is none.
+	 * The children of the candidate must already be canonical.
+	 *
+	 * @param candidate candidate expression.
+	 *
+	 * @return canonical expression.
+	 */
+	ExpressionImpl intern(final ExpressionImpl candidate) {
+		assert (candidate != null): "Supplied candidate is null";
+		expunge();
+		return segmentFor(candidate.hashCode()).intern(candidate.getValue(), candidate.childArray(),
+				candidate.hashCode(), candidate, queue);
+	}
+
+	/**
+	 * Returns the segment responsible for the specified hash.
+	 *
+	 * @param hash structural hash.
+	 *
+	 * @return the segment.
+	 */
+	private Segment segmentFor(final int hash) {
+		// use the high bits, since the low bits select the bucket
+		int h = hash ^ (hash >>> 16);
+		h ^= (h >>> 7) ^ (h >>> 4);
+		return segments[(h >>> 24) & (SEGMENTS - 1)];
+	}
+
+	/**
+	 * Removes cleared entries from the table.
+	 */
+	private void expunge() {
+		Entry entry;
+		while ((entry = (Entry) queue.poll()) != null)
+			segmentFor(entry.hash).remove(entry);
+	}
+
+}
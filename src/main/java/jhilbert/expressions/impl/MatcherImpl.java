@@ -76,22 +76,10 @@ final class MatcherImpl implements Matcher {
 	public boolean checkDEquality(final Expression source, final Expression target) {
 		assert (source != null): "Supplied source is null";
 		assert (target != null): "Supplied target is null";
-		final Expression unfoldedSource = source.totalUnfold();
-		final Expression unfoldedTarget = target.totalUnfold();
-		final Term sourceTerm = unfoldedSource.getValue();
-		final Term targetTerm = unfoldedTarget.getValue();
-		if (sourceTerm != targetTerm)
-			return false;
-		if (sourceTerm.isVariable())
+		if (source == target)
 			return true;
-		final List<Expression> sourceChildren = unfoldedSource.getChildren();
-		final List<Expression> targetChildren = unfoldedTarget.getChildren();
-		final int size = sourceChildren.size();
-		assert (size == targetChildren.size()): "Place count mismatch";
-		for (int i = 0; i != size; ++i)
-			if (!checkDEquality(sourceChildren.get(i), targetChildren.get(i)))
-				return false;
-		return true;
+		// expressions are hash consed
+		return (source.totalUnfold() == target.totalUnfold());
 	}
 
 	public boolean checkVEquality(final Expression source, final Expression target, final Set<Variable> blacklist) throws UnifyException {
@@ -158,6 +146,9 @@ final class MatcherImpl implements Matcher {
 		// complex expression equality
 		if (sourceTerm != targetTerm)
 			return false;
+		if ((source instanceof ExpressionImpl) && (target instanceof ExpressionImpl)
+				&& (((ExpressionImpl) source).nodeCount() != ((ExpressionImpl) target).nodeCount()))
+			return false;
 		final List<Expression> sourceChildren = source.getChildren();
 		final List<Expression> targetChildren = target.getChildren();
 		final int size = sourceChildren.size();
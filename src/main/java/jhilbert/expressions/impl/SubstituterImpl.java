@@ -24,7 +24,6 @@
 
 package jhilbert.expressions.impl;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -53,13 +52,24 @@ final class SubstituterImpl implements Substituter {
 	/**
 	 * Variable to expression map.
 	 */
-	private Map<Variable, Expression> v2eMap;
+	private final Map<Variable, Expression> v2eMap;
 
 	/**
 	 * Matcher.
 	 */
 	private final MatcherImpl matcher;
 
+	/**
+	 * Trail of variables assigned by the current call to {@link #unify},
+	 * in order of assignment.
+	 */
+	private Variable[] trail;
+
+	/**
+	 * Number of variables on the trail.
+	 */
+	private int trailSize;
+
 	/**
 	 * Creates a new <code>Substituter</code> for the specified variable to
 	 * expression map.
@@ -70,12 +80,48 @@ final class SubstituterImpl implements Substituter {
 		assert (v2eMap != null): "Supplied variable to expression map is null";
 		this.v2eMap = v2eMap;
 		matcher = new MatcherImpl();
+		trail = new Variable[16];
+		trailSize = 0;
 	}
 
 	public Map<Variable, Expression> getAssignments() {
 		return v2eMap;
 	}
 
+	public void reset() {
+		v2eMap.clear();
+	}
+
+	/**
+	 * Assigns the specified expression to the specified variable and
+	 * records the assignment on the trail.
+	 *
+	 * @param var variable.
+	 * @param expr expression.
+	 */
+	private void assign(final Variable var, final Expression expr) {
+		if (trailSize == trail.length) {
+			final Variable[] newTrail = new Variable[2 * trailSize];
+			System.arraycopy(trail, 0, newTrail, 0, trailSize);
+			trail = newTrail;
+		}
+		trail[trailSize++] = var;
+		v2eMap.put(var, expr);
+	}
+
+	/**
+	 * Removes all assignments made after the trail had the specified
+	 * size.
+	 *
+	 * @param mark trail size to go back to.
+	 */
+	private void undo(final int mark) {
+		while (trailSize > mark) {
+			v2eMap.remove(trail[--trailSize]);
+			trail[trailSize] = null;
+		}
+	}
+
 	public Expression substitute(final Expression expr) {
 		assert (expr != null): "Supplied expression is null";
 		final Term term = expr.getValue();
@@ -87,15 +133,47 @@ final class SubstituterImpl implements Substituter {
 				return subst;
 		}
 		// expression is a functor
-		final ExpressionImpl result = new ExpressionImpl(term);
-		for (final Expression childExp: expr.getChildren())
-			result.addChild(substitute(childExp));
-		return result;
+		final ExpressionImpl[] children = ((ExpressionImpl) expr).childArray();
+		ExpressionImpl[] newChildren = null;
+		for (int i = 0; i != children.length; ++i) {
+			final ExpressionImpl newChild = (ExpressionImpl) substitute(children[i]);
+			if ((newChild != children[i]) && (newChildren == null)) {
+				newChildren = new ExpressionImpl[children.length];
+				System.arraycopy(children, 0, newChildren, 0, i);
+			}
+			if (newChildren != null)
+				newChildren[i] = newChild;
+		}
+		if (newChildren == null) // nothing substituted, share the original
+			return expr;
+		return ExpressionImpl.create(term, newChildren);
 	}
 
 	public void unify(final Expression source, final Expression target) throws UnifyException {
 		assert (source != null): "Supplied source expression is null";
 		assert (target != null): "Supplied target expression is null";
+		assert (trailSize == 0): "Trail not empty";
+		try {
+			unifyStep(source, target);
+			trailSize = 0;
+		} catch (UnifyException e) {
+			undo(0);
+			throw e;
+		}
+	}
+
+	/**
+	 * Unifies the specified expressions.
+	 * Unlike {@link #unify}, this method may leave some assignments in
+	 * place when it fails. Callers which go on after a failure must undo
+	 * them through the trail.
+	 *
+	 * @param source source expression.
+	 * @param target target expression.
+	 *
+	 * @throws UnifyException if the expressions cannot be unified.
+	 */
+	private void unifyStep(final Expression source, final Expression target) throws UnifyException {
 		if (logger.isTraceEnabled()) {
 			logger.trace("Unifying expressions");
 			logger.trace("Source: " + source);
@@ -104,16 +182,17 @@ final class SubstituterImpl implements Substituter {
 		final Term sourceTerm = source.getValue();
 		if (sourceTerm.isVariable()) {
 			final Variable sourceVariable = (Variable) sourceTerm;
-			if (v2eMap.containsKey(sourceVariable))
-				if(!matcher.checkDEquality(v2eMap.get(sourceVariable), target)) {
+			final Expression assigned = v2eMap.get(sourceVariable);
+			if (assigned != null)
+				if(!matcher.checkDEquality(assigned, target)) {
 					logger.error("Invalid change of variable assignment");
 					logger.debug("Variable:            " + sourceVariable);
-					logger.debug("Previous assignment: " + v2eMap.get(sourceVariable));
+					logger.debug("Previous assignment: " + assigned);
 					logger.debug("Invalid assignment:  " + target);
 					throw new UnifyException("Invalid change of variable assignment", source, target);
 				} else
 					return;
-			v2eMap.put(sourceVariable, target);
+			assign(sourceVariable, target);
 			return;
 		}
 		final Term targetTerm = target.getValue();
@@ -121,43 +200,57 @@ final class SubstituterImpl implements Substituter {
 			logger.error("Unable to unify complex expression with variable");
 			throw new UnifyException("Unable to unify complex expression with variable", source, target);
 		}
-		final List<Expression> sourceChildren = source.getChildren();
-		final List<Expression> targetChildren = target.getChildren();
-		final Map<Variable, Expression> backup = new HashMap(v2eMap);
-		try {
-			if (sourceTerm.equals(targetTerm)) {
-				final int size = sourceChildren.size();
-				assert (size == targetChildren.size()): "Place count mismatch";
-				for (int i = 0; i != size; ++i)
-					unify(sourceChildren.get(i), targetChildren.get(i));
-				return;
-			}
-		} catch (UnifyException e) {
-			// hmm, better luck after unfolding?
-			if (logger.isTraceEnabled()) {
-				logger.trace("Backtracking after unification error", e);
-				logger.trace("Source: " + e.getSource());
-				logger.trace("Target: " + e.getTarget());
+		if (((ExpressionImpl) source).isDefinitionFree() && ((ExpressionImpl) target).isDefinitionFree()) {
+			// nothing to unfold, so there is nothing to backtrack to either
+			if (!unifyDefinitionFree((ExpressionImpl) source, (ExpressionImpl) target)) {
+				logger.error("Terms do not match");
+				throw new UnifyException("Terms do not match", source, target);
 			}
-			v2eMap = backup;
+			return;
 		}
 		final Functor sourceFunctor = (Functor) sourceTerm;
 		final Functor targetFunctor = (Functor) targetTerm;
 		final int sourceDepth = sourceFunctor.definitionDepth();
 		final int targetDepth = targetFunctor.definitionDepth();
+		if (sourceTerm.equals(targetTerm)) {
+			final ExpressionImpl[] sourceChildren = ((ExpressionImpl) source).childArray();
+			final ExpressionImpl[] targetChildren = ((ExpressionImpl) target).childArray();
+			assert (sourceChildren.length == targetChildren.length): "Place count mismatch";
+			final int mark = trailSize;
+			try {
+				for (int i = 0; i != sourceChildren.length; ++i)
+					unifyStep(sourceChildren[i], targetChildren[i]);
+				return;
+			} catch (UnifyException e) {
+				if (sourceDepth == 0) {
+					// no unfolding to fall back on; whoever backtracks undoes the trail
+					logger.error("Terms do not match");
+					throw new UnifyException("Terms do not match", source, target);
+				}
+				// hmm, better luck after unfolding?
+				if (logger.isTraceEnabled()) {
+					logger.trace("Backtracking after unification error", e);
+					logger.trace("Source: " + e.getSource());
+					logger.trace("Target: " + e.getTarget());
+				}
+				undo(mark);
+			}
+		}
 		if ((sourceDepth == 0) && (targetDepth == 0)) {
 			logger.error("Terms do not match");
 			throw new UnifyException("Terms do not match", source, target);
 		}
+		final List<Expression> sourceChildren = source.getChildren();
+		final List<Expression> targetChildren = target.getChildren();
 		try {
 			if (sourceDepth == targetDepth) {
-				unify(((Definition) sourceFunctor).unfold(sourceChildren), ((Definition) targetFunctor).unfold(targetChildren));
+				unifyStep(((Definition) sourceFunctor).unfold(sourceChildren), ((Definition) targetFunctor).unfold(targetChildren));
 				return;
 			}
 			if (sourceDepth < targetDepth)
-				unify(source, ((Definition) targetFunctor).unfold(targetChildren));
+				unifyStep(source, ((Definition) targetFunctor).unfold(targetChildren));
 			else
-				unify(((Definition) sourceFunctor).unfold(sourceChildren), target);
+				unifyStep(((Definition) sourceFunctor).unfold(sourceChildren), target);
 			return;
 		} catch (UnifyException e) {
 			logger.error("Unification error after unfolding definition", e);
@@ -167,6 +260,40 @@ final class SubstituterImpl implements Substituter {
 		}
 	}
 
+	/**
+	 * Unifies the specified definition free expressions.
+	 * Since neither expression contains a definition, unification is
+	 * purely structural, and the first mismatch is final. Like
+	 * {@link #unifyStep}, this method may leave some assignments in place
+	 * when it fails.
+	 *
+	 * @param source definition free source expression.
+	 * @param target definition free target expression.
+	 *
+	 * @return <code>true</code> if the expressions have been unified,
+	 * 	<code>false</code> otherwise.
+	 */
+	private boolean unifyDefinitionFree(final ExpressionImpl source, final ExpressionImpl target) {
+		final Term sourceTerm = source.getValue();
+		if (sourceTerm.isVariable()) {
+			final Variable sourceVariable = (Variable) sourceTerm;
+			final Expression assigned = v2eMap.get(sourceVariable);
+			if (assigned != null)
+				return matcher.checkDEquality(assigned, target);
+			assign(sourceVariable, target);
+			return true;
+		}
+		if (!sourceTerm.equals(target.getValue()))
+			return false;
+		final ExpressionImpl[] sourceChildren = source.childArray();
+		final ExpressionImpl[] targetChildren = target.childArray();
+		assert (sourceChildren.length == targetChildren.length): "Place count mismatch";
+		for (int i = 0; i != sourceChildren.length; ++i)
+			if (!unifyDefinitionFree(sourceChildren[i], targetChildren[i]))
+				return false;
+		return true;
+	}
+
 	public void crossUnify(final Expression source, final Expression target, final Translator translator) throws UnifyException {
 		assert (source != null): "Supplied source expression is null";
 		assert (target != null): "Supplied target expression is null";
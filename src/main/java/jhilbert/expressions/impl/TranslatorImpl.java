@@ -25,6 +25,7 @@
 package jhilbert.expressions.impl;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import jhilbert.data.DataFactory;
@@ -88,17 +89,19 @@ final class TranslatorImpl implements Translator {
 		assert (expression != null): "Supplied expression is null";
 		final Term term = expression.getValue();
 		if (term.isVariable())
-			return new ExpressionImpl(translate((Variable) term));
+			return ExpressionImpl.create(translate((Variable) term));
 		if (!functorMap.containsKey(term)) {
 			logger.error("Undefined functor translation");
 			logger.debug("Expression: " + expression);
 			logger.debug("Functor:    " + term);
 			throw new ExpressionException("Undefined functor translation");
 		}
-		final Expression result = new ExpressionImpl(functorMap.get(term));
-		for (final Expression childExpression: expression.getChildren())
-			result.addChild(translate(childExpression));
-		return result;
+		final List<Expression> children = expression.getChildren();
+		final int size = children.size();
+		final ExpressionImpl[] newChildren = new ExpressionImpl[size];
+		for (int i = 0; i != size; ++i)
+			newChildren[i] = (ExpressionImpl) translate(children.get(i));
+		return ExpressionImpl.create(functorMap.get(term), newChildren);
 	}
 
 	public Variable translate(final Variable variable) throws ExpressionException {
@@ -0,0 +1,299 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+package jhilbert.expressions.impl;
+
+import java.util.AbstractList;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.RandomAccess;
+import java.util.Set;
+
+import jhilbert.data.Variable;
+
+/**
+ * Unmodifiable list of distinct {@link Variable}s backed by an array.
+ * Instances are cached on {@link ExpressionImpl} nodes, see
+ * {@link ExpressionImpl#variableList}.
+ * <p>
+ * Lists of more than {@link #HASH_THRESHOLD} variables also keep an open
+ * addressing table of their variables, hashed by identity, so that
+ * membership tests take constant time. The table is usually filled while
+ * the variables are collected, see {@link Builder}.
+ */
+final class VariableList extends AbstractList<Variable> implements RandomAccess {
+
+	/**
+	 * Empty variable array.
+	 */
+	static final Variable[] NO_VARIABLES = new Variable[0];
+
+	/**
+	 * Number of variables up to which membership is tested by a linear
+	 * search.
+	 */
+	static final int HASH_THRESHOLD = 8;
+
+	/**
+	 * Collects distinct variables in order of first appearance.
+	 */
+	static final class Builder {
+
+		/**
+		 * Variables. Only the first {@link #size} elements are used.
+		 */
+		private Variable[] vars;
+
+		/**
+		 * Number of variables.
+		 */
+		private int size;
+
+		/**
+		 * Hash table of the variables, or <code>null</code> while there
+		 * are few of them.
+		 */
+		private Variable[] table;
+
+		/**
+		 * Creates a new <code>Builder</code> for about the specified
+		 * number of variables.
+		 *
+		 * @param capacity expected maximum number of variables.
+		 */
+		Builder(final int capacity) {
+			vars = (capacity == 0) ? NO_VARIABLES : new Variable[capacity];
+			size = 0;
+			table = null;
+		}
+
+		/**
+		 * Adds the specified variable unless it has already been added.
+		 *
+		 * @param var variable to add.
+		 */
+		void add(final Variable var) {
+			assert (var != null): "Supplied variable is null";
+			if (table == null) {
+				if (indexOf(vars, size, var) != -1)
+					return;
+				if (size == HASH_THRESHOLD)
+					table = createTable(vars, size, Math.max(vars.length, 2 * size));
+			}
+			if ((table != null) && !insert(table, var))
+				return;
+			if (size == vars.length) {
+				final Variable[] newVars = new Variable[2 * size + 4];
+				System.arraycopy(vars, 0, newVars, 0, size);
+				vars = newVars;
+			}
+			vars[size++] = var;
+			if ((table != null) && (4 * size > 3 * table.length))
+				table = createTable(vars, size, 2 * size);
+		}
+
+		/**
+		 * Returns the number of variables added so far.
+		 *
+		 * @return number of variables.
+		 */
+		int size() {
+			return size;
+		}
+
+		/**
+		 * Creates a list of the variables added. The builder must not be
+		 * used afterwards.
+		 *
+		 * @return list of the variables.
+		 */
+		VariableList build() {
+			return new VariableList(vars, size, table);
+		}
+
+	}
+
+	/**
+	 * Variables. Only the first {@link #size} elements are used.
+	 */
+	private final Variable[] vars;
+
+	/**
+	 * Number of variables.
+	 */
+	private final int size;
+
+	/**
+	 * Hash table of the variables, or <code>null</code> if there are at
+	 * most {@link #HASH_THRESHOLD} variables.
+	 */
+	private final Variable[] table;
+
+	/**
+	 * Set view, or <code>null</code> if it has not been created yet.
+	 */
+	private volatile Set<Variable> set;
+
+	/**
+	 * Creates a new <code>VariableList</code>.
+	 *
+	 * @param vars distinct variables. The array must not be modified
+	 * 	afterwards.
+	 * @param size number of variables to use from <code>vars</code>.
+	 */
+	VariableList(final Variable[] vars, final int size) {
+		this(vars, size, (size > HASH_THRESHOLD) ? createTable(vars, size, size) : null);
+	}
+
+	/**
+	 * Creates a new <code>VariableList</code> with the specified hash
+	 * table.
+	 *
+	 * @param vars distinct variables. The array must not be modified
+	 * 	afterwards.
+	 * @param size number of variables to use from <code>vars</code>.
+	 * @param table hash table of the variables, or <code>null</code> if
+	 * 	there are at most {@link #HASH_THRESHOLD} variables.
+	 */
+	private VariableList(final Variable[] vars, final int size, final Variable[] table) {
+		assert (vars != null): "Supplied variables are null";
+		assert ((size >= 0) && (size <= vars.length)): "Invalid size";
+		assert ((table != null) || (size <= HASH_THRESHOLD)): "Missing hash table";
+		this.vars = vars;
+		this.size = size;
+		this.table = table;
+	}
+
+	/**
+	 * Returns the index of the specified variable in the first elements of
+	 * the specified array.
+	 *
+	 * @param vars variables.
+	 * @param size number of variables to search.
+	 * @param o object to search for.
+	 *
+	 * @return index of <code>o</code>, or <code>-1</code> if it is not
+	 * 	among the variables.
+	 */
+	private static int indexOf(final Variable[] vars, final int size, final Object o) {
+		// variables are never identified, so equality is identity
+		for (int i = 0; i != size; ++i)
+			if (vars[i] == o)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Creates a hash table containing the specified variables.
+	 *
+	 * @param vars distinct variables.
+	 * @param size number of variables to use from <code>vars</code>.
+	 * @param capacity number of variables the table should hold.
+	 *
+	 * @return hash table whose length is a power of two.
+	 */
+	private static Variable[] createTable(final Variable[] vars, final int size, final int capacity) {
+		final Variable[] result = new Variable[Integer.highestOneBit(2 * capacity) << 1];
+		for (int i = 0; i != size; ++i)
+			insert(result, vars[i]);
+		return result;
+	}
+
+	/**
+	 * Returns the slot of the specified object in the specified hash
+	 * table.
+	 *
+	 * @param table hash table.
+	 * @param o object.
+	 *
+	 * @return slot containing <code>o</code>, or the free slot where it
+	 * 	would be inserted.
+	 */
+	private static int slot(final Variable[] table, final Object o) {
+		final int mask = table.length - 1;
+		int i = (System.identityHashCode(o) * 0x9E3779B9) & mask;
+		while ((table[i] != null) && (table[i] != o))
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	/**
+	 * Inserts the specified variable into the specified hash table, which
+	 * must have a free slot.
+	 *
+	 * @param table hash table.
+	 * @param var variable.
+	 *
+	 * @return <code>true</code> if the variable was inserted,
+	 * 	<code>false</code> if it was already present.
+	 */
+	private static boolean insert(final Variable[] table, final Variable var) {
+		final int i = slot(table, var);
+		if (table[i] != null)
+			return false;
+		table[i] = var;
+		return true;
+	}
+
+	public @Override Variable get(final int index) {
+		if ((index < 0) || (index >= size))
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+		return vars[index];
+	}
+
+	public @Override int size() {
+		return size;
+	}
+
+	public @Override boolean contains(final Object o) {
+		if (table == null)
+			return (indexOf(vars, size, o) != -1);
+		return (table[slot(table, o)] != null);
+	}
+
+	/**
+	 * Returns an unmodifiable set view of these variables, iterating in
+	 * list order.
+	 *
+	 * @return set of these variables.
+	 */
+	Set<Variable> asSet() {
+		Set<Variable> result = set;
+		if (result == null) {
+			result = new AbstractSet<Variable>() {
+				public @Override Iterator<Variable> iterator() {
+					return VariableList.this.iterator();
+				}
+				public @Override int size() {
+					return size;
+				}
+				public @Override boolean contains(final Object o) {
+					return VariableList.this.contains(o);
+				}
+			};
+			set = result;
+		}
+		return result;
+	}
+
+}
@@ -28,6 +28,8 @@ import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.InputStream;
+import java.io.Reader;
+import java.util.List;
 
 import jhilbert.data.Module;
 
@@ -62,6 +64,16 @@ public abstract class ScannerFactory {
 	 */
 	public abstract TokenFeed createTokenFeed(InputStream in) throws ScannerException;
 
+	/**
+	 * Creates a new {@link TokenFeed} from the specified
+	 * {@link java.io.Reader}.
+	 *
+	 * @param in reader to create the <code>TokenFeed</code> from.
+	 *
+	 * @return the new <code>TokenFeed</code>.
+	 */
+	public abstract TokenFeed createTokenFeed(Reader in);
+
 	/**
 	 * Creates a new {@link TokenFeed} from the specified input and
 	 * output buffers (for server operation).
@@ -82,4 +94,15 @@ public abstract class ScannerFactory {
 	 */
 	public abstract TokenFeed createTokenFeed(InputStream in, BufferedOutputStream out, Module module);
 
+	/**
+	 * Creates a new {@link TokenFeed} which replays the specified
+	 * recorded tokens, starting with the specified context.
+	 *
+	 * @param tokens recorded tokens.
+	 * @param context initial context.
+	 *
+	 * @return the new <code>TokenFeed</code>.
+	 */
+	public abstract TokenFeed createTokenFeed(List<Token> tokens, String context);
+
 }
@@ -25,13 +25,17 @@
 package jhilbert.scanners;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+/**
+ * Wiki text filter for stream based token feeds.
+ *
+ * @deprecated Use {@link WikiReader}, which filters without buffering
+ * 	the whole text.
+ */
+@Deprecated
 public class WikiInputStream extends InputStream {
 
 	// This class contains only static methods
@@ -52,26 +56,13 @@ public class WikiInputStream extends InputStream {
 	}
 
 	static String read(InputStream inputStream) throws IOException {
-		Pattern PATTERN = Pattern.compile("<jh>.*?</jh>", Pattern.DOTALL);
-		CharSequence contents = readFile(inputStream);
+		final WikiReader reader = WikiReader.create(inputStream);
 		final StringBuilder jhText = new StringBuilder();
-		final Matcher matcher = PATTERN.matcher(contents);
-		while(matcher.find()) {
-			final String match = matcher.group();
-			jhText.append('\n');
-			jhText.append(match, 4, match.length() - 5); // strip tags
-		}
-		return jhText.toString();
-	}
-
-	private static CharSequence readFile(InputStream inputStream) throws IOException {
-		final ByteArrayOutputStream contents = new ByteArrayOutputStream();
+		final char[] buffer = new char[8192];
 		int nread;
-		byte[] buffer = new byte[32768];
-		while ((nread = inputStream.read(buffer)) > 0) {
-			contents.write(buffer, 0, nread);
-		}
-		return contents.toString("UTF-8");
+		while ((nread = reader.read(buffer)) != -1)
+			jhText.append(buffer, 0, nread);
+		return jhText.toString();
 	}
 
 }
@@ -0,0 +1,223 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+package jhilbert.scanners;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+/**
+ * A {@link Reader} which passes on only the JHilbert sections of wiki text.
+ * <p>
+ * A JHilbert section is the text between a <code>&lt;jh&gt;</code> tag and
+ * the next <code>&lt;/jh&gt;</code> tag. Each section is preceded by a
+ * newline. All other text is dropped. The tags are recognised as the text
+ * streams by. A section is passed on once its closing tag has been seen,
+ * so only a single section, never the page as a whole, is held in memory.
+ * A section left open at the end of the input is dropped.
+ */
+public final class WikiReader extends Reader {
+
+	/**
+	 * Tag opening a JHilbert section.
+	 */
+	private static final String OPEN_TAG = "<jh>";
+
+	/**
+	 * Tag closing a JHilbert section.
+	 */
+	private static final String CLOSE_TAG = "</jh>";
+
+	/**
+	 * Input encoding.
+	 */
+	private static final String ENCODING = "UTF-8";
+
+	/**
+	 * Size of the input buffer.
+	 */
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * Underlying reader.
+	 */
+	private final Reader in;
+
+	/**
+	 * Input buffer.
+	 */
+	private final char[] buffer;
+
+	/**
+	 * Position of the next character in {@link #buffer}.
+	 */
+	private int bufferPos;
+
+	/**
+	 * End of the valid characters in {@link #buffer}.
+	 */
+	private int bufferEnd;
+
+	/**
+	 * Whether we are inside a JHilbert section.
+	 */
+	private boolean inSection;
+
+	/**
+	 * Contents of the current section, until its closing tag is seen.
+	 */
+	private final StringBuilder section;
+
+	/**
+	 * Number of characters of the tag we are looking for matched so far.
+	 */
+	private int matched;
+
+	/**
+	 * Characters to pass on before further input is considered, or
+	 * <code>null</code>.
+	 */
+	private String pending;
+
+	/**
+	 * Position of the next character in {@link #pending}.
+	 */
+	private int pendingPos;
+
+	/**
+	 * Creates a new <code>WikiReader</code> filtering the specified
+	 * reader.
+	 *
+	 * @param in reader supplying wiki text.
+	 */
+	public WikiReader(final Reader in) {
+		super(in);
+		assert (in != null): "Supplied reader is null";
+		this.in = in;
+		buffer = new char[BUFFER_SIZE];
+		bufferPos = 0;
+		bufferEnd = 0;
+		inSection = false;
+		section = new StringBuilder();
+		matched = 0;
+		pending = null;
+	}
+
+	/**
+	 * Creates a new <code>WikiReader</code> for the specified file.
+	 *
+	 * @param inputFileName name of a UTF-8 encoded file.
+	 *
+	 * @return the new <code>WikiReader</code>.
+	 *
+	 * @throws IOException if the file cannot be opened.
+	 */
+	public static WikiReader create(final String inputFileName) throws IOException {
+		return create(new FileInputStream(inputFileName));
+	}
+
+	/**
+	 * Creates a new <code>WikiReader</code> for the specified stream.
+	 *
+	 * @param inputStream UTF-8 encoded input stream.
+	 *
+	 * @return the new <code>WikiReader</code>.
+	 *
+	 * @throws IOException if the encoding is not supported.
+	 */
+	public static WikiReader create(final InputStream inputStream) throws IOException {
+		return new WikiReader(new InputStreamReader(inputStream, ENCODING));
+	}
+
+	public @Override int read() throws IOException {
+		for (;;) {
+			if (pending != null) {
+				final char c = pending.charAt(pendingPos++);
+				if (pendingPos == pending.length())
+					pending = null;
+				return c;
+			}
+			if (bufferPos == bufferEnd) {
+				bufferPos = 0;
+				bufferEnd = in.read(buffer, 0, BUFFER_SIZE);
+				if (bufferEnd == -1) {
+					// drop an unterminated section
+					bufferEnd = 0;
+					inSection = false;
+					section.setLength(0);
+					matched = 0;
+					return -1;
+				}
+				continue;
+			}
+			final char c = buffer[bufferPos++];
+			final String tag = inSection ? CLOSE_TAG : OPEN_TAG;
+			if (c == tag.charAt(matched)) {
+				if (++matched == tag.length()) {
+					matched = 0;
+					inSection = !inSection;
+					if (!inSection) {
+						if (section.length() != 0) {
+							pending = section.toString();
+							pendingPos = 0;
+							section.setLength(0);
+						}
+						return '\n';
+					}
+				}
+				continue;
+			}
+			if (matched != 0) {
+				// the tags contain '<' only at the start, so c may begin a new match
+				if (inSection)
+					section.append(tag, 0, matched);
+				matched = 0;
+				--bufferPos;
+				continue;
+			}
+			if (inSection)
+				section.append(c);
+		}
+	}
+
+	public @Override int read(final char[] cbuf, final int off, final int len) throws IOException {
+		if (len == 0)
+			return 0;
+		int n = 0;
+		do {
+			final int c = read();
+			if (c == -1)
+				return (n == 0) ? -1 : n;
+			cbuf[off + n++] = (char) c;
+		} while ((n < len) && ((bufferPos < bufferEnd) || (pending != null)));
+		return n;
+	}
+
+	public @Override void close() throws IOException {
+		in.close();
+	}
+
+}
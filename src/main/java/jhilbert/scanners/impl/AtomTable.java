@@ -0,0 +1,218 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+package jhilbert.scanners.impl;
+
+import jhilbert.scanners.Token;
+
+/**
+ * Interning table for atom tokens.
+ * <p>
+ * A token feed looks up each scanned atom here by its characters and
+ * receives one canonical {@link Token} per distinct atom, so a repeated atom
+ * costs neither a new string nor a new token. The canonical token strings
+ * are JVM-wide interned strings, whose hash codes are computed once, so
+ * namespace lookups with them do not rehash, and they are mostly resolved by
+ * identity.
+ * <p>
+ * This class is not thread safe. Each token feed uses its own table.
+ */
+final class AtomTable {
+
+	/**
+	 * Initial number of slots. Must be a power of two.
+	 */
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/**
+	 * Canonical tokens by slot.
+	 */
+	private Token[] tokens;
+
+	/**
+	 * Characters of the canonical token strings by slot.
+	 */
+	private char[][] keys;
+
+	/**
+	 * Hash codes of the canonical token strings by slot.
+	 */
+	private int[] hashes;
+
+	/**
+	 * Number of canonical tokens.
+	 */
+	private int size;
+
+	/**
+	 * Scratch space for interning from a {@link StringBuilder}.
+	 */
+	private char[] scratch;
+
+	/**
+	 * Creates a new, empty <code>AtomTable</code>.
+	 */
+	AtomTable() {
+		tokens = new Token[INITIAL_CAPACITY];
+		keys = new char[INITIAL_CAPACITY][];
+		hashes = new int[INITIAL_CAPACITY];
+		size = 0;
+		scratch = new char[64];
+	}
+
+	/**
+	 * Computes the hash code a string of the specified characters would
+	 * have.
+	 *
+	 * @param chars character array.
+	 * @param offset offset of the characters.
+	 * @param length number of characters.
+	 *
+	 * @return the string hash code.
+	 */
+	static int hash(final char[] chars, final int offset, final int length) {
+		int hash = 0;
+		final int end = offset + length;
+		for (int i = offset; i != end; ++i)
+			hash = 31 * hash + chars[i];
+		return hash;
+	}
+
+	/**
+	 * Obtains the canonical atom token with the specified characters.
+	 *
+	 * @param chars character array.
+	 * @param offset offset of the atom in <code>chars</code>.
+	 * @param length length of the atom.
+	 *
+	 * @return the canonical atom token.
+	 */
+	Token intern(final char[] chars, final int offset, final int length) {
+		return intern(chars, offset, length, hash(chars, offset, length));
+	}
+
+	/**
+	 * Obtains the canonical atom token with the specified characters and
+	 * precomputed hash code.
+	 *
+	 * @param chars character array.
+	 * @param offset offset of the atom in <code>chars</code>.
+	 * @param length length of the atom.
+	 * @param hash string hash code of the atom, as computed by
+	 * 	{@link #hash}.
+	 *
+	 * @return the canonical atom token.
+	 */
+	Token intern(final char[] chars, final int offset, final int length, final int hash) {
+		assert (chars != null): "Supplied character array is null";
+		final int mask = tokens.length - 1;
+		int slot = spread(hash) & mask;
+		for (char[] key = keys[slot]; key != null; key = keys[slot]) {
+			if ((hashes[slot] == hash) && matches(key, chars, offset, length))
+				return tokens[slot];
+			slot = (slot + 1) & mask;
+		}
+		final char[] key = new char[length];
+		System.arraycopy(chars, offset, key, 0, length);
+		final Token result = new TokenImpl(new String(key).intern(), Token.Class.ATOM);
+		tokens[slot] = result;
+		keys[slot] = key;
+		hashes[slot] = hash;
+		if (++size * 2 > tokens.length)
+			grow();
+		return result;
+	}
+
+	/**
+	 * Obtains the canonical atom token with the characters currently in
+	 * the specified {@link StringBuilder}.
+	 *
+	 * @param sb string builder.
+	 *
+	 * @return the canonical atom token.
+	 */
+	Token intern(final StringBuilder sb) {
+		assert (sb != null): "Supplied string builder is null";
+		final int length = sb.length();
+		if (scratch.length < length)
+			scratch = new char[Math.max(length, 2 * scratch.length)];
+		sb.getChars(0, length, scratch, 0);
+		return intern(scratch, 0, length);
+	}
+
+	/**
+	 * Mixes the bits of a string hash code for slot selection.
+	 *
+	 * @param hash string hash code.
+	 *
+	 * @return mixed hash.
+	 */
+	private static int spread(final int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Checks whether the specified key consists of the specified
+	 * characters.
+	 *
+	 * @param key key characters.
+	 * @param chars character array.
+	 * @param offset offset of the characters.
+	 * @param length number of characters.
+	 *
+	 * @return <code>true</code> if the characters match,
+	 * 	<code>false</code> otherwise.
+	 */
+	private static boolean matches(final char[] key, final char[] chars, final int offset, final int length) {
+		if (key.length != length)
+			return false;
+		for (int i = 0; i != length; ++i)
+			if (key[i] != chars[offset + i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Doubles the number of slots.
+	 */
+	private void grow() {
+		final Token[] oldTokens = tokens;
+		final char[][] oldKeys = keys;
+		final int[] oldHashes = hashes;
+		tokens = new Token[2 * oldTokens.length];
+		keys = new char[tokens.length][];
+		hashes = new int[tokens.length];
+		final int mask = tokens.length - 1;
+		for (int i = 0; i != oldTokens.length; ++i) {
+			if (oldTokens[i] == null)
+				continue;
+			int slot = spread(oldHashes[i]) & mask;
+			while (tokens[slot] != null)
+				slot = (slot + 1) & mask;
+			tokens[slot] = oldTokens[i];
+			keys[slot] = oldKeys[i];
+			hashes[slot] = oldHashes[i];
+		}
+	}
+
+}
@@ -145,6 +145,22 @@ final class Char {
 
 	}
 
+	/**
+	 * Character classes of all characters, indexed by character.
+	 * Entries are {@link Class} ordinals.
+	 */
+	private static final byte[] CLASS_TABLE = new byte[65536];
+
+	/**
+	 * Character classes by ordinal.
+	 */
+	private static final Class[] CLASSES = Class.values();
+
+	static {
+		for (int c = 0; c != CLASS_TABLE.length; ++c)
+			CLASS_TABLE[c] = (byte) (new Char(c)).getCharClass().ordinal();
+	}
+
 	/**
 	 * Character class of this character.
 	 */
@@ -194,6 +210,30 @@ final class Char {
 		return charClass;
 	}
 
+	/**
+	 * Obtains the {@link Class} ordinal of the specified character without
+	 * creating a <code>Char</code>.
+	 *
+	 * @param c character.
+	 *
+	 * @return ordinal of the character class of <code>c</code>.
+	 */
+	static int classOrdinal(final char c) {
+		return CLASS_TABLE[c];
+	}
+
+	/**
+	 * Obtains the character class of the specified character without
+	 * creating a <code>Char</code>.
+	 *
+	 * @param c character.
+	 *
+	 * @return character class of <code>c</code>.
+	 */
+	static Class classOf(final char c) {
+		return CLASSES[CLASS_TABLE[c]];
+	}
+
 	/**
 	 * Obtains the codepoint of this character.
 	 *
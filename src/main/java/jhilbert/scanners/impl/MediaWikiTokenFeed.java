@@ -29,7 +29,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
@@ -45,6 +47,11 @@ import jhilbert.utils.Io;
 
 /**
  * A token feed for conversation with MediaWiki.
+ * <p>
+ * Confirmations and rejections are merely recorded. The HTML markup sent
+ * to the client is rendered from the recording only when the context is
+ * requested, that is, when more text is asked for or when an error message
+ * is built.
  */
 final class MediaWikiTokenFeed extends AbstractTokenFeed {
 
@@ -101,9 +108,19 @@ final class MediaWikiTokenFeed extends AbstractTokenFeed {
 	private int charBufferSize;
 
 	/**
-	 * Current token.
+	 * Text of the current token.
 	 */
-	private final StringBuilder currentToken;
+	private String currentToken;
+
+	/**
+	 * Characters of an ATOM being scanned.
+	 */
+	private final StringBuilder atom;
+
+	/**
+	 * Canonical atom tokens.
+	 */
+	private final AtomTable atoms;
 
 	/**
 	 * Set of HTML IDs in use.
@@ -111,60 +128,146 @@ final class MediaWikiTokenFeed extends AbstractTokenFeed {
 	private final Set<String> htmlIds;
 
 	/**
-	 * Escapes special HTML and Wiki characters.
+	 * Annotations recorded since the context was last rendered.
+	 */
+	private final List<Annotation> annotations;
+
+	/**
+	 * Whitespace or comment text not yet recorded as an annotation.
+	 */
+	private final StringBuilder pendingText;
+
+	/**
+	 * HTML rendered from the context so far.
+	 */
+	private final StringBuilder rendered;
+
+	/**
+	 * A recorded piece of the context.
+	 * Tokens are recorded together with their confirmation class and
+	 * turned into HTML only when the context is actually requested, see
+	 * {@link MediaWikiTokenFeed#getContextString}.
+	 */
+	private static final class Annotation {
+
+		/**
+		 * Plain text (whitespace).
+		 */
+		static final int TEXT = 0;
+
+		/**
+		 * Comment followed by a newline.
+		 */
+		static final int COMMENT = 1;
+
+		/**
+		 * Comment cut off by the end of the text.
+		 */
+		static final int OPEN_COMMENT = 2;
+
+		/**
+		 * Confirmed token.
+		 */
+		static final int CONFIRMED = 3;
+
+		/**
+		 * Rejected token.
+		 */
+		static final int REJECTED = 4;
+
+		/**
+		 * Kind of annotation.
+		 */
+		final int kind;
+
+		/**
+		 * Annotated text.
+		 */
+		final String text;
+
+		/**
+		 * Confirmation class or error message, or <code>null</code>.
+		 */
+		final String msg;
+
+		/**
+		 * Creates a new <code>Annotation</code>.
+		 *
+		 * @param kind kind of annotation.
+		 * @param text annotated text.
+		 * @param msg confirmation class or error message.
+		 */
+		Annotation(final int kind, final String text, final String msg) {
+			this.kind = kind;
+			this.text = text;
+			this.msg = msg;
+		}
+
+	}
+
+	/**
+	 * Appends the specified character to the specified string builder,
+	 * escaping special HTML and Wiki characters.
 	 *
 	 * @param c character.
-	 *
-	 * @return string containing only the character <code>c</code> or an
-	 * 	escaped version thereof.
+	 * @param result string builder to append to.
 	 */
-	private static String escapeHTML(final char c) {
+	private static void escapeHTML(final char c, final StringBuilder result) {
 		switch (c) {
 			case '\n':
 			case '\r':
-				return "<br />";
+				result.append("<br />");
+				break;
 			case '\t':
-				return "&#9;";
+				result.append("&#9;");
+				break;
 			case ' ':
-				return "&nbsp;";
+				result.append("&nbsp;");
+				break;
 			case '&':
-				return "&amp;";
+				result.append("&amp;");
+				break;
 			case '"':
-				return "&quot;";
+				result.append("&quot;");
+				break;
 			case '<':
-				return "&lt;";
+				result.append("&lt;");
+				break;
 			case '>':
-				return "&gt;";
+				result.append("&gt;");
+				break;
 			case '|':
-				return "&#124;";
+				result.append("&#124;");
+				break;
 			case '[':
-				return "&#91;";
+				result.append("&#91;");
+				break;
 			case ']':
-				return "&#93;";
+				result.append("&#93;");
+				break;
 			case '{':
-				return "&#123;";
+				result.append("&#123;");
+				break;
 			case '}':
-				return "&#125;";
+				result.append("&#125;");
+				break;
 			default:
-				return Character.toString(c);
+				result.append(c);
 		}
 	}
 
 	/**
-	 * Escapes special HTML characters in the specified
-	 * {@link CharSequence}
+	 * Appends the specified {@link CharSequence} to the specified string
+	 * builder, escaping special HTML characters.
 	 *
 	 * @param s character sequence.
-	 *
-	 * @return escaped string.
+	 * @param result string builder to append to.
 	 */
-	private static String escapeHTML(final CharSequence s) {
+	private static void escapeHTML(final CharSequence s, final StringBuilder result) {
 		assert (s != null): "Supplied character sequence is null";
-		final StringBuilder result = new StringBuilder();
 		final int length = s.length();
 		for (int i = 0; i != length; ++i)
-			result.append(escapeHTML(s.charAt(i)));
-		return result.toString();
+			escapeHTML(s.charAt(i), result);
 	}
 
 	/**
@@ -183,13 +286,52 @@ final class MediaWikiTokenFeed extends AbstractTokenFeed {
 		this.module = module;
 		charBuffer = null;
 		charBufferPos = -1;
-		currentToken = new StringBuilder();
+		currentToken = "";
+		atom = new StringBuilder();
 		htmlIds = new HashSet();
+		atoms = new AtomTable();
+		annotations = new ArrayList();
+		pendingText = new StringBuilder();
+		rendered = new StringBuilder();
+	}
+
+	/**
+	 * Records the pending whitespace, if any.
+	 */
+	private void flushText() {
+		if (pendingText.length() != 0) {
+			annotations.add(new Annotation(Annotation.TEXT, pendingText.toString(), null));
+			pendingText.setLength(0);
+		}
+	}
+
+	/**
+	 * Records the pending comment text.
+	 *
+	 * @param kind either {@link Annotation#COMMENT} or
+	 * 	{@link Annotation#OPEN_COMMENT}.
+	 */
+	private void flushComment(final int kind) {
+		annotations.add(new Annotation(kind, pendingText.toString(), null));
+		pendingText.setLength(0);
+	}
+
+	/**
+	 * Returns the canonical token for the scanned ATOM and makes it
+	 * current.
+	 *
+	 * @return ATOM token.
+	 */
+	private Token atomToken() {
+		final Token result = atoms.intern(atom);
+		currentToken = result.getTokenString();
+		return result;
 	}
 
 	protected @Override Token getNewToken() throws ScannerException {
 		try {
-			currentToken.setLength(0);
+			currentToken = "";
+			atom.setLength(0);
 			if (charBuffer == null) {
 				// get new text
 				Server.writeAnswer(out, Server.MORE_RC, getContextString());
@@ -221,49 +363,52 @@ final class MediaWikiTokenFeed extends AbstractTokenFeed {
 			ParserState parserState = ParserState.INITIAL;
 			while (charBufferPos < charBufferSize) {
 				final char c = charBuffer.get(charBufferPos++);
-				final Char.Class charClass = (new Char(c)).getCharClass();
+				final Char.Class charClass = Char.classOf(c);
 				if (charClass == Char.Class.INVALID)
 					throw new ScannerException("Invalid character '" + c + "'", this);
 				switch (parserState) {
 					case INITIAL:
 						switch (charClass) {
 							case OPEN_PAREN:
-								currentToken.append(c);
+								flushText();
+								currentToken = BEGIN_EXP.getTokenString();
 								return BEGIN_EXP;
 							case CLOSE_PAREN:
-								currentToken.append(c);
+								flushText();
+								currentToken = END_EXP.getTokenString();
 								return END_EXP;
 							case HASHMARK:
+								flushText();
 								parserState = ParserState.COMMENT;
-								appendToContext("<span class=\"comment\">#");
 								break;
 							case ATOM:
+								flushText();
 								parserState = ParserState.ATOM;
-								currentToken.append(c);
+								atom.append(c);
 								break;
 							default:
-								appendToContext(escapeHTML(c));
+								pendingText.append(c);
 								break;
 						}
 						break;
 					case ATOM:
 						switch (charClass) {
 							case ATOM:
-								currentToken.append(c);
+								atom.append(c);
 								break;
 							default:
 								--charBufferPos; // parser backup, ATOM -> INITIAL implied
-								return new TokenImpl(currentToken.toString(), Token.Class.ATOM);
+								return atomToken();
 						}
 						break;
 					case COMMENT:
 						switch (charClass) {
 							case NEWLINE:
 								parserState = ParserState.INITIAL;
-								appendToContext("</span><br />\n");
+								flushComment(Annotation.COMMENT);
 								break;
 							default:
-								appendToContext(escapeHTML(c));
+								pendingText.append(c);
 								break;
 						}
 						break;
@@ -273,9 +418,9 @@ final class MediaWikiTokenFeed extends AbstractTokenFeed {
 			}
 			charBuffer = null;
 			if (parserState == ParserState.ATOM)
-				return new TokenImpl(currentToken.toString(), Token.Class.ATOM);
+				return atomToken();
 			if (parserState == ParserState.COMMENT)
-				appendToContext("</span>");
+				flushComment(Annotation.OPEN_COMMENT);
 			return getNewToken();
 		} catch (IOException e) {
 			throw new ScannerException("I/O error" + e.getMessage(), this, e);
@@ -284,18 +429,83 @@ final class MediaWikiTokenFeed extends AbstractTokenFeed {
 
 	public @Override void confirm(final String msg) {
 		assert (msg != null): "Supplied message is null";
-		final String currentToken = this.currentToken.toString();
-		String attribs = "";
-		String content;
+		annotations.add(new Annotation(Annotation.CONFIRMED, currentToken, msg));
+	}
+
+	public @Override void reject(final String msg) {
+		assert (msg != null): "Supplied message is null";
+		annotations.add(new Annotation(Annotation.REJECTED, currentToken, msg));
+	}
+
+	public @Override void confirmEndCmd() throws ScannerException {
+		confirmEndExp();
+	}
+
+	public @Override void resetContext() {
+		annotations.clear();
+		pendingText.setLength(0);
+		rendered.setLength(0);
+	}
+
+	/**
+	 * Renders the context recorded so far as HTML.
+	 * Each annotation is rendered exactly once, so repeated calls return
+	 * consistent results.
+	 *
+	 * @return the HTML context.
+	 */
+	public @Override String getContextString() {
+		flushText();
+		for (final Annotation annotation: annotations) {
+			switch (annotation.kind) {
+				case Annotation.TEXT:
+					escapeHTML(annotation.text, rendered);
+					break;
+				case Annotation.COMMENT:
+					rendered.append("<span class=\"comment\">#");
+					escapeHTML(annotation.text, rendered);
+					rendered.append("</span><br />\n");
+					break;
+				case Annotation.OPEN_COMMENT:
+					rendered.append("<span class=\"comment\">#");
+					escapeHTML(annotation.text, rendered);
+					rendered.append("</span>");
+					break;
+				case Annotation.CONFIRMED:
+					renderConfirmed(annotation.text, annotation.msg);
+					break;
+				case Annotation.REJECTED:
+					rendered.append("<span class=\"invalid\">");
+					escapeHTML(annotation.text, rendered);
+					rendered.append("</span> <span class=\"error\">");
+					escapeHTML(annotation.msg, rendered);
+					rendered.append("</span>");
+					break;
+				default:
+					throw new AssertionError("This should not happen");
+			}
+		}
+		annotations.clear();
+		return rendered.toString();
+	}
+
+	/**
+	 * Renders a confirmed token.
+	 *
+	 * @param token token text.
+	 * @param msg confirmation class.
+	 */
+	private void renderConfirmed(final String token, final String msg) {
+		rendered.append("<span class=\"").append(msg).append("\" ");
 		if (TokenFeed.LOCATOR.equals(msg)) {
 			/* hyperlink */
-			content = "[[" + currentToken + "]]";
+			rendered.append(">[[").append(token).append("]]");
 		} else if (TokenFeed.STATEMENT.equals(msg)) {
 			/* make hyperlink or anchor (with id attribute) */
 			String locator;
 			Name origName;
 			try {
-				final Symbol symbol = module.getSymbolNamespace().getObjectByString(currentToken);
+				final Symbol symbol = module.getSymbolNamespace().getObjectByString(token);
 				origName = symbol.getOriginalName();
 				final int index = symbol.getParameterIndex();
 				locator = module.getParameters().get(index).getLocator();
@@ -303,30 +513,31 @@ final class MediaWikiTokenFeed extends AbstractTokenFeed {
 				locator = null;
 				origName = null;
 			}
-			final String id = msg + currentToken;
-			final String currentTokenEscaped = escapeHTML(currentToken);
+			final String id = msg + token;
 			if ((locator != null) && (origName != null)) {
-				content = "[[" + locator + "#" + msg + escapeHTML(origName.getNameString()) + "|" + currentTokenEscaped + "]]";
+				rendered.append(">[[").append(locator).append('#').append(msg);
+				escapeHTML(origName.getNameString(), rendered);
+				rendered.append('|');
+				escapeHTML(token, rendered);
+				rendered.append("]]");
 			} else if (htmlIds.contains(id)) {
-				content = "[[#" + msg + currentTokenEscaped + "|" + currentTokenEscaped + "]]";
+				rendered.append(">[[#").append(msg);
+				escapeHTML(token, rendered);
+				rendered.append('|');
+				escapeHTML(token, rendered);
+				rendered.append("]]");
 			} else {
-				attribs = "id=\"" + msg + currentTokenEscaped + "\"";
+				rendered.append("id=\"").append(msg);
+				escapeHTML(token, rendered);
+				rendered.append("\">");
 				htmlIds.add(id);
-				content = currentTokenEscaped;
+				escapeHTML(token, rendered);
 			}
 		} else {
-			content = escapeHTML(currentToken);
+			rendered.append('>');
+			escapeHTML(token, rendered);
 		}
-		appendToContext("<span class=\"" + msg + "\" " + attribs + ">" + content + "</span>");
-	}
-
-	public @Override void reject(final String msg) {
-		assert (msg != null): "Supplied message is null";
-		appendToContext("<span class=\"invalid\">" + escapeHTML(currentToken) + "</span> <span class=\"error\">" + escapeHTML(msg) + "</span>");
-	}
-
-	public @Override void confirmEndCmd() throws ScannerException {
-		confirmEndExp();
+		rendered.append("</span>");
 	}
 
 }
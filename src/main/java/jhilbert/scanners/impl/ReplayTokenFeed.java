@@ -0,0 +1,95 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+
+package jhilbert.scanners.impl;
+
+import java.util.List;
+
+import jhilbert.scanners.Token;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A token feed replaying previously recorded tokens.
+ * The context is built in the same way as by {@link StreamTokenFeed}.
+ */
+final class ReplayTokenFeed extends AbstractTokenFeed {
+
+	/**
+	 * Logger for this class.
+	 */
+	private static final Logger logger = Logger.getLogger(ReplayTokenFeed.class);
+
+	/**
+	 * Recorded tokens.
+	 */
+	private final List<Token> tokens;
+
+	/**
+	 * Position of next token.
+	 */
+	private int pos;
+
+	/**
+	 * Creates a new <code>ReplayTokenFeed</code> for the specified tokens
+	 * and initial context.
+	 *
+	 * @param tokens recorded tokens.
+	 * @param context initial context.
+	 */
+	ReplayTokenFeed(final List<Token> tokens, final String context) {
+		assert (tokens != null): "Supplied token list is null";
+		assert (context != null): "Supplied context is null";
+		this.tokens = tokens;
+		pos = 0;
+		appendToContext(context);
+	}
+
+	protected @Override Token getNewToken() {
+		if (pos == tokens.size())
+			return null;
+		final Token result = tokens.get(pos++);
+		appendToContext(' ');
+		appendToContext(result.getTokenString());
+		return result;
+	}
+
+	public @Override void confirm(final String msg) {
+		assert (msg != null): "Supplied message is null";
+		if (logger.isTraceEnabled())
+			logger.trace("Read " + msg + " token");
+	}
+
+	public @Override void reject(final String msg) {
+		assert (msg != null): "Supplied message is null";
+		logger.error(msg);
+	}
+
+	public @Override void confirmEndCmd() {
+		if (logger.isDebugEnabled())
+			logger.debug("Command complete");
+		resetContext();
+	}
+
+}
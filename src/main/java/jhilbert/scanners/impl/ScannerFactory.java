@@ -28,9 +28,12 @@ import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.InputStream;
+import java.io.Reader;
+import java.util.List;
 
 import jhilbert.data.Module;
 import jhilbert.scanners.ScannerException;
+import jhilbert.scanners.Token;
 
 /**
  * Scanner factory for this implementation.
@@ -44,6 +47,11 @@ public final class ScannerFactory extends jhilbert.scanners.ScannerFactory {
 		return new StreamTokenFeed(in);
 	}
 
+	public @Override StreamTokenFeed createTokenFeed(final Reader in) {
+		assert (in != null): "Supplied reader is null";
+		return new StreamTokenFeed(in);
+	}
+
 	public @Override @Deprecated IOTokenFeed createTokenFeed(final BufferedReader in, final BufferedWriter out) {
 		assert (in != null): "Supplied input reader is null";
 		assert (out != null): "Supplied output writer is null";
@@ -56,4 +64,10 @@ public final class ScannerFactory extends jhilbert.scanners.ScannerFactory {
 		return new MediaWikiTokenFeed(in, out, module);
 	}
 
+	public @Override ReplayTokenFeed createTokenFeed(final List<Token> tokens, final String context) {
+		assert (tokens != null): "Supplied token list is null";
+		assert (context != null): "Supplied context is null";
+		return new ReplayTokenFeed(tokens, context);
+	}
+
 }
@@ -24,7 +24,11 @@
 
 package jhilbert.scanners.impl;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
 
 import jhilbert.scanners.ScannerException;
 import jhilbert.scanners.Token;
@@ -33,6 +37,10 @@ import org.apache.log4j.Logger;
 
 /**
  * A token feed for stream I/O.
+ * <p>
+ * Input is read in blocks and classified through {@link Char#classOrdinal},
+ * so no objects are created per character. Atoms are interned through an
+ * {@link AtomTable} straight from the block.
  */
 final class StreamTokenFeed extends AbstractTokenFeed {
 
@@ -42,9 +50,79 @@ final class StreamTokenFeed extends AbstractTokenFeed {
 	private static final Logger logger = Logger.getLogger(StreamTokenFeed.class);
 
 	/**
-	 * Character scanner.
+	 * Input encoding.
 	 */
-	private final CharScanner charScanner;
+	private static final String ENCODING = "UTF-8";
+
+	/**
+	 * Size of the input buffer.
+	 */
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * Ordinal of {@link Char.Class#INVALID}.
+	 */
+	private static final int INVALID = Char.Class.INVALID.ordinal();
+
+	/**
+	 * Ordinal of {@link Char.Class#SPACE}.
+	 */
+	private static final int SPACE = Char.Class.SPACE.ordinal();
+
+	/**
+	 * Ordinal of {@link Char.Class#OPEN_PAREN}.
+	 */
+	private static final int OPEN_PAREN = Char.Class.OPEN_PAREN.ordinal();
+
+	/**
+	 * Ordinal of {@link Char.Class#CLOSE_PAREN}.
+	 */
+	private static final int CLOSE_PAREN = Char.Class.CLOSE_PAREN.ordinal();
+
+	/**
+	 * Ordinal of {@link Char.Class#NEWLINE}.
+	 */
+	private static final int NEWLINE = Char.Class.NEWLINE.ordinal();
+
+	/**
+	 * Ordinal of {@link Char.Class#HASHMARK}.
+	 */
+	private static final int HASHMARK = Char.Class.HASHMARK.ordinal();
+
+	/**
+	 * Ordinal of {@link Char.Class#ATOM}.
+	 */
+	private static final int ATOM = Char.Class.ATOM.ordinal();
+
+	/**
+	 * Reader used as input source.
+	 */
+	private final Reader reader;
+
+	/**
+	 * Input buffer.
+	 */
+	private final char[] buffer;
+
+	/**
+	 * Position of the next character in {@link #buffer}.
+	 */
+	private int bufferPos;
+
+	/**
+	 * End of the valid characters in {@link #buffer}.
+	 */
+	private int bufferEnd;
+
+	/**
+	 * Beginning of an atom continuing past the end of the buffer.
+	 */
+	private final StringBuilder atomPrefix;
+
+	/**
+	 * Canonical atom tokens.
+	 */
+	private final AtomTable atoms;
 
 	/**
 	 * Creates a new <code>StreamTokenFeed</code> for the specified input
@@ -52,65 +130,125 @@ final class StreamTokenFeed extends AbstractTokenFeed {
 	 *
 	 * @param in input stream.
 	 *
-	 * @throws ScannerException if the underlying character scanner cannot
-	 * 	be set up.
+	 * @throws ScannerException if the {@link #ENCODING} is not supported.
 	 */
 	StreamTokenFeed(final InputStream in) throws ScannerException {
 		assert (in != null): "Supplied input stream is null";
 		try {
-			charScanner = new CharScanner(in);
-		} catch (ScannerException e) {
-			logger.error("Unable to set up character scanner " + e.getScanner(), e);
-			throw new ScannerException("Unable to set up character scanner", this, e);
+			reader = new InputStreamReader(in, ENCODING);
+		} catch (UnsupportedEncodingException e) {
+			logger.error("Encoding " + ENCODING + " not supported while trying to create token feed", e);
+			throw new ScannerException("Encoding not supported", this, e);
 		}
+		buffer = new char[BUFFER_SIZE];
+		bufferPos = 0;
+		bufferEnd = 0;
+		atomPrefix = new StringBuilder();
+		atoms = new AtomTable();
+	}
+
+	/**
+	 * Creates a new <code>StreamTokenFeed</code> for the specified reader.
+	 *
+	 * @param in reader.
+	 */
+	StreamTokenFeed(final Reader in) {
+		assert (in != null): "Supplied reader is null";
+		reader = in;
+		buffer = new char[BUFFER_SIZE];
+		bufferPos = 0;
+		bufferEnd = 0;
+		atomPrefix = new StringBuilder();
+		atoms = new AtomTable();
+	}
+
+	/**
+	 * Refills the input buffer once it is exhausted.
+	 *
+	 * @return <code>false</code> on end of input, <code>true</code>
+	 * 	otherwise.
+	 *
+	 * @throws IOException if the reader fails.
+	 */
+	private boolean fill() throws IOException {
+		int nread;
+		do {
+			nread = reader.read(buffer, 0, BUFFER_SIZE);
+		} while (nread == 0);
+		if (nread == -1)
+			return false;
+		bufferPos = 0;
+		bufferEnd = nread;
+		return true;
 	}
 
 	protected @Override Token getNewToken() throws ScannerException {
-		charScanner.resetContext();
-		final StringBuilder repr = new StringBuilder();
 		try {
 			appendToContext(' ');
-			Char c;
-			Char.Class cc;
-			// consume whitespace
-			try {
-				do {
-					c = charScanner.getToken();
-					cc = c.getCharClass();
-				} while ((cc == Char.Class.SPACE) || (cc == Char.Class.NEWLINE));
-			} catch (NullPointerException e) { // EOF
-				return null;
+			// consume whitespace and comments
+			boolean inComment = false;
+			int cc;
+			for (;;) {
+				if ((bufferPos == bufferEnd) && !fill())
+					return null;
+				cc = Char.classOrdinal(buffer[bufferPos]);
+				if (inComment) {
+					inComment = (cc != NEWLINE);
+				} else if (cc == HASHMARK) {
+					inComment = true;
+				} else if ((cc != SPACE) && (cc != NEWLINE)) {
+					break;
+				}
+				++bufferPos;
 			}
 			// what have we got?
-			switch (cc) {
-				case OPEN_PAREN:
-					appendToContext('(');
-					return BEGIN_EXP;
-				case CLOSE_PAREN:
-					appendToContext(')');
-					return END_EXP;
-				case ATOM:
-					break;
-				default:
-					assert false: "Invalid character type (this should not happen)";
+			if (cc == OPEN_PAREN) {
+				++bufferPos;
+				appendToContext('(');
+				return BEGIN_EXP;
+			}
+			if (cc == CLOSE_PAREN) {
+				++bufferPos;
+				appendToContext(')');
+				return END_EXP;
+			}
+			if (cc == INVALID) {
+				logger.error("Invalid character with codepoint " + (int) buffer[bufferPos] + " encountered.");
+				throw new ScannerException("Invalid character", this);
 			}
+			assert (cc == ATOM): "Invalid character type (this should not happen)";
 			// scan whole ATOM
-			try {
-				do {
-					repr.append((char) c.getCodepoint());
-					c = charScanner.getToken();
-				} while (c.getCharClass() == Char.Class.ATOM);
-			} catch (NullPointerException e) { // EOF
-				// break
+			atomPrefix.setLength(0);
+			int start = bufferPos;
+			int hash = 0;
+			for (;;) {
+				while (bufferPos != bufferEnd) {
+					final char c = buffer[bufferPos];
+					if (Char.classOrdinal(c) != ATOM)
+						break;
+					hash = 31 * hash + c;
+					++bufferPos;
+				}
+				if (bufferPos != bufferEnd)
+					break;
+				atomPrefix.append(buffer, start, bufferPos - start);
+				start = 0;
+				if (!fill())
+					break;
+			}
+			final Token result;
+			if (atomPrefix.length() == 0) {
+				result = atoms.intern(buffer, start, bufferPos - start, hash);
+			} else {
+				if (bufferPos != bufferEnd)
+					atomPrefix.append(buffer, start, bufferPos - start);
+				result = atoms.intern(atomPrefix);
 			}
-			charScanner.putToken(c);
-			appendToContext(repr);
-			return new TokenImpl(repr.toString(), Token.Class.ATOM);
-		} catch (ScannerException e) {
-			logger.error("Error scanning token");
-			logger.debug("Context of causing scanner: " + e.getScanner().getContextString());
-			logger.debug("Context of this scanner: " + getContextString());
-			throw new ScannerException("Error scanning token", this, e);
+			appendToContext(result.getTokenString());
+			return result;
+		} catch (IOException e) {
+			logger.error("I/O error while scanning token", e);
+			throw new ScannerException("I/O error: " + e.getMessage(), this, e);
 		}
 	}
 
@@ -24,19 +24,44 @@
 
 package jhilbert.storage;
 
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 
 import jhilbert.data.Module;
-import jhilbert.utils.AutoCache;
+import jhilbert.utils.ConcurrentCache;
 
 /**
  * Facility for {@link Module} data storage.
  */
 public abstract class Storage {
 
+	/**
+	 * Default cache size, in estimated module weight (see
+	 * {@link #MODULE_WEIGHER}).
+	 * The cache is split into {@link #CACHE_CONCURRENCY} segments, so a
+	 * module weighing more than a quarter of this size is never cached.
+	 */
+	private static final int DEFAULT_CACHE_SIZE = 250000;
+
+	/**
+	 * Number of independently locked module cache segments.
+	 */
+	private static final int CACHE_CONCURRENCY = 4;
+
+	/**
+	 * Estimates the size of a module by the number of its kinds, functors
+	 * and symbols.
+	 */
+	private static final ConcurrentCache.Weigher<ModuleID, Module> MODULE_WEIGHER
+		= new ConcurrentCache.Weigher<ModuleID, Module>() {
+		public int weigh(final ModuleID id, final Module module) {
+			return 1 + module.getKindNamespace().objects().size()
+				+ module.getFunctorNamespace().objects().size()
+				+ module.getSymbolNamespace().objects().size();
+		}
+	};
+
 	/**
 	 * Instance.
 	 */
@@ -47,7 +72,9 @@ public abstract class Storage {
 	 */
 	static {
 		try {
-			if (jhilbert.Main.getHashstorePath() != null) {
+			if ((jhilbert.Main.getHashstorePath() != null) && jhilbert.Main.isPack()) {
+				instance = new jhilbert.storage.pack.Storage();
+			} else if (jhilbert.Main.getHashstorePath() != null) {
 				instance = new jhilbert.storage.hashstore.Storage();
 			} else if (jhilbert.Main.isDaemon()) {
 				instance = new jhilbert.storage.mediawiki.Storage();
@@ -61,11 +88,6 @@ public abstract class Storage {
 		}
 	}
 
-	/**
-	 * Default cache size.
-	 */
-	private static final int DEFAULT_CACHE_SIZE = 50;
-
 	/**
 	 * Returns a <code>Storage</code> instance.
 	 */
@@ -76,18 +98,60 @@ public abstract class Storage {
 	/**
 	 * Module cache.
 	 */
-	private final Map<ModuleID, Module> moduleCache;
+	private final ConcurrentCache<ModuleID, Module> moduleCache;
 
 	/**
-	 * Set of currently loading modules.
-	 * Used to track the loading of modules in order to avoid circularity
-	 * errors.
+	 * A module load in progress.
+	 * Threads requesting the same module while it is being loaded wait for
+	 * this load to complete and share its result.
 	 */
-	private final Set<ModuleID> loadingModules;
+	private static final class Load {
+
+		/**
+		 * Thread performing the load.
+		 */
+		final Thread owner;
+
+		/**
+		 * Released once the load has completed.
+		 */
+		final CountDownLatch done;
+
+		/**
+		 * Loaded module, set before {@link #done} is released.
+		 */
+		Module result;
+
+		/**
+		 * Cause of failure, set before {@link #done} is released.
+		 */
+		Throwable error;
+
+		/**
+		 * Creates a new <code>Load</code> owned by the current thread.
+		 */
+		Load() {
+			owner = Thread.currentThread();
+			done = new CountDownLatch(1);
+		}
+
+	}
+
+	/**
+	 * Modules currently being loaded.
+	 * Also guards {@link #waitingThreads}.
+	 */
+	private final Map<ModuleID, Load> loadingModules;
+
+	/**
+	 * Threads waiting for a load by another thread to complete.
+	 * Used to detect circular parameter dependencies, which show up as a
+	 * thread (indirectly) waiting for a load it performs itself.
+	 */
+	private final Map<Thread, Load> waitingThreads;
 
 	/**
-	 * Creates a new <code>Storage</code> with a cache size of
-	 * <code>50</code>.
+	 * Creates a new <code>Storage</code> with the default cache size.
 	 */
 	protected Storage() {
 		this(DEFAULT_CACHE_SIZE);
@@ -96,12 +160,14 @@ public abstract class Storage {
 	/**
 	 * Creates a new <code>Storage</code> with the specified cache size.
 	 *
-	 * @param size number of {@link Module} cache entries.
+	 * @param size maximum total estimated weight of cached
+	 * 	{@link Module}s.
 	 */
 	protected Storage(final int size) {
 		assert (size >= 0): "Supplied size is negative";
-		moduleCache = Collections.synchronizedMap(new AutoCache(size));
-		loadingModules = Collections.synchronizedSet(new HashSet());
+		moduleCache = new ConcurrentCache(size, CACHE_CONCURRENCY, MODULE_WEIGHER);
+		loadingModules = new HashMap();
+		waitingThreads = new HashMap();
 	}
 	
 	/**
@@ -180,20 +246,94 @@ public abstract class Storage {
 		Module result = moduleCache.get(id);
 		if (result != null)
 			return result;
+		final Thread current = Thread.currentThread();
+		Load load;
 		synchronized (loadingModules) {
-			if (loadingModules.contains(id))
-				throw new StorageException("Requested module is currently being loaded. "
-						+ "This usually indicates a circular parameter dependence.");
-			loadingModules.add(id);
+			load = loadingModules.get(id);
+			if (load == null) {
+				// the module may have been loaded meanwhile
+				result = moduleCache.get(id);
+				if (result != null)
+					return result;
+				load = new Load();
+				loadingModules.put(id, load);
+			} else {
+				for (Load l = load; l != null; l = waitingThreads.get(l.owner))
+					if (l.owner == current)
+						throw new StorageException("Requested module is currently being loaded. "
+								+ "This usually indicates a circular parameter dependence.");
+				waitingThreads.put(current, load);
+			}
 		}
+		if (load.owner == current)
+			return performLoad(load, id, locator, version);
 		try {
-			result = retrieveModule(locator, version);
+			load.done.await();
+		} catch (InterruptedException e) {
+			current.interrupt();
+			throw new StorageException("Interrupted while waiting for module to be loaded", e);
+		} finally {
+			synchronized (loadingModules) {
+				waitingThreads.remove(current);
+			}
+		}
+		if (load.error != null)
+			throw new StorageException("Module could not be loaded", load.error);
+		return load.result;
+	}
+
+	/**
+	 * Performs the specified load and publishes its outcome to waiting
+	 * threads.
+	 *
+	 * @param load load to perform.
+	 * @param id module ID.
+	 * @param locator canonical module name.
+	 * @param version revision number.
+	 *
+	 * @return the loaded module.
+	 *
+	 * @throws StorageException if the module cannot be loaded.
+	 */
+	private Module performLoad(final Load load, final ModuleID id, final String locator, final long version) throws StorageException {
+		try {
+			final Module result = retrieveModule(locator, version);
 			assert (result != null): "Implementation returned null module";
 			moduleCache.put(id, result);
+			load.result = result;
+			return result;
+		} catch (StorageException e) {
+			load.error = e;
+			throw e;
+		} catch (RuntimeException e) {
+			load.error = e;
+			throw e;
+		} catch (Error e) {
+			load.error = e;
+			throw e;
 		} finally {
-			loadingModules.remove(id);
+			synchronized (loadingModules) {
+				loadingModules.remove(id);
+			}
+			load.done.countDown();
 		}
-		return result;
+	}
+
+	/**
+	 * Returns whether the specified revision of the specified module is
+	 * cached, so that loading it requires no call to
+	 * {@link #retrieveModule}.
+	 *
+	 * @param locator canonical module name.
+	 * @param version revision number, or <code>-1</code>, if the module is
+	 * 	unversioned.
+	 *
+	 * @return <code>true</code> if the module is cached,
+	 * 	<code>false</code> otherwise.
+	 */
+	protected final boolean isCached(final String locator, final long version) {
+		assert (locator != null): "Supplied locator is null";
+		return moduleCache.containsKey(new ModuleID(locator, version));
 	}
 
 	/**
@@ -243,11 +383,8 @@ public abstract class Storage {
 		locator = getCanonicalName(locator);
 		storeModule(module, locator, version);
 		final ModuleID id = new ModuleID(module);
-		synchronized (moduleCache) {
-			// update only if already in cache
-			if (moduleCache.containsKey(id))
-				moduleCache.put(id, module);
-		}
+		// update only if already in cache
+		moduleCache.replace(id, module);
 	}
 
 	/**
@@ -282,4 +419,42 @@ public abstract class Storage {
 		moduleCache.remove(new ModuleID(locator, version));
 	}
 
+	/**
+	 * Returns the number of module cache hits.
+	 *
+	 * @return number of module cache hits.
+	 */
+	public final long getCacheHits() {
+		return moduleCache.getHitCount();
+	}
+
+	/**
+	 * Returns the number of module cache misses.
+	 *
+	 * @return number of module cache misses.
+	 */
+	public final long getCacheMisses() {
+		return moduleCache.getMissCount();
+	}
+
+	/**
+	 * Returns the number of modules evicted from the module cache, either
+	 * because of its size bound or by the garbage collector.
+	 *
+	 * @return number of module cache evictions.
+	 */
+	public final long getCacheEvictions() {
+		return moduleCache.getEvictionCount() + moduleCache.getCollectionCount();
+	}
+
+	/**
+	 * Returns the number of modules not cached because they are too heavy
+	 * for a single segment of the module cache.
+	 *
+	 * @return number of modules rejected by the module cache.
+	 */
+	public final long getCacheRejections() {
+		return moduleCache.getRejectionCount();
+	}
+
 }
@@ -24,17 +24,15 @@
 
 package jhilbert.storage.file;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InvalidClassException;
-import java.io.NotSerializableException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.OptionalDataException;
-import java.io.StreamCorruptedException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 import jhilbert.commands.CommandException;
 import jhilbert.commands.CommandFactory;
@@ -89,26 +87,31 @@ public final class Storage extends jhilbert.storage.Storage {
 		final File libraryFile = new File(locator + LIBRARY_SUFFIX);
 		if (libraryFile.lastModified() > interfaceFile.lastModified()) {
 			try {
-				final ObjectInputStream ois = new ObjectInputStream(new FileInputStream(libraryFile));
-				final Module result = (Module) ois.readObject();
-				logger.info("Library " + libraryFile + " loaded");
-				return result;
+				final FileInputStream in = new FileInputStream(libraryFile);
+				ByteBuffer buffer;
+				try {
+					final FileChannel channel = in.getChannel();
+					buffer = ByteBuffer.allocate((int) channel.size());
+					while (buffer.hasRemaining())
+						if (channel.read(buffer) < 0)
+							throw new IOException("Unexpected end of file");
+				} finally {
+					in.close();
+				}
+				buffer.flip();
+				final DataFactory dataFactory = DataFactory.getInstance();
+				if (dataFactory.isModuleData(buffer)) {
+					final Module result = dataFactory.readModule(buffer);
+					logger.info("Library " + libraryFile + " loaded");
+					return result;
+				}
+				logger.warn("Library " + libraryFile + " uses an old format, recreating library.");
 			} catch (FileNotFoundException e) { // This should not happen
 				logger.info("Compiling library for interface " + locator);
-			} catch (StreamCorruptedException e) {
-				logger.warn("Invalid library header in file " + libraryFile + ", recreating library", e);
-			} catch (ClassNotFoundException e) {
-				logger.warn("No interface data in library file " + libraryFile + " (obsolete format?), recreating library", e);
-			} catch (InvalidClassException e) {
-				logger.warn("Library " + libraryFile + " uses an old format, recreating library.", e);
-			} catch (OptionalDataException e) {
-				logger.warn("Primitive data found in interface library " + libraryFile + ", this shouldn't happen", e);
-				logger.warn("Or did SOME CLOWN feed me a bogus file? Recreating library");
+			} catch (DataException e) {
+				logger.warn("Invalid module data in library file " + libraryFile + ", recreating library", e);
 			} catch (IOException e) {
 				logger.warn("I/O error while loading library " + libraryFile + ", attempting to recreate library", e);
-			} catch (ClassCastException e) {
-				logger.warn("Library file " + libraryFile + " does not appear to contain module data", e);
-				logger.warn("Or did SOME CLOWN feed me a bogus file? Recreating library");
 			}
 		} else
 			logger.info("No recent library for " + locator + " detected, creating...");
@@ -126,7 +129,12 @@ public final class Storage extends jhilbert.storage.Storage {
 				.createTokenFeed(new FileInputStream(interfaceFile));
 			CommandFactory.getInstance().processCommands(module, tokenFeed);
 			libraryFile.delete();
-			(new ObjectOutputStream(new FileOutputStream(libraryFile))).writeObject(module);
+			final OutputStream out = new BufferedOutputStream(new FileOutputStream(libraryFile));
+			try {
+				DataFactory.getInstance().writeModule(module, out);
+			} finally {
+				out.close();
+			}
 			logger.info("Library for interface " + locator + " created");
 		} catch (ScannerException e) {
 			logger.error("Scanner error while scanning interface " + locator, e);
@@ -137,14 +145,9 @@ public final class Storage extends jhilbert.storage.Storage {
 			throw new StorageException("Command failed to execute while loading interface", e);
 		} catch (FileNotFoundException e) {
 			logger.warn("Unable to open library file for writing while creating library for interface " + locator, e);
-		} catch (InvalidClassException e) {
-			final AssertionError err = new AssertionError("Invalid class while serializing InterfaceDataImpl");
-			err.initCause(e);
-			throw err;
-		} catch (NotSerializableException e) {
-			final AssertionError err = new AssertionError("module implementation not serializable");
-			err.initCause(e);
-			throw err;
+		} catch (DataException e) {
+			logger.warn("Unable to encode library for interface " + locator, e);
+			libraryFile.delete();
 		} catch (IOException e) {
 			logger.warn("Unable to write library file while creating library for interface " + locator, e);
 		}
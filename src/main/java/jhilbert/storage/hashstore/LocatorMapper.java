@@ -0,0 +1,208 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+package jhilbert.storage.hashstore;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Maps module locators to hashstore pathnames.
+ * Locators are hashed with SHA-1, using one digest per thread so that
+ * concurrent lookups never contend. Results for recently used locators are
+ * memoised in a bounded concurrent map. When the map overflows, entries
+ * which have not been used since the previous sweep are evicted (second
+ * chance replacement), so hot locators stay mapped.
+ */
+final class LocatorMapper {
+
+	/**
+	 * Hex digits.
+	 */
+	static final char[] HEXDIGITS = { '0', '1', '2', '3', '4', '5', '6', '7',
+		'8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+
+	/**
+	 * Per-thread digests.
+	 */
+	private static final ThreadLocal<MessageDigest> HASHER = new ThreadLocal<MessageDigest>() {
+		protected @Override MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("SHA-1");
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException("NoSuchAlgorithmException in hashstore locator mapper", e);
+			}
+		}
+	};
+
+	/**
+	 * Memoised pathname.
+	 */
+	private static final class Entry {
+
+		/**
+		 * Hashstore pathname.
+		 */
+		final String path;
+
+		/**
+		 * Whether this entry has been used since the last sweep.
+		 */
+		volatile boolean referenced;
+
+		/**
+		 * Creates a new <code>Entry</code>.
+		 *
+		 * @param path hashstore pathname.
+		 */
+		Entry(final String path) {
+			this.path = path;
+		}
+
+	}
+
+	/**
+	 * Base path of the hashstore.
+	 */
+	private final String basePath;
+
+	/**
+	 * Maximum number of memoised pathnames.
+	 */
+	private final int capacity;
+
+	/**
+	 * Locator to pathname memo.
+	 */
+	private final ConcurrentMap<String, Entry> memo;
+
+	/**
+	 * Set while a thread is sweeping the memo.
+	 */
+	private final AtomicBoolean sweeping;
+
+	/**
+	 * Creates a new <code>LocatorMapper</code>.
+	 *
+	 * @param basePath base path of the hashstore.
+	 * @param capacity maximum number of memoised pathnames.
+	 */
+	LocatorMapper(final String basePath, final int capacity) {
+		assert (basePath != null): "Supplied base path is null";
+		assert (capacity > 0): "Capacity must be positive";
+		this.basePath = basePath;
+		this.capacity = capacity;
+		memo = new ConcurrentHashMap();
+		sweeping = new AtomicBoolean();
+	}
+
+	/**
+	 * Converts a file name to a hashstore pathname.
+	 *
+	 * @param name file name.
+	 *
+	 * @return hashstore pathname.
+	 */
+	private String n2p(final String name) {
+		assert (name != null): "Supplied pathname is null";
+		assert (name.length() >= 2): "Supplied pathname is too short";
+		return basePath + '/' + name.charAt(0) + '/' + name.substring(0,2) + '/' + name;
+	}
+
+	/**
+	 * Converts a byte array to a file name in a unique way.
+	 *
+	 * @param a byte array.
+	 *
+	 * @return file name.
+	 */
+	private static String b2n(final byte... a) {
+		assert (a != null): "Supplied byte array is null";
+		final StringBuilder result = new StringBuilder(2 * a.length);
+		for (final byte b: a) {
+			final int i = b + 128;
+			result.append(HEXDIGITS[i >>> 4])
+				.append(HEXDIGITS[i & 0x0F]);
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Converts a locator to a hash byte array.
+	 *
+	 * @param l locator.
+	 *
+	 * @return hash byte array.
+	 */
+	private static byte[] l2b(final String l) throws UnsupportedEncodingException /* FIXME: 1.5 compat */ {
+		assert (l != null): "Supplied locator is null";
+		return HASHER.get().digest(l.getBytes(/* FIXME: 1.5 compat */ "UTF-8"));
+	}
+
+	/**
+	 * Converts a locator to a hashstore pathname.
+	 *
+	 * @param l locator
+	 *
+	 * @return hashstore pathname.
+	 */
+	String l2p(final String l) throws UnsupportedEncodingException /* FIXME: 1.5 compat */ {
+		assert (l != null): "Supplied locator is null";
+		Entry entry = memo.get(l);
+		if (entry == null) {
+			entry = new Entry(n2p(b2n(l2b(l))));
+			if (memo.size() >= capacity)
+				sweep();
+			memo.put(l, entry);
+		} else if (!entry.referenced)
+			entry.referenced = true;
+		return entry.path;
+	}
+
+	/**
+	 * Evicts entries not referenced since the previous sweep and clears
+	 * the reference marks of the others.
+	 * Only one thread sweeps at a time; other threads carry on meanwhile.
+	 */
+	private void sweep() {
+		if (!sweeping.compareAndSet(false, true))
+			return;
+		try {
+			for (final Iterator<Entry> i = memo.values().iterator(); i.hasNext();) {
+				final Entry entry = i.next();
+				if (entry.referenced)
+					entry.referenced = false;
+				else
+					i.remove();
+			}
+		} finally {
+			sweeping.set(false);
+		}
+	}
+
+}
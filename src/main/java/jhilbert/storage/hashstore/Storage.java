@@ -24,26 +24,25 @@
 
 package jhilbert.storage.hashstore;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InvalidClassException;
-import java.io.NotSerializableException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.OptionalDataException;
 import java.io.RandomAccessFile;
 import java.io.StreamCorruptedException;
 import java.io.UnsupportedEncodingException;
-import java.nio.charset.Charset;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
+import jhilbert.data.DataException;
+import jhilbert.data.DataFactory;
 import jhilbert.data.Module;
 import jhilbert.storage.StorageException;
-import jhilbert.utils.FileAccessManager;
 
 import org.apache.log4j.Logger;
 
@@ -51,6 +50,16 @@ import org.apache.log4j.Logger;
  * Hashstore storage.
  * Module names are hashed securely and then stored in the filesystem
  * with the hashed names.
+ * Modules are stored in the compact format of
+ * {@link DataFactory#writeModule}. Files written by earlier versions
+ * with Java serialization can still be read.
+ * <p>
+ * Module files are never modified in place. A new module file is
+ * written under a temporary name and then renamed, so readers need no
+ * locking and may decode straight from a memory mapping of the file.
+ * On platforms where a file cannot be renamed onto an existing file
+ * (notably Windows), the old module file is deleted first, so a
+ * concurrent reader may briefly find no module at all.
  */
 public final class Storage extends jhilbert.storage.Storage {
 
@@ -60,104 +69,51 @@ public final class Storage extends jhilbert.storage.Storage {
 	private static final Logger logger = Logger.getLogger(Storage.class);
 
 	/**
-	 * Hex digits.
+	 * Module files of at least this size are memory mapped rather than
+	 * read, as mapping has a fixed setup cost.
 	 */
-	private static final char[] HEXDIGITS = { '0', '1', '2', '3', '4', '5', '6', '7',
-		'8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+	private static final long MAP_THRESHOLD = 64 * 1024;
 
 	/**
-	 * Digest.
+	 * Suffix of temporary module files.
 	 */
-	private static final MessageDigest HASHER;
+	private static final String TEMP_SUFFIX = ".tmp";
 
 	/**
-	 * Digest charset.
+	 * Maximum number of memoised locator pathnames.
 	 */
-	private static final Charset HASHER_CHARSET = Charset.forName("UTF-8");
+	private static final int LOCATOR_CACHE_SIZE = 4096;
 
 	/**
-	 * Static initializer.
+	 * Locator to pathname mapper.
 	 */
-	static {
-		try {
-			HASHER = MessageDigest.getInstance("SHA-1");
-		} catch (NoSuchAlgorithmException e) {
-			throw new RuntimeException("NoSuchAlgorithmException in static hashstore Storage initializer", e);
-		}
-	}
-
-	/**
-	 * Converts a file name to a hashstore pathname.
-	 *
-	 * @param locator file name.
-	 *
-	 * @return hashstore pathname.
-	 */
-	private static String n2p(final String name) {
-		assert (name != null): "Supplied pathname is null";
-		assert (name.length() >= 2): "Supplied pathname is too short";
-		return jhilbert.Main.getHashstorePath() + '/' + name.charAt(0) + '/' + name.substring(0,2) + '/' + name;
-	}
-
-	/**
-	 * Converts a byte array to a file name in a unique way.
-	 *
-	 * @param a byte array.
-	 *
-	 * @return file name.
-	 */
-	private static String b2n(final byte... a) {
-		assert (a != null): "Supplied byte array is null";
-		final StringBuilder result = new StringBuilder();
-		for (final byte b: a) {
-			final int i = b + 128;
-			result.append(HEXDIGITS[i >>> 4])
-				.append(HEXDIGITS[i & 0x0F]);
-		}
-		return result.toString();
-	}
+	private final LocatorMapper mapper;
 
 	/**
-	 * Converts a locator to a hash byte array.
-	 *
-	 * @param l locator.
+	 * Creates a new hashstore storage.
+	 * There should not be more than one instance of this class.
 	 *
-	 * @return hash byte array.
+	 * @throws StorageException if directory hierarchy cannot be created.
 	 */
-	private static byte[] l2b(final String l) throws UnsupportedEncodingException /* FIXME: 1.5 compat */ {
-		assert (l != null): "Supplied locator is null";
-		synchronized (HASHER) {
-			// FIXME: this may be an congestion point; maybe use a separate hasher for each call...
-			HASHER.update(l.getBytes(/* FIXME: 1.5 compat HASHER_CHARSET */ "UTF-8"));
-			return HASHER.digest();
-		}
+	public Storage() throws StorageException {
+		this(jhilbert.Main.getHashstorePath());
 	}
 
 	/**
-	 * Converts a locator to a hashstore pathname.
-	 *
-	 * @param l locator
+	 * Creates a new hashstore storage at the specified path.
 	 *
-	 * @return hashstore pathname.
-	 */
-	private static String l2p(final String l) throws UnsupportedEncodingException /* FIXME: 1.5 compat */ {
-		assert (l != null): "Supplied locator is null";
-		return n2p(b2n(l2b(l)));
-	}
-
-	/**
-	 * Creates a new hashstore storage.
-	 * There should not be more than one instance of this class.
+	 * @param basePath path of the hashstore directory.
 	 *
 	 * @throws StorageException if directory hierarchy cannot be created.
 	 */
-	public Storage() throws StorageException {
+	Storage(final String basePath) throws StorageException {
+		assert (basePath != null): "Supplied base path is null";
 		// create hash directory structure
-		final String basePath = jhilbert.Main.getHashstorePath();
+		mapper = new LocatorMapper(basePath, LOCATOR_CACHE_SIZE);
 		for (int i = 0; i != 16; ++i)
 			for (int j = 0; j != 16; ++j) {
-				final File dir = new File(basePath + '/' + HEXDIGITS[i] + '/'
-						+ HEXDIGITS[i] + HEXDIGITS[j] + '/');
+				final File dir = new File(basePath + '/' + LocatorMapper.HEXDIGITS[i] + '/'
+						+ LocatorMapper.HEXDIGITS[i] + LocatorMapper.HEXDIGITS[j] + '/');
 				if (!(dir.isDirectory() || dir.mkdirs())) {
 					logger.error("Unable to create hashstore directory hierarchy at " + basePath);
 					throw new StorageException("Unable to create hashstore directory hierarchy");
@@ -177,17 +133,38 @@ public final class Storage extends jhilbert.storage.Storage {
 		assert (locator != null): "Supplied locator is null";
 		assert (version >= -1): "Invalid revision number supplied";
 		try {
-			final RandomAccessFile file = FileAccessManager.getFile(l2p(locator));
+			final RandomAccessFile file = new RandomAccessFile(mapper.l2p(locator), "r");
+			ByteBuffer buffer;
 			try {
-				synchronized (file) {
-					final ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file.getFD()));
-					return (Module) ois.readObject();
+				final FileChannel channel = file.getChannel();
+				final long size = channel.size();
+				if (size > Integer.MAX_VALUE)
+					throw new StorageException("Module file too large");
+				if (size >= MAP_THRESHOLD) {
+					// the mapping remains valid after the file has been closed
+					buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+				} else {
+					buffer = ByteBuffer.allocate((int) size);
+					while (buffer.hasRemaining())
+						if (channel.read(buffer, buffer.position()) < 0)
+							throw new StorageException("Unexpected end of module file");
+					buffer.flip();
 				}
 			} finally {
-				FileAccessManager.putFile(file);
+				file.close();
 			}
+			final DataFactory dataFactory = DataFactory.getInstance();
+			if (dataFactory.isModuleData(buffer))
+				return dataFactory.readModule(buffer);
+			// legacy format
+			final byte[] data = new byte[buffer.remaining()];
+			buffer.get(data);
+			final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data));
+			return (Module) ois.readObject();
+		} catch (DataException e) {
+			throw new StorageException("File contains invalid module data", e);
 		} catch (FileNotFoundException e) {
-			throw new StorageException("File not found (should not normally happen)", e);
+			throw new StorageException("Module not found in hashstore", e);
 		} catch (ClassNotFoundException e) {
 			throw new StorageException("File does not contain module data", e);
 		} catch (ClassCastException e) {
@@ -208,40 +185,65 @@ public final class Storage extends jhilbert.storage.Storage {
 		assert (locator != null): "Supplied locator is null";
 		assert (version >= -1): "Invalid revision number supplied";
 		try {
-			final RandomAccessFile file = FileAccessManager.getFile(l2p(locator));
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			DataFactory.getInstance().writeModule(module, out);
+			final File target = new File(mapper.l2p(locator));
+			final File temp = File.createTempFile(target.getName(), TEMP_SUFFIX, target.getParentFile());
 			try {
-				synchronized (file) {
-					file.getChannel().truncate(0);
-					final ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file.getFD()));
-					oos.writeObject(module);
+				final FileOutputStream fos = new FileOutputStream(temp);
+				try {
+					out.writeTo(fos);
+					fos.getFD().sync();
+				} finally {
+					fos.close();
 				}
+				replace(temp, target);
 			} finally {
-				FileAccessManager.putFile(file);
+				temp.delete(); // no-op after successful rename
 			}
-		} catch (InvalidClassException e) {
-			final AssertionError err = new AssertionError("Invalid seralization class. This should not happen");
-			err.initCause(e);
-			throw err;
-		} catch (NotSerializableException e) {
-			final AssertionError err = new AssertionError("Unseralizable class found. This should not happen");
-			err.initCause(e);
-			throw err;
+		} catch (DataException e) {
+			throw new StorageException("Unable to encode module", e);
 		} catch (IOException e) {
 			throw new StorageException("I/O error while storing module", e);
 		}
 	}
 
+	/**
+	 * Renames the specified temporary file to the specified target file,
+	 * replacing the target if it exists.
+	 * The rename is atomic, so concurrent readers see either the old or the
+	 * new file, unless the platform refuses to rename onto an existing file.
+	 * In that case the target is deleted first.
+	 *
+	 * @param temp temporary file.
+	 * @param target target file.
+	 *
+	 * @throws StorageException if the file cannot be renamed.
+	 */
+	static void replace(final File temp, final File target) throws StorageException {
+		assert (temp != null): "Supplied temporary file is null";
+		assert (target != null): "Supplied target file is null";
+		if (temp.renameTo(target))
+			return;
+		if (target.exists()) {
+			logger.debug("Unable to rename " + temp + " onto existing " + target + ", deleting the target first");
+			if (target.delete() && temp.renameTo(target))
+				return;
+		}
+		throw new StorageException("Unable to rename " + temp + " to " + target);
+	}
+
 	protected @Override synchronized void eraseModule(final String locator, final long version)
 	throws StorageException {
 		assert (locator != null): "Supplied locator is null";
 		assert (version >= -1): "Invalid revision number supplied";
 		try {
-			final File file = new File(l2p(locator));
+			final File file = new File(mapper.l2p(locator));
 			if (!file.exists())
 				return;
 			if (!file.delete())
 				throw new StorageException("Unable to erase module " + locator + " at hashstore path " 
-						+ l2p(locator));
+						+ mapper.l2p(locator));
 		} catch (UnsupportedEncodingException e) {
 			throw new StorageException("Unable to calculate hash for module to be erased", e);
 		}
@@ -24,16 +24,19 @@
 
 package jhilbert.storage.mediawiki;
 
-import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLEncoder;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
@@ -44,15 +47,27 @@ import jhilbert.commands.CommandFactory;
 import jhilbert.data.DataException;
 import jhilbert.data.DataFactory;
 import jhilbert.data.Module;
-import jhilbert.scanners.ScannerException;
 import jhilbert.scanners.ScannerFactory;
 import jhilbert.scanners.TokenFeed;
+import jhilbert.scanners.WikiReader;
 import jhilbert.storage.StorageException;
 
 import org.xml.sax.SAXException;
 
 /**
  * MediaWiki API based storage.
+ * <p>
+ * Loading a module takes a single API request, which resolves the title,
+ * the latest revision ID and the revision content at once. Titles and
+ * latest revision IDs are then cached for {@link #TTL} milliseconds, so
+ * repeated imports of the same module within that time cause no requests
+ * at all. The content is not cached with them: it is handed to the
+ * subsequent {@link #retrieveModule} call of the same thread only.
+ * Once the information has expired, the request omits the content if the
+ * module for the previously known revision is still cached, since an
+ * unchanged revision is then loaded from cache. Expired information is
+ * kept as long as its module is cached for this purpose.
+ * Connections are kept alive between requests.
  */
 public final class Storage extends jhilbert.storage.Storage {
 
@@ -61,15 +76,149 @@ public final class Storage extends jhilbert.storage.Storage {
 	 */
 	private static final String ENCODING = "UTF-8";
 
+	/**
+	 * Default time in milliseconds for which page information is cached.
+	 */
+	static final long TTL = 10000;
+
+	/**
+	 * Size of the buffer for draining replies.
+	 */
+	private static final int DRAIN_BUFFER_SIZE = 1024;
+
 	/**
 	 * Parser factory.
 	 */
 	private static final SAXParserFactory parserFactory = SAXParserFactory.newInstance();
 
 	/**
-	 * Pattern to find JHilbert text.
+	 * Per-thread parsers.
+	 */
+	private static final ThreadLocal<SAXParser> parser = new ThreadLocal<SAXParser>();
+
+	/**
+	 * Cached information about a page.
+	 */
+	private static final class PageInfo {
+
+		/**
+		 * Canonical page title, or <code>null</code> if the title is
+		 * invalid.
+		 */
+		final String title;
+
+		/**
+		 * Latest revision ID, or <code>-1</code> if the page does not
+		 * exist.
+		 */
+		final long revision;
+
+		/**
+		 * Expiry time in milliseconds.
+		 */
+		final long expires;
+
+		/**
+		 * Creates a new <code>PageInfo</code>.
+		 *
+		 * @param title canonical page title.
+		 * @param revision latest revision ID.
+		 * @param expires expiry time in milliseconds.
+		 */
+		PageInfo(final String title, final long revision, final long expires) {
+			this.title = title;
+			this.revision = revision;
+			this.expires = expires;
+		}
+
+	}
+
+	/**
+	 * MediaWiki API URL.
+	 */
+	private final String api;
+
+	/**
+	 * Time in milliseconds for which page information is cached.
 	 */
-	private static final Pattern PATTERN = Pattern.compile("<jh>.*?</jh>", Pattern.DOTALL);
+	private final long ttl;
+
+	/**
+	 * Page information by requested and by canonical title.
+	 */
+	private final ConcurrentMap<String, PageInfo> pages;
+
+	/**
+	 * Reply to the latest page information request of each thread, whose
+	 * content has not been used yet. At most one page per thread is
+	 * kept.
+	 */
+	private final ThreadLocal<RevisionHandler> fetched;
+
+	/**
+	 * Number of API requests made.
+	 */
+	private volatile long requestCount;
+
+	/**
+	 * Creates a new MediaWiki storage using the configured API URL.
+	 */
+	public Storage() {
+		this(jhilbert.Main.getMediaWikiApi());
+	}
+
+	/**
+	 * Creates a new MediaWiki storage using the specified API URL.
+	 *
+	 * @param api MediaWiki API URL.
+	 */
+	Storage(final String api) {
+		this(api, TTL);
+	}
+
+	/**
+	 * Creates a new MediaWiki storage using the specified API URL and
+	 * page information lifetime.
+	 *
+	 * @param api MediaWiki API URL.
+	 * @param ttl time in milliseconds for which page information is
+	 * 	cached.
+	 */
+	Storage(final String api, final long ttl) {
+		assert (api != null): "Supplied API URL is null";
+		assert (ttl >= 0): "Supplied lifetime is negative";
+		this.api = api;
+		this.ttl = ttl;
+		pages = new ConcurrentHashMap();
+		fetched = new ThreadLocal<RevisionHandler>();
+	}
+
+	/**
+	 * Returns the number of API requests made so far.
+	 *
+	 * @return number of API requests.
+	 */
+	long getRequestCount() {
+		return requestCount;
+	}
+
+	/**
+	 * Obtains a parser for the current thread.
+	 *
+	 * @return a reset parser.
+	 *
+	 * @throws ParserConfigurationException if no parser can be created.
+	 * @throws SAXException if no parser can be created.
+	 */
+	private static SAXParser getParser() throws ParserConfigurationException, SAXException {
+		SAXParser result = parser.get();
+		if (result == null) {
+			result = parserFactory.newSAXParser();
+			parser.set(result);
+		} else
+			result.reset();
+		return result;
+	}
 
 	/**
 	 * Handles a generic MediaWiki request.
@@ -83,12 +232,26 @@ public final class Storage extends jhilbert.storage.Storage {
 	private RevisionHandler handleRequest(final String req) throws StorageException {
 		assert (req != null): "Supplied request is null";
 		try {
-			final URL requestURL = new URL(jhilbert.Main.getMediaWikiApi() + "?format=xml&action=query&" + req);
+			final URL requestURL = new URL(api + "?format=xml&action=query&" + req);
 			final URLConnection request = requestURL.openConnection();
-			final SAXParser parser = parserFactory.newSAXParser();
+			request.setConnectTimeout(jhilbert.Main.DEFAULT_SOCKET_TIMEOUT);
+			request.setReadTimeout(jhilbert.Main.DEFAULT_SOCKET_TIMEOUT);
 			final RevisionHandler handler = new RevisionHandler();
-			request.connect();
-			parser.parse(request.getInputStream(), handler);
+			++requestCount;
+			final InputStream in = request.getInputStream();
+			try {
+				// keep the parser from closing the stream before it is drained
+				getParser().parse(new FilterInputStream(in) {
+					public @Override void close() {
+					}
+				}, handler);
+				// read to the end so that the connection can be reused
+				final byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+				while (in.read(buffer) != -1)
+					;
+			} finally {
+				in.close();
+			}
 			return handler;
 		} catch (MalformedURLException e) {
 			throw new StorageException("Malformed request", e);
@@ -103,36 +266,80 @@ public final class Storage extends jhilbert.storage.Storage {
 		}
 	}
 
+	/**
+	 * Obtains information about the page with the specified title,
+	 * from cache if possible.
+	 * A cache miss fetches title and latest revision ID, together with
+	 * the content unless the module for the previously known revision is
+	 * cached, and purges all expired entries whose modules are not cached.
+	 *
+	 * @param locator page title.
+	 *
+	 * @return page information.
+	 *
+	 * @throws StorageException if the request fails.
+	 */
+	private PageInfo getPageInfo(final String locator) throws StorageException {
+		final long now = System.currentTimeMillis();
+		PageInfo result = pages.get(locator);
+		if ((result != null) && (now < result.expires))
+			return result;
+		// an unchanged revision will be loaded from cache without content
+		final boolean content = (result == null) || !isModuleCached(result);
+		try {
+			final String urlEncodedLocator = URLEncoder.encode(locator, ENCODING);
+			final RevisionHandler handler = handleRequest("titles=" + urlEncodedLocator
+				+ "&prop=revisions&rvprop=" + (content ? "ids%7Ccontent" : "ids"));
+			if (content)
+				fetched.set(handler);
+			else
+				fetched.remove();
+			result = new PageInfo(handler.getPageTitle(), handler.getRevision(), now + ttl);
+		} catch (UnsupportedEncodingException e) {
+			throw new StorageException("UTF-8 encoding not supported", e);
+		}
+		for (final Iterator<PageInfo> i = pages.values().iterator(); i.hasNext();) {
+			final PageInfo info = i.next();
+			if ((info.expires <= now) && !isModuleCached(info))
+				i.remove();
+		}
+		pages.put(locator, result);
+		if ((result.title != null) && !result.title.equals(locator))
+			pages.put(result.title, result);
+		return result;
+	}
+
+	/**
+	 * Returns whether the module for the specified page information is
+	 * cached.
+	 *
+	 * @param info page information.
+	 *
+	 * @return <code>true</code> if the page exists and the module for its
+	 * 	revision is cached, <code>false</code> otherwise.
+	 */
+	private boolean isModuleCached(final PageInfo info) {
+		return (info.title != null) && (info.revision != -1) && isCached(info.title, info.revision);
+	}
+
 	public @Override boolean isVersioned() {
 		return true;
 	}
 
 	protected @Override String getCanonicalName(final String locator) throws StorageException {
 		assert (locator != null): "Supplied locator is null";
-		try {
-			final String urlEncodedLocator = URLEncoder.encode(locator, ENCODING);
-			final RevisionHandler handler = handleRequest("titles=" + urlEncodedLocator);
-			final String result = handler.getPageTitle();
-			if (result == null)
-				throw new StorageException("Invalid title: " + locator);
-			return result;
-		} catch (UnsupportedEncodingException e) {
-			throw new StorageException("UTF-8 encoding not supported", e);
-		}
+		final String result = getPageInfo(locator).title;
+		if (result == null)
+			throw new StorageException("Invalid title: " + locator);
+		return result;
 	}
 
 	protected @Override long getCurrentRevision(final String locator) throws StorageException {
 		assert (locator != null): "Supplied locator is null";
-		try {
-			final String urlEncodedLocator = URLEncoder.encode(locator, ENCODING);
-			final RevisionHandler handler = handleRequest("titles=" + urlEncodedLocator + "&prop=revisions&rvprop=ids&rvlimit=1");
-			final long result = handler.getRevision();
-			if (result == -1)
-				throw new StorageException("Module " + locator + " does not exist");
-			return result;
-		} catch (UnsupportedEncodingException e) {
-			throw new StorageException("UTF-8 encoding not supported", e);
-		}
+		final long result = getPageInfo(locator).revision;
+		if (result == -1)
+			throw new StorageException("Module " + locator + " does not exist");
+		return result;
 	}
 
 	protected @Override Module retrieveModule(final String locator, final long revision) throws StorageException {
@@ -140,35 +347,27 @@ public final class Storage extends jhilbert.storage.Storage {
 		assert (!"".equals(locator)): "Proof module supplied";
 		assert (revision >= 0): "Invalid version number supplied";
 		try {
-			final String urlEncodedLocator = URLEncoder.encode(locator, ENCODING);
-			final RevisionHandler handler = handleRequest("revids=" + revision + "&prop=revisions&rvprop=content");
-			if (!locator.equals(handler.getPageTitle()))
-				throw new StorageException("Supplied revision " + revision + " does not match supplied title " + locator);
-			final String text = handler.getText();
+			// content of the latest revision usually comes with the title lookup
+			final RevisionHandler prefetched = fetched.get();
+			fetched.remove();
+			String text = null;
+			if ((prefetched != null) && (prefetched.getRevision() == revision) && locator.equals(prefetched.getPageTitle()))
+				text = prefetched.getText();
+			if (text == null) {
+				final RevisionHandler handler = handleRequest("revids=" + revision + "&prop=revisions&rvprop=content");
+				if (!locator.equals(handler.getPageTitle()))
+					throw new StorageException("Supplied revision " + revision + " does not match supplied title " + locator);
+				text = handler.getText();
+			}
 			if ("".equals(text))
 				throw new StorageException("Supplied revision " + revision + " does not contain any text");
-			// extract JHilbert text
-			final StringBuilder jhText = new StringBuilder();
-			final Matcher matcher = PATTERN.matcher(text);
-			while(matcher.find()) {
-				final String match = matcher.group();
-				jhText.append('\n');
-				jhText.append(match, 4, match.length() - 5); // strip tags
-			}
-			// parse text
+			// parse JHilbert text
 			final Module module = DataFactory.getInstance().createModule(locator, revision);
-			final TokenFeed tokenFeed = ScannerFactory.getInstance().createTokenFeed(new ByteArrayInputStream(jhText.toString().getBytes(ENCODING)));
-				// FIXME: This encodes UTF-8 just to decode it yet again.
-				// Solution: change jhilbert.scanners.impl.{CharScanner,StreamTokenFeed} constructors to accept java.io.Reader.
-				// Other solution: Use a FilterInputStream instead of regexes
+			final TokenFeed tokenFeed = ScannerFactory.getInstance().createTokenFeed(new WikiReader(new StringReader(text)));
 			CommandFactory.getInstance().processCommands(module, tokenFeed);
 			return module;
-		} catch (UnsupportedEncodingException e) {
-			throw new StorageException(ENCODING + " encoding not supported", e);
 		} catch (DataException e) {
 			throw new StorageException("Unable to create interface module", e);
-		} catch (ScannerException e) {
-			throw new StorageException("Unable to create token feed", e);
 		} catch (CommandException e) {
 			throw new StorageException("Unable to parse module", e);
 		}
@@ -0,0 +1,604 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+package jhilbert.storage.pack;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import jhilbert.data.DataException;
+import jhilbert.data.DataFactory;
+import jhilbert.data.Module;
+import jhilbert.storage.StorageException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Pack file storage.
+ * All modules are kept in a single append-only data file in the hashstore
+ * directory. An in-memory index maps locators to the records holding the
+ * current module data, so that loading a module takes a single positional
+ * read. Storing or erasing a module appends a new record (erasures append
+ * a tombstone). Once superseded records make up more than half of the
+ * file, the file is compacted.
+ * <p>
+ * When the pack file is opened, every record is checked. Everything from
+ * the first invalid record on, whether torn by a crash or corrupted, is
+ * moved to a quarantine file next to the pack file and cut off.
+ * <p>
+ * Pack file layout: the magic number {@link #MAGIC} and the format
+ * version {@link #VERSION}, followed by records. Each record consists of
+ * <ul>
+ * <li>the length of the record body (int),</li>
+ * <li>the CRC-32 checksum of the record body (int),</li>
+ * <li>the record body: the record type (byte), the length of the UTF-8
+ * 	encoded locator (int), the locator, and the module data as written by
+ * 	{@link DataFactory#writeModule} (empty for tombstones).</li>
+ * </ul>
+ */
+public final class Storage extends jhilbert.storage.Storage {
+
+	/**
+	 * Logger for this class.
+	 */
+	private static final Logger logger = Logger.getLogger(Storage.class);
+
+	/**
+	 * Magic number ("JHPK") at the start of the pack file.
+	 */
+	private static final int MAGIC = 0x4A48504B;
+
+	/**
+	 * Pack file format version.
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * Size of the pack file header.
+	 */
+	private static final int HEADER_SIZE = 8;
+
+	/**
+	 * Size of the record prefix (body length and checksum).
+	 */
+	private static final int PREFIX_SIZE = 8;
+
+	/**
+	 * Size of the fixed part of the record body (type and locator length).
+	 */
+	private static final int BODY_HEADER_SIZE = 5;
+
+	/**
+	 * Record type of module records.
+	 */
+	private static final byte MODULE_RECORD = 1;
+
+	/**
+	 * Record type of tombstones.
+	 */
+	private static final byte TOMBSTONE = 2;
+
+	/**
+	 * Minimum number of superseded bytes before the pack file is
+	 * compacted.
+	 */
+	private static final long COMPACTION_THRESHOLD = 16L * 1024 * 1024;
+
+	/**
+	 * Name of the pack file within the hashstore directory.
+	 */
+	private static final String PACK_NAME = "modules.pack";
+
+	/**
+	 * Name of the lock file within the hashstore directory.
+	 */
+	private static final String LOCK_NAME = "modules.lock";
+
+	/**
+	 * Suffix of quarantine files, which is appended to the pack file name
+	 * and the offset of the first invalid record.
+	 */
+	static final String QUARANTINE_SUFFIX = ".bad";
+
+	/**
+	 * Location of a record in the pack file.
+	 */
+	private static final class Entry {
+
+		/**
+		 * Offset of the record.
+		 */
+		final long offset;
+
+		/**
+		 * Total size of the record, including its prefix.
+		 */
+		final int size;
+
+		/**
+		 * Creates a new <code>Entry</code>.
+		 *
+		 * @param offset offset of the record.
+		 * @param size total size of the record.
+		 */
+		Entry(final long offset, final int size) {
+			this.offset = offset;
+			this.size = size;
+		}
+
+	}
+
+	/**
+	 * Pack file.
+	 */
+	private final File packFile;
+
+	/**
+	 * Pack file channel.
+	 */
+	private FileChannel channel;
+
+	/**
+	 * Lock ensuring a single process uses the pack file.
+	 */
+	private final FileLock processLock;
+
+	/**
+	 * Locator to record index.
+	 */
+	private final Map<String, Entry> index;
+
+	/**
+	 * Offset at which the next record will be appended.
+	 */
+	private long end;
+
+	/**
+	 * Number of bytes in superseded records and tombstones.
+	 */
+	private long garbage;
+
+	/**
+	 * Minimum number of superseded bytes before the pack file is
+	 * compacted.
+	 */
+	private final long compactionThreshold;
+
+	/**
+	 * Guards channel, index and file end. Reads share the lock, appends
+	 * and compaction hold it exclusively.
+	 */
+	private final ReadWriteLock lock;
+
+	/**
+	 * Creates a new pack file storage in the hashstore directory.
+	 * There should not be more than one instance of this class.
+	 *
+	 * @throws StorageException if the pack file cannot be opened or is
+	 * 	invalid.
+	 */
+	public Storage() throws StorageException {
+		this(new File(jhilbert.Main.getHashstorePath()), COMPACTION_THRESHOLD);
+	}
+
+	/**
+	 * Creates a new pack file storage in the specified directory with the
+	 * specified compaction threshold.
+	 *
+	 * @param dir directory of the pack file.
+	 * @param compactionThreshold minimum number of superseded bytes
+	 * 	before the pack file is compacted.
+	 *
+	 * @throws StorageException if the pack file cannot be opened or is
+	 * 	invalid.
+	 */
+	Storage(final File dir, final long compactionThreshold) throws StorageException {
+		assert (dir != null): "Supplied directory is null";
+		this.compactionThreshold = compactionThreshold;
+		if (!(dir.isDirectory() || dir.mkdirs())) {
+			logger.error("Unable to create hashstore directory " + dir);
+			throw new StorageException("Unable to create hashstore directory");
+		}
+		packFile = new File(dir, PACK_NAME);
+		index = new HashMap();
+		lock = new ReentrantReadWriteLock();
+		try {
+			processLock = (new RandomAccessFile(new File(dir, LOCK_NAME), "rw")).getChannel().tryLock();
+			if (processLock == null) {
+				logger.error("Pack file " + packFile + " is in use by another process");
+				throw new StorageException("Pack file is in use by another process");
+			}
+			channel = (new RandomAccessFile(packFile, "rw")).getChannel();
+			loadIndex();
+		} catch (IOException e) {
+			logger.error("I/O error while opening pack file " + packFile, e);
+			throw new StorageException("I/O error while opening pack file", e);
+		}
+	}
+
+	/**
+	 * Closes the pack file and releases the process lock.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	void close() throws IOException {
+		lock.writeLock().lock();
+		try {
+			channel.close();
+			processLock.release();
+			processLock.channel().close();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Reads exactly as many bytes as remain in the specified buffer from
+	 * the specified position of the pack file.
+	 *
+	 * @param buffer buffer to fill.
+	 * @param position file position.
+	 *
+	 * @return <code>true</code> if the buffer could be filled,
+	 * 	<code>false</code> if the end of the file was reached first.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private boolean readFully(final ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			final int count = channel.read(buffer, position);
+			if (count < 0)
+				return false;
+			position += count;
+		}
+		buffer.flip();
+		return true;
+	}
+
+	/**
+	 * Writes the specified buffer to the specified position of the pack
+	 * file.
+	 *
+	 * @param buffer buffer to write.
+	 * @param position file position.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private void writeFully(final ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining())
+			position += channel.write(buffer, position);
+	}
+
+	/**
+	 * Computes the checksum of the body of the specified record.
+	 *
+	 * @param record record, positioned at its start.
+	 *
+	 * @return checksum of the record body.
+	 */
+	private static int checksum(final ByteBuffer record) {
+		final CRC32 crc = new CRC32();
+		final int start = record.position() + PREFIX_SIZE;
+		if (record.hasArray())
+			crc.update(record.array(), record.arrayOffset() + start, record.limit() - start);
+		else
+			for (int i = start; i != record.limit(); ++i)
+				crc.update(record.get(i));
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Scans the pack file and builds the index.
+	 * The scan stops at the first record which is incomplete, fails its
+	 * checksum or is otherwise invalid. Everything from that record on is
+	 * quarantined, so that the pack file again ends with a valid record.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 * @throws StorageException if the pack file is invalid.
+	 */
+	private void loadIndex() throws IOException, StorageException {
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		if (channel.size() < HEADER_SIZE) {
+			header.putInt(MAGIC).putInt(VERSION).flip();
+			channel.truncate(0);
+			writeFully(header, 0);
+			channel.force(true);
+			end = HEADER_SIZE;
+			garbage = 0;
+			return;
+		}
+		readFully(header, 0);
+		if (header.getInt() != MAGIC) {
+			logger.error("File " + packFile + " is not a pack file");
+			throw new StorageException("Not a pack file");
+		}
+		final int version = header.getInt();
+		if (version != VERSION) {
+			logger.error("Pack file " + packFile + " has unsupported version " + version);
+			throw new StorageException("Unsupported pack file version");
+		}
+		final long size = channel.size();
+		final ByteBuffer prefix = ByteBuffer.allocate(PREFIX_SIZE);
+		ByteBuffer record = ByteBuffer.allocate(PREFIX_SIZE + BODY_HEADER_SIZE);
+		long position = HEADER_SIZE;
+		while (position != size) {
+			prefix.clear();
+			if (!readFully(prefix, position))
+				break;
+			final int bodySize = prefix.getInt();
+			if ((bodySize < BODY_HEADER_SIZE) || (position + PREFIX_SIZE + bodySize > size))
+				break;
+			final int recordSize = PREFIX_SIZE + bodySize;
+			if (record.capacity() < recordSize)
+				record = ByteBuffer.allocate(Math.max(recordSize, 2 * record.capacity()));
+			record.clear();
+			record.limit(recordSize);
+			if (!readFully(record, position) || (record.getInt(PREFIX_SIZE - 4) != checksum(record)))
+				break;
+			record.position(PREFIX_SIZE);
+			final byte type = record.get();
+			final int locatorSize = record.getInt();
+			if ((locatorSize < 0) || (locatorSize > bodySize - BODY_HEADER_SIZE))
+				break;
+			final String locator = new String(record.array(), record.arrayOffset() + record.position(), locatorSize,
+				/* FIXME: 1.5 compat */ "UTF-8");
+			final Entry old;
+			if (type == MODULE_RECORD) {
+				old = index.put(locator, new Entry(position, recordSize));
+			} else if (type == TOMBSTONE) {
+				old = index.remove(locator);
+				garbage += recordSize;
+			} else
+				break;
+			if (old != null)
+				garbage += old.size;
+			position += recordSize;
+		}
+		if (position != size) {
+			quarantine(position, size);
+			channel.truncate(position);
+			channel.force(true);
+		}
+		end = position;
+		logger.info("Pack file " + packFile + " opened with " + index.size() + " modules");
+	}
+
+	/**
+	 * Copies the specified range of the pack file to a quarantine file.
+	 *
+	 * @param start start offset of the range.
+	 * @param stop end offset of the range.
+	 *
+	 * @throws IOException if the range cannot be copied.
+	 */
+	private void quarantine(final long start, final long stop) throws IOException {
+		final File quarantineFile = new File(packFile.getPath() + '.' + start + QUARANTINE_SUFFIX);
+		logger.warn("Moving " + (stop - start) + " bytes starting with an invalid record at offset " + start
+			+ " of pack file " + packFile + " to " + quarantineFile);
+		final FileChannel out = (new FileOutputStream(quarantineFile)).getChannel();
+		try {
+			long copied = 0;
+			while (copied != stop - start)
+				copied += channel.transferTo(start + copied, stop - start - copied, out);
+			out.force(true);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Creates a record.
+	 *
+	 * @param type record type.
+	 * @param locator canonical module name.
+	 * @param data module data, or <code>null</code>.
+	 *
+	 * @return the record.
+	 *
+	 * @throws UnsupportedEncodingException (FIXME: 1.5 compat).
+	 */
+	private static ByteBuffer createRecord(final byte type, final String locator, final ByteArrayOutputStream data)
+	throws UnsupportedEncodingException {
+		final byte[] locatorBytes = locator.getBytes(/* FIXME: 1.5 compat */ "UTF-8");
+		final int dataSize = (data == null) ? 0 : data.size();
+		final int bodySize = BODY_HEADER_SIZE + locatorBytes.length + dataSize;
+		final ByteBuffer record = ByteBuffer.allocate(PREFIX_SIZE + bodySize);
+		record.putInt(bodySize).putInt(0).put(type).putInt(locatorBytes.length).put(locatorBytes);
+		if (data != null)
+			record.put(data.toByteArray());
+		record.flip();
+		record.putInt(PREFIX_SIZE - 4, checksum(record));
+		return record;
+	}
+
+	/**
+	 * Appends the specified record.
+	 * The caller must hold the write lock.
+	 *
+	 * @param record record to append.
+	 *
+	 * @return the index entry of the new record.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private Entry append(final ByteBuffer record) throws IOException {
+		final Entry result = new Entry(end, record.remaining());
+		try {
+			writeFully(record, end);
+			channel.force(false);
+		} catch (IOException e) {
+			channel.truncate(end);
+			throw e;
+		}
+		end += result.size;
+		return result;
+	}
+
+	/**
+	 * Compacts the pack file if enough of it is garbage.
+	 * Live records are copied to a new file which then replaces the old
+	 * one. The caller must hold the write lock.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private void compactIfNecessary() throws IOException {
+		if ((garbage < compactionThreshold) || (2 * garbage < end))
+			return;
+		logger.info("Compacting pack file " + packFile + " (" + garbage + " of " + end + " bytes superseded)");
+		final File tempFile = new File(packFile.getPath() + ".tmp");
+		final FileChannel newChannel = (new RandomAccessFile(tempFile, "rw")).getChannel();
+		try {
+			newChannel.truncate(0);
+			final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).flip();
+			long position = 0;
+			while (header.hasRemaining())
+				position += newChannel.write(header, position);
+			final Map<String, Entry> newIndex = new HashMap();
+			for (final Map.Entry<String, Entry> e: index.entrySet()) {
+				final Entry entry = e.getValue();
+				long copied = 0;
+				while (copied != entry.size)
+					copied += channel.transferTo(entry.offset + copied, entry.size - copied,
+						newChannel.position(position + copied));
+				newIndex.put(e.getKey(), new Entry(position, entry.size));
+				position += entry.size;
+			}
+			newChannel.force(true);
+			if (!tempFile.renameTo(packFile)) {
+				newChannel.close();
+				throw new IOException("Unable to rename " + tempFile + " to " + packFile);
+			}
+			channel.close();
+			channel = newChannel;
+			index.clear();
+			index.putAll(newIndex);
+			end = position;
+			garbage = 0;
+		} catch (IOException e) {
+			if (newChannel.isOpen())
+				newChannel.close();
+			tempFile.delete();
+			throw e;
+		}
+	}
+
+	public @Override boolean isVersioned() {
+		return false;
+	}
+
+	protected @Override String getCanonicalName(final String locator) {
+		return locator;
+	}
+
+	protected @Override Module retrieveModule(final String locator, final long version) throws StorageException {
+		assert (locator != null): "Supplied locator is null";
+		assert (version >= -1): "Invalid revision number supplied";
+		final ByteBuffer record;
+		lock.readLock().lock();
+		try {
+			final Entry entry = index.get(locator);
+			if (entry == null)
+				throw new StorageException("Module not found in pack file");
+			record = ByteBuffer.allocate(entry.size);
+			if (!readFully(record, entry.offset))
+				throw new StorageException("Unexpected end of pack file");
+		} catch (IOException e) {
+			throw new StorageException("I/O error while loading module", e);
+		} finally {
+			lock.readLock().unlock();
+		}
+		if (record.getInt(PREFIX_SIZE - 4) != checksum(record)) {
+			logger.error("Checksum mismatch in pack file record for module " + locator);
+			throw new StorageException("Pack file record is corrupt");
+		}
+		record.position(PREFIX_SIZE + 1);
+		record.position(record.position() + 4 + record.getInt());
+		try {
+			return DataFactory.getInstance().readModule(record);
+		} catch (DataException e) {
+			throw new StorageException("Pack file contains invalid module data", e);
+		}
+	}
+
+	protected @Override void storeModule(final Module module, final String locator, final long version) throws StorageException {
+		assert (module != null): "Supplied module is null";
+		assert (locator != null): "Supplied locator is null";
+		assert (version >= -1): "Invalid revision number supplied";
+		try {
+			final ByteArrayOutputStream data = new ByteArrayOutputStream();
+			DataFactory.getInstance().writeModule(module, data);
+			final ByteBuffer record = createRecord(MODULE_RECORD, locator, data);
+			lock.writeLock().lock();
+			try {
+				final Entry old = index.put(locator, append(record));
+				if (old != null) {
+					garbage += old.size;
+					compactIfNecessary();
+				}
+			} finally {
+				lock.writeLock().unlock();
+			}
+		} catch (DataException e) {
+			throw new StorageException("Unable to encode module", e);
+		} catch (IOException e) {
+			throw new StorageException("I/O error while storing module", e);
+		}
+	}
+
+	protected @Override void eraseModule(final String locator, final long version) throws StorageException {
+		assert (locator != null): "Supplied locator is null";
+		assert (version >= -1): "Invalid revision number supplied";
+		try {
+			lock.writeLock().lock();
+			try {
+				if (!index.containsKey(locator))
+					return;
+				final Entry tombstone = append(createRecord(TOMBSTONE, locator, null));
+				garbage += index.remove(locator).size + tombstone.size;
+				compactIfNecessary();
+			} finally {
+				lock.writeLock().unlock();
+			}
+		} catch (IOException e) {
+			throw new StorageException("I/O error while erasing module", e);
+		}
+	}
+
+	protected @Override long getCurrentRevision(final String locator) {
+		return -1;
+	}
+
+}
@@ -25,17 +25,16 @@
 package jhilbert.storage.wiki;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.Reader;
 
 import jhilbert.commands.CommandException;
 import jhilbert.commands.CommandFactory;
 import jhilbert.data.DataException;
 import jhilbert.data.DataFactory;
 import jhilbert.data.Module;
-import jhilbert.scanners.ScannerException;
 import jhilbert.scanners.ScannerFactory;
 import jhilbert.scanners.TokenFeed;
-import jhilbert.scanners.WikiInputStream;
+import jhilbert.scanners.WikiReader;
 import jhilbert.storage.StorageException;
 
 import org.apache.log4j.Logger;
@@ -82,14 +81,10 @@ public final class Storage extends jhilbert.storage.Storage {
 		try {
 			String fileName = fileName(locator);
 			logger.debug("file name is " + fileName);
-			final InputStream interfaceFile = WikiInputStream.create(fileName);
+			final Reader interfaceFile = WikiReader.create(fileName);
 			final TokenFeed tokenFeed = ScannerFactory.getInstance()
 				.createTokenFeed(interfaceFile);
 			CommandFactory.getInstance().processCommands(interfaceModule, tokenFeed);
-		} catch (ScannerException e) {
-			logger.error("Scanner error while scanning interface " + locator, e);
-			logger.debug("Scanner context: " + e.getScanner().getContextString());
-			throw new StorageException("Scanner error while scanning interface", e);
 		} catch (CommandException e) {
 			logger.error("Command failed to execute while loading interface " + locator, e);
 			throw new StorageException("Command failed to execute while loading interface", e);
@@ -0,0 +1,435 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+package jhilbert.utils;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrent, weight bounded cache.
+ * The cache is split into independently locked segments, each of which
+ * evicts its least recently used entries once the total weight of its
+ * entries exceeds its share of the maximum weight. Values are held
+ * through {@link SoftReference}s, so the garbage collector may reclaim
+ * them earlier on memory pressure. Reclaimed entries are removed via a
+ * {@link ReferenceQueue} rather than by scanning the cache.
+ * <p>
+ * Since each segment is bounded on its own, an entry heavier than the
+ * maximum weight divided by the number of segments is never cached. Such
+ * entries are counted as rejections, see {@link #getRejectionCount}.
+ *
+ * @param K key type.
+ * @param V value type.
+ */
+public final class ConcurrentCache<K, V> {
+
+	/**
+	 * Determines the weight of cache entries.
+	 *
+	 * @param K key type.
+	 * @param V value type.
+	 */
+	public static interface Weigher<K, V> {
+
+		/**
+		 * Returns the weight of the specified entry.
+		 *
+		 * @param key entry key.
+		 * @param value entry value.
+		 *
+		 * @return non-negative weight.
+		 */
+		public int weigh(K key, V value);
+
+	}
+
+	/**
+	 * Cache entry.
+	 */
+	private static final class Node<K, V> extends SoftReference<V> {
+
+		/**
+		 * Key.
+		 */
+		final K key;
+
+		/**
+		 * Weight.
+		 */
+		final int weight;
+
+		/**
+		 * Creates a new <code>Node</code>.
+		 *
+		 * @param key key.
+		 * @param value value.
+		 * @param weight weight.
+		 * @param queue reference queue.
+		 */
+		Node(final K key, final V value, final int weight, final ReferenceQueue<? super V> queue) {
+			super(value, queue);
+			this.key = key;
+			this.weight = weight;
+		}
+
+	}
+
+	/**
+	 * Cache segment.
+	 * All access must be synchronized on the segment.
+	 */
+	private static final class Segment<K, V> {
+
+		/**
+		 * Entries in LRU order.
+		 */
+		final LinkedHashMap<K, Node<K, V>> map;
+
+		/**
+		 * Total weight of the entries of this segment.
+		 */
+		long weight;
+
+		/**
+		 * Creates a new <code>Segment</code>.
+		 */
+		Segment() {
+			map = new LinkedHashMap(16, 0.75f, true);
+			weight = 0;
+		}
+
+	}
+
+	/**
+	 * Segments.
+	 */
+	private final Segment<K, V>[] segments;
+
+	/**
+	 * Maximum weight of each segment.
+	 */
+	private final long maxSegmentWeight;
+
+	/**
+	 * Weigher.
+	 */
+	private final Weigher<? super K, ? super V> weigher;
+
+	/**
+	 * Queue of reclaimed values.
+	 */
+	private final ReferenceQueue<V> queue;
+
+	/**
+	 * Number of hits.
+	 */
+	private final AtomicLong hits;
+
+	/**
+	 * Number of misses.
+	 */
+	private final AtomicLong misses;
+
+	/**
+	 * Number of entries evicted because of the weight bound.
+	 */
+	private final AtomicLong evictions;
+
+	/**
+	 * Number of entries reclaimed by the garbage collector.
+	 */
+	private final AtomicLong collections;
+
+	/**
+	 * Number of entries not cached because they are heavier than
+	 * {@link #maxSegmentWeight}.
+	 */
+	private final AtomicLong rejections;
+
+	/**
+	 * Creates a new <code>ConcurrentCache</code>.
+	 *
+	 * @param maxWeight maximum total weight of the cache.
+	 * @param concurrencyLevel number of segments.
+	 * @param weigher weigher of cache entries.
+	 *
+	 * @throws IllegalArgumentException if <code>maxWeight</code> is
+	 * 	negative or <code>concurrencyLevel</code> is not positive.
+	 */
+	public ConcurrentCache(final long maxWeight, final int concurrencyLevel, final Weigher<? super K, ? super V> weigher)
+	throws IllegalArgumentException {
+		if (maxWeight < 0)
+			throw new IllegalArgumentException("Negative maximum weight.");
+		if (concurrencyLevel <= 0)
+			throw new IllegalArgumentException("Non-positive concurrency level.");
+		assert (weigher != null): "Supplied weigher is null";
+		segments = new Segment[concurrencyLevel];
+		for (int i = 0; i != concurrencyLevel; ++i)
+			segments[i] = new Segment();
+		maxSegmentWeight = (maxWeight + concurrencyLevel - 1) / concurrencyLevel;
+		this.weigher = weigher;
+		queue = new ReferenceQueue();
+		hits = new AtomicLong();
+		misses = new AtomicLong();
+		evictions = new AtomicLong();
+		collections = new AtomicLong();
+		rejections = new AtomicLong();
+	}
+
+	/**
+	 * Returns the segment responsible for the specified key.
+	 *
+	 * @param key key.
+	 *
+	 * @return the segment.
+	 */
+	private Segment<K, V> segmentFor(final Object key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return segments[(h & 0x7FFFFFFF) % segments.length];
+	}
+
+	/**
+	 * Removes the specified node from its segment if it is still mapped.
+	 *
+	 * @param node node to remove.
+	 *
+	 * @return <code>true</code> if the node was removed,
+	 * 	<code>false</code> otherwise.
+	 */
+	private boolean removeNode(final Node<K, V> node) {
+		final Segment<K, V> segment = segmentFor(node.key);
+		synchronized (segment) {
+			if (segment.map.get(node.key) != node)
+				return false;
+			segment.map.remove(node.key);
+			segment.weight -= node.weight;
+			return true;
+		}
+	}
+
+	/**
+	 * Removes entries whose values have been reclaimed.
+	 */
+	private void processQueue() {
+		Reference<? extends V> ref;
+		while ((ref = queue.poll()) != null)
+			if (removeNode((Node<K, V>) ref))
+				collections.incrementAndGet();
+	}
+
+	/**
+	 * Returns the value cached for the specified key.
+	 *
+	 * @param key key.
+	 *
+	 * @return the cached value, or <code>null</code> if there is none.
+	 */
+	public V get(final K key) {
+		assert (key != null): "Supplied key is null";
+		processQueue();
+		final Segment<K, V> segment = segmentFor(key);
+		Node<K, V> node;
+		synchronized (segment) {
+			node = segment.map.get(key);
+		}
+		final V result = (node == null) ? null : node.get();
+		if (result == null) {
+			misses.incrementAndGet();
+			if ((node != null) && removeNode(node))
+				collections.incrementAndGet();
+		} else
+			hits.incrementAndGet();
+		return result;
+	}
+
+	/**
+	 * Returns whether a value is cached for the specified key.
+	 * Unlike {@link #get}, this counts neither a hit nor a miss and leaves
+	 * the eviction order unchanged. A value reclaimed by the garbage
+	 * collector may still be reported as cached.
+	 *
+	 * @param key key.
+	 *
+	 * @return <code>true</code> if a value is cached for the key,
+	 * 	<code>false</code> otherwise.
+	 */
+	public boolean containsKey(final K key) {
+		assert (key != null): "Supplied key is null";
+		final Segment<K, V> segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.map.containsKey(key);
+		}
+	}
+
+	/**
+	 * Caches the specified value for the specified key.
+	 * Entries heavier than the share of a single segment, that is, the
+	 * maximum weight divided by the number of segments, are not cached,
+	 * and any value previously cached for the key is removed.
+	 *
+	 * @param key key.
+	 * @param value value.
+	 */
+	public void put(final K key, final V value) {
+		assert (key != null): "Supplied key is null";
+		assert (value != null): "Supplied value is null";
+		processQueue();
+		final int weight = weigher.weigh(key, value);
+		assert (weight >= 0): "Negative weight";
+		final Segment<K, V> segment = segmentFor(key);
+		synchronized (segment) {
+			insert(segment, key, value, weight);
+		}
+	}
+
+	/**
+	 * Inserts a new entry into the specified segment and evicts least
+	 * recently used entries as necessary.
+	 * The caller must hold the lock of the segment.
+	 *
+	 * @param segment segment.
+	 * @param key key.
+	 * @param value value.
+	 * @param weight weight of the new entry.
+	 */
+	private void insert(final Segment<K, V> segment, final K key, final V value, final int weight) {
+		final Node<K, V> old = segment.map.remove(key);
+		if (old != null)
+			segment.weight -= old.weight;
+		if (weight > maxSegmentWeight) {
+			rejections.incrementAndGet();
+			return;
+		}
+		segment.map.put(key, new Node(key, value, weight, queue));
+		segment.weight += weight;
+		final Iterator<Node<K, V>> i = segment.map.values().iterator();
+		while (segment.weight > maxSegmentWeight) {
+			final Node<K, V> eldest = i.next();
+			i.remove();
+			segment.weight -= eldest.weight;
+			evictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Replaces the value cached for the specified key, provided that
+	 * there is one.
+	 *
+	 * @param key key.
+	 * @param value new value.
+	 */
+	public void replace(final K key, final V value) {
+		assert (key != null): "Supplied key is null";
+		assert (value != null): "Supplied value is null";
+		final int weight = weigher.weigh(key, value);
+		assert (weight >= 0): "Negative weight";
+		final Segment<K, V> segment = segmentFor(key);
+		synchronized (segment) {
+			if (segment.map.containsKey(key))
+				insert(segment, key, value, weight);
+		}
+	}
+
+	/**
+	 * Removes the value cached for the specified key.
+	 *
+	 * @param key key.
+	 */
+	public void remove(final K key) {
+		assert (key != null): "Supplied key is null";
+		final Segment<K, V> segment = segmentFor(key);
+		synchronized (segment) {
+			final Node<K, V> old = segment.map.remove(key);
+			if (old != null)
+				segment.weight -= old.weight;
+		}
+	}
+
+	/**
+	 * Returns the total weight of the cached entries.
+	 *
+	 * @return total weight.
+	 */
+	public long getWeight() {
+		long result = 0;
+		for (final Segment<K, V> segment: segments)
+			synchronized (segment) {
+				result += segment.weight;
+			}
+		return result;
+	}
+
+	/**
+	 * Returns the number of cache hits.
+	 *
+	 * @return number of hits.
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of cache misses.
+	 *
+	 * @return number of misses.
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the number of entries evicted because of the weight bound.
+	 *
+	 * @return number of evictions.
+	 */
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	/**
+	 * Returns the number of entries whose values were reclaimed by the
+	 * garbage collector.
+	 *
+	 * @return number of reclaimed entries.
+	 */
+	public long getCollectionCount() {
+		return collections.get();
+	}
+
+	/**
+	 * Returns the number of entries which were not cached because they
+	 * are heavier than the share of a single segment.
+	 *
+	 * @return number of rejected entries.
+	 */
+	public long getRejectionCount() {
+		return rejections.get();
+	}
+
+}
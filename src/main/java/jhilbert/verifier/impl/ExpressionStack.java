@@ -0,0 +1,145 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+package jhilbert.verifier.impl;
+
+import jhilbert.expressions.Expression;
+
+/**
+ * Unsynchronised array-backed stack of {@link Expression}s.
+ * The array is kept when the stack shrinks, so a stack reused across
+ * proofs stops allocating once it has grown to the deepest proof.
+ */
+final class ExpressionStack {
+
+	/**
+	 * Initial capacity.
+	 */
+	private static final int INITIAL_CAPACITY = 32;
+
+	/**
+	 * Elements, bottom first.
+	 */
+	private Expression[] elements;
+
+	/**
+	 * Number of elements.
+	 */
+	private int size;
+
+	/**
+	 * Creates a new, empty <code>ExpressionStack</code>.
+	 */
+	ExpressionStack() {
+		elements = new Expression[INITIAL_CAPACITY];
+		size = 0;
+	}
+
+	/**
+	 * Pushes the specified expression.
+	 *
+	 * @param expression expression to push.
+	 */
+	void push(final Expression expression) {
+		if (size == elements.length) {
+			final Expression[] newElements = new Expression[2 * size];
+			System.arraycopy(elements, 0, newElements, 0, size);
+			elements = newElements;
+		}
+		elements[size++] = expression;
+	}
+
+	/**
+	 * Pops the topmost expression.
+	 *
+	 * @return the popped expression.
+	 */
+	Expression pop() {
+		assert (size != 0): "Stack is empty";
+		final Expression result = elements[--size];
+		elements[size] = null;
+		return result;
+	}
+
+	/**
+	 * Obtains the expression at the specified index, counted from the
+	 * bottom of the stack.
+	 *
+	 * @param index index.
+	 *
+	 * @return the expression.
+	 */
+	Expression get(final int index) {
+		assert ((index >= 0) && (index < size)): "Index out of range";
+		return elements[index];
+	}
+
+	/**
+	 * Obtains the number of expressions on the stack.
+	 *
+	 * @return the number of expressions.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Checks whether the stack is empty.
+	 *
+	 * @return <code>true</code> if the stack is empty, <code>false</code>
+	 * 	otherwise.
+	 */
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Shrinks the stack to the specified size.
+	 *
+	 * @param newSize new size, not larger than the current size.
+	 */
+	void truncate(final int newSize) {
+		assert ((newSize >= 0) && (newSize <= size)): "Invalid new size";
+		for (int i = newSize; i != size; ++i)
+			elements[i] = null;
+		size = newSize;
+	}
+
+	/**
+	 * Removes all expressions.
+	 */
+	void clear() {
+		truncate(0);
+	}
+
+	public @Override String toString() {
+		final StringBuilder result = new StringBuilder("[");
+		for (int i = 0; i != size; ++i) {
+			if (i != 0)
+				result.append(", ");
+			result.append(elements[i]);
+		}
+		return result.append(']').toString();
+	}
+
+}
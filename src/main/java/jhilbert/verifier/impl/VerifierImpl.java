@@ -25,13 +25,11 @@
 package jhilbert.verifier.impl;
 
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Stack;
 
 import jhilbert.data.ConstraintException;
 import jhilbert.data.DVConstraints;
@@ -78,15 +76,54 @@ final class VerifierImpl implements Verifier {
 
 	// local proof environment follows:
 
+	/**
+	 * Reusable working storage of a verifying thread.
+	 * Proofs are verified one at a time on each thread, so the stacks and
+	 * the substituter can be shared by all verifiers of a thread, and reach
+	 * a steady state in which proof steps allocate nothing of their own.
+	 */
+	private static final class Workspace {
+
+		/**
+		 * Proof stack.
+		 */
+		final ExpressionStack proofStack = new ExpressionStack();
+
+		/**
+		 * Mandatory stack.
+		 */
+		final ExpressionStack mandatoryStack = new ExpressionStack();
+
+		/**
+		 * Substituter for statement applications.
+		 */
+		final Substituter substituter = ExpressionFactory.getInstance().createSubstituter();
+
+	}
+
+	/**
+	 * Workspaces by thread.
+	 */
+	private static final ThreadLocal<Workspace> workspace = new ThreadLocal<Workspace>() {
+		protected @Override Workspace initialValue() {
+			return new Workspace();
+		}
+	};
+
 	/**
 	 * Proof stack.
 	 */
-	private final Stack<Expression> proofStack;
+	private ExpressionStack proofStack;
 
 	/**
 	 * Mandatory stack.
 	 */
-	private final Stack<Expression> mandatoryStack;
+	private ExpressionStack mandatoryStack;
+
+	/**
+	 * Substituter for statement applications.
+	 */
+	private Substituter substituter;
 
 	/**
 	 * Data factory.
@@ -111,7 +148,7 @@ final class VerifierImpl implements Verifier {
 	/**
 	 * DV constraints which must be checked at the end of the proof.
 	 */
-	private final DVConstraints requiredDVConstraints;
+	private DVConstraints requiredDVConstraints;
 
 	/**
 	 * Hypotheses.
@@ -125,31 +162,73 @@ final class VerifierImpl implements Verifier {
 	 * module and token feed.
 	 *
 	 * @param module data module;
-	 * @param tokenFeed token feed;
+	 * @param tokenFeed token feed.
 	 */
 	VerifierImpl(final Module module, final TokenFeed tokenFeed) {
 		assert (module != null): "Supplied data module is null";
 		assert (tokenFeed != null): "Supplied token feed is null";
 		this.module = module;
 		feed = tokenFeed;
-		proofStack = new Stack();
-		mandatoryStack = new Stack();
+		proofStack = null;
+		mandatoryStack = null;
+		substituter = null;
 		dataFactory = DataFactory.getInstance();
 		expressionFactory = ExpressionFactory.getInstance();
 		kindNamespace = module.getKindNamespace();
 		assert (kindNamespace != null): "Module supplied null kind namespace";
 		symbolNamespace = module.getSymbolNamespace();
 		assert (symbolNamespace != null): "Module supplied null symbol namespace";
+		requiredDVConstraints = null;
+	}
+
+	/**
+	 * Prepares the proof environment for a new proof.
+	 *
+	 * @param hypotheses the labelled hypotheses.
+	 */
+	private void reset(final Map<String, Expression> hypotheses) {
+		this.hypotheses = hypotheses;
+		final Workspace current = workspace.get();
+		proofStack = current.proofStack;
+		mandatoryStack = current.mandatoryStack;
+		substituter = current.substituter;
+		proofStack.clear();
+		mandatoryStack.clear();
 		requiredDVConstraints = dataFactory.createDVConstraints();
 	}
 
+	/**
+	 * Empties the stacks and the substituter of the workspace at the end
+	 * of a proof, so that an idle thread does not keep the expressions of
+	 * its last proof alive.
+	 */
+	private void release() {
+		proofStack.clear();
+		mandatoryStack.clear();
+		substituter.reset();
+	}
+
+	/**
+	 * Rejects the current token of the feed with the specified message,
+	 * or merely logs the message if the feed cannot reject it.
+	 *
+	 * @param msg rejection message.
+	 */
+	private void reject(final String msg) {
+		try {
+			feed.reject(msg);
+		} catch (ScannerException ignored) {
+			logger.error(msg);
+		}
+	}
+
 	public void verify(final DVConstraints dvConstraints, final Map<String, Expression> hypotheses,
 			final Expression consequent)
 	throws VerifyException {
 		assert (dvConstraints != null): "Supplied DV constraints are null";
 		assert (hypotheses != null): "Supplied hypotheses are null";
 		assert (consequent != null): "Supplied consequent is null";
-		this.hypotheses = hypotheses;
+		reset(hypotheses);
 		try {
 			feed.beginExp();
 			feed.confirmBeginExp();
@@ -163,14 +242,39 @@ final class VerifierImpl implements Verifier {
 				}
 				token = feed.getToken();
 			}
+			checkResult(dvConstraints, consequent);
+			feed.confirmEndExp();
+		} catch (NullPointerException e) {
+			logger.error("Unexpected end of input while scanning proof");
+			throw new VerifyException("Unexpected end of input", e);
+		} catch (ScannerException e) {
+			throw new VerifyException("Feed error", e);
+		} catch (ExpressionException e) {
+			throw new VerifyException("Unable to scan expression", e);
+		} finally {
+			release();
+		}
+	}
+
+	/**
+	 * Checks the stacks at the end of the proof, and whether the proof
+	 * result matches the consequent under the required DV constraints.
+	 *
+	 * @param dvConstraints DV constraints.
+	 * @param consequent the consequent.
+	 *
+	 * @throws VerifyException if the proof result is not acceptable.
+	 */
+	private void checkResult(final DVConstraints dvConstraints, final Expression consequent) throws VerifyException {
+		try {
 			// check stacks
-			if (proofStack.empty()) {
-				feed.reject("Proof stack empty at end of proof; expected precisely one element");
+			if (proofStack.isEmpty()) {
+				reject("Proof stack empty at end of proof; expected precisely one element");
 				throw new VerifyException("Proof stack empty at end of proof");
 			}
 			final Expression proofResult = proofStack.pop();
-			if (!(proofStack.empty() && mandatoryStack.empty())) {
-				feed.reject("Proof stacks not empty after popping final result");
+			if (!(proofStack.isEmpty() && mandatoryStack.isEmpty())) {
+				reject("Proof stacks not empty after popping final result");
 				logger.debug("Mandatory stack: " + mandatoryStack);
 				logger.debug("Proof stack: " + proofStack);
 				throw new VerifyException("Proof stacks not empty after popping final result");
@@ -178,9 +282,9 @@ final class VerifierImpl implements Verifier {
 			// have we proven what we promised to prove?
 			final Set<Variable> hypVars = new HashSet();
 			for (final Expression hypothesis: hypotheses.values())
-				hypVars.addAll(hypothesis.variables());
+				hypVars.addAll(hypothesis.variableList());
 			final Set<Variable> blacklist = new HashSet(hypVars);
-			blacklist.addAll(consequent.variables());
+			blacklist.addAll(consequent.variableList());
 			for (final Iterator<Variable> i = blacklist.iterator(); i.hasNext();) {
 				if (i.next().isDummy())
 					i.remove();
@@ -189,7 +293,7 @@ final class VerifierImpl implements Verifier {
 			if (!matcher.checkVEquality(consequent, proofResult, blacklist)) {
 				logger.debug("Consequent:   " + consequent);
 				logger.debug("Proof result: " + proofResult);
-				feed.reject("Consequent of theorem does not match proof result");
+				reject("Consequent of theorem does not match proof result");
 				throw new VerifyException("Consequent does not match proof result");
 			}
 			// do we fulfill all the required DV constraints?
@@ -230,59 +334,48 @@ final class VerifierImpl implements Verifier {
 				logger.trace("Actual constraints:   " + actualDVConstraints);
 			}
 			if (!actualDVConstraints.contains(requiredDVConstraints)) {
-				feed.reject("Required distinct variable constraints are not a subset of actual distinct "
+				reject("Required distinct variable constraints are not a subset of actual distinct "
 						+ "variable constraints");
 				logger.debug("Required constraints: " + requiredDVConstraints);
 				logger.debug("Actual constraints:   " + actualDVConstraints);
 				throw new VerifyException("Required distinct variable constraints are not a subset of "
 						+ "actual distinct variable constraints");
 			}
-			feed.confirmEndExp();
-		} catch (NullPointerException e) {
-			logger.error("Unexpected end of input while scanning proof");
-			throw new VerifyException("Unexpected end of input", e);
-		} catch (ScannerException e) {
-			throw new VerifyException("Feed error", e);
 		} catch (UnifyException e) {
-			try {
-				feed.reject("Attempt to prove result by illegal dummy assignment");
-			} catch (ScannerException ignored) {
-				logger.error("Attempt to prove result by illegal dummy assignment");
-			}
+			reject("Attempt to prove result by illegal dummy assignment");
 			logger.debug("Source expression: " + e.getSource());
 			logger.debug("Target expression: " + e.getTarget());
 			throw new VerifyException("Attempt to prove result by illegal dummy assignment", e);
-		} catch (ExpressionException e) {
-			throw new VerifyException("Unable to scan expression", e);
 		} catch (ConstraintException e) {
 			throw new VerifyException("Illegal DV constraints on statement", e);
 		}
 	}
 
+	/**
+	 * Resolves and executes a proof step read from the feed.
+	 *
+	 * @param token first token of the proof step.
+	 *
+	 * @throws ExpressionException if an expression cannot be scanned.
+	 * @throws ScannerException if a feed error occurs.
+	 * @throws VerifyException if the proof step fails.
+	 */
 	private void checkProofStep(final Token token) throws ExpressionException, ScannerException, VerifyException {
 		// expression?
 		if (token.getTokenClass() == Token.Class.BEGIN_EXP) {
 			feed.putToken(token);
-			mandatoryStack.push(expressionFactory.createExpression(module, feed));
+			final Expression expression = expressionFactory.createExpression(module, feed);
+			mandatoryStack.push(expression);
 			if (logger.isDebugEnabled())
-				logger.debug("Proof object: " + mandatoryStack.peek());
+				logger.debug("Proof object: " + expression);
 			return;
 		}
 		assert (token.getTokenClass() == Token.Class.ATOM): "Wrong token class";
 		final String label = token.getTokenString();
 		// hypothesis?
-		if (hypotheses.containsKey(label)) {
-			if (!mandatoryStack.empty()) {
-				feed.reject("Proof step " + label + " is a hypothesis but mandatory variable stack is not "
-						+ "empty. (Remember to place mandatory terms after the hypotheses!)");
-				logger.debug("Proof stack:     " + proofStack);
-				logger.debug("Mandatory stack: " + mandatoryStack);
-				throw new VerifyException("Proof step is a hypothesis but mandatory variable stack is not "
-						+ "empty.");
-			}
-			proofStack.push(hypotheses.get(label).totalUnfold());
-			if (logger.isDebugEnabled())
-				logger.debug("Proof object: " + proofStack.peek());
+		final Expression hypothesis = hypotheses.get(label);
+		if (hypothesis != null) {
+			pushHypothesis(label, hypothesis.totalUnfold());
 			feed.confirmLabel();
 			return;
 		}
@@ -296,7 +389,8 @@ final class VerifierImpl implements Verifier {
 		}
 		// variable?
 		if (symbol.isVariable()) {
-			mandatoryStack.push(expressionFactory.createExpression((Variable) symbol));
+			final Expression expression = expressionFactory.createExpression((Variable) symbol);
+			mandatoryStack.push(expression);
 			feed.confirmVar();
 			return;
 		}
@@ -305,13 +399,35 @@ final class VerifierImpl implements Verifier {
 		feed.confirmStatement();
 	}
 
+	/**
+	 * Pushes the specified hypothesis on the proof stack.
+	 *
+	 * @param label label of the hypothesis.
+	 * @param hypothesis totally unfolded hypothesis.
+	 *
+	 * @throws VerifyException if the mandatory stack is not empty.
+	 */
+	private void pushHypothesis(final String label, final Expression hypothesis) throws VerifyException {
+		if (!mandatoryStack.isEmpty()) {
+			reject("Proof step " + label + " is a hypothesis but mandatory variable stack is not "
+					+ "empty. (Remember to place mandatory terms after the hypotheses!)");
+			logger.debug("Proof stack:     " + proofStack);
+			logger.debug("Mandatory stack: " + mandatoryStack);
+			throw new VerifyException("Proof step is a hypothesis but mandatory variable stack is not "
+					+ "empty.");
+		}
+		proofStack.push(hypothesis);
+		if (logger.isDebugEnabled())
+			logger.debug("Proof object: " + hypothesis);
+	}
+
 	private void checkStatement(final Statement statement) throws VerifyException {
-		final Map<Variable, Expression> varAssignments = new HashMap();
 		if (logger.isTraceEnabled())
 			logger.trace("Inference: " + statement.getHypotheses() + " -> " + statement.getConsequent());
+		substituter.reset();
+		final Map<Variable, Expression> varAssignments = substituter.getAssignments();
 		assignMandatoryVariables(statement.getMandatoryVariables(), varAssignments);
-		final Substituter substituter = expressionFactory.createSubstituter(varAssignments);
-		assignHypotheses(statement.getHypotheses(), substituter);
+		assignHypotheses(statement.getUnfoldedHypotheses(), substituter);
 		// FIXME
 		if (logger.isDebugEnabled()) {
 			logger.debug("Statement DV constraints: " + statement.getDVConstraints());
@@ -319,7 +435,11 @@ final class VerifierImpl implements Verifier {
 		}
 		// End FIXME
 		updateRequiredConstraints(statement.getDVConstraints(), substituter.getAssignments());
-		proofStack.push(substituter.substitute(statement.getConsequent()).totalUnfold());
+		final Expression unfoldedConsequent = statement.getUnfoldedConsequent();
+		if (unfoldedConsequent != null)
+			proofStack.push(substituter.substitute(unfoldedConsequent).totalUnfold());
+		else
+			proofStack.push(substituter.substitute(statement.getConsequent()).totalUnfold());
 	}
 
 	private void assignMandatoryVariables(final List<Variable> mandatoryVars,
@@ -327,11 +447,7 @@ final class VerifierImpl implements Verifier {
 	throws VerifyException {
 		final int size = mandatoryStack.size();
 		if (mandatoryVars.size() != size) {
-			try {
-				feed.reject("Statement has wrong number of mandatory variables in proof");
-			} catch (ScannerException ignored) {
-				logger.error("Statement has wrong number of mandatory variables in proof");
-			}
+			reject("Statement has wrong number of mandatory variables in proof");
 			logger.debug("Required number of variables: " + mandatoryVars.size());
 			logger.debug("Terms present:                " + size);
 			throw new VerifyException("Statement has wrong number of mandatory variables");
@@ -342,11 +458,7 @@ final class VerifierImpl implements Verifier {
 			final Kind varKind = var.getKind();
 			final Kind exprKind = expr.getKind();
 			if (!varKind.equals(exprKind)) {
-				try {
-					feed.reject("Kind mismatch");
-				} catch (ScannerException ignored) {
-					logger.error("Kind mismatch");
-				}
+				reject("Kind mismatch");
 				logger.debug("Affected expression: " + expr);
 				logger.debug("Kind of expression:  " + exprKind);
 				logger.debug("Required kind:       " + varKind);
@@ -362,24 +474,16 @@ final class VerifierImpl implements Verifier {
 		final int size = hypotheses.size();
 		final int start = proofStack.size() - size;
 		if (start < 0) {
-			try {
-				feed.reject("Too few hypotheses on stack");
-			} catch (ScannerException ignored) {
-				logger.error("Too few hypotheses on stack");
-			}
+			reject("Too few hypotheses on stack");
 			logger.debug("Hypotheses missing: " + -start);
 			throw new VerifyException("Too few hypotheses on stack");
 		}
 		try {
 			for (int i = 0; i != size; ++i)
-				substituter.unify(hypotheses.get(i).totalUnfold(), proofStack.get(start + i));
-			proofStack.setSize(start);
+				substituter.unify(hypotheses.get(i), proofStack.get(start + i));
+			proofStack.truncate(start);
 		} catch (UnifyException e) {
-			try {
-				feed.reject("Unification error while popping hypotheses from proof stack: " + e.getMessage());
-			} catch (ScannerException ignored) {
-				logger.error("Unification error while popping hypotheses from proof stack: " + e.getMessage());
-			}
+			reject("Unification error while popping hypotheses from proof stack: " + e.getMessage());
 			logger.debug("Source expression: " + e.getSource());
 			logger.debug("Target expression: " + e.getSource());
 			throw new VerifyException("Unification error while popping hypotheses from proof stack", e);
@@ -393,18 +497,14 @@ final class VerifierImpl implements Verifier {
 			assert (constraint.length == 2): "Invalid constraint length";
 			final Expression exp1 = varAssignments.get(constraint[0]);
 			final Expression exp2 = varAssignments.get(constraint[1]);
-			final Set<Variable> varSet1 = (exp1 == null)? Collections.singleton(constraint[0])
-				: exp1.variables();
-			final Set<Variable> varSet2 = (exp2 == null)? Collections.singleton(constraint[1])
-				: exp2.variables();
+			final List<Variable> varSet1 = (exp1 == null)? Collections.singletonList(constraint[0])
+				: exp1.variableList();
+			final List<Variable> varSet2 = (exp2 == null)? Collections.singletonList(constraint[1])
+				: exp2.variableList();
 			try {
 				requiredDVConstraints.addProduct(varSet1, varSet2);
 			} catch (ConstraintException e) {
-				try {
-					feed.reject("Distinct variable constraint violation: " + e.getMessage());
-				} catch (ScannerException ignored) {
-					logger.error("Distinct variable constraint violation: " + e.getMessage());
-				}
+				reject("Distinct variable constraint violation: " + e.getMessage());
 				logger.debug("First variable set:  " + varSet1);
 				logger.debug("Second variable set: " + varSet2);
 				logger.debug("Current required DV: " + requiredDVConstraints);
@@ -187,10 +187,12 @@ class JHilbert {
 	 * @throws JHilbertException if an error occurs.
 	 */
 	private static function initSocketForProofText() {
+		global $wgTitle;
 		self::initSocket();
 		if ( !self::$socketInTextMode ) {
-			/* MOD command. */
-			self::writeCommand( self::$socket, self::COMMAND_MOD );
+			/* MOD command, with the page name so unchanged proofs need not be verified again. */
+			$pageName = is_object( $wgTitle ) ? $wgTitle->getPrefixedDBKey() : '';
+			self::writeCommand( self::$socket, self::COMMAND_MOD, $pageName );
 			self::readMessage( self::$socket, $rc, $msg );
 			if ( $rc !== self::RESPONSE_MORE ) {
 				throw new JHilbertException( wfMessage( 'jhilbert-badresponse', $rc, $msg ) );
@@ -169,7 +169,8 @@ function efJHGetClientSocketInTextMode() {
 		return wfMsg('norendermode');
 	switch($renderMode) {
 	case JH_RENDER_MODULE:
-		$result = efJHWriteCommand($socket, JH_COMMAND_MOD);
+		// with the page name, unchanged proofs need not be verified again
+		$result = efJHWriteCommand($socket, JH_COMMAND_MOD, is_object($wgTitle) ? $wgTitle->getPrefixedDBKey() : '');
 		if ($result !== TRUE)
 			return $result;
 		$result = efJHReadMessage($socket, $rc, $msg);
@@ -0,0 +1,126 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+package jhilbert;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+
+import jhilbert.commands.CommandException;
+import jhilbert.commands.CommandFactory;
+import jhilbert.data.DataFactory;
+import jhilbert.data.Module;
+import jhilbert.expressions.Expression;
+import jhilbert.expressions.ExpressionException;
+import jhilbert.expressions.ExpressionFactory;
+import jhilbert.scanners.ScannerFactory;
+import jhilbert.scanners.TokenFeed;
+
+/**
+ * Fixtures shared by the tests.
+ */
+public final class TestFixtures {
+
+	/**
+	 * Interface with two propositional axioms.
+	 */
+	public static final String AXIOMS = "kind (wff) var (wff p q r) term (wff (-> wff wff)) "
+		+ "stmt (ax1 () () (-> p (-> q p))) stmt (mp () (p (-> p q)) q)";
+
+	private TestFixtures() {
+	}
+
+	/**
+	 * Creates a token feed for the specified text.
+	 */
+	public static TokenFeed feed(final String text) {
+		return ScannerFactory.getInstance().createTokenFeed(new StringReader(text));
+	}
+
+	/**
+	 * Creates an interface module with the specified name from the
+	 * specified text.
+	 */
+	public static Module module(final String name, final String text) throws CommandException {
+		final Module result = DataFactory.getInstance().createModule(name);
+		CommandFactory.getInstance().processCommands(result, feed(text));
+		return result;
+	}
+
+	/**
+	 * Scans an expression from the specified text.
+	 */
+	public static Expression expression(final Module module, final String text) throws ExpressionException {
+		return ExpressionFactory.getInstance().createExpression(module, feed(text));
+	}
+
+	/**
+	 * Creates an empty temporary directory.
+	 */
+	public static File createTempDir(final String prefix) throws IOException {
+		final File result = File.createTempFile(prefix, "");
+		if (!(result.delete() && result.mkdir()))
+			throw new IOException("Unable to create temporary directory " + result);
+		return result;
+	}
+
+	/**
+	 * Deletes the specified file or directory with all its contents.
+	 */
+	public static void delete(final File file) {
+		final File[] children = file.listFiles();
+		if (children != null)
+			for (final File child: children)
+				delete(child);
+		file.delete();
+	}
+
+	/**
+	 * Writes the specified text to the specified file.
+	 */
+	public static void write(final File file, final String text) throws IOException {
+		final Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			out.write(text);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes an interface file named <code>base.jhi</code> with the
+	 * {@link #AXIOMS} into the specified directory.
+	 *
+	 * @return the locator of the interface, without the extension the
+	 * 	file storage adds.
+	 */
+	public static String writeAxioms(final File dir) throws IOException {
+		write(new File(dir, "base.jhi"), AXIOMS);
+		return new File(dir, "base").getPath();
+	}
+
+}
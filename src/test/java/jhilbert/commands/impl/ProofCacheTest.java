@@ -0,0 +1,120 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+package jhilbert.commands.impl;
+
+import java.io.File;
+
+import jhilbert.TestFixtures;
+import jhilbert.commands.CommandException;
+import jhilbert.data.DataFactory;
+import jhilbert.data.Module;
+
+import junit.framework.TestCase;
+
+public class ProofCacheTest extends TestCase {
+
+	private File dir;
+
+	protected @Override void setUp() throws Exception {
+		dir = TestFixtures.createTempDir("proofcache");
+		TestFixtures.writeAxioms(dir);
+		// same names, but ax1 now states something else
+		TestFixtures.write(new File(dir, "other.jhi"), TestFixtures.AXIOMS.replace("(-> p (-> q p))", "(-> p (-> q q))"));
+	}
+
+	protected @Override void tearDown() {
+		TestFixtures.delete(dir);
+	}
+
+	private String page(final String iface, final String theorems) {
+		return "import (BASE " + new File(dir, iface).getPath() + " () ()) var (wff p q) " + theorems;
+	}
+
+	/**
+	 * Processes the specified text as the named page and returns the
+	 * number of proofs replayed from the cache.
+	 */
+	private static int process(final String pageName, final String text) throws Exception {
+		final ProofCache cache = ProofCache.forPage(pageName);
+		final int hits = cache.getHits();
+		final Module module = DataFactory.getInstance().createModule("");
+		CommandFactory.getInstance().processCommands(module, TestFixtures.feed(text), pageName);
+		return cache.getHits() - hits;
+	}
+
+	private static void assertFails(final String pageName, final String text) throws Exception {
+		try {
+			process(pageName, text);
+			fail("Invalid proof replayed from cache");
+		} catch (CommandException e) {
+			// expected
+		}
+	}
+
+	public void testUnchangedProofIsReplayed() throws Exception {
+		final String text = page("base", "thm (t () () (-> q (-> p q)) (q p ax1))");
+		assertEquals(0, process("unchanged", text));
+		assertEquals(1, process("unchanged", text));
+		assertEquals(1, process("unchanged", text));
+	}
+
+	public void testChangedProofTokensAreVerified() throws Exception {
+		assertEquals(0, process("tokens", page("base", "thm (t () () (-> q (-> p q)) (q p ax1))")));
+		assertFails("tokens", page("base", "thm (t () () (-> q (-> p q)) (p q ax1))"));
+		assertEquals(0, process("tokens", page("base", "thm (t () () (-> q (-> p q)) (q p ax1))")));
+	}
+
+	public void testChangedHypothesesAreVerified() throws Exception {
+		assertEquals(0, process("hyps", page("base", "thm (t () ((h1 p) (h2 (-> p q))) q (h1 h2 mp))")));
+		assertEquals(1, process("hyps", page("base", "thm (t () ((h1 p) (h2 (-> p q))) q (h1 h2 mp))")));
+		assertFails("hyps", page("base", "thm (t () ((h1 q) (h2 (-> p q))) q (h1 h2 mp))"));
+	}
+
+	public void testChangedDependencyIsVerified() throws Exception {
+		final String user = " thm (u () () (-> p (-> q p)) (p q l))";
+		assertEquals(0, process("dependency", page("base", "thm (l () () (-> q (-> p q)) (q p ax1))" + user)));
+		assertEquals(2, process("dependency", page("base", "thm (l () () (-> q (-> p q)) (q p ax1))" + user)));
+		// renaming variables does not change the meaning of l, so u may be replayed
+		assertEquals(1, process("dependency", page("base", "thm (l () () (-> p (-> q p)) (p q ax1))" + user)));
+		assertEquals(2, process("dependency", page("base", "thm (l () () (-> p (-> q p)) (p q ax1))" + user)));
+		// l now takes hypotheses, so u must be verified again
+		assertFails("dependency", page("base", "thm (l () ((h1 p) (h2 (-> p q))) q (h1 h2 mp))" + user));
+	}
+
+	public void testChangedInterfaceIsVerified() throws Exception {
+		final String theorem = "thm (t () () (-> q (-> p q)) (q p ax1))";
+		assertEquals(0, process("interface", page("base", theorem)));
+		assertEquals(1, process("interface", page("base", theorem)));
+		assertFails("interface", page("other", theorem));
+	}
+
+	public void testFingerprintsUseFullDigest() throws Exception {
+		final Module module = DataFactory.getInstance().createModule("");
+		CommandFactory.getInstance().processCommands(module, TestFixtures.feed(page("base", "")));
+		final String fingerprint = new ProofCache.Fingerprints(module).ofName("ax1");
+		// "- " for the missing functor, then the statement fingerprint
+		assertEquals(2 + 64, fingerprint.length());
+	}
+
+}
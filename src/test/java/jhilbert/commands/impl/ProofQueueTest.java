@@ -0,0 +1,123 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+package jhilbert.commands.impl;
+
+import java.io.File;
+
+import jhilbert.TestFixtures;
+import jhilbert.commands.CommandException;
+import jhilbert.data.DataFactory;
+import jhilbert.data.Module;
+
+import junit.framework.TestCase;
+
+public class ProofQueueTest extends TestCase {
+
+	private static final String GOOD = "thm (good () () (-> q (-> p q)) (q p ax1)) ";
+
+	private static final int THREADS = 4;
+
+	private File dir;
+
+	private String locator;
+
+	private Module module;
+
+	protected @Override void setUp() throws Exception {
+		dir = TestFixtures.createTempDir("proofqueue");
+		locator = TestFixtures.writeAxioms(dir);
+	}
+
+	protected @Override void tearDown() {
+		TestFixtures.delete(dir);
+	}
+
+	private void process(final String theorems, final int threads) throws Exception {
+		module = DataFactory.getInstance().createModule("");
+		CommandFactory.getInstance().processCommands(module,
+			TestFixtures.feed("import (BASE " + locator + " () ()) var (wff p q) " + theorems), threads);
+	}
+
+	private String failure(final String theorems, final int threads) throws Exception {
+		try {
+			process(theorems, threads);
+			fail("Invalid proof accepted");
+			return null;
+		} catch (CommandException e) {
+			return e.getMessage();
+		}
+	}
+
+	/**
+	 * Processes the specified theorems with and without proof queue and
+	 * checks that the same failure is reported.
+	 */
+	private String failure(final String theorems) throws Exception {
+		final String result = failure(theorems, THREADS);
+		assertEquals(failure(theorems, 1), result);
+		return result;
+	}
+
+	private static String bad(final String name) {
+		return "thm (" + name + " () () (-> q (-> p q)) (p q ax1)) ";
+	}
+
+	public void testValidProofs() throws Exception {
+		process(GOOD + GOOD.replace("good", "good2") + "thm (good3 () () (-> q (-> p q)) (q p good))", THREADS);
+		assertNotNull(module.getSymbolNamespace().getObjectByString("good3"));
+	}
+
+	public void testEarliestFailureReported() throws Exception {
+		final String message = failure(GOOD + bad("bad1") + GOOD.replace("good", "good2") + bad("bad2"));
+		assertTrue(message, message.contains("bad1"));
+		assertFalse(message, message.contains("bad2"));
+	}
+
+	public void testFailureReportedBeforeLaterCommandError() throws Exception {
+		final String message = failure(GOOD + bad("bad1") + "bogus (x)");
+		assertTrue(message, message.contains("bad1"));
+		assertTrue(message, message.contains("Proof does not verify"));
+	}
+
+	public void testUnresolvedProofVerifiedImmediately() throws Exception {
+		// the proof refers to a theorem which is only defined later
+		final String early = "thm (early () () (-> q (-> p q)) (q p late)) ";
+		String message = failure(early + GOOD.replace("good", "late"));
+		assertTrue(message, message.contains("early"));
+		assertTrue(message, message.contains("neither a symbol nor a hypothesis"));
+		// queued proofs are verified first
+		message = failure(bad("bad1") + early);
+		assertTrue(message, message.contains("bad1"));
+	}
+
+	public void testQueueFlushedBeforeOtherCommands() throws Exception {
+		process(GOOD + "kindbind (wff formula)", THREADS);
+		assertNotNull(module.getKindNamespace().getObjectByString("formula"));
+		final String message = failure(bad("bad1") + "kindbind (wff formula)", THREADS);
+		assertTrue(message, message.contains("bad1"));
+		// the failure is reported before the kinds are identified
+		assertNull(module.getKindNamespace().getObjectByString("formula"));
+	}
+
+}
@@ -0,0 +1,129 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+package jhilbert.data.impl;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import jhilbert.data.ConstraintException;
+import jhilbert.data.Variable;
+import junit.framework.TestCase;
+
+public class DVConstraintsImplTest extends TestCase {
+
+	private final KindImpl kind = new KindImpl("set");
+
+	private VariableImpl[] vars;
+
+	protected @Override void setUp() {
+		vars = new VariableImpl[40];
+		for (int i = 0; i != vars.length; ++i)
+			vars[i] = new VariableImpl("x" + i, kind);
+	}
+
+	private int count(final DVConstraintsImpl dv) {
+		int result = 0;
+		for (final Iterator<Variable[]> i = dv.iterator(); i.hasNext(); i.next())
+			++result;
+		return result;
+	}
+
+	public void testAddAndContains() throws ConstraintException {
+		final DVConstraintsImpl dv = new DVConstraintsImpl();
+		dv.add(vars[0], vars[1], vars[2]);
+		assertEquals(3, count(dv));
+		assertTrue(dv.contains(vars[0], vars[1]));
+		assertTrue(dv.contains(vars[2], vars[0]));
+		assertFalse(dv.contains(vars[0], vars[3]));
+		assertFalse(dv.contains(vars[3], vars[4]));
+		try {
+			dv.add(vars[5], vars[5]);
+			fail("Duplicate variable accepted");
+		} catch (ConstraintException e) {
+			// expected
+		}
+	}
+
+	public void testGrowth() throws ConstraintException {
+		final DVConstraintsImpl dv = new DVConstraintsImpl();
+		dv.add(vars);
+		assertEquals(vars.length * (vars.length - 1) / 2, count(dv));
+		for (int i = 0; i != vars.length; ++i)
+			for (int j = 0; j != vars.length; ++j)
+				assertEquals(i != j, dv.contains(vars[i], vars[j]));
+	}
+
+	public void testIdentifiersAreLocal() throws ConstraintException {
+		// register the variables in different orders in the two instances
+		final DVConstraintsImpl dv1 = new DVConstraintsImpl();
+		dv1.add(vars[0], vars[1]);
+		dv1.add(vars[2], vars[3]);
+		final DVConstraintsImpl dv2 = new DVConstraintsImpl();
+		dv2.add(vars[3], vars[2]);
+		dv2.add(vars[4], vars[0]);
+		assertFalse(dv1.contains(dv2));
+		assertFalse(dv2.contains(dv1));
+		dv1.add(dv2);
+		assertEquals(3, count(dv1));
+		assertTrue(dv1.contains(dv2));
+		assertTrue(dv1.contains(vars[0], vars[4]));
+		assertFalse(dv2.contains(dv1));
+		final DVConstraintsImpl dv3 = new DVConstraintsImpl();
+		dv3.add(vars[1], vars[0]);
+		assertTrue(dv1.contains(dv3));
+	}
+
+	public void testAddProduct() throws ConstraintException {
+		final DVConstraintsImpl dv = new DVConstraintsImpl();
+		dv.addProduct(Arrays.asList(vars[0], vars[1]), new HashSet(Arrays.asList(vars[2], vars[3], vars[4])));
+		assertEquals(6, count(dv));
+		assertTrue(dv.contains(vars[4], vars[1]));
+		assertFalse(dv.contains(vars[0], vars[1]));
+		try {
+			dv.addProduct(Arrays.asList(vars[5]), Arrays.asList(vars[5], vars[6]));
+			fail("Overlapping factors accepted");
+		} catch (ConstraintException e) {
+			// expected
+		}
+	}
+
+	public void testRestrict() throws ConstraintException {
+		final DVConstraintsImpl dv = new DVConstraintsImpl();
+		dv.add(vars[0], vars[1], vars[2], vars[3]);
+		final Set<Variable> varSet = new HashSet();
+		varSet.add(vars[3]);
+		varSet.add(vars[1]);
+		varSet.add(vars[5]);
+		dv.restrict(varSet);
+		assertEquals(1, count(dv));
+		assertTrue(dv.contains(vars[1], vars[3]));
+		assertFalse(dv.contains(vars[0], vars[1]));
+		dv.add(vars[0], vars[3]);
+		assertEquals(2, count(dv));
+		assertTrue(dv.contains(vars[3], vars[0]));
+	}
+
+}
@@ -0,0 +1,116 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+package jhilbert.data.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import jhilbert.TestFixtures;
+import jhilbert.data.DataException;
+import jhilbert.data.DataFactory;
+import jhilbert.data.Definition;
+import jhilbert.data.Kind;
+import jhilbert.data.Module;
+import jhilbert.data.Statement;
+import jhilbert.data.Symbol;
+
+import junit.framework.TestCase;
+
+public class ModuleCodecTest extends TestCase {
+
+	private static final String INTERFACE =
+		"kind (wff)\n"
+		+ "kind (set)\n"
+		+ "kindbind (set object)\n"
+		+ "var (wff p q)\n"
+		+ "var (set x y)\n"
+		+ "term (wff (-> wff wff))\n"
+		+ "term (wff (= object set))\n"
+		+ "def ((-. p) (-> p p))\n"
+		+ "stmt (ax-mp () (p (-> p q)) q)\n"
+		+ "stmt (ax-dv ((x y)) () (-. (= x y)))\n";
+
+	private final DataFactory dataFactory = DataFactory.getInstance();
+
+	private Module module;
+
+	protected @Override void setUp() throws Exception {
+		module = TestFixtures.module("test", INTERFACE);
+	}
+
+	private byte[] encode(final Module module) throws Exception {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		dataFactory.writeModule(module, out);
+		return out.toByteArray();
+	}
+
+	public void testRoundTrip() throws Exception {
+		final byte[] data = encode(module);
+		final ByteBuffer buffer = ByteBuffer.wrap(data);
+		assertTrue(dataFactory.isModuleData(buffer));
+		final Module copy = dataFactory.readModule(buffer);
+		assertEquals("test", copy.getName());
+		assertEquals(module.getKindNamespace().objects().size(), copy.getKindNamespace().objects().size());
+		assertEquals(module.getFunctorNamespace().objects().size(), copy.getFunctorNamespace().objects().size());
+		assertEquals(module.getSymbolNamespace().objects().size(), copy.getSymbolNamespace().objects().size());
+		final Kind set = copy.getKindNamespace().getObjectByString("set");
+		final Kind object = copy.getKindNamespace().getObjectByString("object");
+		assertTrue(set.equals(object));
+		final Definition not = (Definition) copy.getFunctorNamespace().getObjectByString("-.");
+		assertEquals(1, not.getArguments().size());
+		final Statement mp = (Statement) copy.getSymbolNamespace().getObjectByString("ax-mp");
+		assertEquals(2, mp.getHypotheses().size());
+		assertEquals(((Statement) module.getSymbolNamespace().getObjectByString("ax-mp")).getMandatoryVariables().size(),
+			mp.getMandatoryVariables().size());
+		assertTrue(mp.getConsequent().getValue().isVariable());
+		final Statement dv = (Statement) copy.getSymbolNamespace().getObjectByString("ax-dv");
+		assertTrue(dv.getDVConstraints().iterator().hasNext());
+		final Symbol p = copy.getSymbolNamespace().getObjectByString("p");
+		assertTrue(p.isVariable());
+		// encoding is deterministic
+		assertTrue(java.util.Arrays.equals(data, encode(copy)));
+	}
+
+	public void testBadVersion() throws Exception {
+		final byte[] data = encode(module);
+		data[4] = (byte) (ModuleCodec.VERSION + 1);
+		try {
+			dataFactory.readModule(ByteBuffer.wrap(data));
+			fail("Unsupported version accepted");
+		} catch (DataException e) {
+			// expected
+		}
+	}
+
+	public void testTruncated() throws Exception {
+		final byte[] data = encode(module);
+		try {
+			dataFactory.readModule(ByteBuffer.wrap(data, 0, data.length - 1));
+			fail("Truncated data accepted");
+		} catch (DataException e) {
+			// expected
+		}
+	}
+
+}
@@ -0,0 +1,74 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+package jhilbert.expressions.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import jhilbert.TestFixtures;
+import jhilbert.data.DataFactory;
+import jhilbert.data.Kind;
+import jhilbert.data.Module;
+import jhilbert.data.Variable;
+import jhilbert.expressions.Expression;
+
+import junit.framework.TestCase;
+
+public class AssignmentMapTest extends TestCase {
+
+	public void testBehavesLikeHashMap() throws Exception {
+		final Module module = TestFixtures.module("test", "kind (wff)");
+		final Kind kind = module.getKindNamespace().getObjectByString("wff");
+		final Variable[] vars = new Variable[100];
+		final Expression[] exprs = new Expression[vars.length];
+		for (int i = 0; i != vars.length; ++i) {
+			vars[i] = DataFactory.getInstance().createUnnamedVariable(kind);
+			exprs[i] = ExpressionImpl.create(vars[i]);
+		}
+		final Map<Variable, Expression> expected = new HashMap();
+		final AssignmentMap actual = new AssignmentMap();
+		final Random random = new Random(42);
+		for (int n = 0; n != 20500; ++n) {
+			final int i = random.nextInt(vars.length);
+			final int j = random.nextInt(exprs.length);
+			if (random.nextInt(3) == 0)
+				assertSame(expected.remove(vars[i]), actual.remove(vars[i]));
+			else
+				assertSame(expected.put(vars[i], exprs[j]), actual.put(vars[i], exprs[j]));
+			assertEquals(expected.size(), actual.size());
+			if (n % 1000 == 999) {
+				assertEquals(expected, actual);
+				expected.clear();
+				actual.clear();
+			}
+		}
+		for (int i = 0; i != vars.length; ++i) {
+			assertEquals(expected.containsKey(vars[i]), actual.containsKey(vars[i]));
+			assertSame(expected.get(vars[i]), actual.get(vars[i]));
+		}
+		assertEquals(expected, actual);
+	}
+
+}
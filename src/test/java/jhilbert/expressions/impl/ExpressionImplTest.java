@@ -0,0 +1,108 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+package jhilbert.expressions.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jhilbert.TestFixtures;
+import jhilbert.commands.CommandFactory;
+import jhilbert.data.Module;
+import jhilbert.data.Variable;
+import jhilbert.expressions.Expression;
+
+import junit.framework.TestCase;
+
+public class ExpressionImplTest extends TestCase {
+
+	private Module module;
+
+	private Expression expression(final String text) throws Exception {
+		return TestFixtures.expression(module, text);
+	}
+
+	protected @Override void setUp() throws Exception {
+		module = TestFixtures.module("test", "kind (wff) var (wff p q r) "
+			+ "term (wff (-> wff wff)) def ((<-> p q) (-> (-> p q) (-> q p)))");
+	}
+
+	public void testVariableList() throws Exception {
+		final Expression expr = expression("(-> (-> r p) (-> q r))");
+		final List<Variable> vars = expr.variableList();
+		assertEquals(new ArrayList(expr.variables()), vars);
+		assertEquals("[r, p, q]", vars.toString());
+		assertSame(vars, expr.variableList());
+		assertSame(expression("r").variableList(), expression("(-> r r)").variableList());
+		try {
+			vars.add(vars.get(0));
+			fail("Variable list is modifiable");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	public void testManyVariables() throws Exception {
+		final int count = 3 * VariableList.HASH_THRESHOLD;
+		final StringBuilder decl = new StringBuilder("var (wff");
+		for (int i = 0; i != count; ++i)
+			decl.append(" v").append(i);
+		CommandFactory.getInstance().processCommands(module, TestFixtures.feed(decl.append(')').toString()));
+		// every variable twice, in a left-leaning chain
+		String text = "v0";
+		for (int i = 1; i != 2 * count; ++i)
+			text = "(-> " + text + " v" + (i % count) + ")";
+		final Expression expr = expression(text);
+		final List<Variable> vars = expr.variableList();
+		assertEquals(count, vars.size());
+		for (int i = 0; i != count; ++i) {
+			final Variable var = vars.get(i);
+			assertEquals("v" + i, var.toString());
+			assertTrue(vars.contains(var));
+			assertTrue(expr.variableSet().contains(var));
+		}
+		final Variable p = (Variable) module.getSymbolNamespace().getObjectByString("p");
+		assertFalse(vars.contains(p));
+		assertFalse(expr.variableSet().contains(p));
+		assertEquals(expr.variables(), expr.variableSet());
+		assertEquals(vars, new ArrayList(expr.variableSet()));
+		try {
+			expr.variableSet().remove(vars.get(0));
+			fail("Variable set is modifiable");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	public void testSummaries() throws Exception {
+		final ExpressionImpl plain = (ExpressionImpl) expression("(-> p (-> q p))");
+		assertTrue(plain.isDefinitionFree());
+		assertSame(plain, plain.totalUnfold());
+		assertEquals(5, plain.nodeCount());
+		final ExpressionImpl defined = (ExpressionImpl) expression("(-> r (<-> p q))");
+		assertEquals(1, defined.maxDefinitionDepth());
+		assertTrue(defined.totalUnfold().isDefinitionFree());
+		assertEquals(defined.variableList(), defined.totalUnfold().variableList().subList(0, 3));
+	}
+
+}
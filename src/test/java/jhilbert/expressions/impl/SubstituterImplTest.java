@@ -0,0 +1,84 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+package jhilbert.expressions.impl;
+
+import jhilbert.TestFixtures;
+import jhilbert.data.Module;
+import jhilbert.expressions.Expression;
+import jhilbert.expressions.ExpressionFactory;
+import jhilbert.expressions.Substituter;
+import jhilbert.expressions.UnifyException;
+
+import junit.framework.TestCase;
+
+public class SubstituterImplTest extends TestCase {
+
+	private Module module;
+
+	private Substituter substituter;
+
+	private Expression expression(final String text) throws Exception {
+		return TestFixtures.expression(module, text);
+	}
+
+	protected @Override void setUp() throws Exception {
+		module = TestFixtures.module("test", "kind (wff) var (wff p q r s) term (wff (-> wff wff)) "
+			+ "def ((<-> p q) (-> (-> p q) (-> q p))) def ((first p q) p)");
+		substituter = ExpressionFactory.getInstance().createSubstituter();
+	}
+
+	private void assertFails(final String source, final String target, final String message) throws Exception {
+		try {
+			substituter.unify(expression(source), expression(target));
+			fail("Unified " + source + " with " + target);
+		} catch (UnifyException e) {
+			assertEquals(message, e.getMessage());
+		}
+		assertTrue(substituter.getAssignments().isEmpty());
+	}
+
+	public void testDefinitionFree() throws Exception {
+		substituter.unify(expression("(-> p (-> q p))"), expression("(-> r (-> s r))"));
+		assertEquals(expression("r"), substituter.getAssignments().get(expression("p").getValue()));
+		assertEquals(expression("s"), substituter.getAssignments().get(expression("q").getValue()));
+		substituter.reset();
+		// the second occurrence of p conflicts with the first
+		assertFails("(-> p (-> q p))", "(-> r (-> s s))", "Terms do not match");
+		assertFails("(-> p q)", "r", "Unable to unify complex expression with variable");
+	}
+
+	public void testUnfolding() throws Exception {
+		substituter.unify(expression("(<-> p q)"), expression("(-> (-> r s) (-> s r))"));
+		assertEquals(expression("r"), substituter.getAssignments().get(expression("p").getValue()));
+		substituter.reset();
+		assertFails("(<-> p q)", "(-> (-> r s) (-> r s))", "Unification error after unfolding definition");
+	}
+
+	public void testUnusedArgumentAfterUnfolding() throws Exception {
+		// the definition free second arguments differ, but are dropped by unfolding
+		substituter.unify(expression("(first p (-> q q))"), expression("(first r (-> s r))"));
+		assertEquals(expression("r"), substituter.getAssignments().get(expression("p").getValue()));
+	}
+
+}
@@ -0,0 +1,79 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+package jhilbert.scanners;
+
+import java.io.Reader;
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+public class WikiReaderTest extends TestCase {
+
+	private static String filter(final String text) throws Exception {
+		final Reader reader = new WikiReader(new StringReader(text));
+		final StringBuilder result = new StringBuilder();
+		int c;
+		while ((c = reader.read()) != -1)
+			result.append((char) c);
+		return result.toString();
+	}
+
+	public void testSections() throws Exception {
+		assertEquals("\nvar (\nformula p)", filter("Non-jhilbert <jh>var (</jh> and then <jh>formula p)</jh> end"));
+	}
+
+	public void testPartialTags() throws Exception {
+		assertEquals("\na </j <b> </jh", filter("<j <<jh>a </j <b> </jh</jh> <jh"));
+	}
+
+	public void testOpenTagInsideSection() throws Exception {
+		assertEquals("\n<jh>x", filter("<jh><jh>x</jh>"));
+	}
+
+	public void testUnterminatedSection() throws Exception {
+		assertEquals("", filter("<jh>kind (k) </"));
+		assertEquals("\nvar (x)", filter("<jh>var (x)</jh> text <jh>kind (k)"));
+	}
+
+	public void testEmptySection() throws Exception {
+		assertEquals("\n\nx", filter("<jh></jh><jh>x</jh>"));
+	}
+
+	public void testBulkRead() throws Exception {
+		final StringBuilder text = new StringBuilder();
+		final StringBuilder expected = new StringBuilder();
+		for (int i = 0; i != 5000; ++i) {
+			text.append("skip <jh>(x").append(i).append(")</jh>");
+			expected.append("\n(x").append(i).append(')');
+		}
+		final Reader reader = new WikiReader(new StringReader(text.toString()));
+		final StringBuilder result = new StringBuilder();
+		final char[] buffer = new char[100];
+		int n;
+		while ((n = reader.read(buffer, 0, buffer.length)) != -1)
+			result.append(buffer, 0, n);
+		assertEquals(expected.toString(), result.toString());
+	}
+
+}
@@ -0,0 +1,56 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+package jhilbert.scanners.impl;
+
+import jhilbert.scanners.Token;
+
+import junit.framework.TestCase;
+
+public class AtomTableTest extends TestCase {
+
+	public void testCanonicalTokens() throws Exception {
+		final AtomTable table = new AtomTable();
+		final char[] chars = "ax-mp syl ax-mp".toCharArray();
+		final Token first = table.intern(chars, 0, 5);
+		assertEquals("ax-mp", first.getTokenString());
+		assertEquals(Token.Class.ATOM, first.getTokenClass());
+		assertSame(first, table.intern(chars, 10, 5));
+		assertEquals("syl", table.intern(chars, 6, 3).getTokenString());
+		assertSame(first, table.intern(new StringBuilder("ax-mp")));
+	}
+
+	public void testGrowth() throws Exception {
+		final AtomTable table = new AtomTable();
+		final Token[] tokens = new Token[5000];
+		for (int i = 0; i != tokens.length; ++i) {
+			final char[] chars = ("a" + i).toCharArray();
+			tokens[i] = table.intern(chars, 0, chars.length);
+		}
+		for (int i = 0; i != tokens.length; ++i) {
+			final char[] chars = ("a" + i).toCharArray();
+			assertSame(tokens[i], table.intern(chars, 0, chars.length));
+		}
+	}
+
+}
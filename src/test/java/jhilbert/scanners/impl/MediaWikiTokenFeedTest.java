@@ -0,0 +1,176 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+package jhilbert.scanners.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import jhilbert.Server;
+import jhilbert.TestFixtures;
+import jhilbert.commands.CommandException;
+import jhilbert.commands.CommandFactory;
+import jhilbert.data.DataFactory;
+import jhilbert.data.Module;
+import jhilbert.scanners.TokenFeed;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares the HTML sent by a {@link MediaWikiTokenFeed} with the HTML
+ * obtained when the context is rendered right after every confirmation
+ * and rejection, as the feed did before rendering became lazy.
+ */
+public class MediaWikiTokenFeedTest extends TestCase {
+
+	private File dir;
+
+	private String locator;
+
+	protected @Override void setUp() throws Exception {
+		dir = TestFixtures.createTempDir("mediawiki");
+		locator = TestFixtures.writeAxioms(dir);
+	}
+
+	protected @Override void tearDown() {
+		TestFixtures.delete(dir);
+	}
+
+	private String page(final String theorems) {
+		return "# Example page <with> [[markup]] & {{templates}}\n"
+			+ "import (BASE " + locator + " () ())\n"
+			+ "var (wff p q)\n"
+			+ "\n"
+			+ "thm (id1 () () (-> q (-> p q)) (q p ax1)) # first anchor\n"
+			+ "thm (id2 () () (-> q (-> p q))\n"
+			+ "\t(q p id1)) # link to id1\n"
+			+ "thm (id3 () () (-> q (-> p q)) (q p id1))\n"
+			+ theorems
+			+ "# trailing comment without newline";
+	}
+
+	private static void message(final ByteArrayOutputStream out, final byte command, final byte[] payload) {
+		final int size = payload.length + 1;
+		out.write(size >>> 16);
+		out.write(size >>> 8);
+		out.write(size);
+		out.write(command);
+		out.write(payload, 0, payload.length);
+	}
+
+	/**
+	 * Sends the specified page to a new feed, one line per text message,
+	 * processes it and returns everything sent back, the error message,
+	 * if any, and the final context.
+	 *
+	 * @param text page text.
+	 * @param eager whether the context is to be rendered after every
+	 * 	confirmation and rejection.
+	 */
+	private static String serve(final String text, final boolean eager) throws Exception {
+		final ByteArrayOutputStream request = new ByteArrayOutputStream();
+		int start = 0;
+		while (start != text.length()) {
+			final int end = text.indexOf('\n', start) + 1;
+			final int stop = (end == 0) ? text.length() : end;
+			message(request, Server.TEXT_CMD, text.substring(start, stop).getBytes("UTF-8"));
+			start = stop;
+		}
+		message(request, Server.FINISH_CMD, new byte[0]);
+		final ByteArrayOutputStream answer = new ByteArrayOutputStream();
+		final BufferedOutputStream out = new BufferedOutputStream(answer);
+		final Module module = DataFactory.getInstance().createModule("", -1);
+		final MediaWikiTokenFeed feed = new MediaWikiTokenFeed(new ByteArrayInputStream(request.toByteArray()),
+			out, module);
+		final TokenFeed driven = eager ? eager(feed) : feed;
+		String error = "";
+		try {
+			CommandFactory.getInstance().processCommands(module, driven);
+		} catch (CommandException e) {
+			error = e.getMessage();
+		}
+		final String context = feed.getContextString();
+		out.flush();
+		return new String(answer.toByteArray(), "UTF-8") + "\n" + error + "\n" + context;
+	}
+
+	/**
+	 * Wraps the specified feed so that its context is rendered after
+	 * every confirmation and rejection.
+	 */
+	private static TokenFeed eager(final MediaWikiTokenFeed feed) {
+		return (TokenFeed) Proxy.newProxyInstance(TokenFeed.class.getClassLoader(),
+			new Class[] {TokenFeed.class}, new InvocationHandler() {
+				public Object invoke(final Object proxy, final Method method, final Object[] args)
+				throws Throwable {
+					final Object result;
+					try {
+						result = method.invoke(feed, args);
+					} catch (InvocationTargetException e) {
+						throw e.getCause();
+					}
+					if (method.getName().startsWith("confirm") || method.getName().startsWith("reject"))
+						feed.getContextString();
+					return result;
+				}
+			});
+	}
+
+	private String compare(final String text) throws Exception {
+		final String result = serve(text, false);
+		assertEquals(serve(text, true), result);
+		return result;
+	}
+
+	public void testValidPage() throws Exception {
+		final String result = compare(page(""));
+		assertTrue(result, result.contains("<span class=\"comment\">#&nbsp;Example&nbsp;page&nbsp;&lt;with&gt;"
+			+ "&nbsp;&#91;&#91;markup&#93;&#93;&nbsp;&amp;&nbsp;&#123;&#123;templates&#125;&#125;</span><br />"));
+		assertTrue(result, result.contains("<span class=\"locator\" >[[" + locator + "]]</span>"));
+		assertTrue(result, result.contains("[[" + locator + "#statax1|ax1]]"));
+		assertTrue(result, result.contains("<span class=\"stat\" id=\"statid1\">id1</span>"));
+		assertEquals(result, 2, result.split("\\Q[[#statid1|id1]]\\E", -1).length - 1);
+		assertEquals(result, 1, result.split("id=\"statid1\"", -1).length - 1);
+		assertTrue(result, result.contains("&#9;"));
+		assertTrue(result, result.contains("<span class=\"comment\">#&nbsp;trailing&nbsp;comment&nbsp;"
+			+ "without&nbsp;newline</span>"));
+	}
+
+	public void testRejectedProofStep() throws Exception {
+		final String result = compare(page("thm (bad () () (-> q (-> p q)) (q p <nothing>))\n"));
+		assertTrue(result, result.contains("<span class=\"invalid\">&lt;nothing&gt;</span> <span class=\"error\">"));
+	}
+
+	public void testRejectedCommand() throws Exception {
+		final String result = compare(page("bogus [x]\n"));
+		assertTrue(result, result.contains("<span class=\"invalid\">bogus</span> <span class=\"error\">"
+			+ "Command&nbsp;bogus&nbsp;unknown</span>"));
+	}
+
+}
@@ -0,0 +1,69 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+package jhilbert.scanners.impl;
+
+import java.io.StringReader;
+
+import jhilbert.scanners.ScannerException;
+import jhilbert.scanners.Token;
+
+import junit.framework.TestCase;
+
+public class StreamTokenFeedTest extends TestCase {
+
+	private static String scan(final String text) throws Exception {
+		final StreamTokenFeed feed = new StreamTokenFeed(new StringReader(text));
+		final StringBuilder result = new StringBuilder();
+		Token token;
+		while ((token = feed.getToken()) != null)
+			result.append('[').append(token.getTokenString()).append(']');
+		return result.toString();
+	}
+
+	public void testTokens() throws Exception {
+		assertEquals("[(][kind][(][formula][)][)]", scan("(kind (formula)) # comment (x)\n"));
+	}
+
+	public void testCommentAtEnd() throws Exception {
+		assertEquals("[a][b]", scan("a#x\r\nb # no newline"));
+	}
+
+	public void testAtomAcrossBlocks() throws Exception {
+		final StringBuilder atom = new StringBuilder();
+		for (int i = 0; i != 20000; ++i)
+			atom.append((char) ('a' + i % 26));
+		assertEquals("[x][" + atom + "][)]", scan("x " + atom + ")"));
+		assertEquals("[" + atom + "]", scan(atom.toString()));
+	}
+
+	public void testInvalidCharacter() throws Exception {
+		try {
+			scan("a \u0001");
+			fail("Invalid character accepted");
+		} catch (ScannerException e) {
+			// expected
+		}
+	}
+
+}
@@ -0,0 +1,209 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+package jhilbert.storage;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jhilbert.data.DataFactory;
+import jhilbert.data.Module;
+
+import junit.framework.TestCase;
+
+public class StorageTest extends TestCase {
+
+	private static final long TIMEOUT = 10000;
+
+	/**
+	 * Storage whose modules are produced by {@link #retrieve}.
+	 */
+	private static abstract class TestStorage extends Storage {
+
+		final AtomicInteger retrievals = new AtomicInteger();
+
+		abstract Module retrieve(String locator) throws Exception;
+
+		public @Override boolean isVersioned() {
+			return false;
+		}
+
+		protected @Override String getCanonicalName(final String locator) {
+			return locator;
+		}
+
+		protected @Override long getCurrentRevision(final String locator) {
+			return -1;
+		}
+
+		protected @Override Module retrieveModule(final String locator, final long version) throws StorageException {
+			retrievals.incrementAndGet();
+			try {
+				return retrieve(locator);
+			} catch (StorageException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new StorageException("Unable to retrieve " + locator, e);
+			}
+		}
+
+		protected @Override void storeModule(final Module module, final String locator, final long version) {
+		}
+
+		protected @Override void eraseModule(final String locator, final long version) {
+		}
+
+	}
+
+	/**
+	 * Loads a module on a separate thread.
+	 */
+	private static final class Loader extends Thread {
+
+		private final Storage storage;
+
+		private final String locator;
+
+		volatile Module result;
+
+		volatile StorageException error;
+
+		Loader(final Storage storage, final String locator) {
+			this.storage = storage;
+			this.locator = locator;
+			setDaemon(true);
+			start();
+		}
+
+		public @Override void run() {
+			try {
+				result = storage.loadModule(locator);
+			} catch (StorageException e) {
+				error = e;
+			}
+		}
+
+		void finish() throws InterruptedException {
+			join(TIMEOUT);
+			assertFalse("Load of " + locator + " did not finish", isAlive());
+		}
+
+		void awaitWaiting() throws InterruptedException {
+			final long deadline = System.currentTimeMillis() + TIMEOUT;
+			while (getState() != Thread.State.WAITING) {
+				assertTrue("Load of " + locator + " does not wait", System.currentTimeMillis() < deadline);
+				Thread.sleep(1);
+			}
+		}
+
+	}
+
+	public void testConcurrentLoadsShareRetrieval() throws Exception {
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final TestStorage storage = new TestStorage() {
+			Module retrieve(final String locator) throws Exception {
+				entered.countDown();
+				release.await();
+				return DataFactory.getInstance().createModule(locator);
+			}
+		};
+		final Loader first = new Loader(storage, "A");
+		assertTrue(entered.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		final Loader second = new Loader(storage, "A");
+		second.awaitWaiting();
+		release.countDown();
+		first.finish();
+		second.finish();
+		assertNull(first.error);
+		assertNull(second.error);
+		assertNotNull(first.result);
+		assertSame(first.result, second.result);
+		assertEquals(1, storage.retrievals.get());
+		assertSame(first.result, storage.loadModule("A"));
+		assertEquals(1, storage.retrievals.get());
+	}
+
+	public void testFailurePropagatesToWaiters() throws Exception {
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final TestStorage storage = new TestStorage() {
+			Module retrieve(final String locator) throws Exception {
+				entered.countDown();
+				release.await();
+				throw new StorageException("Module " + locator + " is broken");
+			}
+		};
+		final Loader first = new Loader(storage, "A");
+		assertTrue(entered.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		final Loader second = new Loader(storage, "A");
+		second.awaitWaiting();
+		release.countDown();
+		first.finish();
+		second.finish();
+		assertEquals("Module A is broken", first.error.getMessage());
+		assertNotNull(second.error);
+		assertSame(first.error, second.error.getCause());
+		assertEquals(1, storage.retrievals.get());
+		// failures are not cached
+		try {
+			storage.loadModule("A");
+			fail("Broken module loaded");
+		} catch (StorageException e) {
+			// expected
+		}
+		assertEquals(2, storage.retrievals.get());
+	}
+
+	public void testCrossThreadCycleFails() throws Exception {
+		final CyclicBarrier bothLoading = new CyclicBarrier(2);
+		final TestStorage storage = new TestStorage() {
+			Module retrieve(final String locator) throws Exception {
+				// make sure each thread owns its load before requesting the other module
+				bothLoading.await(TIMEOUT, TimeUnit.MILLISECONDS);
+				loadModule("A".equals(locator) ? "B" : "A");
+				return DataFactory.getInstance().createModule(locator);
+			}
+		};
+		final Loader a = new Loader(storage, "A");
+		final Loader b = new Loader(storage, "B");
+		a.finish();
+		b.finish();
+		assertNotNull(a.error);
+		assertNotNull(b.error);
+		assertNull(a.result);
+		assertNull(b.result);
+		assertTrue(mentionsCycle(a.error));
+		assertTrue(mentionsCycle(b.error));
+	}
+
+	private static boolean mentionsCycle(Throwable t) {
+		for (; t != null; t = t.getCause())
+			if (t.getMessage().contains("circular"))
+				return true;
+		return false;
+	}
+
+}
@@ -0,0 +1,138 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+package jhilbert.storage.hashstore;
+
+import java.io.File;
+
+import jhilbert.TestFixtures;
+import jhilbert.data.Module;
+import jhilbert.storage.StorageException;
+
+import junit.framework.TestCase;
+
+public class StorageTest extends TestCase {
+
+	private File dir;
+
+	private Storage storage;
+
+	protected @Override void setUp() throws Exception {
+		dir = TestFixtures.createTempDir("hashstore");
+		storage = new Storage(dir.getPath());
+	}
+
+	protected @Override void tearDown() {
+		TestFixtures.delete(dir);
+	}
+
+	private static int countTemporaryFiles(final File file) {
+		final File[] children = file.listFiles();
+		if (children == null)
+			return file.getName().endsWith(".tmp") ? 1 : 0;
+		int result = 0;
+		for (final File child: children)
+			result += countTemporaryFiles(child);
+		return result;
+	}
+
+	private static Module module(final String name, final String kind) throws Exception {
+		return TestFixtures.module(name, "kind (" + kind + ")");
+	}
+
+	private static File file(final String name, final String content) throws Exception {
+		final File result = new File(name);
+		TestFixtures.write(result, content);
+		return result;
+	}
+
+	private boolean hasKind(final String name, final String kind) throws Exception {
+		return (storage.retrieveModule(name, -1).getKindNamespace().getObjectByString(kind) != null);
+	}
+
+	public void testStoreReplacesModule() throws Exception {
+		storage.storeModule(module("Interface:A", "foo"), "Interface:A", -1);
+		assertTrue(hasKind("Interface:A", "foo"));
+		storage.storeModule(module("Interface:A", "bar"), "Interface:A", -1);
+		assertTrue(hasKind("Interface:A", "bar"));
+		assertFalse(hasKind("Interface:A", "foo"));
+		assertEquals(0, countTemporaryFiles(dir));
+		storage.eraseModule("Interface:A", -1);
+		try {
+			storage.retrieveModule("Interface:A", -1);
+			fail("Erased module found");
+		} catch (StorageException e) {
+			// expected
+		}
+	}
+
+	public void testReplaceExistingFile() throws Exception {
+		final File temp = file(dir.getPath() + "/new.tmp", "new");
+		final File target = file(dir.getPath() + "/target", "old");
+		Storage.replace(temp, target);
+		assertFalse(temp.exists());
+		assertEquals(3, target.length());
+		assertEquals(0, countTemporaryFiles(dir));
+	}
+
+	public void testReplaceFailureKeepsTarget() throws Exception {
+		final File temp = file(dir.getPath() + "/new.tmp", "new");
+		// a non-empty directory can neither be renamed onto nor deleted
+		final File target = new File(dir, "target");
+		assertTrue(target.mkdir());
+		file(target.getPath() + "/child", "old");
+		try {
+			Storage.replace(temp, target);
+			fail("Directory replaced");
+		} catch (StorageException e) {
+			// expected
+		}
+		assertTrue(temp.exists());
+		assertTrue(new File(target, "child").exists());
+	}
+
+	public void testConcurrentReadersSeeCompleteModules() throws Exception {
+		final Module foo = module("Interface:A", "foo");
+		final Module bar = module("Interface:A", "bar");
+		storage.storeModule(foo, "Interface:A", -1);
+		final Thread writer = new Thread() {
+			public @Override void run() {
+				try {
+					for (int i = 0; i != 200; ++i)
+						storage.storeModule(((i & 1) == 0) ? bar : foo, "Interface:A", -1);
+				} catch (StorageException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		writer.start();
+		while (writer.isAlive()) {
+			final Module module = storage.retrieveModule("Interface:A", -1);
+			assertTrue((module.getKindNamespace().getObjectByString("foo") != null)
+				^ (module.getKindNamespace().getObjectByString("bar") != null));
+		}
+		writer.join();
+		assertEquals(0, countTemporaryFiles(dir));
+	}
+
+}
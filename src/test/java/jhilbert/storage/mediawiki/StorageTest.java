@@ -0,0 +1,201 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+package jhilbert.storage.mediawiki;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+
+import jhilbert.data.Module;
+
+import junit.framework.TestCase;
+
+public class StorageTest extends TestCase {
+
+	private static final String PAGE_TITLE = "Interface:Test";
+
+	private static final String PAGE_TEXT = "Some text\n<jh>\nkind (foo)\n</jh>\nMore text";
+
+	private ServerSocket server;
+
+	private volatile int requests;
+
+	private volatile int contentRequests;
+
+	private volatile long revision = 42;
+
+	private volatile int connections;
+
+	private Storage storage;
+
+	protected @Override void setUp() throws Exception {
+		server = new ServerSocket(0);
+		final Thread acceptor = new Thread() {
+			public @Override void run() {
+				try {
+					for (;;) {
+						final Socket socket = server.accept();
+						++connections;
+						final Thread handler = new Thread() {
+							public @Override void run() {
+								serve(socket);
+							}
+						};
+						handler.setDaemon(true);
+						handler.start();
+					}
+				} catch (Exception e) {
+					// server closed
+				}
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+		storage = new Storage("http://127.0.0.1:" + server.getLocalPort() + "/w/api.php");
+	}
+
+	protected @Override void tearDown() throws Exception {
+		server.close();
+	}
+
+	private void serve(final Socket socket) {
+		try {
+			final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+			final OutputStream out = socket.getOutputStream();
+			for (;;) {
+				final String requestLine = in.readLine();
+				if (requestLine == null)
+					break;
+				String line;
+				do {
+					line = in.readLine();
+				} while ((line != null) && (line.length() != 0));
+				++requests;
+				final String target = requestLine.split(" ")[1];
+				if (target.contains("content"))
+					++contentRequests;
+				final byte[] body = reply(URLDecoder.decode(target, "UTF-8")).getBytes("UTF-8");
+				out.write(("HTTP/1.1 200 OK\r\nContent-Type: text/xml; charset=utf-8\r\nContent-Length: "
+					+ body.length + "\r\n\r\n").getBytes("UTF-8"));
+				out.write(body);
+				out.flush();
+			}
+			socket.close();
+		} catch (Exception e) {
+			// connection closed
+		}
+	}
+
+	private String reply(final String target) {
+		final boolean known = target.contains("titles=" + PAGE_TITLE + "&") || target.contains("revids=" + revision + "&");
+		final StringBuilder result = new StringBuilder("<?xml version=\"1.0\"?><api><query><pages>");
+		if (known) {
+			result.append("<page ns=\"100\" title=\"" + PAGE_TITLE + "\"><revisions><rev revid=\"" + revision + "\">");
+			if (target.contains("content"))
+				result.append(PAGE_TEXT.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;"));
+			result.append("</rev></revisions></page>");
+		} else {
+			final int start = target.indexOf("titles=") + 7;
+			result.append("<page ns=\"100\" title=\"" + target.substring(start, target.indexOf('&', start))
+				+ "\" missing=\"\" />");
+		}
+		return result.append("</pages></query></api>").toString();
+	}
+
+	public void testSingleRequestPerLoad() throws Exception {
+		final Module module = storage.loadModule(PAGE_TITLE);
+		assertEquals(42, module.getRevision());
+		assertNotNull(module.getKindNamespace().getObjectByString("foo"));
+		assertEquals(1, requests);
+		assertEquals(1, storage.getRequestCount());
+	}
+
+	public void testRepeatedLookupsCached() throws Exception {
+		assertEquals(PAGE_TITLE, storage.getCanonicalName(PAGE_TITLE));
+		assertEquals(42, storage.getCurrentRevision(PAGE_TITLE));
+		storage.loadModule(PAGE_TITLE);
+		storage.loadModule(PAGE_TITLE);
+		assertEquals(1, requests);
+	}
+
+	public void testContentFetchedAgainWhenTaken() throws Exception {
+		storage.getCanonicalName(PAGE_TITLE);
+		storage.retrieveModule(PAGE_TITLE, 42);
+		storage.retrieveModule(PAGE_TITLE, 42);
+		assertEquals(2, requests);
+	}
+
+	public void testContentNotSharedBetweenThreads() throws Exception {
+		final Thread lookup = new Thread() {
+			public @Override void run() {
+				try {
+					storage.getCanonicalName(PAGE_TITLE);
+				} catch (Exception e) {
+					// detected by the request count
+				}
+			}
+		};
+		lookup.start();
+		lookup.join();
+		assertEquals(1, requests);
+		// the content fetched by the other thread is not cached
+		storage.retrieveModule(PAGE_TITLE, 42);
+		assertEquals(2, requests);
+	}
+
+	public void testExpiredLookupOmitsCachedContent() throws Exception {
+		storage = new Storage("http://127.0.0.1:" + server.getLocalPort() + "/w/api.php", 50);
+		final Module module = storage.loadModule(PAGE_TITLE);
+		Thread.sleep(100);
+		assertSame(module, storage.loadModule(PAGE_TITLE));
+		assertEquals(2, requests);
+		assertEquals(1, contentRequests);
+	}
+
+	public void testExpiredLookupFetchesChangedRevision() throws Exception {
+		storage = new Storage("http://127.0.0.1:" + server.getLocalPort() + "/w/api.php", 50);
+		storage.loadModule(PAGE_TITLE);
+		Thread.sleep(100);
+		revision = 43;
+		assertEquals(43, storage.loadModule(PAGE_TITLE).getRevision());
+		assertEquals(3, requests);
+		assertEquals(2, contentRequests);
+	}
+
+	public void testConnectionReused() throws Exception {
+		storage.loadModule(PAGE_TITLE);
+		try {
+			storage.loadModule("Interface:Missing");
+			fail("Missing module loaded");
+		} catch (Exception e) {
+			// expected
+		}
+		assertEquals(2, requests);
+		assertEquals(1, connections);
+	}
+
+}
@@ -0,0 +1,185 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+package jhilbert.storage.pack;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import jhilbert.TestFixtures;
+import jhilbert.storage.StorageException;
+
+import junit.framework.TestCase;
+
+public class StorageTest extends TestCase {
+
+	private File dir;
+
+	private File packFile;
+
+	private Storage storage;
+
+	protected @Override void setUp() throws Exception {
+		dir = TestFixtures.createTempDir("pack");
+		packFile = new File(dir, "modules.pack");
+		storage = new Storage(dir, Long.MAX_VALUE);
+	}
+
+	protected @Override void tearDown() throws Exception {
+		storage.close();
+		TestFixtures.delete(dir);
+	}
+
+	private long store(final String name, final String kind) throws Exception {
+		final long offset = packFile.length();
+		storage.storeModule(TestFixtures.module(name, "kind (" + kind + ")"), name, -1);
+		return offset;
+	}
+
+	private void assertLoads(final String name, final String kind) throws Exception {
+		assertNotNull(storage.retrieveModule(name, -1).getKindNamespace().getObjectByString(kind));
+	}
+
+	private void assertMissing(final String name) {
+		try {
+			storage.retrieveModule(name, -1);
+			fail("Module " + name + " found");
+		} catch (StorageException e) {
+			// expected
+		}
+	}
+
+	private void reopen() throws Exception {
+		storage.close();
+		storage = new Storage(dir, Long.MAX_VALUE);
+	}
+
+	private void modify(final long offset, final byte[] data) throws Exception {
+		final RandomAccessFile file = new RandomAccessFile(packFile, "rw");
+		try {
+			file.seek(offset);
+			file.write(data);
+		} finally {
+			file.close();
+		}
+	}
+
+	private File quarantineFile(final long offset) {
+		return new File(packFile.getPath() + '.' + offset + Storage.QUARANTINE_SUFFIX);
+	}
+
+	public void testReopen() throws Exception {
+		store("a", "foo");
+		store("b", "bar");
+		store("a", "baz");
+		reopen();
+		assertLoads("a", "baz");
+		assertLoads("b", "bar");
+		assertEquals(2, dir.list().length);
+	}
+
+	public void testTombstone() throws Exception {
+		store("a", "foo");
+		store("b", "bar");
+		storage.eraseModule("a", -1);
+		assertMissing("a");
+		reopen();
+		assertMissing("a");
+		assertLoads("b", "bar");
+		store("a", "baz");
+		reopen();
+		assertLoads("a", "baz");
+	}
+
+	public void testTornTail() throws Exception {
+		store("a", "foo");
+		final long offset = store("b", "bar");
+		final long length = packFile.length();
+		// a crash in the middle of an append
+		final byte[] record = new byte[(int) (length - offset)];
+		final RandomAccessFile file = new RandomAccessFile(packFile, "rw");
+		try {
+			file.seek(offset);
+			file.readFully(record);
+			file.write(record, 0, record.length / 2);
+		} finally {
+			file.close();
+		}
+		reopen();
+		assertEquals(length, packFile.length());
+		assertEquals(record.length / 2, quarantineFile(length).length());
+		assertLoads("a", "foo");
+		assertLoads("b", "bar");
+		store("c", "baz");
+		reopen();
+		assertLoads("c", "baz");
+	}
+
+	public void testCorruptRecordInMiddle() throws Exception {
+		store("a", "foo");
+		final long offset = store("b", "bar");
+		store("c", "baz");
+		final long length = packFile.length();
+		modify(offset + 20, new byte[] {'x'});
+		reopen();
+		assertEquals(offset, packFile.length());
+		assertEquals(length - offset, quarantineFile(offset).length());
+		assertLoads("a", "foo");
+		assertMissing("b");
+		assertMissing("c");
+	}
+
+	public void testCorruptLengthInMiddle() throws Exception {
+		store("a", "foo");
+		final long offset = store("b", "bar");
+		store("c", "baz");
+		final long length = packFile.length();
+		modify(offset, new byte[] {0, 0, 0, 1});
+		reopen();
+		assertEquals(offset, packFile.length());
+		assertEquals(length - offset, quarantineFile(offset).length());
+		assertLoads("a", "foo");
+		assertMissing("c");
+	}
+
+	public void testCompaction() throws Exception {
+		storage.close();
+		storage = new Storage(dir, 1);
+		store("a", "foo");
+		store("b", "bar");
+		final long length = packFile.length();
+		store("a", "baz");
+		store("a", "foo");
+		store("a", "baz");
+		// the superseded records of a have been dropped
+		assertEquals(length, packFile.length());
+		assertLoads("a", "baz");
+		assertLoads("b", "bar");
+		storage.eraseModule("b", -1);
+		reopen();
+		assertLoads("a", "baz");
+		assertMissing("b");
+		assertEquals(2, dir.list().length);
+	}
+
+}
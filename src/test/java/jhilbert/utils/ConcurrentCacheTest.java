@@ -0,0 +1,94 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+package jhilbert.utils;
+
+import junit.framework.TestCase;
+
+public class ConcurrentCacheTest extends TestCase {
+
+	private static final ConcurrentCache.Weigher<String, String> LENGTH = new ConcurrentCache.Weigher<String, String>() {
+		public int weigh(final String key, final String value) {
+			return value.length();
+		}
+	};
+
+	public void testHitsAndMisses() throws Exception {
+		final ConcurrentCache<String, String> cache = new ConcurrentCache(100, 1, LENGTH);
+		assertNull(cache.get("a"));
+		cache.put("a", "xyz");
+		assertEquals("xyz", cache.get("a"));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(3, cache.getWeight());
+	}
+
+	public void testLeastRecentlyUsedEviction() throws Exception {
+		final ConcurrentCache<String, String> cache = new ConcurrentCache(10, 1, LENGTH);
+		cache.put("a", "aaaa");
+		cache.put("b", "bbbb");
+		cache.get("a");
+		cache.put("c", "cccc");
+		assertNull(cache.get("b"));
+		assertEquals("aaaa", cache.get("a"));
+		assertEquals("cccc", cache.get("c"));
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals(8, cache.getWeight());
+	}
+
+	public void testOverweightEntryNotCached() throws Exception {
+		final ConcurrentCache<String, String> cache = new ConcurrentCache(3, 1, LENGTH);
+		cache.put("a", "aaaa");
+		assertNull(cache.get("a"));
+		assertEquals(0, cache.getWeight());
+		assertEquals(1, cache.getRejectionCount());
+		assertEquals(0, cache.getEvictionCount());
+	}
+
+	public void testContainsKeyNotCounted() throws Exception {
+		final ConcurrentCache<String, String> cache = new ConcurrentCache(10, 1, LENGTH);
+		assertFalse(cache.containsKey("a"));
+		cache.put("a", "aaaa");
+		cache.put("b", "bbbb");
+		assertTrue(cache.containsKey("a"));
+		cache.put("c", "cccc");
+		assertFalse(cache.containsKey("a"));
+		assertTrue(cache.containsKey("b"));
+		assertEquals(0, cache.getHitCount());
+		assertEquals(0, cache.getMissCount());
+	}
+
+	public void testReplace() throws Exception {
+		final ConcurrentCache<String, String> cache = new ConcurrentCache(100, 1, LENGTH);
+		cache.replace("a", "x");
+		assertNull(cache.get("a"));
+		cache.put("a", "x");
+		cache.replace("a", "yy");
+		assertEquals("yy", cache.get("a"));
+		assertEquals(2, cache.getWeight());
+		cache.remove("a");
+		assertNull(cache.get("a"));
+		assertEquals(0, cache.getWeight());
+	}
+
+}
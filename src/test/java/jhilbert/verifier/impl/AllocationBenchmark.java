@@ -0,0 +1,304 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+package jhilbert.verifier.impl;
+
+import java.io.FileInputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jhilbert.commands.CommandFactory;
+import jhilbert.data.DVConstraints;
+import jhilbert.data.DataFactory;
+import jhilbert.data.Module;
+import jhilbert.expressions.Expression;
+import jhilbert.expressions.ExpressionFactory;
+import jhilbert.scanners.ScannerException;
+import jhilbert.scanners.ScannerFactory;
+import jhilbert.scanners.Token;
+import jhilbert.scanners.TokenFeed;
+import jhilbert.verifier.VerifierFactory;
+
+/**
+ * Measures the bytes allocated by the verifier itself.
+ * The benchmark loads a proof module once, then reads the theorems back
+ * from the module file and verifies their proofs again, round after round,
+ * from pre-scanned tokens. Only the calls to
+ * {@link jhilbert.verifier.Verifier#verify} are measured, so scanning,
+ * parsing the theorem headers and loading the imported interfaces do not
+ * count. Later rounds show the steady state of the verifier.
+ * <p>
+ * Run from the directory of the imported modules, for example
+ * <code>doc/examples</code>, with the module file and the number of
+ * rounds as arguments.
+ * <p>
+ * The measurement relies on the HotSpot extension of
+ * {@link java.lang.management.ThreadMXBean}. It is looked up
+ * reflectively, so this class compiles and runs on other virtual
+ * machines, where {@link #allocatedBytes} reports <code>-1</code>.
+ */
+public final class AllocationBenchmark {
+
+	/**
+	 * Thread MX bean.
+	 */
+	private static final Object BEAN = ManagementFactory.getThreadMXBean();
+
+	/**
+	 * Method obtaining the allocated bytes of a thread, or
+	 * <code>null</code> if unsupported.
+	 */
+	private static final Method ALLOCATED_BYTES = allocatedBytesMethod();
+
+	/**
+	 * A theorem read back from a module file.
+	 */
+	private static final class Theorem {
+
+		/**
+		 * Name.
+		 */
+		final String name;
+
+		/**
+		 * DV constraints.
+		 */
+		final DVConstraints dvConstraints;
+
+		/**
+		 * Labelled hypotheses.
+		 */
+		final Map<String, Expression> hypotheses;
+
+		/**
+		 * Consequent.
+		 */
+		final Expression consequent;
+
+		/**
+		 * Tokens of the proof, including the enclosing parentheses.
+		 */
+		final List<Token> proof;
+
+		/**
+		 * Number of proof steps.
+		 */
+		final int steps;
+
+		/**
+		 * Creates a new <code>Theorem</code>.
+		 *
+		 * @param name name.
+		 * @param dvConstraints DV constraints.
+		 * @param hypotheses labelled hypotheses.
+		 * @param consequent consequent.
+		 * @param proof tokens of the proof.
+		 * @param steps number of proof steps.
+		 */
+		Theorem(final String name, final DVConstraints dvConstraints, final Map<String, Expression> hypotheses,
+				final Expression consequent, final List<Token> proof, final int steps) {
+			this.name = name;
+			this.dvConstraints = dvConstraints;
+			this.hypotheses = hypotheses;
+			this.consequent = consequent;
+			this.proof = proof;
+			this.steps = steps;
+		}
+
+	}
+
+	/**
+	 * Looks up the method obtaining the allocated bytes of a thread.
+	 *
+	 * @return the method, or <code>null</code> if unsupported.
+	 */
+	private static Method allocatedBytesMethod() {
+		try {
+			final Class<?> extension = Class.forName("com.sun.management.ThreadMXBean");
+			if (!extension.isInstance(BEAN))
+				return null;
+			return extension.getMethod("getThreadAllocatedBytes", long.class);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Obtains the number of bytes allocated by the current thread so far.
+	 *
+	 * @return the number of bytes, or <code>-1</code> if the virtual
+	 * 	machine does not support this measurement.
+	 */
+	public static long allocatedBytes() {
+		if (ALLOCATED_BYTES == null)
+			return -1;
+		try {
+			return (Long) ALLOCATED_BYTES.invoke(BEAN, Thread.currentThread().getId());
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Obtains the bytes allocated by {@link #allocatedBytes} itself, which
+	 * show up in every measurement.
+	 *
+	 * @return the measurement overhead in bytes.
+	 */
+	private static long measurementOverhead() {
+		long result = Long.MAX_VALUE;
+		for (int i = 0; i != 1000; ++i) {
+			final long start = allocatedBytes();
+			result = Math.min(result, allocatedBytes() - start);
+		}
+		return result;
+	}
+
+	/**
+	 * Reads the tokens of an expression whose opening parenthesis has just
+	 * been read.
+	 *
+	 * @param feed token feed.
+	 * @param tokens list to add the tokens to, or <code>null</code> if
+	 * 	the tokens are to be skipped.
+	 *
+	 * @return number of elements of the expression.
+	 *
+	 * @throws ScannerException if a feed error occurs.
+	 */
+	private static int readExpression(final TokenFeed feed, final List<Token> tokens) throws ScannerException {
+		int depth = 1;
+		int elements = 0;
+		while (depth != 0) {
+			final Token token = feed.getToken();
+			if (token == null)
+				throw new ScannerException("Unexpected end of input", feed);
+			if (tokens != null)
+				tokens.add(token);
+			switch (token.getTokenClass()) {
+				case BEGIN_EXP:
+					if (depth == 1)
+						++elements;
+					++depth;
+					break;
+				case END_EXP:
+					--depth;
+					break;
+				default:
+					if (depth == 1)
+						++elements;
+			}
+		}
+		return elements;
+	}
+
+	/**
+	 * Reads the theorems of the specified module file, which must have
+	 * been loaded into the specified module.
+	 *
+	 * @param module module.
+	 * @param fileName name of the module file.
+	 *
+	 * @return the theorems.
+	 *
+	 * @throws Exception if the file cannot be read.
+	 */
+	private static List<Theorem> readTheorems(final Module module, final String fileName) throws Exception {
+		final TokenFeed feed = ScannerFactory.getInstance().createTokenFeed(new FileInputStream(fileName));
+		final ExpressionFactory expressionFactory = ExpressionFactory.getInstance();
+		final List<Theorem> result = new ArrayList();
+		for (Token command = feed.getToken(); command != null; command = feed.getToken()) {
+			feed.beginExp();
+			if (!"thm".equals(command.getTokenString())) {
+				readExpression(feed, null);
+				continue;
+			}
+			final String name = feed.getAtom();
+			final DVConstraints dvConstraints = DataFactory.getInstance()
+				.createDVConstraints(module.getSymbolNamespace(), feed);
+			feed.beginExp();
+			final Map<String, Expression> hypotheses = new LinkedHashMap();
+			for (Token token = feed.getToken(); token.getTokenClass() == Token.Class.BEGIN_EXP;
+					token = feed.getToken()) {
+				final String label = feed.getAtom();
+				hypotheses.put(label, expressionFactory.createExpression(module, feed));
+				feed.endExp();
+			}
+			final Expression consequent = expressionFactory.createExpression(module, feed);
+			final List<Token> proof = new ArrayList();
+			proof.add(feed.getToken());
+			final int steps = readExpression(feed, proof);
+			feed.endExp();
+			result.add(new Theorem(name, dvConstraints, hypotheses, consequent, proof, steps));
+		}
+		return result;
+	}
+
+	/**
+	 * Program entry point.
+	 *
+	 * @param args module file and number of rounds.
+	 *
+	 * @throws Exception if verification fails.
+	 */
+	public static void main(final String... args) throws Exception {
+		if (args.length != 2) {
+			System.err.println("Usage: AllocationBenchmark <module file> <rounds>");
+			System.exit(1);
+		}
+		if (allocatedBytes() < 0) {
+			System.err.println("Thread allocation measurement not supported by this virtual machine");
+			System.exit(1);
+		}
+		final int rounds = Integer.parseInt(args[1]);
+		final Module module = DataFactory.getInstance().createModule("");
+		CommandFactory.getInstance().processCommands(module,
+			ScannerFactory.getInstance().createTokenFeed(new FileInputStream(args[0])), 1);
+		final List<Theorem> theorems = readTheorems(module, args[0]);
+		int steps = 0;
+		for (final Theorem theorem: theorems)
+			steps += theorem.steps;
+		final long overhead = measurementOverhead();
+		for (int round = 0; round != rounds; ++round) {
+			long bytes = 0;
+			long nanos = 0;
+			for (final Theorem theorem: theorems) {
+				final TokenFeed feed = ScannerFactory.getInstance().createTokenFeed(theorem.proof, theorem.name);
+				final jhilbert.verifier.Verifier verifier = VerifierFactory.getInstance().createVerifier(module, feed);
+				final long startTime = System.nanoTime();
+				final long startBytes = allocatedBytes();
+				verifier.verify(theorem.dvConstraints, theorem.hypotheses, theorem.consequent);
+				bytes += allocatedBytes() - startBytes - overhead;
+				nanos += System.nanoTime() - startTime;
+			}
+			System.out.println("Round " + round + ": " + theorems.size() + " proofs, " + steps + " steps, "
+				+ (bytes / 1024) + " KiB allocated (" + (bytes / steps) + " bytes per step), "
+				+ (nanos / 1000000) + " ms");
+		}
+	}
+
+}
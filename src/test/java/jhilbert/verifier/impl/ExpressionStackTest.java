@@ -0,0 +1,112 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+package jhilbert.verifier.impl;
+
+import jhilbert.TestFixtures;
+import jhilbert.data.Module;
+import jhilbert.expressions.Expression;
+
+import junit.framework.TestCase;
+
+public class ExpressionStackTest extends TestCase {
+
+	private Expression p;
+
+	private Expression q;
+
+	protected @Override void setUp() throws Exception {
+		final Module module = TestFixtures.module("test", "kind (wff) var (wff p q)");
+		p = TestFixtures.expression(module, "p");
+		q = TestFixtures.expression(module, "q");
+	}
+
+	public void testPushPop() {
+		final ExpressionStack stack = new ExpressionStack();
+		assertTrue(stack.isEmpty());
+		stack.push(p);
+		stack.push(q);
+		assertEquals(2, stack.size());
+		assertFalse(stack.isEmpty());
+		assertSame(p, stack.get(0));
+		assertSame(q, stack.get(1));
+		assertSame(q, stack.pop());
+		assertSame(p, stack.pop());
+		assertTrue(stack.isEmpty());
+	}
+
+	public void testTruncate() {
+		final ExpressionStack stack = new ExpressionStack();
+		stack.push(p);
+		stack.push(q);
+		stack.push(p);
+		stack.truncate(1);
+		assertEquals(1, stack.size());
+		assertSame(p, stack.get(0));
+		stack.push(q);
+		assertSame(q, stack.get(1));
+		stack.clear();
+		assertTrue(stack.isEmpty());
+	}
+
+	public void testGrowth() {
+		final ExpressionStack stack = new ExpressionStack();
+		for (int i = 0; i != 1000; ++i)
+			stack.push((i % 2 == 0) ? p : q);
+		assertEquals(1000, stack.size());
+		for (int i = 999; i >= 0; --i)
+			assertSame((i % 2 == 0) ? p : q, stack.pop());
+		assertTrue(stack.isEmpty());
+	}
+
+	public void testToString() {
+		final ExpressionStack stack = new ExpressionStack();
+		assertEquals("[]", stack.toString());
+		stack.push(p);
+		stack.push(q);
+		assertEquals("[" + p + ", " + q + "]", stack.toString());
+	}
+
+	public void testSteadyStateAllocationFree() {
+		if (AllocationBenchmark.allocatedBytes() < 0)
+			return; // measurement not supported
+		final ExpressionStack stack = new ExpressionStack();
+		fill(stack, 1000);
+		final long start = AllocationBenchmark.allocatedBytes();
+		fill(stack, 1000);
+		final long bytes = AllocationBenchmark.allocatedBytes() - start;
+		// an allocating stack would need at least a word per push
+		assertTrue("Reused stack allocated " + bytes + " bytes", bytes < 10000);
+	}
+
+	private void fill(final ExpressionStack stack, final int rounds) {
+		for (int round = 0; round != rounds; ++round) {
+			for (int i = 0; i != 100; ++i)
+				stack.push(p);
+			stack.truncate(50);
+			for (int i = 0; i != 50; ++i)
+				stack.pop();
+		}
+	}
+
+}
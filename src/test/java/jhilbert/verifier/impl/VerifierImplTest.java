@@ -0,0 +1,90 @@
+/*
+    JHilbert, a verifier for collaborative theorem proving
+
+    Copyright © 2008, 2009, 2011 The JHilbert Authors
+      See the AUTHORS file for the list of JHilbert authors.
+      See the commit logs ("git log") for a list of individual contributions.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    You may contact the author on this Wiki page:
+    http://www.wikiproofs.de/w/index.php?title=User_talk:GrafZahl
+*/
+package jhilbert.verifier.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jhilbert.TestFixtures;
+import jhilbert.data.DataFactory;
+import jhilbert.data.Module;
+import jhilbert.expressions.Expression;
+import jhilbert.verifier.VerifierFactory;
+import jhilbert.verifier.VerifyException;
+
+import junit.framework.TestCase;
+
+public class VerifierImplTest extends TestCase {
+
+	private Module module;
+
+	private Expression expression(final String text) throws Exception {
+		return TestFixtures.expression(module, text);
+	}
+
+	protected @Override void setUp() throws Exception {
+		module = TestFixtures.module("test", TestFixtures.AXIOMS);
+	}
+
+	private void verify(final String proof, final Map<String, Expression> hypotheses, final String consequent)
+	throws Exception {
+		VerifierFactory.getInstance().createVerifier(module, TestFixtures.feed(proof))
+			.verify(DataFactory.getInstance().createDVConstraints(), hypotheses, expression(consequent));
+	}
+
+	private void assertFails(final String proof, final Map<String, Expression> hypotheses,
+			final String consequent) throws Exception {
+		try {
+			verify(proof, hypotheses, consequent);
+			fail("Proof " + proof + " of " + consequent + " verified");
+		} catch (VerifyException e) {
+			// expected
+		}
+	}
+
+	public void testProof() throws Exception {
+		final Map<String, Expression> hypotheses = new LinkedHashMap();
+		verify("(q p ax1)", hypotheses, "(-> q (-> p q))");
+		assertFails("(q p ax1)", hypotheses, "(-> p (-> q p))");
+		assertFails("(q p ax2)", hypotheses, "(-> q (-> p q))");
+		assertFails("(q ax1)", hypotheses, "(-> q (-> p q))");
+	}
+
+	public void testProofWithHypotheses() throws Exception {
+		final Map<String, Expression> hypotheses = new LinkedHashMap();
+		hypotheses.put("h1", expression("p"));
+		hypotheses.put("h2", expression("(-> p q)"));
+		verify("(h1 h2 mp)", hypotheses, "q");
+		assertFails("(h2 h1 mp)", hypotheses, "q");
+		assertFails("(h1 mp)", hypotheses, "q");
+	}
+
+	public void testFailureLeavesNoState() throws Exception {
+		final Map<String, Expression> hypotheses = new LinkedHashMap();
+		// leaves expressions on the stacks of the thread's workspace
+		assertFails("(q p ax1 q p ax1 p)", hypotheses, "(-> q (-> p q))");
+		verify("(q p ax1)", hypotheses, "(-> q (-> p q))");
+	}
+
+}